@@ -0,0 +1,245 @@
+package org.vena.etltool;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.vena.etltool.entities.ETLJobDTO;
+import org.vena.etltool.entities.ETLJobDTO.Phase;
+import org.vena.etltool.entities.ETLMetadataDTO;
+import org.vena.etltool.entities.Id;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Submits a list of jobs through one client, keeping at most <code>maxInFlight</code> of them
+ * submitted but unfinished at any time. Jobs that don't allow queuing are held back while
+ * another job of the batch is running under the same model, since the server would reject them.
+ *
+ * One JSON object per job is written to the results stream as each job finishes. Progress goes to
+ * standard error, so that the results can be written to standard output.
+ */
+class BatchRunner {
+
+	static final int DEFAULT_MAX_IN_FLIGHT = 4;
+
+	static final String NOT_SUBMITTED = "NOT_SUBMITTED";
+	static final String STATUS_UNAVAILABLE = "STATUS_UNAVAILABLE";
+	static final String CANCELLED = "CANCELLED";
+	static final String ERROR = "ERROR";
+
+	private final ETLClient client;
+	private final List<BatchJob> jobs;
+	private final int maxInFlight;
+	private final boolean waitFully;
+	private final PrintStream results;
+	private final ObjectMapper objectMapper = new ObjectMapper();
+
+	private int maxInFlightSeen = 0;
+
+	BatchRunner(ETLClient client, List<BatchJob> jobs, int maxInFlight, boolean waitFully, PrintStream results) {
+		this.client = client;
+		this.jobs = jobs;
+		this.maxInFlight = maxInFlight;
+		this.waitFully = waitFully;
+		this.results = results;
+	}
+
+	/**
+	 * Blocks until every job has been submitted and has finished.
+	 * @return the process exit code: 0 if all jobs succeeded, 1 otherwise.
+	 */
+	int run() {
+		LinkedList<BatchJob> pending = new LinkedList<>(jobs);
+		List<BatchJob> inFlight = new ArrayList<>();
+
+		while (!pending.isEmpty() || !inFlight.isEmpty()) {
+
+			// Fill the window in manifest order, skipping jobs that have to wait for their model.
+			Iterator<BatchJob> it = pending.iterator();
+			while (inFlight.size() < maxInFlight && it.hasNext()) {
+				BatchJob job = it.next();
+				if (!canSubmit(job, inFlight)) {
+					continue;
+				}
+				it.remove();
+				if (submit(job)) {
+					inFlight.add(job);
+					maxInFlightSeen = Math.max(maxInFlightSeen, inFlight.size());
+				} else {
+					report(job);
+				}
+			}
+
+			boolean finishedAny = false;
+			long now = System.currentTimeMillis();
+			long nextPollAt = Long.MAX_VALUE;
+			for (Iterator<BatchJob> jt = inFlight.iterator(); jt.hasNext(); ) {
+				BatchJob job = jt.next();
+				if (job.nextPollAt <= now) {
+					poll(job);
+					if (job.result != null) {
+						jt.remove();
+						report(job);
+						finishedAny = true;
+						continue;
+					}
+				}
+				nextPollAt = Math.min(nextPollAt, job.nextPollAt);
+			}
+
+			if (!finishedAny && !inFlight.isEmpty()) {
+				long delay = nextPollAt - System.currentTimeMillis();
+				if (delay > 0) {
+					try {
+						Thread.sleep(delay);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						break;
+					}
+				}
+			}
+		}
+
+		int failed = 0;
+		for (BatchJob job : jobs) {
+			if (job.isFailed()) {
+				failed++;
+			}
+		}
+		System.err.println(jobs.size() + " job(s) finished, " + failed + " failed.");
+		return failed == 0 ? 0 : 1;
+	}
+
+	int getMaxInFlightSeen() {
+		return maxInFlightSeen;
+	}
+
+	private boolean canSubmit(BatchJob job, List<BatchJob> inFlight) {
+		if (Boolean.TRUE.equals(job.metadata.getQueuingEnabled())) {
+			return true;
+		}
+		for (BatchJob other : inFlight) {
+			if (other.modelId != null && other.modelId.equals(job.modelId)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private boolean submit(BatchJob job) {
+		client.modelId = job.modelId;
+		client.validationRequested = job.validate;
+		client.templateId = job.templateId;
+
+		System.err.print("Submitting job from line " + job.lineNumber + "... ");
+		job.submittedAt = System.currentTimeMillis();
+		ETLJobDTO etlJob = client.trySubmitETL(job.metadata);
+		if (etlJob == null) {
+			job.result = NOT_SUBMITTED;
+			job.finishedAt = System.currentTimeMillis();
+			return false;
+		}
+		System.err.println("OK. Job Id is " + etlJob.getId());
+
+		job.jobId = etlJob.getId().toString();
+		job.nextPollAt = job.submittedAt + JobWatcher.MIN_INTERVAL_MILLIS;
+		return true;
+	}
+
+	private void poll(BatchJob job) {
+		client.modelId = job.modelId;
+		ETLJobDTO etlJob = client.tryRequestJobStatus(job.jobId);
+		long now = System.currentTimeMillis();
+
+		if (etlJob == null) {
+			if (++job.failedRequests >= MultiJobWatcher.MAX_FAILED_REQUESTS) {
+				job.result = STATUS_UNAVAILABLE;
+				job.finishedAt = now;
+			} else {
+				job.nextPollAt = now + JobWatcher.MAX_INTERVAL_MILLIS / 10;
+			}
+			return;
+		}
+		job.failedRequests = 0;
+		job.phase = etlJob.getPhase();
+
+		long delay = job.watcher.observe(etlJob, now);
+
+		if (etlJob.isCancelRequested()) {
+			job.result = CANCELLED;
+			job.errorMessage = etlJob.getErrorMessage();
+		} else if (etlJob.isError()) {
+			job.result = ERROR;
+			job.errorMessage = etlJob.getErrorMessage();
+		} else if (etlJob.getPhase() == Phase.COMPLETE || (!waitFully && etlJob.getPhase() == Phase.IN_STAGING)) {
+			job.result = etlJob.getPhase().toString();
+		} else {
+			job.nextPollAt = now + delay;
+			return;
+		}
+		job.finishedAt = now;
+		job.watcher.finish(now);
+	}
+
+	private void report(BatchJob job) {
+		Map<String, Object> summary = new LinkedHashMap<>();
+		summary.put("line", job.lineNumber);
+		summary.put("jobName", job.metadata.getName());
+		summary.put("modelId", job.modelId == null ? null : job.modelId.toString());
+		summary.put("jobId", job.jobId);
+		summary.put("result", job.result);
+		summary.put("success", !job.isFailed());
+		summary.put("phase", job.phase == null ? null : job.phase.toString());
+		summary.put("errorMessage", job.errorMessage);
+		summary.put("submittedAt", job.submittedAt);
+		summary.put("elapsedMillis", job.finishedAt - job.submittedAt);
+		summary.put("phaseMillis", job.watcher.getPhaseMillis());
+
+		try {
+			results.println(objectMapper.writeValueAsString(summary));
+		} catch (JsonProcessingException e) {
+			e.printStackTrace();
+		}
+		results.flush();
+	}
+
+	/**
+	 * One job of a batch, as read from a line of the manifest.
+	 */
+	static class BatchJob {
+
+		final int lineNumber;
+		final ETLMetadataDTO metadata;
+		final Id modelId;
+		final boolean validate;
+		final String templateId;
+
+		final JobWatcher watcher = new JobWatcher();
+		String jobId;
+		String result;
+		Phase phase;
+		String errorMessage;
+		long submittedAt;
+		long finishedAt;
+		long nextPollAt;
+		int failedRequests = 0;
+
+		BatchJob(int lineNumber, ETLMetadataDTO metadata, Id modelId, boolean validate, String templateId) {
+			this.lineNumber = lineNumber;
+			this.metadata = metadata;
+			this.modelId = modelId;
+			this.validate = validate;
+			this.templateId = templateId;
+		}
+
+		boolean isFailed() {
+			return result == null || !(result.equals(Phase.COMPLETE.toString()) || result.equals(Phase.IN_STAGING.toString()));
+		}
+	}
+}
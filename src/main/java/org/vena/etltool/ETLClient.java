@@ -1,21 +1,42 @@
 package org.vena.etltool;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
-import java.io.FileInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Date;
+import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Properties;
 import java.util.Random;
-import java.util.zip.DeflaterInputStream;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
@@ -33,30 +54,42 @@ import org.vena.etltool.entities.ETLStepDTO;
 import org.vena.etltool.entities.ETLStepDTO.DataType;
 import org.vena.etltool.entities.ETLStepDTO.Status;
 import org.vena.etltool.entities.ETLTemplateDTO;
+import org.vena.etltool.entities.ETLUploadSessionDTO;
 import org.vena.etltool.entities.ETLVersioningStepDTO;
 import org.vena.etltool.entities.Id;
 import org.vena.etltool.entities.LoginResultDTO;
 import org.vena.etltool.entities.ModelResponseDTO;
 import org.vena.etltool.entities.QueryDTO;
 import org.vena.etltool.entities.QueryDTO.Destination;
+import org.vena.etltool.util.JsonReaders;
+import org.vena.etltool.util.ParallelDeflaterInputStream;
+import org.vena.etltool.util.TranscodingInputStream;
 import org.vena.etltool.util.TwoTuple;
 
-import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.sun.jersey.api.client.Client;
+import com.sun.jersey.api.client.ClientHandlerException;
+import com.sun.jersey.api.client.ClientRequest;
 import com.sun.jersey.api.client.ClientResponse;
 import com.sun.jersey.api.client.WebResource.Builder;
 import com.sun.jersey.api.client.config.ClientConfig;
 import com.sun.jersey.api.client.config.DefaultClientConfig;
+import com.sun.jersey.api.client.filter.ClientFilter;
 import com.sun.jersey.api.client.filter.HTTPBasicAuthFilter;
+import com.sun.jersey.core.util.Base64;
 import com.sun.jersey.multipart.FormDataBodyPart;
 import com.sun.jersey.multipart.FormDataMultiPart;
+import com.sun.jersey.multipart.MultiPart;
 import com.sun.jersey.multipart.impl.MultiPartWriter;
 
 public class ETLClient {
-	private static final int POLL_INTERVAL = 5000;
+	private static final int LONG_POLL_SECONDS = 60;
 	public static final String DEFAULT_HOST = "vena.io";
 	public static final List<String> LOGIN_HOSTS = Arrays.asList("ca3.vena.io", "eu1.vena.io", "us1.vena.io", "us2.vena.io", "us3.vena.io");
+	/** How long a hedged login waits for a datacenter before trying the next one as well. */
+	static final long HEDGE_DELAY_MILLIS = 1000;
+	/** The least a hedged login waits, however fast the datacenter answered before. */
+	static final long MIN_HEDGE_DELAY_MILLIS = 250;
 	
 	protected Integer port = null;
 	protected String host = DEFAULT_HOST;
@@ -72,12 +105,43 @@ public class ETLClient {
 	public boolean pollingRequested = false;
 	public boolean waitFully = false;
 	public boolean verbose;
+	public int uploadThreads = 1;
+	public boolean compressUploads = true;
+	public int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+	public boolean resumableUploads = false;
+	public int uploadChunkSize = 8 * 1024 * 1024;
+	public boolean longPollRequested = false;
+	public boolean pooledConnections = true;
+	public int maxConnectionsPerRoute = JerseyClientFactory.DEFAULT_MAX_CONNECTIONS_PER_ROUTE;
+	public int connectTimeoutSeconds = 30;
+	public int readTimeoutSeconds = 0;
+	public long maxUploadBytesPerSecond = 0;
+	public File uploadRateFile;
+	public String jdbcUrl;
+	public String jdbcUser;
+	public String jdbcPassword;
+	public int jdbcFetchSize = JdbcSource.DEFAULT_FETCH_SIZE;
+	/** How long, in minutes, the ids of models looked up by name are used before the list of models is asked for again. */
+	public long modelCacheTTL = ModelCache.DEFAULT_TTL_MINUTES;
+	/** Whether the session from a --username/--password login is kept for later runs, which use it until it expires. */
+	public boolean sessionCache = false;
+	/** Whether logins on {@link #DEFAULT_HOST} go to the fastest datacenter first and race the next one if it is slow. */
+	public boolean hedgeLogin = false;
 	
 	private String userAgent;
 
 	private JerseyClientFactory clientFactory;
 	private Client uploadClient;
 	private Client apiClient;
+	private RateLimiter uploadRateLimiter;
+	/** The models last listed, by name, so lookups after the first don't go to the server. */
+	private Map<String, ModelResponseDTO> models;
+	/** Whether the models were listed by the server since the tool started, rather than kept from before. */
+	private boolean modelsListed = false;
+	/** Whether the API user and key came from a session kept by an earlier run, which may have expired. */
+	private boolean sessionReused = false;
+	/** Whether the server has answered a request made with the kept session, so it hadn't expired yet. */
+	private boolean sessionAccepted = false;
 
 	public ETLClient(JerseyClientFactory clientFactory) {
 		this.clientFactory = clientFactory;
@@ -105,6 +169,18 @@ public class ETLClient {
 	}
 	
 	public ETLJobDTO uploadETL(ETLMetadataDTO metadata)
+	{
+		ETLJobDTO etlJob = trySubmitETL(metadata);
+		if (etlJob == null) {
+			System.exit(1);
+		}
+		return etlJob;
+	}
+
+	/**
+	 * Like {@link #uploadETL(ETLMetadataDTO)}, but reports the error and returns null instead of exiting if the job can't be submitted.
+	 */
+	public ETLJobDTO trySubmitETL(ETLMetadataDTO metadata)
 	{
 		try {
 			String resource;
@@ -125,48 +201,223 @@ public class ETLClient {
 			
 			FormDataMultiPart form = new FormDataMultiPart();
 
+			for (ETLFileImportStepDTO fileStep : metadata.getAllFileSteps()) {
+				fileStep.setCompressed(compressUploads);
+			}
+
+			// Resumable uploads send the files ahead of the job, which then refers to them by upload id.
+			ResumableUploader resumableUploader = null;
+			if (resumableUploads && !validationRequested) {
+				resumableUploader = new ResumableUploader(this, uploadChunkSize);
+				for (ETLFileImportStepDTO fileStep : metadata.getAllFileSteps()) {
+					resumableUploader.upload(fileStep);
+				}
+			}
+
 			ObjectMapper objectMapper = new ObjectMapper();
 			
 			byte[] metadataBytes = objectMapper.writeValueAsBytes(metadata);
 
 			FormDataBodyPart metadataPart = new FormDataBodyPart("metadata",new ByteArrayInputStream(metadataBytes), MediaType.APPLICATION_JSON_TYPE);
 			form.bodyPart(metadataPart);
-			for (ETLStepDTO step :  metadata.getSteps()) {
-				if (step instanceof ETLFileImportStepDTO) {
-					String mimePart = ((ETLFileImportStepDTO) step).getMimePart();
-					String fileName = ((ETLFileImportStepDTO) step).getFileName();
-					InputStream stream = new DeflaterInputStream(new FileInputStream(fileName));
-					FormDataBodyPart filePart = new FormDataBodyPart(mimePart, stream, MediaType.APPLICATION_OCTET_STREAM_TYPE);
-					form.bodyPart(filePart);
+
+			ClientResponse response;
+
+			// With more than one upload thread, file parts are compressed concurrently while earlier parts are sent.
+			try (UploadPartSpooler spooler = uploadThreads > 1 ? new UploadPartSpooler(uploadThreads) : null) {
+				for (ETLStepDTO step :  metadata.getSteps()) {
+					if (step instanceof ETLFileImportStepDTO && !((ETLFileImportStepDTO) step).getFileUploadSuccessful()) {
+						final ETLFileImportStepDTO fileStep = (ETLFileImportStepDTO) step;
+						InputStream stream;
+						// Streamed data goes straight into the request, since spooling it would write all of it to disk.
+						if (spooler != null && !StreamSource.isStream(fileStep.getFileName(), fileStep.getSourceCommand(), fileStep.getSourceQuery())) {
+							stream = spooler.spool(fileStep.getMimePart(), new Callable<InputStream>() {
+								@Override
+								public InputStream call() throws IOException {
+									return openUploadStream(fileStep);
+								}
+							});
+						} else {
+							stream = openUploadStream(fileStep);
+						}
+						if (getUploadRateLimiter() != null) {
+							stream = new ThrottledInputStream(stream, getUploadRateLimiter());
+						}
+						FormDataBodyPart filePart = new FormDataBodyPart(fileStep.getMimePart(), stream, MediaType.APPLICATION_OCTET_STREAM_TYPE);
+						form.bodyPart(filePart);
+					}
 				}
+
+				response = webResource.type(MediaType.MULTIPART_FORM_DATA_TYPE).post(ClientResponse.class, form);
 			}
-						
-			ClientResponse response = webResource.type(MediaType.MULTIPART_FORM_DATA_TYPE).post(ClientResponse.class, form);			
 			
 			switch( response.getStatus()) {
 			
 			case 200:
 				ETLJobDTO etlJob = getEntity(response, ETLJobDTO.class);
+				if (resumableUploader != null) {
+					resumableUploader.finish();
+				}
 				return etlJob;
 			default:
-				handleErrorResponse(response, "Unable to submit job.");
+				printErrorResponse(response, "Unable to submit job.");
 			}
 
 		} catch (Exception e) {
+			// A file that isn't valid text in its encoding, or a command or query that fails, is only found out on the way to the server.
+			for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+				if (cause instanceof TranscodingInputStream.MalformedTextException || cause instanceof StreamSource.CommandFailedException
+						|| cause instanceof JdbcSource.QueryFailedException) {
+					System.err.println("Error: " + cause.getMessage());
+					return null;
+				}
+			}
 
 			e.printStackTrace();
 		}
-		System.exit(1);
-		return null; // should never reach here
+		return null;
+	}
+
+	ETLUploadSessionDTO createUploadSession(ETLUploadSessionDTO session) {
+		Builder webResource = buildWebResource(getETLBasePath() + "/uploads");
+
+		ClientResponse response = webResource.type(MediaType.APPLICATION_JSON_TYPE).post(ClientResponse.class, session);
+
+		if (response.getStatus() != 200) {
+			handleErrorResponse(response, "Unable to start resumable upload.");
+		}
+
+		return getEntity(response, ETLUploadSessionDTO.class);
+	}
+
+	/**
+	 * @return the upload session, or null if the server no longer knows about it.
+	 */
+	ETLUploadSessionDTO requestUploadSession(String uploadId) {
+		Builder webResource = buildWebResource(getETLBasePath() + "/uploads/" + uploadId);
+
+		ClientResponse response = webResource.get(ClientResponse.class);
+
+		if (response.getStatus() == 404) {
+			response.close();
+			return null;
+		}
+		if (response.getStatus() != 200) {
+			handleErrorResponse(response, "Unable to get resumable upload status.");
+		}
+
+		return getEntity(response, ETLUploadSessionDTO.class);
+	}
+
+	/**
+	 * @return true if the server acknowledged the chunk, false if sending it failed in a way that is worth retrying.
+	 */
+	boolean sendUploadChunk(String uploadId, int index, long offset, int length, String checksum, byte[] body, boolean compressed) {
+		Builder webResource = buildWebResource(getETLBasePath() + "/uploads/" + uploadId + "/chunks/" + index)
+				.header("X-Chunk-Offset", offset)
+				.header("X-Chunk-Length", length)
+				.header("X-Chunk-Checksum", checksum);
+
+		if (compressed) {
+			webResource = webResource.header(HttpHeaders.CONTENT_ENCODING, "deflate");
+		}
+
+		ClientResponse response;
+		try {
+			Object entity = body;
+			if (getUploadRateLimiter() != null) {
+				entity = new ThrottledInputStream(new ByteArrayInputStream(body), getUploadRateLimiter());
+			}
+			response = webResource.type(MediaType.APPLICATION_OCTET_STREAM_TYPE).put(ClientResponse.class, entity);
+		} catch (ClientHandlerException e) {
+			if (verbose) {
+				System.err.println("Sending chunk " + index + " failed: " + e.getMessage());
+			}
+			return false;
+		}
+
+		int status = response.getStatus();
+		if (status == 200 || status == 204) {
+			response.close();
+			return true;
+		}
+		if (status >= 500) {
+			if (verbose) {
+				System.err.println("Sending chunk " + index + " failed: " + response);
+			}
+			response.close();
+			return false;
+		}
+
+		handleErrorResponse(response, "Upload of chunk " + index + " was rejected.");
+		return false;
+	}
+
+	void completeUploadSession(String uploadId) {
+		Builder webResource = buildWebResource(getETLBasePath() + "/uploads/" + uploadId + "/complete");
+
+		ClientResponse response = webResource.post(ClientResponse.class);
+
+		if (response.getStatus() != 200 && response.getStatus() != 204) {
+			handleErrorResponse(response, "Unable to complete resumable upload.");
+		}
+		response.close();
+	}
+
+	/**
+	 * @return the limiter shared by all uploads, or null if they aren't limited.
+	 */
+	synchronized RateLimiter getUploadRateLimiter() {
+		if (uploadRateLimiter == null && (maxUploadBytesPerSecond > 0 || uploadRateFile != null)) {
+			uploadRateLimiter = new RateLimiter(maxUploadBytesPerSecond);
+			if (uploadRateFile != null) {
+				uploadRateLimiter.watch(uploadRateFile);
+			}
+		}
+		return uploadRateLimiter;
+	}
+
+	InputStream openUploadStream(ETLFileImportStepDTO step) throws IOException {
+		InputStream stream;
+		if (step.isFilePart()) {
+			stream = FileSplitter.open(new File(step.getFileName()), step.getPartHeaderLength(), step.getPartOffset(), step.getPartLength());
+		} else if (step.getSourceQuery() != null) {
+			stream = new JdbcSource(jdbcUrl, jdbcUser, jdbcPassword, step.getSourceQuery(), jdbcFetchSize, step.getFileFormat());
+		} else {
+			stream = StreamSource.open(step.getFileName(), step.getSourceCommand());
+		}
+		if (step.getSourceEncoding() != null) {
+			String description = step.isFilePart() ? step.getFileName() + " (the part from byte " + step.getPartOffset() + ")"
+					: StreamSource.describe(step.getFileName(), step.getSourceCommand(), step.getSourceQuery());
+			stream = new TranscodingInputStream(stream, Charset.forName(step.getSourceEncoding()), description);
+		}
+		if (!step.isCompressed()) {
+			return stream;
+		}
+		return new ParallelDeflaterInputStream(stream, compressionLevel);
 	}
 
 	void pollTillJobComplete(Id jobId, boolean waitFully) {
+		JobWatcher watcher = new JobWatcher();
+		boolean longPoll = longPollRequested;
+		Date lastUpdated = null;
+
 		while( true) {
-			ETLJobDTO etlJob = requestJobStatus(jobId);
+			long requestedAt = System.currentTimeMillis();
+			ETLJobDTO etlJob;
+			if (longPoll && lastUpdated != null) {
+				etlJob = requestJobStatusChange(jobId.toString(), lastUpdated, LONG_POLL_SECONDS);
+			} else {
+				etlJob = requestJobStatus(jobId);
+			}
+			long now = System.currentTimeMillis();
+			long delay = watcher.observe(etlJob, now);
 
 			if( ! isJobStillRunning(etlJob) || (! waitFully && isJobInStaging(etlJob)))  {
+				watcher.finish(now);
 
 				printJobStatus(etlJob);
+				System.out.println("  Phase timings: " + watcher.describePhaseTimings());
 				System.out.println();
 				
 				if (etlJob.isError() || etlJob.isCancelRequested()) {
@@ -175,9 +426,26 @@ public class ETLClient {
 				}
 				break;
 			}
-			else {
+
+			boolean changed = lastUpdated == null || !lastUpdated.equals(etlJob.getUpdatedDate());
+			lastUpdated = etlJob.getUpdatedDate();
+			long elapsed = now - requestedAt;
+
+			if (longPoll && lastUpdated != null) {
+				if (!changed && elapsed < LONG_POLL_SECONDS * 1000L / 2) {
+					// The server answered right away without a change, so it doesn't hold requests.
+					if (verbose) {
+						System.err.println("Long polling is not supported by the server, polling instead.");
+					}
+					longPoll = false;
+				} else {
+					delay = JobWatcher.MIN_INTERVAL_MILLIS - elapsed;
+				}
+			}
+
+			if (delay > 0) {
 				try {
-					Thread.sleep(POLL_INTERVAL);
+					Thread.sleep(delay);
 				}
 				catch(InterruptedException intEx) {
 				}
@@ -262,22 +530,39 @@ public class ETLClient {
 		return urlBuf.toString();
 	}
 
-	private Client getUploadClient() {
+	private synchronized Client getUploadClient() {
 		if (uploadClient == null) {
 			ClientConfig jerseyClientConfig = new DefaultClientConfig();
 			jerseyClientConfig.getClasses().add(MultiPartWriter.class);
 
-			uploadClient = clientFactory.create(jerseyClientConfig);
+			uploadClient = createClient(jerseyClientConfig);
 			uploadClient.setChunkedEncodingSize(8192);
-			uploadClient.addFilter(new HTTPBasicAuthFilter(apiUser, apiKey));
+			uploadClient.addFilter(new SessionFilter());
 		}
 		return uploadClient;
 	}
 
-	private Client getAPIClient() {
+	private Client createClient(ClientConfig config) {
+		clientFactory.setPooled(pooledConnections);
+		clientFactory.setMaxConnectionsPerRoute(maxConnectionsPerRoute);
+		clientFactory.setConnectTimeoutMillis(connectTimeoutSeconds * 1000);
+
+		Client client = config == null ? clientFactory.create() : clientFactory.create(config);
+		client.setReadTimeout(readTimeoutSeconds * 1000);
+		return client;
+	}
+
+	/**
+	 * @return a summary of how many requests were able to reuse an open connection.
+	 */
+	public String describeConnectionReuse() {
+		return clientFactory.describeConnectionReuse();
+	}
+
+	private synchronized Client getAPIClient() {
 		if (apiClient == null) {
-			apiClient = clientFactory.create();
-			apiClient.addFilter(new HTTPBasicAuthFilter(apiUser, apiKey));
+			apiClient = createClient(null);
+			apiClient.addFilter(new SessionFilter());
 		}
 		return apiClient;
 	}
@@ -319,12 +604,115 @@ public class ETLClient {
 				.header(HttpHeaders.USER_AGENT, getUserAgent());
 	}
 
+	/**
+	 * Logs in with the username and password, or uses the session kept by an earlier run if {@link #sessionCache} is set.
+	 */
 	public void login()
 	{
-		Client client = clientFactory.create();
+		SessionCache cache = sessionCache ? openSessionCache() : null;
+		LoginResultDTO result = cache != null ? cache.get() : null;
+		sessionReused = result != null;
+		sessionAccepted = false;
+		if (result == null) {
+			result = requestLogin();
+			saveSessionCache(cache, result);
+		} else if (verbose) {
+			System.err.println("Using the session kept by an earlier run.");
+		}
+		useSession(result);
+	}
+
+	private synchronized void useSession(LoginResultDTO result) {
+		this.apiKey = result.getApiKey();
+		this.apiUser = result.getApiUser();
+		this.location = result.getLocation();
+	}
+
+	private synchronized String authorization() {
+		byte[] credentials = (apiUser + ":" + apiKey).getBytes(StandardCharsets.UTF_8);
+		return "Basic " + new String(Base64.encode(credentials), StandardCharsets.US_ASCII);
+	}
+
+	/**
+	 * Logs in again when a kept session is no longer accepted. Only done once, since a session that was
+	 * just given can't have expired.
+	 * @param rejected the Authorization header the server didn't accept.
+	 * @return the Authorization header to use instead, or null if there is none.
+	 */
+	synchronized String renewSession(String rejected) {
+		if (!rejected.equals(authorization())) {
+			// Another request already logged in again.
+			return authorization();
+		}
+		if (!sessionReused) {
+			return null;
+		}
+		sessionReused = false;
+		if (verbose) {
+			System.err.println("The kept session has expired. Logging in again.");
+		}
+		LoginResultDTO result = requestLogin();
+		saveSessionCache(openSessionCache(), result);
+		useSession(result);
+		return authorization();
+	}
+
+	private synchronized boolean isSessionUnchecked() {
+		return sessionReused && !sessionAccepted;
+	}
+
+	private synchronized void sessionAccepted(String authorization) {
+		if (authorization.equals(authorization())) {
+			sessionAccepted = true;
+		}
+	}
+
+	/**
+	 * Makes sure a kept session is still accepted before a request that can't be sent again, with a cheap
+	 * request that logs in again if it isn't.
+	 */
+	private void checkSession() {
+		if (!isSessionUnchecked()) {
+			return;
+		}
+		buildWebResource("/api/models").get(ClientResponse.class).close();
+	}
+
+	private SessionCache openSessionCache() {
+		try {
+			return SessionCache.open(host, username, password);
+		} catch (IOException e) {
+			if (verbose) {
+				System.err.println("Could not read the sessions kept in " + UploadCache.directory() + ": " + e.getMessage());
+			}
+			return null;
+		}
+	}
+
+	private void saveSessionCache(SessionCache cache, LoginResultDTO result) {
+		if (cache == null) {
+			return;
+		}
+		cache.put(result);
+		try {
+			cache.save();
+		} catch (IOException e) {
+			if (verbose) {
+				System.err.println("Could not keep the session in " + UploadCache.directory() + ": " + e.getMessage());
+			}
+		}
+	}
+
+	private LoginResultDTO requestLogin()
+	{
+		Client client = createClient(null);
 
 		client.addFilter(new HTTPBasicAuthFilter(username, password));
 
+		if (hedgeLogin && host.equals(DEFAULT_HOST)) {
+			return hedgedLogin(client);
+		}
+
 		Builder webResource = buildLoginResource(client, host);
 
 		ClientResponse response = webResource.post(ClientResponse.class);
@@ -340,6 +728,7 @@ public class ETLClient {
 			while (retryCount > 0 && ( response.getStatus() == 404 || response.getStatus() >= 500 )) {
 				String nextHost = LOGIN_HOSTS.get(index);
 				index = (index + 1) % LOGIN_HOSTS.size();
+				response.close();
 				webResource = buildLoginResource(client, nextHost);
 				response = webResource.post(ClientResponse.class);
 				retryCount--;
@@ -350,11 +739,211 @@ public class ETLClient {
 			handleErrorResponse(response, "Login failed.");
 		}
 
-		LoginResultDTO result = getEntity(response, LoginResultDTO.class);
+		return getEntity(response, LoginResultDTO.class);
+	}
+
+	/**
+	 * Logs in at the datacenter that answered fastest before. If it hasn't answered within a few of its
+	 * usual round trips, the next one is tried as well, and the first to log in is used. A datacenter that
+	 * fails is given up on right away for the next one.
+	 */
+	private LoginResultDTO hedgedLogin(Client client) {
+		LoginHosts hosts = openLoginHosts();
+		// Start at a random host so that we don't always spam the same DC when none has answered before.
+		List<String> candidates = new ArrayList<>(LOGIN_HOSTS);
+		Collections.rotate(candidates, new Random().nextInt(candidates.size()));
+		if (hosts != null) {
+			candidates = hosts.order(candidates);
+		}
+
+		final BlockingQueue<LoginAttempt> answers = new LinkedBlockingQueue<>();
+		final AtomicBoolean decided = new AtomicBoolean();
+		final AtomicInteger threadCount = new AtomicInteger();
+		ExecutorService executor = Executors.newCachedThreadPool(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "etl-login-" + threadCount.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		try {
+			int started = 0;
+			int finished = 0;
+			LoginAttempt failure = null;
+			startLogin(executor, client, candidates.get(started++), answers, decided);
+			while (finished < started) {
+				LoginAttempt attempt;
+				if (started < candidates.size()) {
+					attempt = answers.poll(hedgeDelay(hosts, candidates.get(started - 1)), TimeUnit.MILLISECONDS);
+					if (attempt == null) {
+						if (verbose) {
+							System.err.println(candidates.get(started - 1) + " is slow to answer. Trying " + candidates.get(started) + " as well.");
+						}
+						startLogin(executor, client, candidates.get(started++), answers, decided);
+						continue;
+					}
+				} else {
+					attempt = answers.take();
+				}
+				finished++;
+
+				int status = attempt.response != null ? attempt.response.getStatus() : 0;
+				if (status == 200) {
+					closeOthers(answers, decided);
+					if (hosts != null) {
+						hosts.succeeded(attempt.host, attempt.millis);
+					}
+					saveLoginHosts(hosts);
+					if (verbose) {
+						System.err.println("Logged in at " + attempt.host + " in " + attempt.millis + " ms.");
+					}
+					return getEntity(attempt.response, LoginResultDTO.class);
+				}
+				if (attempt.response == null || status == 404 || status >= 500) {
+					if (hosts != null) {
+						hosts.failed(attempt.host);
+					}
+					if (failure != null && failure.response != null) {
+						failure.response.close();
+					}
+					failure = attempt;
+					if (started < candidates.size()) {
+						startLogin(executor, client, candidates.get(started++), answers, decided);
+					}
+					continue;
+				}
+				// Any other answer, such as a wrong password, would be the same from every datacenter.
+				closeOthers(answers, decided);
+				saveLoginHosts(hosts);
+				handleErrorResponse(attempt.response, "Login failed.");
+			}
 
-		this.apiKey = result.getApiKey();
-		this.apiUser = result.getApiUser();
-		this.location = result.getLocation();
+			saveLoginHosts(hosts);
+			if (failure.response == null) {
+				throw failure.error;
+			}
+			handleErrorResponse(failure.response, "Login failed.");
+			return null;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ClientHandlerException(e);
+		} finally {
+			closeOthers(answers, decided);
+			executor.shutdown();
+		}
+	}
+
+	private long hedgeDelay(LoginHosts hosts, String host) {
+		long rtt = hosts != null ? hosts.roundTrip(host) : -1;
+		return rtt < 0 ? HEDGE_DELAY_MILLIS : Math.min(HEDGE_DELAY_MILLIS, Math.max(MIN_HEDGE_DELAY_MILLIS, 3 * rtt));
+	}
+
+	private void startLogin(ExecutorService executor, final Client client, final String host, final BlockingQueue<LoginAttempt> answers, final AtomicBoolean decided) {
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				LoginAttempt attempt = new LoginAttempt(host);
+				long start = System.nanoTime();
+				try {
+					attempt.response = buildLoginResource(client, host).post(ClientResponse.class);
+				} catch (ClientHandlerException e) {
+					attempt.error = e;
+				}
+				attempt.millis = (System.nanoTime() - start) / 1000000;
+				synchronized (answers) {
+					if (decided.get()) {
+						// Another datacenter already answered.
+						attempt.close();
+					} else {
+						answers.add(attempt);
+					}
+				}
+			}
+		});
+	}
+
+	private static void closeOthers(BlockingQueue<LoginAttempt> answers, AtomicBoolean decided) {
+		synchronized (answers) {
+			decided.set(true);
+			for (LoginAttempt attempt : answers) {
+				attempt.close();
+			}
+			answers.clear();
+		}
+	}
+
+	private LoginHosts openLoginHosts() {
+		try {
+			return LoginHosts.open();
+		} catch (IOException e) {
+			if (verbose) {
+				System.err.println("Could not read the login hosts kept in " + UploadCache.directory() + ": " + e.getMessage());
+			}
+			return null;
+		}
+	}
+
+	private void saveLoginHosts(LoginHosts hosts) {
+		if (hosts == null) {
+			return;
+		}
+		try {
+			hosts.save();
+		} catch (IOException e) {
+			if (verbose) {
+				System.err.println("Could not keep the login hosts in " + UploadCache.directory() + ": " + e.getMessage());
+			}
+		}
+	}
+
+	private static class LoginAttempt {
+		final String host;
+		ClientResponse response;
+		ClientHandlerException error;
+		long millis;
+
+		LoginAttempt(String host) {
+			this.host = host;
+		}
+
+		void close() {
+			if (response != null) {
+				response.close();
+			}
+		}
+	}
+
+	/**
+	 * Authenticates requests with the current API user and key, and sends a request again once if it was
+	 * turned down because a kept session expired. Requests that stream their content can't be sent again,
+	 * since the content can't be read twice, so a kept session the server hasn't accepted yet is checked
+	 * before them.
+	 */
+	private class SessionFilter extends ClientFilter {
+
+		@Override
+		public ClientResponse handle(ClientRequest request) throws ClientHandlerException {
+			Object entity = request.getEntity();
+			boolean streamed = entity instanceof InputStream || entity instanceof MultiPart;
+			if (streamed) {
+				checkSession();
+			}
+			String authorization = authorization();
+			request.getHeaders().putSingle(HttpHeaders.AUTHORIZATION, authorization);
+			ClientResponse response = getNext().handle(request);
+			if (response.getStatus() != 401) {
+				sessionAccepted(authorization);
+			} else {
+				String renewed = renewSession(authorization);
+				if (renewed != null && !streamed) {
+					response.close();
+					request.getHeaders().putSingle(HttpHeaders.AUTHORIZATION, renewed);
+					response = getNext().handle(request);
+				}
+			}
+			return response;
+		}
 	}
 
 	//FIMXE - there is some code duplication between login() and this method that should be refactored out.
@@ -376,33 +965,101 @@ public class ETLClient {
 		ModelResponseDTO result = getEntity(response, ModelResponseDTO.class);
 
 		this.modelId = result.getId();
+
+		// The models listed before don't have the new one.
+		models = null;
+		modelsListed = false;
+		ModelCache cache = openModelCache();
+		if (cache != null) {
+			cache.invalidate();
+			saveModelCache(cache);
+		}
 		
 		return result;
 	}
 	
+	/**
+	 * Looks a model up by name, in the models already listed if they aren't older than {@link #modelCacheTTL}.
+	 * @return the model, or null if there is none with that name.
+	 */
 	public ModelResponseDTO lookupModel(String modelName) {
+		ModelResponseDTO model = models != null ? models.get(modelName) : null;
+		if (model != null || modelsListed) {
+			return model;
+		}
+		ModelCache cache = openModelCache();
+		if (models == null && cache != null && cache.isFresh(modelCacheTTL * 60 * 1000)) {
+			models = cache.models();
+			model = models.get(modelName);
+			if (model != null) {
+				return model;
+			}
+			// The model may have been created since the list was kept, so it is asked for again.
+		}
+		models = listModels(cache);
+		modelsListed = true;
+		return models.get(modelName);
+	}
 
+	private Map<String, ModelResponseDTO> listModels(ModelCache cache) {
 		Builder webResource = buildWebResource("/api/models");
-
-		CreateModelRequestDTO createModelDTO = new CreateModelRequestDTO();
-
-		createModelDTO.setName(modelName);
-		createModelDTO.setDesc(modelName);
+		String etag = cache != null ? cache.etag() : null;
+		if (etag != null) {
+			webResource = webResource.header(HttpHeaders.IF_NONE_MATCH, etag);
+		}
 
 		ClientResponse response = webResource.type(MediaType.APPLICATION_JSON_TYPE).get(ClientResponse.class);
 
-		if (response.getStatus() != 200) {
-			handleErrorResponse(response, "Lookup model failed.");
+		Map<String, ModelResponseDTO> listed;
+		if (etag != null && response.getStatus() == 304) {
+			response.close();
+			cache.revalidated();
+			listed = cache.models();
+		} else {
+			if (response.getStatus() != 200) {
+				handleErrorResponse(response, "Lookup model failed.");
+			}
+			String newEtag = response.getHeaders() != null ? response.getHeaders().getFirst(HttpHeaders.ETAG) : null;
+			List<ModelResponseDTO> results = getListOfEntity(response, ModelResponseDTO.class);
+			listed = new HashMap<>();
+			for (ModelResponseDTO model : results) {
+				if (!listed.containsKey(model.getName())) {
+					listed.put(model.getName(), model);
+				}
+			}
+			if (cache != null) {
+				cache.replace(results, newEtag);
+			}
 		}
+		saveModelCache(cache);
+		return listed;
+	}
 
-		List<ModelResponseDTO> results = getListOfEntity(response, ModelResponseDTO.class);
+	/**
+	 * @return the models kept for this user, or null if they can't be read, in which case they are listed every time.
+	 */
+	private ModelCache openModelCache() {
+		try {
+			return ModelCache.open(apiUser + "@" + host);
+		} catch (IOException e) {
+			if (verbose) {
+				System.err.println("Could not read the models kept in " + UploadCache.directory() + ": " + e.getMessage());
+			}
+			return null;
+		}
+	}
 
-		for(ModelResponseDTO model : results)  {
-			if(modelName.equals(model.getName()))
-				return model;
+	private void saveModelCache(ModelCache cache) {
+		if (cache == null) {
+			return;
+		}
+		try {
+			cache.save();
+		} catch (IOException e) {
+			if (verbose) {
+				System.err.println("Could not keep the models in " + UploadCache.directory() + ": " + e.getMessage());
+			}
 		}
-		
-		return null;
 	}
 	
 	public ETLJobDTO requestJobStatus(Id etlJobId)
@@ -411,9 +1068,54 @@ public class ETLClient {
 	}
 	
 	public ETLJobDTO requestJobStatus(String idString)
+	{
+		return requestJobStatus(idString, Collections.<TwoTuple<String, String>> emptyList());
+	}
+
+	/**
+	 * Like {@link #requestJobStatus(String)}, but returns null instead of exiting if the status can't be retrieved.
+	 */
+	public ETLJobDTO tryRequestJobStatus(String idString)
 	{
 		Builder webResource = buildWebResource(getETLBasePath() + "/jobs/" + idString);
 
+		try {
+			ClientResponse response = webResource.get(ClientResponse.class);
+
+			if (response.getStatus() != 200) {
+				if (verbose) {
+					System.err.println("Unable to get status of job " + idString + ": " + response);
+				}
+				response.close();
+				return null;
+			}
+
+			return getEntity(response, ETLJobDTO.class);
+		} catch (ClientHandlerException e) {
+			if (verbose) {
+				System.err.println("Unable to get status of job " + idString + ": " + e.getMessage());
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Asks the server to hold the request until the job has been updated after <code>since</code>,
+	 * or until <code>waitSeconds</code> have passed. Servers that don't support this answer right away.
+	 */
+	ETLJobDTO requestJobStatusChange(String idString, Date since, int waitSeconds)
+	{
+		List<TwoTuple<String, String>> params = new ArrayList<>();
+		params.add(new TwoTuple<String, String>("since", Long.toString(since.getTime())));
+		params.add(new TwoTuple<String, String>("wait", Integer.toString(waitSeconds)));
+
+		return requestJobStatus(idString, params);
+	}
+
+	private ETLJobDTO requestJobStatus(String idString, Iterable<TwoTuple<String, String>> params)
+	{
+		Builder webResource = buildWebResource(getETLBasePath() + "/jobs/" + idString, params);
+
 
 		ClientResponse response = webResource.get(ClientResponse.class);
 		
@@ -524,8 +1226,31 @@ public class ETLClient {
 	}	
 
 	public InputStream sendExport(DataType type, String tableFromName, String tableToName, String whereClause, String queryExpr, boolean showHeaders, FileFormat format){
+		return sendExport(type, tableFromName, tableToName, whereClause, queryExpr, showHeaders, format, false);
+	}
+
+	/**
+	 * Asks the server to compress the export in transit.
+	 * @param gzipped if true the returned stream is gzip-compressed, otherwise it is plain text.
+	 */
+	public InputStream sendExport(DataType type, String tableFromName, String tableToName, String whereClause, String queryExpr, boolean showHeaders, FileFormat format, boolean gzipped){
+		try {
+			return requestExport(type, tableFromName, tableToName, whereClause, queryExpr, showHeaders, format, gzipped);
+		} catch (IOException e) {
+			System.err.println(e.getMessage());
+			System.exit(1);
+			return null;
+		}
+	}
+
+	/**
+	 * Like {@link #sendExport}, but throws rather than exiting when the export can't be done, for callers
+	 * that have something to clean up, such as exports downloaded by other threads.
+	 */
+	public InputStream requestExport(DataType type, String tableFromName, String tableToName, String whereClause, String queryExpr, boolean showHeaders, FileFormat format, boolean gzipped) throws IOException {
 
 		String typePath = null;
+		String unsupported = "Type \""+type+"\" not supported for export.";
 
 		if (whereClause != null) {
 			switch (type) {
@@ -540,10 +1265,10 @@ public class ETLClient {
 				break;
 			case intersections:
 			case lids:
-				System.err.println("Type \""+type+"\" doesn't support where clause. Use query expression instead.");
+				unsupported = "Type \""+type+"\" doesn't support where clause. Use query expression instead.";
 				break;
 			default:
-				System.err.println("Type \""+type+"\" not supported for export.");
+				break;
 			}
 		}
 
@@ -552,7 +1277,7 @@ public class ETLClient {
 			case attributes:
 			case user_defined:
 			case hierarchy:
-				System.err.println("Type \""+type+"\" doesn't support query expression. Use where clause instead.");
+				unsupported = "Type \""+type+"\" doesn't support query expression. Use where clause instead.";
 				break;
 			case lids:
 				typePath = "lids2";
@@ -561,7 +1286,7 @@ public class ETLClient {
 				typePath = "intersections2";
 				break;
 			default:
-				System.err.println("Type \""+type+"\" not supported for export.");
+				break;
 			}
 		}
 
@@ -583,13 +1308,12 @@ public class ETLClient {
 				typePath = "staging";
 				break;
 			default:
-				System.err.println("Type \""+type+"\" not supported for export.");
+				break;
 			}
 		}
 
 		if (typePath == null) {
-			System.exit(1);
-			return null;
+			throw new IOException(unsupported);
 		}
 
 		Builder webResource = buildWebResource(getETLBasePath() + "/query/" + typePath);
@@ -606,14 +1330,50 @@ public class ETLClient {
 		query.setShowHeaders(showHeaders);
 		query.setFormat(format);
 
-		ClientResponse response = webResource.type(MediaType.APPLICATION_JSON_TYPE).post(ClientResponse.class, query);
+		ClientResponse response = webResource.header(HttpHeaders.ACCEPT_ENCODING, "gzip, deflate")
+				.type(MediaType.APPLICATION_JSON_TYPE).post(ClientResponse.class, query);
 		if ((response.getStatus() != 204) && (response.getStatus() != 200)) {
-			handleErrorResponse(response, "Request to export failed.");
+			printErrorResponse(response, null);
+			throw new IOException("Request to export failed.");
 		}
-		return response.getEntityInputStream();
+
+		InputStream in = response.getEntityInputStream();
+		String encoding = response.getHeaders() == null ? null : response.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING);
+		if ("gzip".equalsIgnoreCase(encoding) || "x-gzip".equalsIgnoreCase(encoding)) {
+			if (gzipped) {
+				// Already in the format wanted on disk, so pass it through untouched.
+				return in;
+			}
+			in = new GZIPInputStream(in, 64 * 1024);
+		} else if ("deflate".equalsIgnoreCase(encoding)) {
+			in = inflate(in);
+		}
+
+		if (verbose) {
+			System.err.println("Export transfer encoding: " + (encoding == null ? "identity" : encoding));
+		}
+		return gzipped ? new ParallelDeflaterInputStream(in, compressionLevel, true) : in;
+	}
+
+	/**
+	 * Servers disagree on whether "deflate" means a zlib stream or raw deflate data, so look at the header to tell.
+	 */
+	private static InputStream inflate(InputStream in) throws IOException {
+		BufferedInputStream buffered = new BufferedInputStream(in, 64 * 1024);
+		buffered.mark(2);
+		int cmf = buffered.read();
+		int flg = buffered.read();
+		buffered.reset();
+		boolean zlib = cmf != -1 && flg != -1 && (cmf & 0x0f) == 8 && ((cmf << 8) | flg) % 31 == 0;
+		return new InflaterInputStream(buffered, new Inflater(!zlib), 64 * 1024);
 	}
 
 	private void handleErrorResponse(ClientResponse response, String message) {
+		printErrorResponse(response, message);
+		System.exit(1);
+	}
+
+	private void printErrorResponse(ClientResponse response, String message) {
 
 		System.err.println("ERROR:");
 		System.err.println(">>> " + response);
@@ -627,6 +1387,7 @@ public class ETLClient {
 			System.err.println("An error occurred trying to read the response from the server.");
 			e.printStackTrace(System.err);
 		}
+		response.close();
 		
 		System.err.println();
 
@@ -656,7 +1417,6 @@ public class ETLClient {
 		}
 
 		if (message != null) System.out.println(message);
-		System.exit(1);
 	}
 
 	static void printJobStatus(ETLJobDTO etlJob) {
@@ -683,7 +1443,15 @@ public class ETLClient {
 		
 		if (metadata.getSteps() != null) {
 			System.out.println("  Steps:");
-			for (ETLStepDTO step : metadata.getSteps()) {
+			List<ETLStepDTO> steps = metadata.getSteps();
+			for (int i = 0; i < steps.size(); i++) {
+				ETLStepDTO step = steps.get(i);
+				int parts = countFileParts(steps, i);
+				if (parts > 1) {
+					printFilePartsStatus(steps.subList(i, i + parts));
+					i += parts - 1;
+					continue;
+				}
 				System.out.print("   - " + step.getStepNumber()
 						+ ". " + step.getName()
 						+ ": " + step.getStatus());
@@ -723,38 +1491,83 @@ public class ETLClient {
 
 	}
 
-	private static <T> T getEntity(ClientResponse response, Class<T> type) {
-		String rawJSONOutput = response.getEntity(String.class);
+	/**
+	 * @return how many steps starting at the given one load parts of the same file, as split=... does.
+	 */
+	private static int countFileParts(List<ETLStepDTO> steps, int first) {
+		if (!(steps.get(first) instanceof ETLFileImportStepDTO)) {
+			return 1;
+		}
+		ETLFileImportStepDTO firstStep = (ETLFileImportStepDTO) steps.get(first);
+		int count = 1;
+		while (first + count < steps.size()) {
+			ETLStepDTO step = steps.get(first + count);
+			if (step.getClass() != firstStep.getClass()
+					|| !Objects.equals(((ETLFileImportStepDTO) step).getFileName(), firstStep.getFileName())
+					|| ((ETLFileImportStepDTO) step).getDataType() != firstStep.getDataType()) {
+				break;
+			}
+			count++;
+		}
+		return count;
+	}
 
-		ObjectMapper objectMapper = new ObjectMapper();
+	/**
+	 * Prints the parts of a split file as one step, followed by any parts that need attention.
+	 */
+	private static void printFilePartsStatus(List<ETLStepDTO> parts) {
+		ETLFileImportStepDTO first = (ETLFileImportStepDTO) parts.get(0);
+		Set<Status> statuses = EnumSet.noneOf(Status.class);
+		int percentDone = 0;
+		long linesProcessed = 0;
+		for (ETLStepDTO part : parts) {
+			statuses.add(part.getStatus());
+			percentDone += part.getPercentDone();
+			linesProcessed += ((ETLFileImportStepDTO) part).getLinesProcessed();
+		}
 
-		objectMapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+		Status status;
+		if (statuses.size() == 1) {
+			status = statuses.iterator().next();
+		} else if (statuses.contains(Status.ERROR)) {
+			status = Status.ERROR;
+		} else if (statuses.contains(Status.CANCELLED)) {
+			status = Status.CANCELLED;
+		} else if (statuses.contains(Status.WAITING)) {
+			status = Status.WAITING;
+		} else {
+			status = Status.RUNNING;
+		}
 
-		T result;
+		System.out.print("   - " + first.getStepNumber() + "-" + parts.get(parts.size() - 1).getStepNumber()
+				+ ". " + first.getName() + " in " + parts.size() + " parts"
+				+ ": " + status);
+		if (status != Status.NOT_STARTED) {
+			System.out.print(" (" + (percentDone / parts.size()) + "% Done) (Processed " + linesProcessed + " lines)");
+		}
+		System.out.println();
 
-		try {
-			result = objectMapper.readValue(rawJSONOutput, type);
+		for (int i = 0; i < parts.size(); i++) {
+			ETLFileImportStepDTO part = (ETLFileImportStepDTO) parts.get(i);
+			if (part.getStatus() == Status.ERROR || part.getStatus() == Status.CANCELLED || part.getStatus() == Status.WAITING) {
+				System.out.println("       part " + (i + 1) + ": " + part.getStatus() + " (Resume at " + part.getResumeLine() + " lines)");
+			}
+		}
+	}
 
-			return type.cast(result);
-		} catch ( IOException e) {
+	private static <T> T getEntity(ClientResponse response, Class<T> type) {
+		// Read straight from the response rather than buffering it as a String first.
+		try (InputStream in = response.getEntityInputStream()) {
+			return type.cast(JsonReaders.forType(type).readValue(in));
+		} catch (IOException e) {
 			throw new RuntimeException(e);
 		}
 	}
 
 	private static <T> List<T> getListOfEntity(ClientResponse response, Class<T> type) {
-		String rawJSONOutput = response.getEntity(String.class);
-
-		ObjectMapper objectMapper = new ObjectMapper();
-
-		objectMapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
-
-		List<T> result;
-
-		try {
-			result = objectMapper.readValue(rawJSONOutput, objectMapper.getTypeFactory().constructCollectionType(List.class, type));
-
-			return (List<T>) result;
-		} catch ( IOException e) {
+		try (InputStream in = response.getEntityInputStream()) {
+			return JsonReaders.forListOf(type).readValue(in);
+		} catch (IOException e) {
 			throw new RuntimeException(e);
 		}
 	}
@@ -0,0 +1,607 @@
+package org.vena.etltool;
+
+import java.io.CharArrayReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+import org.vena.etltool.entities.ETLFileImportStepDTO.FileFormat;
+import org.vena.etltool.entities.ETLStepDTO.DataType;
+
+/**
+ * Checks a data file for the mistakes the server would otherwise only find after the whole file had
+ * been uploaded: rows with the wrong number of columns, text that isn't in the file's encoding, and for
+ * intersections, values and LIDs, missing members and values that aren't numbers, and if the model's
+ * members are given, members the model doesn't have.
+ *
+ * The file is read once, in blocks that end on a line break outside quotes, and the blocks are parsed
+ * on several threads. Only a few blocks are held at a time, and reading stops once the first errors
+ * to report are known.
+ */
+class FilePreflight {
+
+	static final int DEFAULT_MAX_ERRORS = 20;
+	static final int DEFAULT_BLOCK_SIZE = 4 * 1024 * 1024;
+
+	static final Pattern MEMBER_COLUMN = Pattern.compile("_dim\\d+_member");
+	private static final List<String> VALUE_COLUMNS = Arrays.asList("_value", "_lid_value");
+
+	private final int maxErrors;
+	private final int threads;
+	int blockSize = DEFAULT_BLOCK_SIZE;
+	/** The members of the model, to check the _dimN_member columns against, or null not to. */
+	MemberDictionary members;
+
+	FilePreflight(int maxErrors, int threads) {
+		this.maxErrors = maxErrors;
+		this.threads = threads;
+	}
+
+	static class Report {
+		final List<String> errors = new ArrayList<>();
+		long errorCount;
+		long rows;
+		boolean complete = true;
+
+		private void add(Errors errors) {
+			this.errorCount += errors.count;
+			this.rows += errors.rows;
+			if (errors.full()) {
+				complete = false;
+			}
+			for (String error : errors.messages) {
+				if (this.errors.size() < errors.max) {
+					this.errors.add(error);
+				}
+			}
+		}
+	}
+
+	/**
+	 * The errors found in one block, in line order. Only the first few are kept.
+	 */
+	private static class Errors {
+		final List<String> messages = new ArrayList<>();
+		final int max;
+		int count;
+		long rows;
+
+		Errors(int max) {
+			this.max = max;
+		}
+
+		void add(long line, String message) {
+			count++;
+			if (messages.size() < max) {
+				messages.add("line " + line + ": " + message);
+			}
+		}
+
+		boolean full() {
+			return count >= max;
+		}
+	}
+
+	/**
+	 * What the header says the rows should look like.
+	 */
+	private static class Columns {
+		List<String> names;
+		final List<Integer> members = new ArrayList<>();
+		/** The dimension number of each member column, or 0 if it isn't checked against the model. */
+		final List<Integer> dimensions = new ArrayList<>();
+		final List<Integer> values = new ArrayList<>();
+		/** How many fields a row needs. Columns after the member and value columns can be left off. */
+		int required;
+	}
+
+	private static class Block {
+		final long line;
+		final byte[] bytes;
+
+		Block(long line, byte[] bytes) {
+			this.line = line;
+			this.bytes = bytes;
+		}
+	}
+
+	Report check(File file, DataType type, FileFormat format, String encoding) throws IOException {
+		Report report = new Report();
+		Charset charset;
+		try {
+			charset = encoding == null ? StandardCharsets.UTF_8 : Charset.forName(encoding);
+		} catch (IllegalArgumentException e) {
+			Errors errors = new Errors(maxErrors);
+			errors.count++;
+			errors.messages.add("the encoding \"" + encoding + "\" is not supported.");
+			report.add(errors);
+			return report;
+		}
+
+		CSVFormat csvFormat = csvFormat(format);
+		try (InputStream in = new FileInputStream(file)) {
+			if (splitsOnBytes(charset)) {
+				checkInBlocks(in, charset, csvFormat, type, report);
+			} else {
+				checkInOrder(in, charset, csvFormat, type, report);
+			}
+		}
+		return report;
+	}
+
+	static CSVFormat csvFormat(FileFormat format) {
+		if (format == FileFormat.PSV) {
+			return CSVFormat.DEFAULT.withDelimiter('|');
+		} else if (format == FileFormat.TDF) {
+			return CSVFormat.DEFAULT.withDelimiter('\t');
+		}
+		return CSVFormat.DEFAULT;
+	}
+
+	/**
+	 * In single-byte encodings and UTF-8, a quote or line break byte is always that character, so the
+	 * file can be cut into blocks without decoding it first.
+	 */
+	static boolean splitsOnBytes(Charset charset) {
+		return charset.equals(StandardCharsets.UTF_8) || charset.newEncoder().maxBytesPerChar() == 1.0f;
+	}
+
+	/**
+	 * @return false if the encoding isn't one whose files can be cut on bytes, or isn't known.
+	 */
+	static boolean splitsOnBytes(String encoding) {
+		try {
+			return splitsOnBytes(Charset.forName(encoding));
+		} catch (IllegalArgumentException e) {
+			return false;
+		}
+	}
+
+	private void checkInBlocks(InputStream in, final Charset charset, final CSVFormat csvFormat, DataType type, Report report) throws IOException {
+		BlockSplitter splitter = new BlockSplitter(in, blockSize);
+		Block headerBlock = splitter.next(true);
+		if (headerBlock == null) {
+			Errors errors = new Errors(maxErrors);
+			errors.add(1, "the file is empty.");
+			report.add(errors);
+			return;
+		}
+
+		Errors headerErrors = new Errors(maxErrors);
+		Columns header = null;
+		try (CSVParser parser = new CSVParser(decode(headerBlock, charset, headerErrors), csvFormat)) {
+			header = readHeader(parser, parser.iterator(), type, headerErrors);
+		}
+		report.add(headerErrors);
+		if (header == null) {
+			return;
+		}
+
+		final Columns columns = header;
+		final AtomicLong errorsFound = new AtomicLong(headerErrors.count);
+		final Semaphore inFlight = new Semaphore(2 * threads);
+		final AtomicInteger threadCount = new AtomicInteger();
+		ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "etl-preflight-" + threadCount.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+
+		List<Future<Errors>> results = new ArrayList<>();
+		try {
+			while (true) {
+				// Every block still to be read comes after the errors already found.
+				if (errorsFound.get() >= maxErrors) {
+					report.complete = false;
+					break;
+				}
+				final Block block = splitter.next(false);
+				if (block == null) {
+					break;
+				}
+				acquire(inFlight);
+				results.add(executor.submit(new Callable<Errors>() {
+					@Override
+					public Errors call() throws IOException {
+						try {
+							Errors errors = new Errors(maxErrors);
+							try (CSVParser parser = new CSVParser(decode(block, charset, errors), csvFormat)) {
+								checkRecords(parser, parser.iterator(), block.line, columns, errors);
+							}
+							errorsFound.addAndGet(errors.count);
+							return errors;
+						} finally {
+							inFlight.release();
+						}
+					}
+				}));
+			}
+
+			for (Future<Errors> result : results) {
+				report.add(await(result));
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Multi-byte encodings such as UTF-16 can't be cut up safely before decoding, so they are checked on one thread.
+	 */
+	private void checkInOrder(InputStream in, Charset charset, CSVFormat csvFormat, DataType type, Report report) throws IOException {
+		CharsetDecoder decoder = charset.newDecoder()
+				.onMalformedInput(CodingErrorAction.REPORT)
+				.onUnmappableCharacter(CodingErrorAction.REPORT);
+		Errors errors = new Errors(maxErrors);
+		try (CSVParser parser = new CSVParser(new InputStreamReader(in, decoder), csvFormat)) {
+			Iterator<CSVRecord> records = parser.iterator();
+			Columns columns = readHeader(parser, records, type, errors);
+			if (columns != null) {
+				checkRecords(parser, records, 1, columns, errors);
+			}
+			report.complete = !errors.full();
+		}
+		report.add(errors);
+	}
+
+	private Columns readHeader(CSVParser parser, Iterator<CSVRecord> records, DataType type, Errors errors) {
+		CSVRecord record;
+		try {
+			if (!records.hasNext()) {
+				errors.add(1, "the file is empty.");
+				return null;
+			}
+			record = records.next();
+		} catch (IllegalStateException e) {
+			errors.add(1, "the header could not be read. " + describe(e));
+			return null;
+		}
+
+		Columns columns = new Columns();
+		columns.names = new ArrayList<>();
+		for (int i = 0; i < record.size(); i++) {
+			String name = record.get(i);
+			if (i == 0 && name.startsWith("\uFEFF")) {
+				name = name.substring(1);
+			}
+			columns.names.add(name);
+		}
+		for (String message : headerErrors(columns.names, type)) {
+			errors.add(1, message);
+		}
+
+		columns.required = columns.names.size();
+		if (type == DataType.intersections || type == DataType.values || type == DataType.lids) {
+			columns.required = 0;
+			for (int i = 0; i < columns.names.size(); i++) {
+				String name = columns.names.get(i);
+				if (MEMBER_COLUMN.matcher(name).matches()) {
+					columns.members.add(i);
+					columns.dimensions.add(dimension(name, errors));
+					columns.required = i + 1;
+				} else if (VALUE_COLUMNS.contains(columns.names.get(i))) {
+					columns.values.add(i);
+					columns.required = i + 1;
+				}
+			}
+		}
+		// Other file types have their own column meanings.
+		return columns;
+	}
+
+	/**
+	 * @return the dimension of a _dimN_member column, or 0 if its members aren't checked.
+	 */
+	private int dimension(String column, Errors errors) {
+		if (members == null) {
+			return 0;
+		}
+		int dimension = Integer.parseInt(column.substring("_dim".length(), column.length() - "_member".length()));
+		if (dimension < 1 || dimension > members.dimensions()) {
+			errors.add(1, "the model has no dimension " + dimension + " for " + column + ".");
+			return 0;
+		}
+		return dimension;
+	}
+
+	/**
+	 * @return what is wrong with a header of these columns for the file type, if anything.
+	 */
+	static List<String> headerErrors(List<String> names, DataType type) {
+		List<String> messages = new ArrayList<>();
+		Set<String> seen = new HashSet<>();
+		boolean members = false;
+		boolean values = false;
+		for (String name : names) {
+			if (!seen.add(name)) {
+				messages.add("the column " + name + " appears more than once.");
+			}
+			members |= MEMBER_COLUMN.matcher(name).matches();
+			values |= VALUE_COLUMNS.contains(name);
+		}
+
+		if (type == DataType.intersections || type == DataType.values || type == DataType.lids) {
+			if (!members) {
+				messages.add("there are no _dimN_member columns.");
+			}
+			if (!values) {
+				messages.add("there is no " + (type == DataType.lids ? "_lid_value" : "_value") + " column.");
+			}
+		}
+		return messages;
+	}
+
+	/**
+	 * Checks the rows read by the parser, whose input starts on the given line of the file.
+	 */
+	private void checkRecords(CSVParser parser, Iterator<CSVRecord> records, long firstLine, Columns columns, Errors errors) {
+		long linesBefore = parser.getCurrentLineNumber();
+		try {
+			while (!errors.full() && records.hasNext()) {
+				CSVRecord record = records.next();
+				long line = firstLine + linesBefore;
+				linesBefore = parser.getCurrentLineNumber();
+				errors.rows++;
+
+				if (record.size() > columns.names.size() || record.size() < columns.required) {
+					String expected = record.size() > columns.names.size() || columns.required == columns.names.size()
+							? Integer.toString(columns.names.size()) : "at least " + columns.required;
+					errors.add(line, "expected " + expected + " columns but found " + record.size() + ".");
+					continue;
+				}
+				for (int i = 0; i < columns.members.size(); i++) {
+					int column = columns.members.get(i);
+					String member = record.get(column);
+					int dimension = columns.dimensions.get(i);
+					if (member.trim().isEmpty()) {
+						errors.add(line, "there is no member in " + columns.names.get(column) + ".");
+					} else if (dimension > 0 && !members.contains(dimension, member)) {
+						errors.add(line, columns.names.get(column) + " \"" + member + "\" is not a member of " + members.dimensionName(dimension) + ".");
+					}
+				}
+				for (int column : columns.values) {
+					String value = record.get(column).trim();
+					if (!value.isEmpty() && !isNumber(value)) {
+						errors.add(line, columns.names.get(column) + " \"" + value + "\" is not a number.");
+					}
+				}
+			}
+		} catch (IllegalStateException e) {
+			// The parser can't find its place again after a bad row, so give up on the rest of this block.
+			errors.add(firstLine + linesBefore, "the row could not be read. " + describe(e));
+		}
+	}
+
+	private static String describe(IllegalStateException e) {
+		Throwable cause = e.getCause() != null ? e.getCause() : e;
+		if (cause instanceof CharacterCodingException) {
+			return "It is not valid text in the file's encoding.";
+		}
+		// The parser numbers lines from the start of the block, which means nothing to the user.
+		return cause.getMessage().replaceFirst("^\\(line \\d+\\) ", "");
+	}
+
+	/**
+	 * Decodes a block, noting each line that has bytes the encoding doesn't allow.
+	 */
+	private static Reader decode(Block block, Charset charset, Errors errors) {
+		CharsetDecoder decoder = charset.newDecoder()
+				.onMalformedInput(CodingErrorAction.REPORT)
+				.onUnmappableCharacter(CodingErrorAction.REPORT);
+		ByteBuffer in = ByteBuffer.wrap(block.bytes);
+		CharBuffer out = CharBuffer.allocate((int) (block.bytes.length * (double) decoder.maxCharsPerByte()) + 1);
+		long lastErrorLine = 0;
+		while (true) {
+			CoderResult result = decoder.decode(in, out, true);
+			if (!result.isError()) {
+				break;
+			}
+			long line = block.line + countLines(block.bytes, in.position());
+			if (line != lastErrorLine) {
+				errors.add(line, "it is not valid " + charset.name() + " text.");
+				lastErrorLine = line;
+			}
+			in.position(in.position() + result.length());
+			out.put('\uFFFD');
+		}
+		decoder.flush(out);
+		out.flip();
+		return new CharArrayReader(out.array(), 0, out.limit());
+	}
+
+	static int countLines(byte[] bytes, int end) {
+		int lines = 0;
+		for (int i = 0; i < end; i++) {
+			if (bytes[i] == '\n' || (bytes[i] == '\r' && (i + 1 == bytes.length || bytes[i + 1] != '\n'))) {
+				lines++;
+			}
+		}
+		return lines;
+	}
+
+	static boolean isNumber(String value) {
+		int i = 0;
+		int length = value.length();
+		if (i < length && (value.charAt(i) == '-' || value.charAt(i) == '+')) {
+			i++;
+		}
+		int digits = 0;
+		while (i < length && Character.isDigit(value.charAt(i))) {
+			i++;
+			digits++;
+		}
+		if (i < length && value.charAt(i) == '.') {
+			i++;
+			while (i < length && Character.isDigit(value.charAt(i))) {
+				i++;
+				digits++;
+			}
+		}
+		if (digits == 0) {
+			return false;
+		}
+		if (i < length && (value.charAt(i) == 'e' || value.charAt(i) == 'E')) {
+			i++;
+			if (i < length && (value.charAt(i) == '-' || value.charAt(i) == '+')) {
+				i++;
+			}
+			int exponentDigits = 0;
+			while (i < length && Character.isDigit(value.charAt(i))) {
+				i++;
+				exponentDigits++;
+			}
+			if (exponentDigits == 0) {
+				return false;
+			}
+		}
+		return i == length;
+	}
+
+	private static void acquire(Semaphore semaphore) throws IOException {
+		try {
+			semaphore.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while checking file.", e);
+		}
+	}
+
+	private static Errors await(Future<Errors> result) throws IOException {
+		try {
+			return result.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while checking file.", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		}
+	}
+
+	/**
+	 * Cuts a stream into blocks of whole rows. A line break inside quotes belongs to a field, so
+	 * only line breaks outside quotes end a block. \r\n, \n and \r all end a line.
+	 */
+	static class BlockSplitter {
+
+		private final InputStream in;
+		private byte[] buffer;
+		private int length;
+		private int scanned;
+		private int lines;
+		private boolean inQuotes;
+		private int boundary;
+		private int boundaryLines;
+		private boolean eof;
+		private long line = 1;
+
+		BlockSplitter(InputStream in, int blockSize) {
+			this.in = in;
+			this.buffer = new byte[blockSize];
+		}
+
+		/**
+		 * @param single if true, returns just the next row.
+		 * @return the next rows, or null at the end of the stream.
+		 */
+		Block next(boolean single) throws IOException {
+			while (true) {
+				scan(single);
+				if (boundary > 0 && (single || eof || length == buffer.length)) {
+					return cut(boundary, boundaryLines);
+				}
+				if (eof) {
+					return length > 0 ? cut(length, lines) : null;
+				}
+				if (length == buffer.length) {
+					// One row is longer than a block.
+					buffer = Arrays.copyOf(buffer, 2 * buffer.length);
+				}
+				int read = in.read(buffer, length, buffer.length - length);
+				if (read == -1) {
+					eof = true;
+				} else {
+					length += read;
+				}
+			}
+		}
+
+		private void scan(boolean single) {
+			for (; scanned < length; scanned++) {
+				byte b = buffer[scanned];
+				if (b == '"') {
+					inQuotes = !inQuotes;
+					continue;
+				}
+				if (b != '\n' && b != '\r') {
+					continue;
+				}
+				if (b == '\r') {
+					if (scanned + 1 == length && !eof) {
+						// Wait to see whether a \n follows.
+						return;
+					}
+					if (scanned + 1 < length && buffer[scanned + 1] == '\n') {
+						continue;
+					}
+				}
+				lines++;
+				if (!inQuotes) {
+					boundary = scanned + 1;
+					boundaryLines = lines;
+					if (single) {
+						scanned++;
+						return;
+					}
+				}
+			}
+		}
+
+		private Block cut(int end, int endLines) {
+			Block block = new Block(line, Arrays.copyOf(buffer, end));
+			System.arraycopy(buffer, end, buffer, 0, length - end);
+			length -= end;
+			scanned -= end;
+			lines -= endLines;
+			line += endLines;
+			boundary = 0;
+			boundaryLines = 0;
+			return block;
+		}
+	}
+}
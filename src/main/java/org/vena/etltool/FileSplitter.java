@@ -0,0 +1,127 @@
+package org.vena.etltool;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Plans how to cut a data file into parts of about the same size, or with the same number of rows,
+ * so each part can be loaded as its own step. Parts end at a line break outside quotes, and every
+ * part after the first is sent with a copy of the file's header. The cuts are found with the
+ * file's {@link LineIndex}.
+ */
+class FileSplitter {
+
+	private final long maxBytes;
+	private final long maxRows;
+
+	/**
+	 * Where the parts are in the file, as {offset, length} pairs.
+	 */
+	static class Plan {
+		long headerLength = -1;
+		final List<long[]> parts = new ArrayList<>();
+	}
+
+	/**
+	 * @param maxBytes start a new part once a part is at least this long, or 0 for no limit.
+	 * @param maxRows start a new part once a part has this many rows, or 0 for no limit.
+	 */
+	FileSplitter(long maxBytes, long maxRows) {
+		this.maxBytes = maxBytes;
+		this.maxRows = maxRows;
+	}
+
+	Plan plan(File file) throws IOException {
+		return plan(LineIndex.load(file));
+	}
+
+	Plan plan(LineIndex index) throws IOException {
+		Plan plan = new Plan();
+		long length = index.getFileLength();
+		long lineCount = index.getLineCount();
+		plan.headerLength = lineCount > 1 ? index.offsetOfLine(2) : length;
+
+		long partStart = 0;
+		long partLine = 2;
+		while (partStart < length) {
+			long end = length;
+			long endLine = lineCount + 1;
+			if (maxRows > 0 && partLine + maxRows <= lineCount) {
+				endLine = partLine + maxRows;
+				end = index.offsetOfLine(endLine);
+			}
+			if (maxBytes > 0) {
+				// Every part has at least one row.
+				long[] next = index.firstLineAtOrAfter(Math.max(partStart + maxBytes, partStart == 0 ? plan.headerLength + 1 : partStart + 1));
+				if (next[1] < end) {
+					endLine = next[0];
+					end = next[1];
+				}
+			}
+			plan.parts.add(new long[] {partStart, end - partStart});
+			partStart = end;
+			partLine = endLine;
+		}
+
+		if (plan.parts.isEmpty()) {
+			plan.parts.add(new long[] {0, length});
+		}
+		return plan;
+	}
+
+	/**
+	 * Opens part of a file, with the given number of bytes from the start of the file sent ahead of it.
+	 */
+	static InputStream open(File file, long headerLength, long offset, long length) throws IOException {
+		InputStream part = new RangeInputStream(file, offset, length);
+		if (headerLength == 0) {
+			return part;
+		}
+		return new SequenceInputStream(new RangeInputStream(file, 0, headerLength), part);
+	}
+
+	private static class RangeInputStream extends InputStream {
+
+		private final RandomAccessFile file;
+		private final FileChannel channel;
+		private long position;
+		private final long end;
+
+		RangeInputStream(File file, long offset, long length) throws IOException {
+			this.file = new RandomAccessFile(file, "r");
+			this.channel = this.file.getChannel();
+			this.position = offset;
+			this.end = offset + length;
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (position >= end) {
+				return -1;
+			}
+			int read = channel.read(ByteBuffer.wrap(b, off, (int) Math.min(len, end - position)), position);
+			if (read > 0) {
+				position += read;
+			}
+			return read;
+		}
+
+		@Override
+		public void close() throws IOException {
+			file.close();
+		}
+	}
+}
@@ -0,0 +1,615 @@
+package org.vena.etltool;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.regex.Pattern;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVPrinter;
+import org.apache.commons.csv.CSVRecord;
+import org.vena.etltool.entities.ETLFileImportStepDTO.FileFormat;
+
+/**
+ * Reduces an intersections file before it is uploaded, by adding up the values of rows with the same
+ * members into one row and leaving out rows whose value is 0.
+ *
+ * Each member is replaced by a number from a dictionary kept for its column, and the values are added
+ * up in a hash table keyed by those numbers, which holds no objects per row. When the table outgrows
+ * its memory it is written to disk as a sorted run, and the runs are merged at the end, so files with
+ * more distinct intersections than fit in memory can be reduced too. The dictionaries stay in memory.
+ */
+class IntersectionAggregator {
+
+	private static final Pattern MEMBER_COLUMN = Pattern.compile("_dim\\d+_member");
+	private static final String VALUE_COLUMN = "_value";
+
+	/** About how much memory the hash table can use before it is written to disk. */
+	long memoryBytes = Math.min(256L * 1024 * 1024, Runtime.getRuntime().maxMemory() / 4);
+
+	private final InputStream in;
+	private final String description;
+	private final CSVFormat csvFormat;
+	private final Charset charset;
+	private final boolean aggregate;
+	private final boolean dropZeros;
+
+	private String[] header;
+	private int valueColumn;
+	/** How many columns a row needs, since the ones after the last member or value column can be left off. */
+	private int required;
+	/** The columns of the members, in the order they are in the file. */
+	private int[] memberColumns;
+	private Dictionary[] dictionaries;
+	/** The most digits after the decimal point of any value, which sums are rounded to. */
+	private int scale = 0;
+
+	static class Result {
+		long rowsIn;
+		long rowsOut;
+		/** Rows that were added to an earlier row with the same members. */
+		long combined;
+		long zeros;
+	}
+
+	/**
+	 * @param aggregate whether to add up the values of rows with the same members.
+	 * @param dropZeros whether to leave out rows whose value is 0.
+	 */
+	IntersectionAggregator(InputStream in, String description, FileFormat format, String encoding, boolean aggregate, boolean dropZeros) {
+		this.in = in;
+		this.description = description;
+		this.csvFormat = FilePreflight.csvFormat(format);
+		this.charset = encoding == null ? StandardCharsets.UTF_8 : Charset.forName(encoding);
+		this.aggregate = aggregate;
+		this.dropZeros = dropZeros;
+	}
+
+	static File directory() {
+		return new File(UploadCache.directory(), "reduced");
+	}
+
+	/**
+	 * @return a new file to write the reduced rows to, so runs that reduce the same source at once don't share one.
+	 */
+	static File createOutputFile(FileFormat format) throws IOException {
+		File directory = directory();
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Could not create " + directory);
+		}
+		return File.createTempFile("reduced-", "." + (format == null ? "csv" : format.name().toLowerCase()), directory);
+	}
+
+	/**
+	 * Writes the reduced rows to a file in the same format and encoding as the input, which is closed.
+	 * @throws IllegalArgumentException if the input isn't an intersections file whose rows can be reduced.
+	 */
+	Result reduce(File output) throws IOException {
+		Result result = new Result();
+		List<File> runs = new ArrayList<>();
+		try (Reader reader = new InputStreamReader(new BufferedInputStream(in, 1 << 16), charset);
+				CSVParser parser = new CSVParser(reader, csvFormat);
+				CSVPrinter printer = new CSVPrinter(new OutputStreamWriter(new BufferedOutputStream(new FileOutputStream(output), 1 << 16), charset), csvFormat)) {
+			Iterator<CSVRecord> records = parser.iterator();
+			if (!records.hasNext()) {
+				throw new IllegalArgumentException(description + " is empty.");
+			}
+			readHeader(records.next());
+			printer.printRecord((Object[]) header);
+
+			if (aggregate) {
+				Table table = add(parser, records, runs, result);
+				if (runs.isEmpty()) {
+					write(table, printer, result);
+				} else {
+					if (table.size > 0) {
+						runs.add(spill(table));
+					}
+					merge(runs, printer, result);
+				}
+			} else {
+				filter(parser, records, printer, result);
+			}
+			result.combined = result.rowsIn - result.rowsOut - result.zeros;
+		} catch (IllegalStateException e) {
+			// The parser reports malformed rows this way.
+			throw new IllegalArgumentException(description + " could not be read: " + e.getMessage(), e);
+		} finally {
+			for (File run : runs) {
+				run.delete();
+			}
+		}
+		return result;
+	}
+
+	private void readHeader(CSVRecord record) {
+		header = new String[record.size()];
+		for (int i = 0; i < header.length; i++) {
+			header[i] = record.get(i);
+		}
+		if (header.length > 0 && header[0].startsWith("\uFEFF")) {
+			header[0] = header[0].substring(1);
+		}
+		valueColumn = Arrays.asList(header).indexOf(VALUE_COLUMN);
+		if (valueColumn < 0) {
+			throw new IllegalArgumentException(description + " has no " + VALUE_COLUMN + " column.");
+		}
+		required = valueColumn + 1;
+		for (int i = 0; i < header.length; i++) {
+			if (MEMBER_COLUMN.matcher(header[i]).matches()) {
+				required = Math.max(required, i + 1);
+			}
+		}
+		if (!aggregate) {
+			return;
+		}
+		List<Integer> columns = new ArrayList<>();
+		for (int i = 0; i < header.length; i++) {
+			if (i == valueColumn) {
+				continue;
+			}
+			if (!MEMBER_COLUMN.matcher(header[i]).matches()) {
+				throw new IllegalArgumentException(description + " has a " + header[i] + " column, so its rows can't be aggregated."
+						+ " Only _dimN_member and " + VALUE_COLUMN + " columns can be.");
+			}
+			columns.add(i);
+		}
+		memberColumns = new int[columns.size()];
+		dictionaries = new Dictionary[columns.size()];
+		for (int i = 0; i < memberColumns.length; i++) {
+			memberColumns[i] = columns.get(i);
+			dictionaries[i] = new Dictionary();
+		}
+	}
+
+	/**
+	 * @return the value of the row, or NaN if it has none.
+	 */
+	private double value(CSVRecord record, long line) {
+		if (record.size() > header.length || record.size() < required) {
+			String expected = record.size() > header.length || required == header.length ? Integer.toString(header.length) : "at least " + required;
+			throw new IllegalArgumentException(description + " line " + line + ": expected " + expected + " columns but found " + record.size() + ".");
+		}
+		String text = record.get(valueColumn).trim();
+		if (text.isEmpty()) {
+			return Double.NaN;
+		}
+		try {
+			double value = Double.parseDouble(text);
+			if (aggregate) {
+				scale = Math.max(scale, decimals(text));
+			}
+			return value;
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException(description + " line " + line + ": " + VALUE_COLUMN + " \"" + text + "\" is not a number.");
+		}
+	}
+
+	/**
+	 * @return how many digits after the decimal point the number has, once any exponent is applied.
+	 */
+	static int decimals(String number) {
+		int point = -1;
+		int exponent = number.length();
+		for (int i = 0; i < number.length(); i++) {
+			char c = number.charAt(i);
+			if (c == '.') {
+				point = i;
+			} else if (c == 'e' || c == 'E') {
+				exponent = i;
+				break;
+			}
+		}
+		int decimals = point < 0 ? 0 : exponent - point - 1;
+		if (exponent < number.length()) {
+			decimals -= Integer.parseInt(number.substring(exponent + 1).replace("+", ""));
+		}
+		return Math.max(decimals, 0);
+	}
+
+	private void filter(CSVParser parser, Iterator<CSVRecord> records, CSVPrinter printer, Result result) throws IOException {
+		long line = parser.getCurrentLineNumber() + 1;
+		while (records.hasNext()) {
+			CSVRecord record = records.next();
+			result.rowsIn++;
+			if (value(record, line) == 0) {
+				result.zeros++;
+			} else {
+				printer.printRecord(record);
+				result.rowsOut++;
+			}
+			line = parser.getCurrentLineNumber() + 1;
+		}
+	}
+
+	/**
+	 * Adds up the rows in the hash table, writing it to disk as a sorted run whenever it gets too big.
+	 */
+	private Table add(CSVParser parser, Iterator<CSVRecord> records, List<File> runs, Result result) throws IOException {
+		Table table = new Table(memberColumns.length, 1 << 12);
+		int[] key = new int[memberColumns.length];
+		long line = parser.getCurrentLineNumber() + 1;
+		while (records.hasNext()) {
+			CSVRecord record = records.next();
+			result.rowsIn++;
+			double value = value(record, line);
+			for (int i = 0; i < key.length; i++) {
+				key[i] = dictionaries[i].id(record.get(memberColumns[i]));
+			}
+			if (table.full() && table.size > 0 && table.bytesWhenGrown() > memoryBytes) {
+				runs.add(spill(table));
+				table.clear();
+			}
+			table.add(key, value);
+			line = parser.getCurrentLineNumber() + 1;
+		}
+		return table;
+	}
+
+	private void write(Table table, CSVPrinter printer, Result result) throws IOException {
+		int[] key = new int[table.width];
+		for (int entry = 0; entry < table.size; entry++) {
+			System.arraycopy(table.keys, entry * table.width, key, 0, table.width);
+			print(key, table.sums[entry], printer, result);
+		}
+	}
+
+	private void print(int[] key, double sum, CSVPrinter printer, Result result) throws IOException {
+		if (dropZeros && sum == 0) {
+			result.zeros++;
+			return;
+		}
+		String[] values = new String[header.length];
+		for (int i = 0; i < key.length; i++) {
+			values[memberColumns[i]] = dictionaries[i].member(key[i]);
+		}
+		values[valueColumn] = format(sum);
+		printer.printRecord((Object[]) values);
+		result.rowsOut++;
+	}
+
+	/**
+	 * Writes a sum without the binary rounding error of adding it up, e.g. 0.3 instead of 0.30000000000000004.
+	 */
+	private String format(double sum) {
+		if (Double.isNaN(sum)) {
+			return "";
+		}
+		if (Double.isInfinite(sum)) {
+			return Double.toString(sum);
+		}
+		BigDecimal decimal = BigDecimal.valueOf(sum).setScale(scale, RoundingMode.HALF_EVEN);
+		return decimal.signum() == 0 ? "0" : decimal.stripTrailingZeros().toPlainString();
+	}
+
+	/**
+	 * Adds two values, where NaN means no value.
+	 */
+	private static double plus(double a, double b) {
+		if (Double.isNaN(a)) {
+			return b;
+		}
+		return Double.isNaN(b) ? a : a + b;
+	}
+
+	private File spill(Table table) throws IOException {
+		File run = File.createTempFile("etl-aggregate-", ".run");
+		run.deleteOnExit();
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run), 1 << 16))) {
+			for (int entry : table.sorted()) {
+				for (int i = 0; i < table.width; i++) {
+					out.writeInt(table.keys[entry * table.width + i]);
+				}
+				out.writeDouble(table.sums[entry]);
+			}
+		}
+		return run;
+	}
+
+	private void merge(List<File> runs, CSVPrinter printer, Result result) throws IOException {
+		final int width = memberColumns.length;
+		PriorityQueue<RunReader> heads = new PriorityQueue<>(runs.size(), new Comparator<RunReader>() {
+			@Override
+			public int compare(RunReader a, RunReader b) {
+				for (int i = 0; i < width; i++) {
+					int order = Integer.compare(a.key[i], b.key[i]);
+					if (order != 0) {
+						return order;
+					}
+				}
+				return 0;
+			}
+		});
+		try {
+			for (File run : runs) {
+				RunReader reader = new RunReader(run, width);
+				if (reader.next()) {
+					heads.add(reader);
+				} else {
+					reader.close();
+				}
+			}
+
+			int[] key = new int[width];
+			while (!heads.isEmpty()) {
+				RunReader head = heads.poll();
+				System.arraycopy(head.key, 0, key, 0, width);
+				double sum = head.sum;
+				advance(head, heads);
+				// Each run has a key at most once, so the other rows with this key are at the heads of other runs.
+				while (!heads.isEmpty() && Arrays.equals(heads.peek().key, key)) {
+					head = heads.poll();
+					sum = plus(sum, head.sum);
+					advance(head, heads);
+				}
+				print(key, sum, printer, result);
+			}
+		} finally {
+			for (RunReader reader : heads) {
+				reader.close();
+			}
+		}
+	}
+
+	private static void advance(RunReader reader, PriorityQueue<RunReader> heads) throws IOException {
+		if (reader.next()) {
+			heads.add(reader);
+		} else {
+			reader.close();
+		}
+	}
+
+	/**
+	 * An open addressing hash table from the member ids of an intersection to the sum of its values. The
+	 * keys and sums are kept in arrays in the order they were added, which the slots index into.
+	 */
+	private static class Table {
+		final int width;
+		int[] slots;
+		int[] keys;
+		double[] sums;
+		int size;
+
+		Table(int width, int capacity) {
+			this.width = width;
+			this.slots = new int[capacity * 2];
+			this.keys = new int[capacity * width];
+			this.sums = new double[capacity];
+		}
+
+		boolean full() {
+			return size == sums.length;
+		}
+
+		long bytesWhenGrown() {
+			return 2 * (4L * slots.length + 4L * keys.length + 8L * sums.length);
+		}
+
+		void add(int[] key, double value) {
+			int mask = slots.length - 1;
+			int slot = hash(key, 0) & mask;
+			while (slots[slot] != 0) {
+				int entry = slots[slot] - 1;
+				if (equals(entry, key)) {
+					sums[entry] = plus(sums[entry], value);
+					return;
+				}
+				slot = (slot + 1) & mask;
+			}
+			if (full()) {
+				grow();
+				add(key, value);
+				return;
+			}
+			System.arraycopy(key, 0, keys, size * width, width);
+			sums[size] = value;
+			slots[slot] = ++size;
+		}
+
+		private boolean equals(int entry, int[] key) {
+			int offset = entry * width;
+			for (int i = 0; i < width; i++) {
+				if (keys[offset + i] != key[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private int hash(int[] key, int offset) {
+			int hash = 0;
+			for (int i = 0; i < width; i++) {
+				hash = hash * 31 + key[offset + i];
+			}
+			hash ^= hash >>> 16;
+			hash *= 0x85ebca6b;
+			hash ^= hash >>> 13;
+			return hash;
+		}
+
+		private void grow() {
+			keys = Arrays.copyOf(keys, keys.length * 2);
+			sums = Arrays.copyOf(sums, sums.length * 2);
+			slots = new int[slots.length * 2];
+			int mask = slots.length - 1;
+			for (int entry = 0; entry < size; entry++) {
+				int slot = hash(keys, entry * width) & mask;
+				while (slots[slot] != 0) {
+					slot = (slot + 1) & mask;
+				}
+				slots[slot] = entry + 1;
+			}
+		}
+
+		void clear() {
+			Arrays.fill(slots, 0);
+			size = 0;
+		}
+
+		/**
+		 * @return the entries in the order of their keys, by a merge sort that needs no objects per entry.
+		 */
+		int[] sorted() {
+			int[] order = new int[size];
+			for (int i = 0; i < size; i++) {
+				order[i] = i;
+			}
+			int[] buffer = new int[size];
+			for (int length = 1; length < size; length *= 2) {
+				for (int start = 0; start < size; start += 2 * length) {
+					int middle = Math.min(start + length, size);
+					int end = Math.min(start + 2 * length, size);
+					int left = start;
+					int right = middle;
+					for (int i = start; i < end; i++) {
+						if (right >= end || (left < middle && compare(order[left], order[right]) <= 0)) {
+							buffer[i] = order[left++];
+						} else {
+							buffer[i] = order[right++];
+						}
+					}
+				}
+				int[] swap = order;
+				order = buffer;
+				buffer = swap;
+			}
+			return order;
+		}
+
+		private int compare(int a, int b) {
+			for (int i = 0; i < width; i++) {
+				int order = Integer.compare(keys[a * width + i], keys[b * width + i]);
+				if (order != 0) {
+					return order;
+				}
+			}
+			return 0;
+		}
+	}
+
+	/**
+	 * Numbers the members of a column in the order they are first seen. The members are kept one after
+	 * another in a char array, with an open addressing hash table of their numbers, rather than as a
+	 * String each, so a column with millions of members takes little more memory than their text.
+	 */
+	private static class Dictionary {
+		private char[] text = new char[1 << 12];
+		private int length;
+		/** Where each member starts in the text; the next one's start is where it ends. */
+		private int[] starts = new int[(1 << 10) + 1];
+		private int size;
+		private int[] slots = new int[1 << 11];
+
+		int id(String member) {
+			int mask = slots.length - 1;
+			int hash = member.hashCode();
+			int slot = (hash ^ (hash >>> 16)) & mask;
+			while (slots[slot] != 0) {
+				int id = slots[slot] - 1;
+				if (matches(id, member)) {
+					return id;
+				}
+				slot = (slot + 1) & mask;
+			}
+			int id = size;
+			if (length + member.length() > text.length) {
+				text = Arrays.copyOf(text, Math.max(text.length * 2, length + member.length()));
+			}
+			member.getChars(0, member.length(), text, length);
+			length += member.length();
+			if (size + 2 > starts.length) {
+				starts = Arrays.copyOf(starts, starts.length * 2);
+			}
+			starts[++size] = length;
+			slots[slot] = size;
+			if (size * 2 > slots.length) {
+				rehash();
+			}
+			return id;
+		}
+
+		String member(int id) {
+			return new String(text, starts[id], starts[id + 1] - starts[id]);
+		}
+
+		private boolean matches(int id, String member) {
+			int start = starts[id];
+			if (starts[id + 1] - start != member.length()) {
+				return false;
+			}
+			for (int i = 0; i < member.length(); i++) {
+				if (text[start + i] != member.charAt(i)) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private void rehash() {
+			slots = new int[slots.length * 2];
+			int mask = slots.length - 1;
+			for (int id = 0; id < size; id++) {
+				int hash = 0;
+				for (int i = starts[id]; i < starts[id + 1]; i++) {
+					hash = 31 * hash + text[i];
+				}
+				int slot = (hash ^ (hash >>> 16)) & mask;
+				while (slots[slot] != 0) {
+					slot = (slot + 1) & mask;
+				}
+				slots[slot] = id + 1;
+			}
+		}
+	}
+
+	private static class RunReader {
+		private final DataInputStream in;
+		final int[] key;
+		double sum;
+
+		RunReader(File run, int width) throws IOException {
+			this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(run), 1 << 16));
+			this.key = new int[width];
+		}
+
+		/**
+		 * @return false at the end of the run.
+		 */
+		boolean next() throws IOException {
+			try {
+				for (int i = 0; i < key.length; i++) {
+					key[i] = in.readInt();
+				}
+				sum = in.readDouble();
+				return true;
+			} catch (EOFException e) {
+				return false;
+			}
+		}
+
+		void close() throws IOException {
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,582 @@
+package org.vena.etltool;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVPrinter;
+import org.apache.commons.csv.CSVRecord;
+import org.vena.etltool.entities.ETLFileImportStepDTO.FileFormat;
+import org.vena.etltool.entities.ETLJobDTO;
+import org.vena.etltool.entities.ETLStepDTO.Status;
+import org.vena.etltool.entities.Id;
+
+/**
+ * Works out which rows of an intersections file changed since the file was last loaded into a model,
+ * so that only those rows are sent. Intersections that are no longer in the file are sent with a
+ * value of 0.
+ *
+ * The rows of the last load are kept in a snapshot, sorted by their members, with a hash of each row.
+ * The new file is sorted the same way in runs of bounded size, which are merged with each other and
+ * with the snapshot in one pass, so files much larger than memory can be compared. The new snapshot
+ * replaces the old one once the job that loads the changes is known to have completed.
+ */
+class IntersectionDelta {
+
+	static final long DEFAULT_RUN_BYTES = 64L * 1024 * 1024;
+
+	private static final String SNAPSHOT_MAGIC = "VENA-ETL-SNAPSHOT";
+	// 2 keys rows by their _dimN_member columns alone.
+	private static final int SNAPSHOT_VERSION = 2;
+	private static final String VALUE_COLUMN = "_value";
+	private static final char KEY_SEPARATOR = '\u0000';
+
+	/** How much of the new file to sort in memory at a time, roughly. */
+	long runBytes = DEFAULT_RUN_BYTES;
+
+	private final File file;
+	private final CSVFormat csvFormat;
+	private final Charset charset;
+	private final File directory;
+	private final String name;
+	private final File snapshotFile;
+	private final File newSnapshotFile;
+	private final File deltaFile;
+	private File pendingFile;
+
+	static class Result {
+		long rows;
+		long changed;
+		long deleted;
+
+		/** The file to send in place of the whole file, or null if there is no earlier load to compare with. */
+		File deltaFile;
+	}
+
+	/**
+	 * @param directory where the snapshots are kept.
+	 */
+	IntersectionDelta(File directory, Id modelId, File file, FileFormat format, String encoding) throws IOException {
+		this(directory, modelId, file, null, format, encoding);
+	}
+
+	/**
+	 * @param source what the file was made from, whose snapshot is used in place of the file's own, or null.
+	 */
+	IntersectionDelta(File directory, Id modelId, File file, String source, FileFormat format, String encoding) throws IOException {
+		this.file = file;
+		this.csvFormat = FilePreflight.csvFormat(format);
+		this.charset = encoding == null ? StandardCharsets.UTF_8 : Charset.forName(encoding);
+		this.directory = directory;
+		this.name = snapshotName(modelId, source != null ? source : file.getCanonicalPath());
+		this.snapshotFile = new File(directory, name + ".snapshot");
+		this.newSnapshotFile = new File(directory, name + ".snapshot.new");
+		this.deltaFile = new File(directory, name + ".delta");
+	}
+
+	static File directory() {
+		return new File(UploadCache.directory(), "snapshots");
+	}
+
+	/**
+	 * Compares the file with the snapshot of its last load, writing the changed rows to a delta file and the
+	 * file's rows to a new snapshot.
+	 * @param etlClient used to find out how the job that loaded the last changes turned out, if the tool didn't wait for it.
+	 * @throws IllegalArgumentException if the file isn't an intersections file.
+	 */
+	Result compute(ETLClient etlClient) throws IOException {
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Could not create " + directory);
+		}
+		resolvePending(etlClient);
+
+		Result result = new Result();
+		List<File> runs = new ArrayList<>();
+		try (Reader reader = new InputStreamReader(new BufferedInputStream(new FileInputStream(file), 1 << 16), charset);
+				CSVParser parser = new CSVParser(reader, csvFormat)) {
+			Iterator<CSVRecord> records = parser.iterator();
+			if (!records.hasNext()) {
+				throw new IllegalArgumentException(file + " is empty.");
+			}
+			String[] header = values(records.next());
+			if (header.length > 0 && header[0].startsWith("\uFEFF")) {
+				header[0] = header[0].substring(1);
+			}
+			int valueColumn = Arrays.asList(header).indexOf(VALUE_COLUMN);
+			int[] memberColumns = memberColumns(header);
+			if (memberColumns.length == 0) {
+				throw new IllegalArgumentException(file + " has no _dimN_member columns.");
+			}
+			if (valueColumn < 0) {
+				throw new IllegalArgumentException(file + " has no " + VALUE_COLUMN + " column.");
+			}
+
+			RowSource rows = sort(records, memberColumns, runs, result);
+			try (SnapshotReader snapshot = SnapshotReader.open(snapshotFile, header)) {
+				merge(rows, snapshot, header, memberColumns, valueColumn, result);
+			}
+		} catch (IllegalStateException e) {
+			// The parser reports malformed rows this way.
+			throw new IllegalArgumentException(file + " could not be read: " + e.getMessage(), e);
+		} finally {
+			for (File run : runs) {
+				run.delete();
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Records that a job was submitted to load the changes. The new snapshot is used once the job has completed.
+	 */
+	void submitted(Id jobId) throws IOException {
+		pendingFile = new File(directory, name + ".snapshot." + jobId + ".pending");
+		Files.move(newSnapshotFile.toPath(), pendingFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * Records that the job that loaded the changes completed.
+	 */
+	void completed() throws IOException {
+		Files.move(pendingFile.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		deltaFile.delete();
+	}
+
+	/**
+	 * Uses the snapshot of a load the tool didn't wait for if it completed, or forgets it if it didn't.
+	 */
+	private void resolvePending(ETLClient etlClient) throws IOException {
+		File[] pending = directory.listFiles();
+		if (pending == null) {
+			return;
+		}
+		for (File candidate : pending) {
+			String fileName = candidate.getName();
+			String prefix = name + ".snapshot.";
+			if (!fileName.startsWith(prefix) || !fileName.endsWith(".pending")) {
+				continue;
+			}
+			String jobId = fileName.substring(prefix.length(), fileName.length() - ".pending".length());
+			ETLJobDTO job = etlClient.tryRequestJobStatus(jobId);
+			if (job != null && !job.isError() && !job.isCancelRequested() && job.getStatus() == Status.COMPLETED) {
+				Files.move(candidate.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			} else {
+				candidate.delete();
+			}
+		}
+	}
+
+	private static String snapshotName(Id modelId, String source) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		byte[] hash = digest.digest((modelId + "|" + source).getBytes(StandardCharsets.UTF_8));
+		StringBuilder hex = new StringBuilder();
+		for (int i = 0; i < 16; i++) {
+			hex.append(String.format("%02x", hash[i]));
+		}
+		return hex.toString();
+	}
+
+	/**
+	 * @return the indexes of the _dimN_member columns, which identify an intersection. The other columns
+	 * only count as part of what changed.
+	 */
+	private static int[] memberColumns(String[] header) {
+		List<Integer> columns = new ArrayList<>();
+		for (int i = 0; i < header.length; i++) {
+			if (FilePreflight.MEMBER_COLUMN.matcher(header[i]).matches()) {
+				columns.add(i);
+			}
+		}
+		int[] indexes = new int[columns.size()];
+		for (int i = 0; i < indexes.length; i++) {
+			indexes[i] = columns.get(i);
+		}
+		return indexes;
+	}
+
+	/**
+	 * Sorts the rows by their members, spilling sorted runs to disk whenever the rows held in memory get too big.
+	 */
+	private RowSource sort(Iterator<CSVRecord> records, int[] memberColumns, List<File> runs, Result result) throws IOException {
+		List<Row> run = new ArrayList<>();
+		long size = 0;
+		while (records.hasNext()) {
+			Row row = new Row(values(records.next()), memberColumns, result.rows++);
+			run.add(row);
+			size += row.size();
+			if (size >= runBytes) {
+				runs.add(spill(run));
+				run.clear();
+				size = 0;
+			}
+		}
+		Collections.sort(run, Row.ORDER);
+		if (runs.isEmpty()) {
+			return new ListSource(run);
+		}
+		if (!run.isEmpty()) {
+			runs.add(spill(run));
+		}
+		List<RowSource> sources = new ArrayList<>();
+		for (File spilled : runs) {
+			sources.add(new RunReader(spilled, memberColumns));
+		}
+		return new MergedSource(sources);
+	}
+
+	private File spill(List<Row> run) throws IOException {
+		Collections.sort(run, Row.ORDER);
+		File spilled = File.createTempFile("etl-delta-", ".run");
+		spilled.deleteOnExit();
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(spilled), 1 << 16))) {
+			for (Row row : run) {
+				out.writeLong(row.sequence);
+				out.writeInt(row.values.length);
+				for (String value : row.values) {
+					writeString(out, value);
+				}
+			}
+		}
+		return spilled;
+	}
+
+	private void merge(RowSource rows, SnapshotReader snapshot, String[] header, int[] memberColumns, int valueColumn, Result result) throws IOException {
+		CSVPrinter delta = null;
+		try (SnapshotWriter newSnapshot = new SnapshotWriter(newSnapshotFile, header)) {
+			if (snapshot != null) {
+				delta = new CSVPrinter(new OutputStreamWriter(new BufferedOutputStream(new FileOutputStream(deltaFile), 1 << 16), charset), csvFormat);
+				delta.printRecord((Object[]) header);
+			}
+
+			Row row = rows.next();
+			while (row != null) {
+				while (snapshot != null && snapshot.key != null && snapshot.key.compareTo(row.key) < 0) {
+					delta.printRecord((Object[]) zeroRow(snapshot.key, header.length, memberColumns, valueColumn));
+					result.deleted++;
+					snapshot.next();
+				}
+				boolean known = snapshot != null && row.key.equals(snapshot.key);
+
+				// Rows with the same members are all sent if there is more than one, and the last one counts.
+				Row next = rows.next();
+				boolean repeated = next != null && next.key.equals(row.key);
+				boolean changed = snapshot != null && (repeated || !known || snapshot.hash != row.hash());
+				while (true) {
+					if (changed) {
+						delta.printRecord((Object[]) row.values);
+						result.changed++;
+					}
+					if (next == null || !next.key.equals(row.key)) {
+						break;
+					}
+					row = next;
+					next = rows.next();
+				}
+
+				if (known) {
+					snapshot.next();
+				}
+				newSnapshot.write(row.key, row.hash());
+				row = next;
+			}
+			while (snapshot != null && snapshot.key != null) {
+				delta.printRecord((Object[]) zeroRow(snapshot.key, header.length, memberColumns, valueColumn));
+				result.deleted++;
+				snapshot.next();
+			}
+		} finally {
+			if (delta != null) {
+				delta.close();
+			}
+		}
+		if (snapshot != null) {
+			result.deltaFile = deltaFile;
+		} else {
+			deltaFile.delete();
+		}
+	}
+
+	private static String[] zeroRow(String key, int columns, int[] memberColumns, int valueColumn) {
+		String[] members = key.split(String.valueOf(KEY_SEPARATOR), -1);
+		String[] values = new String[columns];
+		Arrays.fill(values, "");
+		for (int m = 0; m < memberColumns.length; m++) {
+			values[memberColumns[m]] = members[m];
+		}
+		values[valueColumn] = "0";
+		return values;
+	}
+
+	private static String[] values(CSVRecord record) {
+		String[] values = new String[record.size()];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = record.get(i);
+		}
+		return values;
+	}
+
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		byte[] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static class Row {
+
+		static final Comparator<Row> ORDER = new Comparator<Row>() {
+			@Override
+			public int compare(Row a, Row b) {
+				int order = a.key.compareTo(b.key);
+				return order != 0 ? order : Long.compare(a.sequence, b.sequence);
+			}
+		};
+
+		final String[] values;
+		final String key;
+		final long sequence;
+
+		Row(String[] values, int[] memberColumns, long sequence) {
+			this.values = values;
+			this.sequence = sequence;
+			StringBuilder key = new StringBuilder();
+			for (int m = 0; m < memberColumns.length; m++) {
+				if (m > 0) {
+					key.append(KEY_SEPARATOR);
+				}
+				// A row can leave off trailing columns.
+				key.append(memberColumns[m] < values.length ? values[memberColumns[m]] : "");
+			}
+			this.key = key.toString();
+		}
+
+		/** A 64-bit FNV-1a hash of the row's values. */
+		long hash() {
+			long hash = 0xcbf29ce484222325L;
+			for (String value : values) {
+				for (int i = 0; i < value.length(); i++) {
+					hash = (hash ^ value.charAt(i)) * 0x100000001b3L;
+				}
+				hash = (hash ^ KEY_SEPARATOR) * 0x100000001b3L;
+			}
+			return hash;
+		}
+
+		long size() {
+			long size = 64 + 2L * key.length();
+			for (String value : values) {
+				size += 48 + 2L * value.length();
+			}
+			return size;
+		}
+	}
+
+	private interface RowSource {
+		/** @return the next row, or null at the end. */
+		Row next() throws IOException;
+	}
+
+	private static class ListSource implements RowSource {
+		private final Iterator<Row> rows;
+
+		ListSource(List<Row> rows) {
+			this.rows = rows.iterator();
+		}
+
+		@Override
+		public Row next() {
+			return rows.hasNext() ? rows.next() : null;
+		}
+	}
+
+	private static class RunReader implements RowSource {
+		private final DataInputStream in;
+		private final int[] memberColumns;
+
+		RunReader(File run, int[] memberColumns) throws IOException {
+			this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(run), 1 << 16));
+			this.memberColumns = memberColumns;
+		}
+
+		@Override
+		public Row next() throws IOException {
+			long sequence;
+			try {
+				sequence = in.readLong();
+			} catch (EOFException e) {
+				in.close();
+				return null;
+			}
+			String[] values = new String[in.readInt()];
+			for (int i = 0; i < values.length; i++) {
+				values[i] = readString(in);
+			}
+			return new Row(values, memberColumns, sequence);
+		}
+	}
+
+	private static class MergedSource implements RowSource {
+
+		private static class Head {
+			final RowSource source;
+			Row row;
+
+			Head(RowSource source, Row row) {
+				this.source = source;
+				this.row = row;
+			}
+		}
+
+		private final PriorityQueue<Head> heads;
+
+		MergedSource(List<RowSource> sources) throws IOException {
+			heads = new PriorityQueue<>(sources.size(), new Comparator<Head>() {
+				@Override
+				public int compare(Head a, Head b) {
+					return Row.ORDER.compare(a.row, b.row);
+				}
+			});
+			for (RowSource source : sources) {
+				Row row = source.next();
+				if (row != null) {
+					heads.add(new Head(source, row));
+				}
+			}
+		}
+
+		@Override
+		public Row next() throws IOException {
+			Head head = heads.poll();
+			if (head == null) {
+				return null;
+			}
+			Row row = head.row;
+			head.row = head.source.next();
+			if (head.row != null) {
+				heads.add(head);
+			}
+			return row;
+		}
+	}
+
+	private static class SnapshotWriter implements Closeable {
+		private final DataOutputStream out;
+
+		SnapshotWriter(File file, String[] header) throws IOException {
+			out = new DataOutputStream(new BufferedOutputStream(
+					new DeflaterOutputStream(new FileOutputStream(file), new Deflater(Deflater.BEST_SPEED), 1 << 16), 1 << 16));
+			out.writeUTF(SNAPSHOT_MAGIC);
+			out.writeInt(SNAPSHOT_VERSION);
+			out.writeInt(header.length);
+			for (String column : header) {
+				writeString(out, column);
+			}
+		}
+
+		void write(String key, long hash) throws IOException {
+			out.writeBoolean(true);
+			writeString(out, key);
+			out.writeLong(hash);
+		}
+
+		@Override
+		public void close() throws IOException {
+			out.writeBoolean(false);
+			out.close();
+		}
+	}
+
+	private static class SnapshotReader implements Closeable {
+		private final DataInputStream in;
+
+		/** The members of the current row, or null at the end. */
+		String key;
+		long hash;
+
+		private SnapshotReader(DataInputStream in) {
+			this.in = in;
+		}
+
+		/**
+		 * @return the snapshot, or null if there is none or it was taken of a file with other columns.
+		 */
+		static SnapshotReader open(File file, String[] header) throws IOException {
+			if (!file.isFile()) {
+				return null;
+			}
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new InflaterInputStream(new FileInputStream(file)), 1 << 16));
+			try {
+				if (!SNAPSHOT_MAGIC.equals(in.readUTF()) || in.readInt() != SNAPSHOT_VERSION) {
+					in.close();
+					return null;
+				}
+				String[] columns = new String[in.readInt()];
+				for (int i = 0; i < columns.length; i++) {
+					columns[i] = readString(in);
+				}
+				if (!Arrays.equals(columns, header)) {
+					in.close();
+					return null;
+				}
+			} catch (IOException e) {
+				in.close();
+				return null;
+			}
+			SnapshotReader reader = new SnapshotReader(in);
+			reader.next();
+			return reader;
+		}
+
+		void next() throws IOException {
+			if (in.readBoolean()) {
+				key = readString(in);
+				hash = in.readLong();
+			} else {
+				key = null;
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			in.close();
+		}
+	}
+}
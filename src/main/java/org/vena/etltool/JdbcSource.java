@@ -0,0 +1,199 @@
+package org.vena.etltool;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.csv.CSVPrinter;
+import org.vena.etltool.entities.ETLFileImportStepDTO.FileFormat;
+
+/**
+ * Reads the results of a query as a CSV, PSV or TDF file, with the query's column labels as its header.
+ * Rows are formatted as they are fetched, so the results go into the upload without being written out
+ * first. The query is only run once the stream is first read.
+ */
+class JdbcSource extends InputStream {
+
+	static final int DEFAULT_FETCH_SIZE = 10000;
+
+	/** About how much text is formatted at a time. */
+	private static final int BATCH_CHARS = 64 * 1024;
+
+	/**
+	 * Thrown when the query can't be run or its results can't be read, which ends the upload.
+	 */
+	static class QueryFailedException extends IOException {
+
+		private static final long serialVersionUID = 1L;
+
+		QueryFailedException(String message, SQLException cause) {
+			super(message, cause);
+		}
+	}
+
+	private final String url;
+	private final String user;
+	private final String password;
+	private final String query;
+	private final int fetchSize;
+	private final FileFormat format;
+
+	private Connection connection;
+	private Statement statement;
+	private ResultSet results;
+	private int[] types;
+	private final StringBuilder text = new StringBuilder(BATCH_CHARS + 1024);
+	private CSVPrinter printer;
+	private boolean done = false;
+
+	private byte[] current;
+	private int position;
+
+	JdbcSource(String url, String user, String password, String query, int fetchSize, FileFormat format) {
+		this.url = url;
+		this.user = user;
+		this.password = password;
+		this.query = query;
+		this.fetchSize = fetchSize;
+		this.format = format;
+	}
+
+	static Connection connect(String url, String user, String password) throws SQLException {
+		return user == null ? DriverManager.getConnection(url) : DriverManager.getConnection(url, user, password);
+	}
+
+	/**
+	 * @return the column labels of the query's results, found without running it, or null if the driver can't tell.
+	 */
+	static List<String> columns(String url, String user, String password, String query) throws SQLException {
+		try (Connection connection = connect(url, user, password);
+				PreparedStatement statement = connection.prepareStatement(query)) {
+			ResultSetMetaData metaData = statement.getMetaData();
+			if (metaData == null) {
+				return null;
+			}
+			List<String> labels = new ArrayList<>();
+			for (int i = 1; i <= metaData.getColumnCount(); i++) {
+				labels.add(metaData.getColumnLabel(i));
+			}
+			return labels;
+		}
+	}
+
+	@Override
+	public int read() throws IOException {
+		byte[] b = new byte[1];
+		int n = read(b, 0, 1);
+		return n == -1 ? -1 : (b[0] & 0xff);
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		while (current == null || position == current.length) {
+			if (done) {
+				return -1;
+			}
+			try {
+				nextBatch();
+			} catch (SQLException e) {
+				throw new QueryFailedException("Reading the results of the query failed: " + e.getMessage(), e);
+			}
+		}
+		int n = Math.min(len, current.length - position);
+		System.arraycopy(current, position, b, off, n);
+		position += n;
+		return n;
+	}
+
+	private void nextBatch() throws SQLException, IOException {
+		text.setLength(0);
+		if (results == null) {
+			execute();
+		}
+		while (text.length() < BATCH_CHARS) {
+			if (!results.next()) {
+				done = true;
+				close();
+				break;
+			}
+			for (int i = 0; i < types.length; i++) {
+				printer.print(value(i + 1, types[i]));
+			}
+			printer.println();
+		}
+		current = text.toString().getBytes(StandardCharsets.UTF_8);
+		position = 0;
+	}
+
+	private void execute() throws SQLException, IOException {
+		connection = connect(url, user, password);
+		// Some drivers, e.g. PostgreSQL's, only fetch rows a batch at a time within a transaction.
+		connection.setAutoCommit(false);
+		connection.setReadOnly(true);
+		statement = connection.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+		statement.setFetchSize(fetchSize);
+		results = statement.executeQuery(query);
+
+		ResultSetMetaData metaData = results.getMetaData();
+		types = new int[metaData.getColumnCount()];
+		printer = new CSVPrinter(text, FilePreflight.csvFormat(format));
+		for (int i = 0; i < types.length; i++) {
+			types[i] = metaData.getColumnType(i + 1);
+			printer.print(metaData.getColumnLabel(i + 1));
+		}
+		printer.println();
+	}
+
+	/**
+	 * @return the value of a column as it is written to the file, or null for an empty value.
+	 */
+	private Object value(int column, int type) throws SQLException {
+		switch (type) {
+		case Types.FLOAT:
+		case Types.REAL:
+		case Types.DOUBLE:
+			double d = results.getDouble(column);
+			if (results.wasNull()) {
+				return null;
+			}
+			// Written out in full, since 1.0E7 isn't a number everywhere the file is read.
+			return Double.isNaN(d) || Double.isInfinite(d) ? Double.toString(d) : BigDecimal.valueOf(d).stripTrailingZeros().toPlainString();
+		case Types.DECIMAL:
+		case Types.NUMERIC:
+			BigDecimal decimal = results.getBigDecimal(column);
+			return decimal == null ? null : decimal.toPlainString();
+		default:
+			return results.getString(column);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		done = true;
+		try {
+			if (connection != null) {
+				// Only read, so there is nothing to commit; ending the transaction lets the cursor go.
+				connection.rollback();
+				connection.close();
+			}
+		} catch (SQLException e) {
+			throw new IOException("Could not close the connection to " + url + ": " + e.getMessage(), e);
+		} finally {
+			connection = null;
+		}
+	}
+}
@@ -1,16 +1,194 @@
 package org.vena.etltool;
 
+import java.net.ProxySelector;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.conn.ClientConnectionRequest;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ManagedClientConnection;
+import org.apache.http.conn.params.ConnManagerPNames;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.impl.client.AbstractHttpClient;
+import org.apache.http.impl.conn.ProxySelectorRoutePlanner;
+import org.apache.http.impl.conn.SchemeRegistryFactory;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+
 import com.sun.jersey.api.client.Client;
 import com.sun.jersey.api.client.config.ClientConfig;
+import com.sun.jersey.api.client.config.DefaultClientConfig;
+import com.sun.jersey.client.apache4.ApacheHttpClient4;
+import com.sun.jersey.client.apache4.config.ApacheHttpClient4Config;
 
+/**
+ * Creates the Jersey clients used to talk to the server.
+ *
+ * By default all clients share one pool of keep-alive connections, so status polls, uploads
+ * and exports to the same host reuse open (and already TLS-negotiated) connections instead of
+ * connecting again each time. With pooling turned off, clients use the JDK's HttpURLConnection.
+ */
 public class JerseyClientFactory {
 
+	public static final int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 10;
+
+	static {
+		// httpclient logs through commons-logging, which would otherwise pick up the unconfigured log4j and complain.
+		if (System.getProperty("org.apache.commons.logging.Log") == null) {
+			System.setProperty("org.apache.commons.logging.Log", "org.apache.commons.logging.impl.NoOpLog");
+		}
+	}
+
+	private boolean pooled = true;
+	private int maxConnectionsPerRoute = DEFAULT_MAX_CONNECTIONS_PER_ROUTE;
+	private int connectTimeoutMillis = 0;
+
+	private CountingConnectionManager connectionManager;
+
 	public Client create() {
-		return Client.create();
+		ClientConfig config = new DefaultClientConfig();
+		// Requests on the API client are small, so send them with a Content-Length rather than chunked.
+		config.getProperties().put(ApacheHttpClient4Config.PROPERTY_ENABLE_BUFFERING, Boolean.TRUE);
+		return create(config);
 	}
 
 	public Client create(ClientConfig config) {
-		return Client.create(config);
+		if (!pooled) {
+			Client client = Client.create(config);
+			client.setConnectTimeout(connectTimeoutMillis);
+			return client;
+		}
+
+		HttpParams params = new BasicHttpParams();
+		HttpConnectionParams.setConnectionTimeout(params, connectTimeoutMillis);
+		// A response that is never closed keeps its connection, so once the pool is used up a request
+		// waits this long for one to come back and then fails, rather than waiting forever.
+		// Deprecated, but httpclient 4.1 has nothing else to set how long to wait for a pooled connection.
+		@SuppressWarnings("deprecation")
+		String poolTimeout = ConnManagerPNames.TIMEOUT;
+		params.setLongParameter(poolTimeout, connectTimeoutMillis);
+		config.getProperties().put(ApacheHttpClient4Config.PROPERTY_HTTP_PARAMS, params);
+		config.getProperties().put(ApacheHttpClient4Config.PROPERTY_CONNECTION_MANAGER, getConnectionManager());
+
+		ApacheHttpClient4 client = ApacheHttpClient4.create(config);
+		// Honour the same proxy settings (-Dhttps.proxyHost etc.) as HttpURLConnection does.
+		AbstractHttpClient httpClient = (AbstractHttpClient) client.getClientHandler().getHttpClient();
+		httpClient.setRoutePlanner(new ProxySelectorRoutePlanner(getConnectionManager().getSchemeRegistry(), ProxySelector.getDefault()));
+		return client;
+	}
+
+	public void setPooled(boolean pooled) {
+		this.pooled = pooled;
+	}
+
+	public void setMaxConnectionsPerRoute(int maxConnectionsPerRoute) {
+		this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+		if (connectionManager != null) {
+			connectionManager.configure(maxConnectionsPerRoute);
+		}
+	}
+
+	public void setConnectTimeoutMillis(int connectTimeoutMillis) {
+		this.connectTimeoutMillis = connectTimeoutMillis;
+	}
+
+	/**
+	 * @return the number of requests sent over a pooled connection, including those that opened a new one.
+	 */
+	public long getConnectionsLeased() {
+		return connectionManager == null ? 0 : connectionManager.leased.get();
 	}
 
+	/**
+	 * @return the number of requests sent over a connection that was already open.
+	 */
+	public long getConnectionsReused() {
+		return connectionManager == null ? 0 : connectionManager.reused.get();
+	}
+
+	public String describeConnectionReuse() {
+		long leased = getConnectionsLeased();
+		long reused = getConnectionsReused();
+		if (leased == 0) {
+			return "No pooled connections were used.";
+		}
+		return String.format("%d request(s) over %d connection(s), %.0f%% reused.", leased, leased - reused, 100.0 * reused / leased);
+	}
+
+	private synchronized CountingConnectionManager getConnectionManager() {
+		if (connectionManager == null) {
+			connectionManager = new CountingConnectionManager(SchemeRegistryFactory.createDefault());
+			connectionManager.configure(maxConnectionsPerRoute);
+		}
+		return connectionManager;
+	}
+
+	/**
+	 * The shared pool, counting how often a leased connection was already open.
+	 */
+	private static class CountingConnectionManager implements ClientConnectionManager {
+
+		private final ThreadSafeClientConnManager delegate;
+		final AtomicLong leased = new AtomicLong();
+		final AtomicLong reused = new AtomicLong();
+
+		CountingConnectionManager(SchemeRegistry schemeRegistry) {
+			delegate = new ThreadSafeClientConnManager(schemeRegistry);
+		}
+
+		void configure(int maxConnectionsPerRoute) {
+			delegate.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+			delegate.setMaxTotal(2 * maxConnectionsPerRoute);
+		}
+
+		@Override
+		public SchemeRegistry getSchemeRegistry() {
+			return delegate.getSchemeRegistry();
+		}
+
+		@Override
+		public ClientConnectionRequest requestConnection(HttpRoute route, Object state) {
+			final ClientConnectionRequest request = delegate.requestConnection(route, state);
+			return new ClientConnectionRequest() {
+				@Override
+				public ManagedClientConnection getConnection(long timeout, TimeUnit tunit) throws InterruptedException, ConnectionPoolTimeoutException {
+					ManagedClientConnection connection = request.getConnection(timeout, tunit);
+					leased.incrementAndGet();
+					if (connection.isOpen()) {
+						reused.incrementAndGet();
+					}
+					return connection;
+				}
+
+				@Override
+				public void abortRequest() {
+					request.abortRequest();
+				}
+			};
+		}
+
+		@Override
+		public void releaseConnection(ManagedClientConnection conn, long validDuration, TimeUnit timeUnit) {
+			delegate.releaseConnection(conn, validDuration, timeUnit);
+		}
+
+		@Override
+		public void closeExpiredConnections() {
+			delegate.closeExpiredConnections();
+		}
+
+		@Override
+		public void closeIdleConnections(long idletime, TimeUnit tunit) {
+			delegate.closeIdleConnections(idletime, tunit);
+		}
+
+		@Override
+		public void shutdown() {
+			delegate.shutdown();
+		}
+	}
 }
@@ -0,0 +1,133 @@
+package org.vena.etltool;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import org.vena.etltool.entities.ETLFileImportStepDTO;
+import org.vena.etltool.entities.ETLFileToCubeStepDTO;
+import org.vena.etltool.entities.ETLFileToVenaTableStepDTO;
+import org.vena.etltool.entities.ETLJobDTO;
+import org.vena.etltool.entities.ETLMetadataDTO;
+import org.vena.etltool.entities.ETLStepDTO;
+import org.vena.etltool.entities.ETLStepDTO.Status;
+
+/**
+ * Turns the steps of an import into the steps that are left to do after an earlier run of the same
+ * import failed. Steps the failed job completed are dropped, and steps it stopped part way through
+ * upload only the rest of their file, found with the file's {@link LineIndex}.
+ *
+ * The files must not have changed since the failed job was submitted. A step's resume line is the
+ * line of what it uploaded to carry on from, so for a part sent after a copy of the header, line 1
+ * is that copy.
+ */
+class JobResumer {
+
+	/**
+	 * What happened to one step of the failed job.
+	 */
+	static class Result {
+		final ETLFileImportStepDTO step;
+		final Status status;
+		final int resumeLine;
+
+		/** Where the rest of the step starts in its file, or -1 if all of it is loaded again. */
+		long resumeOffset = -1;
+
+		Result(ETLFileImportStepDTO step, Status status, int resumeLine) {
+			this.step = step;
+			this.status = status;
+			this.resumeLine = resumeLine;
+		}
+	}
+
+	private final Map<String, LineIndex> indexes = new HashMap<>();
+
+	/**
+	 * Removes the finished steps from the metadata, and cuts the unfinished ones down to what is left.
+	 * @throws IllegalArgumentException if the failed job wasn't a run of the same import.
+	 */
+	List<Result> resume(ETLMetadataDTO metadata, ETLJobDTO failedJob) throws IOException {
+		if (!failedJob.isError() && !failedJob.isCancelRequested()
+				&& failedJob.getStatus() != Status.ERROR && failedJob.getStatus() != Status.CANCELLED) {
+			throw new IllegalArgumentException("Job " + failedJob.getId() + " has not failed, so there is nothing to resume.");
+		}
+
+		List<ETLStepDTO> steps = metadata.getSteps();
+		List<ETLStepDTO> failedSteps = failedJob.getMetadata().getSteps();
+		if (steps.size() != failedSteps.size()) {
+			throw new IllegalArgumentException("Job " + failedJob.getId() + " has " + failedSteps.size() + " steps, but this import has " + steps.size() + ".");
+		}
+
+		List<Result> results = new ArrayList<>();
+		List<ETLStepDTO> remaining = new ArrayList<>();
+		for (int i = 0; i < steps.size(); i++) {
+			ETLStepDTO step = steps.get(i);
+			ETLStepDTO failedStep = failedSteps.get(i);
+			if (!(step instanceof ETLFileToCubeStepDTO || step instanceof ETLFileToVenaTableStepDTO)) {
+				throw new IllegalArgumentException("Only File to Cube and File to Vena Table jobs can be resumed.");
+			}
+			ETLFileImportStepDTO fileStep = (ETLFileImportStepDTO) step;
+			if (failedStep.getClass() != step.getClass()
+					|| !Objects.equals(((ETLFileImportStepDTO) failedStep).getFileName(), fileStep.getFileName())
+					|| ((ETLFileImportStepDTO) failedStep).getDataType() != fileStep.getDataType()) {
+				throw new IllegalArgumentException("Step " + (i + 1) + " of job " + failedJob.getId() + " does not load " + fileStep.getFileName() + " the same way as this import.");
+			}
+
+			Result result = new Result(fileStep, failedStep.getStatus(), ((ETLFileImportStepDTO) failedStep).getResumeLine());
+			results.add(result);
+			if (result.status == Status.COMPLETED) {
+				continue;
+			}
+			if (result.resumeLine > 1 && !cutToRest(fileStep, result)) {
+				continue;
+			}
+			remaining.add(step);
+		}
+
+		metadata.setSteps(remaining);
+		return results;
+	}
+
+	/**
+	 * @return false if the step has no lines left to load.
+	 */
+	private boolean cutToRest(ETLFileImportStepDTO step, Result result) throws IOException {
+		// The file on disk is in the encoding it is transcoded from, if it is.
+		String encoding = step.getSourceEncoding() != null ? step.getSourceEncoding() : step.getFileEncoding();
+		if (encoding != null && !FilePreflight.splitsOnBytes(encoding)) {
+			throw new IllegalArgumentException(step.getFileName() + " can't be resumed part way through, because its encoding is " + encoding + ".");
+		}
+
+		LineIndex index = indexes.get(step.getFileName());
+		if (index == null) {
+			index = LineIndex.load(new File(step.getFileName()));
+			indexes.put(step.getFileName(), index);
+		}
+
+		long start = step.isFilePart() ? step.getPartOffset() : 0;
+		long end = step.isFilePart() ? start + step.getPartLength() : index.getFileLength();
+		long firstLine = index.firstLineAtOrAfter(start)[0];
+		long line = firstLine + result.resumeLine - (step.getPartHeaderLength() > 0 ? 2 : 1);
+		long offset = index.offsetOfLine(line);
+		if (offset < 0 || offset >= end) {
+			return false;
+		}
+
+		step.setFilePart(offset, end - offset, index.getLineCount() > 1 ? index.offsetOfLine(2) : index.getFileLength());
+		result.resumeOffset = offset;
+
+		// The failed job already cleared the slices this step loads into.
+		if (step instanceof ETLFileToCubeStepDTO) {
+			((ETLFileToCubeStepDTO) step).setClearSlicesExpressions(null);
+			((ETLFileToCubeStepDTO) step).setClearSlicesDimensions(null);
+		} else {
+			((ETLFileToVenaTableStepDTO) step).setClearSlicesColumns(new ArrayList<String>());
+		}
+		return true;
+	}
+}
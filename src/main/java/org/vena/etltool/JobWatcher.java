@@ -0,0 +1,137 @@
+package org.vena.etltool;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.vena.etltool.entities.ETLJobDTO;
+import org.vena.etltool.entities.ETLJobDTO.Phase;
+import org.vena.etltool.entities.ETLStepDTO;
+import org.vena.etltool.entities.ETLStepDTO.Status;
+
+/**
+ * Decides how long to wait between job status requests, and keeps track of how long the
+ * job spent in each phase.
+ *
+ * Polling starts fast so short jobs return promptly, then backs off exponentially. While the
+ * job reports progress the wait is also capped by the estimated time remaining, and it starts
+ * over whenever the job enters a new phase. Waits are jittered so that many watchers don't
+ * poll in lockstep.
+ */
+class JobWatcher {
+
+	static final long MIN_INTERVAL_MILLIS = 500;
+	static final long MAX_INTERVAL_MILLIS = 30000;
+	static final double GROWTH_FACTOR = 1.5;
+	static final double JITTER = 0.2;
+
+	private final Random random;
+
+	private long interval = MIN_INTERVAL_MILLIS;
+
+	private Phase phase;
+	private long phaseStartedAt;
+	private final Map<Phase, Long> phaseMillis = new LinkedHashMap<>();
+
+	private double lastProgress = -1;
+	private long lastProgressAt;
+	private double progressPerMilli = 0;
+
+	private int polls = 0;
+
+	JobWatcher() {
+		this(new Random());
+	}
+
+	JobWatcher(Random random) {
+		this.random = random;
+	}
+
+	/**
+	 * Records a status response and returns how long to wait before the next request.
+	 */
+	long observe(ETLJobDTO etlJob, long now) {
+		polls++;
+
+		Phase currentPhase = etlJob.getPhase();
+		if (phase == null || currentPhase != phase) {
+			if (phase != null) {
+				addPhaseTime(phase, now - phaseStartedAt);
+				// A new phase may well be short, so look again soon.
+				interval = MIN_INTERVAL_MILLIS;
+			}
+			phase = currentPhase;
+			phaseStartedAt = now;
+			lastProgress = -1;
+			progressPerMilli = 0;
+		} else {
+			interval = Math.min(MAX_INTERVAL_MILLIS, (long) (interval * GROWTH_FACTOR));
+		}
+
+		double progress = percentDone(etlJob);
+		if (lastProgress >= 0 && progress > lastProgress && now > lastProgressAt) {
+			progressPerMilli = (progress - lastProgress) / (now - lastProgressAt);
+		}
+		if (lastProgress < 0 || progress != lastProgress) {
+			lastProgress = progress;
+			lastProgressAt = now;
+		}
+
+		if (progressPerMilli > 0) {
+			long remaining = (long) ((100 - progress) / progressPerMilli);
+			// Poll at least twice over the remaining time, so completion isn't noticed much later than it happens.
+			interval = Math.max(MIN_INTERVAL_MILLIS, Math.min(interval, remaining / 2));
+		}
+
+		return jitter(interval);
+	}
+
+	/**
+	 * Records the end of the last phase once the job is done.
+	 */
+	void finish(long now) {
+		if (phase != null) {
+			addPhaseTime(phase, now - phaseStartedAt);
+			phaseStartedAt = now;
+		}
+	}
+
+	Map<Phase, Long> getPhaseMillis() {
+		return phaseMillis;
+	}
+
+	int getPolls() {
+		return polls;
+	}
+
+	String describePhaseTimings() {
+		StringBuilder buf = new StringBuilder();
+		for (Map.Entry<Phase, Long> entry : phaseMillis.entrySet()) {
+			if (buf.length() > 0) {
+				buf.append(", ");
+			}
+			buf.append(entry.getKey()).append(" ").append(String.format("%.1fs", entry.getValue() / 1000.0));
+		}
+		return buf.toString();
+	}
+
+	private void addPhaseTime(Phase phase, long millis) {
+		Long total = phaseMillis.get(phase);
+		phaseMillis.put(phase, (total == null ? 0 : total) + millis);
+	}
+
+	private long jitter(long millis) {
+		return (long) (millis * (1 + JITTER * (2 * random.nextDouble() - 1)));
+	}
+
+	static double percentDone(ETLJobDTO etlJob) {
+		if (etlJob.getMetadata() == null || etlJob.getMetadata().getSteps() == null || etlJob.getMetadata().getSteps().isEmpty()) {
+			return 0;
+		}
+		double total = 0;
+		for (ETLStepDTO step : etlJob.getMetadata().getSteps()) {
+			total += step.getStatus() == Status.COMPLETED ? 100 : step.getPercentDone();
+		}
+		return total / etlJob.getMetadata().getSteps().size();
+	}
+}
@@ -0,0 +1,375 @@
+package org.vena.etltool;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Knows where every {@link #interval}th line of a data file starts, so any line can be found by
+ * reading at most that many lines.
+ *
+ * Lines end at \n, \r\n or \r outside quotes, so a quoted field that spans line breaks belongs to
+ * one line. Lines are numbered from 1, the header.
+ *
+ * The index is built by scanning the memory-mapped file on all cores. Indexes of large files are
+ * saved beside them as &lt;file&gt;.lidx and reused until the file changes.
+ */
+class LineIndex {
+
+	static final int DEFAULT_INTERVAL = 1024;
+	static final String SUFFIX = ".lidx";
+
+	private static final int MAGIC = 0x4c494458; // "LIDX"
+	private static final int VERSION = 1;
+	private static final long MIN_CHUNK_SIZE = 8L * 1024 * 1024;
+	private static final long MAX_CHUNK_SIZE = 1024L * 1024 * 1024;
+
+	/**
+	 * Files smaller than this are indexed in well under a second, so their index isn't saved.
+	 */
+	static final long CACHE_THRESHOLD = 64L * 1024 * 1024;
+
+	private final File file;
+	private final long fileLength;
+	private final long lastModified;
+	private final int interval;
+	private final long lineCount;
+	private final long[] offsets;
+
+	private LineIndex(File file, long fileLength, long lastModified, int interval, long lineCount, long[] offsets) {
+		this.file = file;
+		this.fileLength = fileLength;
+		this.lastModified = lastModified;
+		this.interval = interval;
+		this.lineCount = lineCount;
+		this.offsets = offsets;
+	}
+
+	/**
+	 * Reads the saved index of the file if it is still current, and otherwise builds one.
+	 */
+	static LineIndex load(File file) throws IOException {
+		return load(file, CACHE_THRESHOLD);
+	}
+
+	/**
+	 * @param cacheThreshold the size from which the index of a file is saved.
+	 */
+	static LineIndex load(File file, long cacheThreshold) throws IOException {
+		LineIndex index = readCache(file);
+		if (index != null) {
+			return index;
+		}
+		index = build(file, DEFAULT_INTERVAL, Runtime.getRuntime().availableProcessors());
+		if (index.fileLength >= cacheThreshold) {
+			index.writeCache();
+		}
+		return index;
+	}
+
+	long getLineCount() {
+		return lineCount;
+	}
+
+	long getFileLength() {
+		return fileLength;
+	}
+
+	/**
+	 * @return the offset at which the line starts, or -1 if the file has fewer lines.
+	 */
+	long offsetOfLine(long line) throws IOException {
+		if (line < 1 || line > lineCount) {
+			return -1;
+		}
+		int i = (int) ((line - 1) / interval);
+		return advance((long) i * interval + 1, offsets[i], line, Long.MAX_VALUE)[1];
+	}
+
+	/**
+	 * @return {line, offset} of the first line that starts at or after the offset, or {lineCount + 1, fileLength} if there is none.
+	 */
+	long[] firstLineAtOrAfter(long offset) throws IOException {
+		if (offset >= fileLength) {
+			return new long[] {lineCount + 1, fileLength};
+		}
+		int i = Arrays.binarySearch(offsets, offset);
+		if (i < 0) {
+			i = -i - 2;
+		}
+		return advance((long) i * interval + 1, offsets[i], Long.MAX_VALUE, offset);
+	}
+
+	/**
+	 * Reads forward from the start of a line until reaching the target line, or the first line at or after the target offset.
+	 */
+	private long[] advance(long line, long offset, long targetLine, long targetOffset) throws IOException {
+		if (line >= targetLine || offset >= targetOffset) {
+			return new long[] {line, offset};
+		}
+		boolean inQuotes = false;
+		byte[] buffer = new byte[64 * 1024];
+		try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+			FileChannel channel = in.getChannel();
+			long position = offset;
+			while (position < fileLength) {
+				int read = channel.read(ByteBuffer.wrap(buffer), position);
+				if (read <= 0) {
+					break;
+				}
+				for (int i = 0; i < read; i++) {
+					byte b = buffer[i];
+					if (b == '"') {
+						inQuotes = !inQuotes;
+					} else if (!inQuotes && (b == '\n' || b == '\r')) {
+						if (b == '\r') {
+							long next = position + i + 1;
+							if (next < fileLength && (i + 1 < read ? buffer[i + 1] : peek(channel, next)) == '\n') {
+								continue;
+							}
+						}
+						line++;
+						offset = position + i + 1;
+						if (offset >= fileLength) {
+							return new long[] {lineCount + 1, fileLength};
+						}
+						if (line >= targetLine || offset >= targetOffset) {
+							return new long[] {line, offset};
+						}
+					}
+				}
+				position += read;
+			}
+		}
+		return new long[] {lineCount + 1, fileLength};
+	}
+
+	private static byte peek(FileChannel channel, long position) throws IOException {
+		ByteBuffer b = ByteBuffer.allocate(1);
+		channel.read(b, position);
+		return b.get(0);
+	}
+
+	static LineIndex build(File file, int interval, int threads) throws IOException {
+		long chunkSize = Math.min(MAX_CHUNK_SIZE, Math.max(MIN_CHUNK_SIZE, file.length() / (4L * threads) + 1));
+		return build(file, interval, threads, chunkSize);
+	}
+
+	static LineIndex build(File file, final int interval, int threads, long chunkSize) throws IOException {
+		final long lastModified = file.lastModified();
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+			final FileChannel channel = raf.getChannel();
+			final long length = channel.size();
+
+			List<long[]> chunks = new ArrayList<>();
+			for (long start = 0; start < length; start += chunkSize) {
+				chunks.add(new long[] {start, Math.min(length, start + chunkSize)});
+			}
+
+			final AtomicInteger threadCount = new AtomicInteger();
+			ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "etl-line-index-" + threadCount.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+
+			try {
+				// First count the quotes and line breaks in each chunk. Whether a chunk starts inside
+				// quotes depends on all the quotes before it, so that is only known once every chunk is counted.
+				List<Future<long[]>> counts = new ArrayList<>();
+				for (final long[] chunk : chunks) {
+					counts.add(executor.submit(new Callable<long[]>() {
+						@Override
+						public long[] call() throws IOException {
+							return count(channel, length, chunk[0], chunk[1]);
+						}
+					}));
+				}
+
+				final boolean[] startsInQuotes = new boolean[chunks.size()];
+				final long[] linesBefore = new long[chunks.size()];
+				boolean inQuotes = false;
+				long lines = 0;
+				for (int i = 0; i < chunks.size(); i++) {
+					long[] count = await(counts.get(i));
+					startsInQuotes[i] = inQuotes;
+					linesBefore[i] = lines;
+					// count = {quote parity, line breaks if starting outside quotes, line breaks if starting inside}
+					lines += inQuotes ? count[2] : count[1];
+					inQuotes ^= count[0] == 1;
+				}
+
+				// Then note where every interval-th line starts.
+				List<Future<long[]>> found = new ArrayList<>();
+				for (int i = 0; i < chunks.size(); i++) {
+					final long[] chunk = chunks.get(i);
+					final boolean chunkInQuotes = startsInQuotes[i];
+					final long chunkLinesBefore = linesBefore[i];
+					found.add(executor.submit(new Callable<long[]>() {
+						@Override
+						public long[] call() throws IOException {
+							return findLineStarts(channel, length, chunk[0], chunk[1], chunkInQuotes, chunkLinesBefore, interval);
+						}
+					}));
+				}
+
+				long lineCount = lines;
+				long[] offsets = new long[(int) (lines / interval) + 1];
+				int n = 1;
+				for (Future<long[]> result : found) {
+					long[] starts = await(result);
+					System.arraycopy(starts, 0, offsets, n, starts.length);
+					n += starts.length;
+				}
+				// The last line has no line break after it unless the file ends with one.
+				if (length > 0 && !endsWithLineBreak(channel, length)) {
+					lineCount++;
+				}
+				return new LineIndex(file, length, lastModified, interval, lineCount, Arrays.copyOf(offsets, n));
+			} finally {
+				executor.shutdownNow();
+			}
+		}
+	}
+
+	/**
+	 * @return {1 if the chunk has an odd number of quotes, line breaks outside quotes if it starts outside them, if it starts inside them}.
+	 */
+	private static long[] count(FileChannel channel, long length, long start, long end) throws IOException {
+		MappedByteBuffer buffer = map(channel, length, start, end);
+		int size = (int) (end - start);
+		int parity = 0;
+		long[] lines = new long[2];
+		for (int i = 0; i < size; i++) {
+			byte b = buffer.get(i);
+			if (b == '"') {
+				parity ^= 1;
+			} else if (b == '\n' || (b == '\r' && (i + 1 >= buffer.limit() || buffer.get(i + 1) != '\n'))) {
+				// Outside quotes if the parity so far matches the parity at the start.
+				lines[parity]++;
+			}
+		}
+		return new long[] {parity, lines[0], lines[1]};
+	}
+
+	private static long[] findLineStarts(FileChannel channel, long length, long start, long end, boolean inQuotes, long line, int interval) throws IOException {
+		MappedByteBuffer buffer = map(channel, length, start, end);
+		int size = (int) (end - start);
+		long[] starts = new long[(int) ((end - start) / interval) + 16];
+		int n = 0;
+		for (int i = 0; i < size; i++) {
+			byte b = buffer.get(i);
+			if (b == '"') {
+				inQuotes = !inQuotes;
+			} else if (!inQuotes && (b == '\n' || (b == '\r' && (i + 1 >= buffer.limit() || buffer.get(i + 1) != '\n')))) {
+				line++;
+				long next = start + i + 1;
+				if (line % interval == 0 && next < length) {
+					if (n == starts.length) {
+						starts = Arrays.copyOf(starts, 2 * n);
+					}
+					starts[n++] = next;
+				}
+			}
+		}
+		return Arrays.copyOf(starts, n);
+	}
+
+	/**
+	 * Maps a chunk plus the byte after it, which says whether a \r at the end of the chunk is followed by a \n.
+	 */
+	private static MappedByteBuffer map(FileChannel channel, long length, long start, long end) throws IOException {
+		return channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(length, end + 1) - start);
+	}
+
+	private static boolean endsWithLineBreak(FileChannel channel, long length) throws IOException {
+		byte last = peek(channel, length - 1);
+		return last == '\n' || last == '\r';
+	}
+
+	private static <T> T await(Future<T> result) throws IOException {
+		try {
+			return result.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while indexing file.", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		}
+	}
+
+	static File cacheFile(File file) {
+		return new File(file.getPath() + SUFFIX);
+	}
+
+	private static LineIndex readCache(File file) {
+		File cache = cacheFile(file);
+		if (!cache.isFile()) {
+			return null;
+		}
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(cache)))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				return null;
+			}
+			long fileLength = in.readLong();
+			long lastModified = in.readLong();
+			if (fileLength != file.length() || lastModified != file.lastModified()) {
+				return null;
+			}
+			int interval = in.readInt();
+			long lineCount = in.readLong();
+			long[] offsets = new long[in.readInt()];
+			for (int i = 0; i < offsets.length; i++) {
+				offsets[i] = in.readLong();
+			}
+			return new LineIndex(file, fileLength, lastModified, interval, lineCount, offsets);
+		} catch (IOException e) {
+			// A damaged index is rebuilt.
+			return null;
+		}
+	}
+
+	private void writeCache() {
+		File cache = cacheFile(file);
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(cache)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(fileLength);
+			out.writeLong(lastModified);
+			out.writeInt(interval);
+			out.writeLong(lineCount);
+			out.writeInt(offsets.length);
+			for (long offset : offsets) {
+				out.writeLong(offset);
+			}
+		} catch (IOException e) {
+			// The index is only a shortcut, so carry on without saving it, e.g. beside a file in a read-only directory.
+			cache.delete();
+		}
+	}
+}
@@ -0,0 +1,106 @@
+package org.vena.etltool;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Remembers how quickly each datacenter answered logins and whether it failed, so a hedged login goes to
+ * the fastest healthy one first. Round-trip times are smoothed over runs, and a host that failed is
+ * tried last until {@link #RECOVERY_MILLIS} have passed since.
+ */
+class LoginHosts {
+
+	static final String FILE_NAME = "hosts.properties";
+
+	/** How long a host that failed is tried after the others. */
+	static final long RECOVERY_MILLIS = 10 * 60 * 1000;
+
+	/** How much a new round-trip time counts against the ones before it. */
+	private static final double SMOOTHING = 0.3;
+
+	private final File cacheFile;
+	private final Properties entries = new Properties();
+
+	LoginHosts(File cacheFile) throws IOException {
+		this.cacheFile = cacheFile;
+		if (cacheFile.isFile()) {
+			try (InputStream in = new FileInputStream(cacheFile)) {
+				entries.load(in);
+			}
+		}
+	}
+
+	static LoginHosts open() throws IOException {
+		return new LoginHosts(new File(UploadCache.directory(), FILE_NAME));
+	}
+
+	/**
+	 * @return the smoothed round-trip time of the host's logins in milliseconds, or -1 if it never answered one.
+	 */
+	long roundTrip(String host) {
+		String rtt = entries.getProperty(host + "|rtt");
+		return rtt == null ? -1 : Long.parseLong(rtt);
+	}
+
+	boolean isHealthy(String host) {
+		String failed = entries.getProperty(host + "|failed");
+		return failed == null || System.currentTimeMillis() - Long.parseLong(failed) > RECOVERY_MILLIS;
+	}
+
+	/**
+	 * @return the hosts in the order to try them: healthy hosts that answered before, fastest first, then
+	 * the other healthy hosts in the order given, then the hosts that failed.
+	 */
+	List<String> order(List<String> hosts) {
+		List<String> ordered = new ArrayList<>(hosts);
+		// A stable sort, so hosts that score the same keep the order given.
+		Collections.sort(ordered, new Comparator<String>() {
+			@Override
+			public int compare(String a, String b) {
+				return Long.compare(score(a), score(b));
+			}
+		});
+		return ordered;
+	}
+
+	private long score(String host) {
+		if (!isHealthy(host)) {
+			return Long.MAX_VALUE;
+		}
+		long rtt = roundTrip(host);
+		return rtt < 0 ? Long.MAX_VALUE - 1 : rtt;
+	}
+
+	void succeeded(String host, long millis) {
+		long rtt = roundTrip(host);
+		entries.setProperty(host + "|rtt", Long.toString(rtt < 0 ? millis : Math.round(SMOOTHING * millis + (1 - SMOOTHING) * rtt)));
+		entries.remove(host + "|failed");
+	}
+
+	void failed(String host) {
+		entries.setProperty(host + "|failed", Long.toString(System.currentTimeMillis()));
+	}
+
+	void save() throws IOException {
+		File directory = cacheFile.getAbsoluteFile().getParentFile();
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Could not create " + directory);
+		}
+		File temp = File.createTempFile(cacheFile.getName(), ".tmp", directory);
+		try (OutputStream out = new FileOutputStream(temp)) {
+			entries.store(out, "Login hosts seen by the Vena ETL tool");
+		}
+		Files.move(temp.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+}
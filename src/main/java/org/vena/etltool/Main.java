@@ -1,9 +1,14 @@
 package org.vena.etltool;
 
 import java.io.*;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.StandardCopyOption;
+import java.sql.SQLException;
 import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
@@ -22,6 +27,7 @@ import org.vena.etltool.entities.ETLMetadataDTO.ETLLoadType;
 import org.vena.etltool.entities.ETLStepDTO.DataType;
 import org.vena.etltool.entities.ETLStreamStepDTO.MockMode;
 import org.apache.commons.csv.CSVParser;
+import org.vena.etltool.util.TranscodingInputStream;
 
 public class Main {
 	
@@ -30,23 +36,37 @@ public class Main {
 	private static final String EXAMPLE_COMMANDLINE = "etl-tool "
 			+ "[--host <addr>] [--port <num>] [--ssl|--nossl]"
 			+ "\n{ --apiUser=<uid.cid> --apiKey=<key> "
-			+ "\n| --user=<email> --password=<password>"
+			+ "\n| --user=<email> --password=<password> [--sessionCache] [--hedgeLogin]"
 			+ "\n}"
-			+ "\n{ --modelName <name> | --modelId <id>"
+			+ "\n{ --modelName <name> [--modelCacheTTL <minutes>] | --modelId <id>"
 			+ "\n}"
 			+ "\n{ [--queue|--noqueue]"
 			+ "\n}"
 			+ "\n{ --loadFromStaging [--wait|--waitFully]"
 			+ "\n| [--runTemplate=<templateId>]"
-			+ "\n| [--stage|--stageOnly|--venaTable] [--wait|--waitFully] [--validate] [--templateId <id>] [--jobName <name>] --file \"[file=]<filename>; [type=]<filetype> [;[table=]<tableName>] [;format={CSV|PSV|TDF}] [;bulkInsert={true|false}]\""
+			+ "\n| [--stage|--stageOnly|--venaTable] [--wait|--waitFully] [--validate] [--preflight [--maxPreflightErrors <num>] [--checkMembers [--memberCacheTTL <minutes>]]] [--resumeJob <id>] [--templateId <id>] [--jobName <name>] [--longPoll] [--uploadThreads <num>] [--maxUploadRate <MB/s>] [--uploadRateFile <file>] [--compressionLevel <level>|--nocompress] [--resumableUpload] [--skipUnchanged] [--noPooling|--maxConnections <num>] [--connectTimeout <seconds>] [--readTimeout <seconds>] [--fromJdbc <url> [--jdbcUser <user>] [--jdbcPassword <password>] [--fetchSize <rows>]] --file \"[file=]<filename>; [type=]<filetype> [;[table=]<tableName>] [;format={CSV|PSV|TDF}] [;bulkInsert={true|false}] [;split={<size>|<num>rows}] [;delta={true|false}] [;transcode={true|false}] [;cmd=<command>] [;query={<sql>|@<file>}] [;aggregate={true|false}] [;dropZeros={true|false}]\""
 			+ "\n| --cancel --jobId <id>"
 			+ "\n| --setError --jobId <id>"
 			+ "\n| --status --jobId <id>"
+			+ "\n| --watchJobs <id,id,...> | --jobIdsFile <file> [--wait]"
 			+ "\n| --transformComplete --jobId <id>"
 			+ "\n| --delete <type> --deleteQuery <expr> [--nowait]"
-			+ "\n| --export <type>\n {--exportQuery <expr> | --exportWhere <clause>}\n {--exportToFile <name> [--excludeHeaders] [--exportFormat {CSV|PSV|TDF}] | --exportToTable <name> [--nowait]}"
+			+ "\n| --export <type>\n {--exportQuery <expr> | --exportWhere <clause>}\n {--exportToFile <name> [--excludeHeaders] [--exportFormat {CSV|PSV|TDF}] [--exportPartition <expr> ... [--exportThreads <num>]] | --exportToTable <name> [--nowait]}"
 			+ "\n| --loadSteps <file>"
+			+ "\n| --batch <manifest> [--maxInFlight <num>] [--batchResults <file>] [--waitFully]"
 			+ "\n}";
+
+	/**
+	 * Options that are either given once on the command line for the whole batch, or don't submit a job.
+	 */
+	private static final String[] BATCH_LINE_INCOMPATIBLE_OPTIONS = new String[] { "batch", "maxInFlight", "batchResults",
+			"host", "port", "ssl", "nossl", "username", "password", "apiUser", "apiKey", "sessionCache", "hedgeLogin", "verbose",
+			"wait", "waitFully", "nowait", "longPoll", "uploadThreads", "maxUploadRate", "uploadRateFile", "compressionLevel", "nocompress", "resumableUpload", "skipUnchanged",
+			"fromJdbc", "jdbcUser", "jdbcPassword", "fetchSize", "modelCacheTTL",
+			"noPooling", "maxConnections", "connectTimeout", "readTimeout",
+			"createModel", "runTemplate", "status", "watchJobs", "jobIdsFile", "transformComplete", "setError", "cancel", "exportToFile" };
+
+	private static final String NOTHING_CHANGED = "None of the files have changed since they were last loaded, so no job was submitted.";
 	
 	/**
 	 * @param args
@@ -55,20 +75,83 @@ public class Main {
 	public static void main(String[] args) throws UnsupportedEncodingException {
 		System.getProperties().setProperty("datacenterId", "1");
 
-		ETLClient etlClient = new ETLClient(new JerseyClientFactory());
+		final ETLClient etlClient = new ETLClient(new JerseyClientFactory());
 		CommandLine commandLine = parseCommandLineArgs(args);
-		ETLMetadataDTO metadata = produceETLMetadata(etlClient, commandLine);
+
+		if (commandLine.hasOption("verbose")) {
+			// Most commands end in System.exit, so report on the way out.
+			Runtime.getRuntime().addShutdownHook(new Thread() {
+				@Override
+				public void run() {
+					System.err.println("Connections: " + etlClient.describeConnectionReuse());
+				}
+			});
+		}
+		List<IntersectionDelta> deltas = new ArrayList<>();
+		ETLMetadataDTO metadata = produceETLMetadata(etlClient, commandLine, deltas);
 
 		System.out.print("Submitting job... ");
 		ETLJobDTO etlJob = etlClient.uploadETL(metadata);
 		System.out.println("OK");
 		System.out.println("Job submitted. Your ETL Job Id is "+etlJob.getId());
+
+		boolean recordUploads = commandLine.hasOption("skipUnchanged") && !etlClient.validationRequested;
+		if (recordUploads) {
+			recordUploads(metadata, etlJob.getId(), false);
+		}
+		if (!etlClient.validationRequested) {
+			recordDeltas(deltas, etlJob.getId(), false);
+			if (loadsHierarchy(metadata)) {
+				// The members kept for --checkMembers won't have the ones the job adds.
+				MemberDictionary.invalidate(metadata.getModelId());
+			}
+		}
 		
 		/* If polling option was provided, poll until the task completes. */
 		if( etlClient.pollingRequested  ) {
 			System.out.println("Waiting for job to finish... ");
 			etlClient.pollTillJobComplete(etlJob.getId(), etlClient.waitFully);
 			System.out.println("Done.");
+			if (recordUploads) {
+				recordUploads(metadata, etlJob.getId(), true);
+			}
+			if (!etlClient.validationRequested) {
+				recordDeltas(deltas, etlJob.getId(), true);
+			}
+		}
+	}
+
+	private static boolean loadsHierarchy(ETLMetadataDTO metadata) {
+		for (ETLStepDTO step : metadata.getSteps()) {
+			if (step instanceof ETLFileToCubeStepDTO && ((ETLFileToCubeStepDTO) step).getDataType() == DataType.hierarchy) {
+				return true;
+			}
+			if (step instanceof ETLStageToCubeStepDTO && ((ETLStageToCubeStepDTO) step).getDataType() == DataType.hierarchy) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Records the files a job loads, so --skipUnchanged can leave them out next time.
+	 * @param completed whether the job is known to have completed.
+	 */
+	public static void recordUploads(ETLMetadataDTO metadata, Id jobId, boolean completed) {
+		try {
+			UploadCache cache = UploadCache.open();
+			if (completed) {
+				cache.confirm(jobId.toString());
+			} else {
+				for (ETLFileImportStepDTO step : metadata.getAllFileSteps()) {
+					if (new File(step.getFileName()).isFile()) {
+						cache.submitted(metadata.getModelId(), step, jobId);
+					}
+				}
+			}
+			cache.save();
+		} catch (IOException e) {
+			System.err.println("Could not record the uploaded files in " + UploadCache.directory() + ": " + e.getMessage());
 		}
 	}
 
@@ -164,6 +247,26 @@ public class Main {
 
 		options.addOption(passwordOption);
 
+		Option sessionCacheOption = 
+				OptionBuilder
+				.withLongOpt("sessionCache")
+				.isRequired(false)
+				.withDescription("Keep the session of a --username/--password login in " + new File(UploadCache.directory(), SessionCache.FILE_NAME)
+						+ ", which only you can read, and use it instead of logging in until it expires.")
+				.create();
+
+		options.addOption(sessionCacheOption);
+
+		Option hedgeLoginOption = 
+				OptionBuilder
+				.withLongOpt("hedgeLogin")
+				.isRequired(false)
+				.withDescription("Log in to " + ETLClient.DEFAULT_HOST + " at the datacenter that answered fastest before, and also at the next one if it is slow to answer, using whichever logs in first."
+						+ " Datacenters that fail are tried last for a while.")
+				.create();
+
+		options.addOption(hedgeLoginOption);
+
 		Option hostOption = 
 				OptionBuilder
 				.withLongOpt("host")
@@ -209,6 +312,17 @@ public class Main {
 
 		options.addOption(modelName);
 
+		Option modelCacheTTL = 
+				OptionBuilder
+				.withLongOpt("modelCacheTTL")
+				.isRequired(false)
+				.hasArg()
+				.withArgName("minutes")
+				.withDescription("How long the ids of models looked up with --modelName are kept before the list of models is checked for changes. Defaults to " + ModelCache.DEFAULT_TTL_MINUTES + ". 0 checks every time.")
+				.create();
+
+		options.addOption(modelCacheTTL);
+
 		Option createModel = 
 				OptionBuilder
 				.withLongOpt("createModel")
@@ -228,11 +342,19 @@ public class Main {
 				.withArgName("options")
 				.withDescription("A data file to import (multiple allowed)."
 						+ "\n -F \"[file=]<filename>; [type=]<filetype> [;[table=]<tableName>] [;format={CSV|PSV|TDF}] [;bulkInsert={true|false}] [;clearSlices=<expr>] "
-						+ "[;clearSlicesByDimNums=<expr>] [;encoding=<fileEncoding>] [;clearSlicesByColumns=<listOfColumnNames>] \""
+						+ "[;clearSlicesByDimNums=<expr>] [;encoding=<fileEncoding>] [;clearSlicesByColumns=<listOfColumnNames>] [;split={<size>|<num>rows}] [;delta={true|false}] [;transcode={true|false}] [;cmd=<command>] [;query={<sql>|@<file>}] [;aggregate={true|false}] [;dropZeros={true|false}] \""
 						+ "\n where <filetype> is one of {"+ETLFileOldDTO.SUPPORTED_FILETYPES_LIST+"}>."
 						+ "\n and <expr> is the expression specifying the slice of the cube to clear intersections from. Multiple expressions separated by a comma are supported."
 						+ "\n and <fileEncoding> is the type of encoding used by the file to be imported, e.g. UTF-16."
 						+ "\n and <listOfColumnNames> is a comma separated list of column names to clear on."
+						+ "\n and split loads the file in parts of about <size> (e.g. 512MB) or <num> rows each."
+						+ "\n and delta loads only the intersections that changed since the file was last loaded, with a 0 value for the ones that are gone. It can't be used in a --batch manifest."
+						+ "\n and transcode converts the file to UTF-8 as it is uploaded, from <fileEncoding>, or if that isn't given, from the encoding its byte order mark or content shows."
+						+ "\n <filename> can be - for standard input, or a named pipe, and cmd uploads the output of <command>, which cannot contain a ;, instead of a file."
+						+ "\n and query uploads the results of <sql>, or of the query in <file>, from the --fromJdbc database."
+						+ "\n These are uploaded as they are read, without a copy on disk, so they can't be split or used with delta."
+						+ "\n and aggregate adds up the values of rows with the same members into one row, and dropZeros leaves out rows whose value is 0,"
+						+ "\n before an intersections file is uploaded. Only use dropZeros if the intersections don't already have values, e.g. their slices are cleared."
 						+ "\n Example: -F model.csv;hierarchy"
 						+ "\n Example: -F file=values.tdf;format=TDF;type=intersections")
 				.create('F');
@@ -324,6 +446,65 @@ public class Main {
 
 		options.addOption(jobIdOption);
 
+		Option watchJobsOption = 
+				OptionBuilder
+				.withLongOpt("watchJobs")
+				.isRequired(false)
+				.hasArg()
+				.withArgName("ids")
+				.withDescription("Wait for all of the given comma-separated job IDs to finish, showing their progress in a table. "
+						+ "Returns status code 0 if all jobs were successful and non-zero if any failed. With --wait, jobs that reach IN_STAGING count as finished.")
+				.create();
+
+		options.addOption(watchJobsOption);
+
+		Option jobIdsFileOption = 
+				OptionBuilder
+				.withLongOpt("jobIdsFile")
+				.isRequired(false)
+				.hasArg()
+				.withArgName("fileName")
+				.withDescription("Like --watchJobs, but reads the job IDs from a file, one per line.")
+				.create();
+
+		options.addOption(jobIdsFileOption);
+
+		Option batchOption = 
+				OptionBuilder
+				.withLongOpt("batch")
+				.isRequired(false)
+				.hasArg()
+				.withArgName("manifest")
+				.withDescription("Submit many jobs, one per line of the manifest file. Each line takes the same options as a single job, "
+						+ "e.g. --file \"data.csv;intersections\" --jobName \"Load 1\", or --loadSteps steps.json. "
+						+ "Lines without --modelId/--modelName or --queue/--noqueue use the ones given on the command line. "
+						+ "Every job is waited for; with --waitFully, jobs that reach IN_STAGING are not counted as finished.")
+				.create();
+
+		options.addOption(batchOption);
+
+		Option maxInFlightOption = 
+				OptionBuilder
+				.withLongOpt("maxInFlight")
+				.isRequired(false)
+				.hasArg()
+				.withArgName("num")
+				.withDescription("With --batch, the most jobs to have submitted but not yet finished at once. Defaults to " + BatchRunner.DEFAULT_MAX_IN_FLIGHT + ".")
+				.create();
+
+		options.addOption(maxInFlightOption);
+
+		Option batchResultsOption = 
+				OptionBuilder
+				.withLongOpt("batchResults")
+				.isRequired(false)
+				.hasArg()
+				.withArgName("fileName")
+				.withDescription("With --batch, write the result of each job as a line of JSON to this file instead of standard output.")
+				.create();
+
+		options.addOption(batchResultsOption);
+
 		Option jobNameOption = 
 				OptionBuilder
 				.withLongOpt("jobName")
@@ -355,6 +536,57 @@ public class Main {
 
 		options.addOption(validateOption);
 
+		Option preflightOption = 
+				OptionBuilder
+				.withLongOpt("preflight")
+				.isRequired(false)
+				.withDescription("Check the import files for malformed rows before uploading them, and don't submit the job if any are found.")
+				.create();
+
+		options.addOption(preflightOption);
+
+		Option maxPreflightErrorsOption = 
+				OptionBuilder
+				.withLongOpt("maxPreflightErrors")
+				.isRequired(false)
+				.hasArg()
+				.withArgName("num")
+				.withDescription("With --preflight, the most errors to report for each file. Defaults to " + FilePreflight.DEFAULT_MAX_ERRORS + ".")
+				.create();
+
+		options.addOption(maxPreflightErrorsOption);
+
+		Option checkMembersOption = 
+				OptionBuilder
+				.withLongOpt("checkMembers")
+				.isRequired(false)
+				.withDescription("With --preflight, also check that the _dimN_member columns only have members the model has, using its hierarchy, which is fetched and kept for --memberCacheTTL.")
+				.create();
+
+		options.addOption(checkMembersOption);
+
+		Option memberCacheTTLOption = 
+				OptionBuilder
+				.withLongOpt("memberCacheTTL")
+				.isRequired(false)
+				.hasArg()
+				.withArgName("minutes")
+				.withDescription("With --checkMembers, how long the model's members are kept before they are fetched again. Defaults to " + MemberDictionary.DEFAULT_TTL_MINUTES + ". 0 fetches them every time.")
+				.create();
+
+		options.addOption(memberCacheTTLOption);
+
+		Option resumeJobOption = 
+				OptionBuilder
+				.withLongOpt("resumeJob")
+				.isRequired(false)
+				.hasArg()
+				.withArgName("id")
+				.withDescription("Resume a File to Cube or File to Vena Table job that failed or was cancelled. Give the same --file options as the failed job, and only the lines it didn't load are uploaded.")
+				.create();
+
+		options.addOption(resumeJobOption);
+
 		Option exportOption = 
 				OptionBuilder
 				.withLongOpt("export")
@@ -395,7 +627,7 @@ public class Main {
 				.isRequired(false)
 				.hasArg()
 				.withArgName("name")
-				.withDescription("Name of file to export to.")
+				.withDescription("Name of file to export to. A name ending in .gz is written gzip-compressed.")
 				.create();
 
 		options.addOption(exportFileOption);
@@ -441,6 +673,30 @@ public class Main {
 
 		options.addOption(exportFormatOption);
 
+		Option exportPartitionOption = 
+				OptionBuilder
+				.withLongOpt("exportPartition")
+				.isRequired(false)
+				.hasArg()
+				.withArgName("expr")
+				.withDescription("With --exportToFile, download this part of the export alongside the others (multiple allowed). "
+						+ "The parts are fetched concurrently and joined in the order given, so they must not overlap. "
+						+ "For intersections and lids each part is a model slice expression; for other types it is an HQL condition, combined with --exportWhere if given.")
+				.create();
+
+		options.addOption(exportPartitionOption);
+
+		Option exportThreadsOption = 
+				OptionBuilder
+				.withLongOpt("exportThreads")
+				.isRequired(false)
+				.hasArg()
+				.withArgName("num")
+				.withDescription("With --exportPartition, the most parts to download at once. Defaults to " + PartitionedExport.DEFAULT_THREADS + ".")
+				.create();
+
+		options.addOption(exportThreadsOption);
+
 		Option deleteOption = 
 				OptionBuilder
 				.withLongOpt("delete")
@@ -525,6 +781,16 @@ public class Main {
 
 		options.addOption(noWaitOption);
 
+		Option longPollOption = 
+				OptionBuilder
+				.withLongOpt("longPoll")
+				.isRequired(false)
+				.withDescription("While waiting for a job, ask the server to hold each status request until the job changes. "
+						+ "Falls back to regular polling if the server doesn't support it.")
+				.create();
+
+		options.addOption(longPollOption);
+
 		Option verboseOption = 
 				OptionBuilder
 				.withLongOpt("verbose")
@@ -533,6 +799,167 @@ public class Main {
 				.create();
 
 		options.addOption(verboseOption);
+
+		Option uploadThreadsOption = 
+				OptionBuilder
+				.withLongOpt("uploadThreads")
+				.isRequired(false)
+				.hasArg()
+				.withArgName("num")
+				.withDescription("Number of threads used to compress files concurrently while they are uploaded (default 1).")
+				.create();
+
+		uploadThreadsOption.setType(Integer.class);
+		options.addOption(uploadThreadsOption);
+
+		Option maxUploadRateOption = 
+				OptionBuilder
+				.withLongOpt("maxUploadRate")
+				.isRequired(false)
+				.hasArg()
+				.withArgName("MB/s")
+				.withDescription("Upload no faster than this many megabytes per second, shared by all the files being uploaded. Example: --maxUploadRate 2.5")
+				.create();
+
+		options.addOption(maxUploadRateOption);
+
+		Option uploadRateFileOption = 
+				OptionBuilder
+				.withLongOpt("uploadRateFile")
+				.isRequired(false)
+				.hasArg()
+				.withArgName("file")
+				.withDescription("A file holding the most megabytes per second to upload, or 0 for no limit. It is read again whenever it changes, so the rate can be changed during an upload. Overrides --maxUploadRate once it exists.")
+				.create();
+
+		options.addOption(uploadRateFileOption);
+
+		Option fromJdbcOption = 
+				OptionBuilder
+				.withLongOpt("fromJdbc")
+				.isRequired(false)
+				.hasArg()
+				.withArgName("url")
+				.withDescription("The JDBC URL of the database that the query= option of --file runs on. Its driver must be on the class path.")
+				.create();
+
+		options.addOption(fromJdbcOption);
+
+		Option jdbcUserOption = 
+				OptionBuilder
+				.withLongOpt("jdbcUser")
+				.isRequired(false)
+				.hasArg()
+				.withArgName("user")
+				.withDescription("The user to connect to the --fromJdbc database as.")
+				.create();
+
+		options.addOption(jdbcUserOption);
+
+		Option jdbcPasswordOption = 
+				OptionBuilder
+				.withLongOpt("jdbcPassword")
+				.isRequired(false)
+				.hasArg()
+				.withArgName("password")
+				.withDescription("The password of the --jdbcUser.")
+				.create();
+
+		options.addOption(jdbcPasswordOption);
+
+		Option fetchSizeOption = 
+				OptionBuilder
+				.withLongOpt("fetchSize")
+				.isRequired(false)
+				.hasArg()
+				.withArgName("rows")
+				.withDescription("How many rows of query results to fetch from the --fromJdbc database at a time (default " + JdbcSource.DEFAULT_FETCH_SIZE + ").")
+				.create();
+
+		options.addOption(fetchSizeOption);
+
+		Option compressionLevelOption = 
+				OptionBuilder
+				.withLongOpt("compressionLevel")
+				.isRequired(false)
+				.hasArg()
+				.withArgName("level")
+				.withDescription("Compression level for uploaded files, from 0 (fastest) to 9 (smallest). Defaults to 6.")
+				.create();
+
+		compressionLevelOption.setType(Integer.class);
+		options.addOption(compressionLevelOption);
+
+		Option noCompressOption = 
+				OptionBuilder
+				.withLongOpt("nocompress")
+				.isRequired(false)
+				.withDescription("Upload files without compressing them, e.g. for already compressed files or fast networks.")
+				.create();
+
+		options.addOption(noCompressOption);
+
+		Option resumableUploadOption = 
+				OptionBuilder
+				.withLongOpt("resumableUpload")
+				.isRequired(false)
+				.withDescription("Upload files in checksummed chunks before submitting the job. If the upload is interrupted, "
+						+ "running the same command again skips the chunks the server already received.")
+				.create();
+
+		options.addOption(resumableUploadOption);
+
+		Option skipUnchangedOption = 
+				OptionBuilder
+				.withLongOpt("skipUnchanged")
+				.isRequired(false)
+				.withDescription("Leave out files that haven't changed since they were last loaded into the model the same way. Can't be used with --batch. "
+						+ "What was loaded is kept in ~/.vena-etl, or the directory named by the " + UploadCache.DIRECTORY_PROPERTY + " system property.")
+				.create();
+
+		options.addOption(skipUnchangedOption);
+
+		Option noPoolingOption = 
+				OptionBuilder
+				.withLongOpt("noPooling")
+				.isRequired(false)
+				.withDescription("Open a new connection for each request instead of keeping a pool of open connections to the server.")
+				.create();
+
+		options.addOption(noPoolingOption);
+
+		Option maxConnectionsOption = 
+				OptionBuilder
+				.withLongOpt("maxConnections")
+				.isRequired(false)
+				.hasArg()
+				.withArgName("num")
+				.withDescription("The most connections to keep open to each server. Defaults to " + JerseyClientFactory.DEFAULT_MAX_CONNECTIONS_PER_ROUTE + ".")
+				.create();
+
+		options.addOption(maxConnectionsOption);
+
+		Option connectTimeoutOption = 
+				OptionBuilder
+				.withLongOpt("connectTimeout")
+				.isRequired(false)
+				.hasArg()
+				.withArgName("seconds")
+				.withDescription("How long to wait for a connection to the server, new or from the pool of open ones, or 0 to wait indefinitely. Defaults to 30.")
+				.create();
+
+		options.addOption(connectTimeoutOption);
+
+		Option readTimeoutOption = 
+				OptionBuilder
+				.withLongOpt("readTimeout")
+				.isRequired(false)
+				.hasArg()
+				.withArgName("seconds")
+				.withDescription("How long to wait for the server to respond, or 0 to wait indefinitely (the default).")
+				.create();
+
+		options.addOption(readTimeoutOption);
 		
 		Option loadStepsOption = 
 				OptionBuilder
@@ -682,57 +1109,194 @@ public class Main {
 			etlClient.verbose = true;
 		}
 
-		String apiUser =  commandLine.getOptionValue("apiUser");
+		if( commandLine.hasOption("longPoll") ) { 
+			etlClient.longPollRequested = true;
+		}
 
-		String apiKey =  commandLine.getOptionValue("apiKey");
+		String uploadThreads = commandLine.getOptionValue("uploadThreads");
 
-		String username =  commandLine.getOptionValue("username");
+		if( uploadThreads != null ) {
+			try {
+				etlClient.uploadThreads = Integer.parseInt(uploadThreads);
+			} catch (NumberFormatException e) {
+				etlClient.uploadThreads = 0;
+			}
+			if (etlClient.uploadThreads < 1) {
+				System.err.println( "Error: --uploadThreads must be a positive number.");
+				System.exit(1);
+			}
+		}
 
-		String password =  commandLine.getOptionValue("password");
-		
-		boolean runTemplate = commandLine.hasOption("runTemplate");
+		String maxUploadRate = commandLine.getOptionValue("maxUploadRate");
 
-		if(runTemplate) {
-			String[] incompatibleOptions = new String[]{"templateId", "clearSlices", "clearSlicesByDimNums",
-					"loadSteps", "runChannel", "export", "exportToTable", "exportFromTable",
-					"exportToFile", "exportWhere", "exportQuery", "delete", "deleteQuery",
-					"jobName", "jobId", "cancel", "loadFromStaging", "stage", "stageAndTransform",
-					"stageOnly", "transformComplete", "loadFromStaging", "venaTable"};
-			for(String option : incompatibleOptions) {
-				if(commandLine.hasOption(option)) {
-					System.err.println( "Error: You cannot use --runTemplate with --" +option+".");
-					System.exit(1);
-				}
+		if( maxUploadRate != null ) {
+			etlClient.maxUploadBytesPerSecond = RateLimiter.parseRate(maxUploadRate);
+			if (etlClient.maxUploadBytesPerSecond <= 0) {
+				System.err.println( "Error: --maxUploadRate must be a positive number of MB/s.");
+				System.exit(1);
 			}
-			etlClient.templateId = commandLine.getOptionValue("runTemplate");
-		} else {
-			etlClient.templateId = commandLine.getOptionValue("templateId");
 		}
 
-		/* Cross validation for the authentication options. */
-		if (etlClient.verbose) {
-			System.out.print("Auth options found:");
-			if (username != null) System.out.print(" username");
-			if (password != null) System.out.print(" password");
-			if (apiUser != null) System.out.print(" apiUser");
-			if (apiKey != null) System.out.print(" apiKey");
-			System.out.println();
-		}
+		String uploadRateFile = commandLine.getOptionValue("uploadRateFile");
 
-		if( (username != null && password != null && apiUser == null && apiKey == null) ) {
-			System.out.print("Logging in... ");
-			etlClient.username = username;
-			etlClient.password = password;
-			etlClient.login();
-			System.out.println("OK");
+		if( uploadRateFile != null ) {
+			etlClient.uploadRateFile = new File(uploadRateFile);
 		}
-		else if( (username == null && password == null && apiUser != null && apiKey != null) ) {
-			if (hostname == null) {
-				System.err.println("Error: You must specify --host when using --apiUser/--apiKey.");
-				System.exit(1);
-			}
 
-			// Use API key
+		etlClient.jdbcUrl = commandLine.getOptionValue("fromJdbc");
+		etlClient.jdbcUser = commandLine.getOptionValue("jdbcUser");
+		etlClient.jdbcPassword = commandLine.getOptionValue("jdbcPassword");
+
+		String fetchSize = commandLine.getOptionValue("fetchSize");
+
+		if( fetchSize != null ) {
+			try {
+				etlClient.jdbcFetchSize = Integer.parseInt(fetchSize);
+			} catch (NumberFormatException e) {
+				etlClient.jdbcFetchSize = 0;
+			}
+			if (etlClient.jdbcFetchSize < 1) {
+				System.err.println( "Error: --fetchSize must be a positive number.");
+				System.exit(1);
+			}
+		}
+
+		String modelCacheTTL = commandLine.getOptionValue("modelCacheTTL");
+
+		if( modelCacheTTL != null ) {
+			try {
+				etlClient.modelCacheTTL = Long.parseLong(modelCacheTTL);
+			} catch (NumberFormatException e) {
+				etlClient.modelCacheTTL = -1;
+			}
+			if (etlClient.modelCacheTTL < 0) {
+				System.err.println( "Error: --modelCacheTTL must be a number of minutes.");
+				System.exit(1);
+			}
+		}
+
+		String compressionLevel = commandLine.getOptionValue("compressionLevel");
+
+		if( compressionLevel != null && commandLine.hasOption("nocompress") ) {
+			System.err.println( "Error: --compressionLevel and --nocompress options cannot be combined.");
+			System.exit(1);
+		}
+
+		if( compressionLevel != null ) {
+			try {
+				etlClient.compressionLevel = Integer.parseInt(compressionLevel);
+			} catch (NumberFormatException e) {
+				etlClient.compressionLevel = -1;
+			}
+			if (etlClient.compressionLevel < 0 || etlClient.compressionLevel > 9) {
+				System.err.println( "Error: --compressionLevel must be a number from 0 to 9.");
+				System.exit(1);
+			}
+		}
+
+		if( commandLine.hasOption("nocompress") ) {
+			etlClient.compressUploads = false;
+		}
+
+		if( commandLine.hasOption("noPooling") ) {
+			if (commandLine.hasOption("maxConnections")) {
+				System.err.println( "Error: --maxConnections and --noPooling options cannot be combined.");
+				System.exit(1);
+			}
+			etlClient.pooledConnections = false;
+		}
+
+		String maxConnections = commandLine.getOptionValue("maxConnections");
+
+		if( maxConnections != null ) {
+			try {
+				etlClient.maxConnectionsPerRoute = Integer.parseInt(maxConnections);
+			} catch (NumberFormatException e) {
+				etlClient.maxConnectionsPerRoute = 0;
+			}
+			if (etlClient.maxConnectionsPerRoute < 1) {
+				System.err.println( "Error: --maxConnections must be a positive number.");
+				System.exit(1);
+			}
+		}
+
+		String connectTimeout = commandLine.getOptionValue("connectTimeout");
+
+		if( connectTimeout != null ) {
+			etlClient.connectTimeoutSeconds = parseTimeout("connectTimeout", connectTimeout);
+		}
+
+		String readTimeout = commandLine.getOptionValue("readTimeout");
+
+		if( readTimeout != null ) {
+			etlClient.readTimeoutSeconds = parseTimeout("readTimeout", readTimeout);
+		}
+
+		if( commandLine.hasOption("resumableUpload") ) {
+			etlClient.resumableUploads = true;
+		}
+
+		String apiUser =  commandLine.getOptionValue("apiUser");
+
+		String apiKey =  commandLine.getOptionValue("apiKey");
+
+		String username =  commandLine.getOptionValue("username");
+
+		String password =  commandLine.getOptionValue("password");
+		
+		boolean runTemplate = commandLine.hasOption("runTemplate");
+
+		if(runTemplate) {
+			String[] incompatibleOptions = new String[]{"templateId", "clearSlices", "clearSlicesByDimNums",
+					"loadSteps", "runChannel", "export", "exportToTable", "exportFromTable",
+					"exportToFile", "exportWhere", "exportQuery", "delete", "deleteQuery",
+					"jobName", "jobId", "cancel", "loadFromStaging", "stage", "stageAndTransform",
+					"stageOnly", "transformComplete", "loadFromStaging", "venaTable", "resumeJob"};
+			for(String option : incompatibleOptions) {
+				if(commandLine.hasOption(option)) {
+					System.err.println( "Error: You cannot use --runTemplate with --" +option+".");
+					System.exit(1);
+				}
+			}
+			etlClient.templateId = commandLine.getOptionValue("runTemplate");
+		} else {
+			etlClient.templateId = commandLine.getOptionValue("templateId");
+		}
+
+		/* Cross validation for the authentication options. */
+		PrintStream progress = progress(commandLine);
+		if (etlClient.verbose) {
+			progress.print("Auth options found:");
+			if (username != null) progress.print(" username");
+			if (password != null) progress.print(" password");
+			if (apiUser != null) progress.print(" apiUser");
+			if (apiKey != null) progress.print(" apiKey");
+			progress.println();
+		}
+
+		if( (username != null && password != null && apiUser == null && apiKey == null) ) {
+			progress.print("Logging in... ");
+			etlClient.username = username;
+			etlClient.password = password;
+			etlClient.sessionCache = commandLine.hasOption("sessionCache");
+			etlClient.hedgeLogin = commandLine.hasOption("hedgeLogin");
+			etlClient.login();
+			progress.println("OK");
+		}
+		else if( (username == null && password == null && apiUser != null && apiKey != null) ) {
+			if (hostname == null) {
+				System.err.println("Error: You must specify --host when using --apiUser/--apiKey.");
+				System.exit(1);
+			}
+
+			for (String option : new String[] { "sessionCache", "hedgeLogin" }) {
+				if (commandLine.hasOption(option)) {
+					System.err.println("Error: --" + option + " is only available with --username/--password.");
+					System.exit(1);
+				}
+			}
+
+			// Use API key
 			etlClient.apiUser = apiUser;
 			etlClient.apiKey = apiKey;
 		}
@@ -743,9 +1307,33 @@ public class Main {
 		return runTemplate;
 	}
 
+	private static int parseTimeout(String option, String value) {
+		int seconds;
+		try {
+			seconds = Integer.parseInt(value);
+		} catch (NumberFormatException e) {
+			seconds = -1;
+		}
+		if (seconds < 0 || seconds > Integer.MAX_VALUE / 1000) {
+			System.err.println( "Error: --" + option + " must be a number of seconds, or 0 for no timeout.");
+			System.exit(1);
+		}
+		return seconds;
+	}
+
 	public static ETLMetadataDTO produceETLMetadata(
 			ETLClient etlClient, 
 			CommandLine commandLine) throws UnsupportedEncodingException {
+		return produceETLMetadata(etlClient, commandLine, new ArrayList<IntersectionDelta>());
+	}
+
+	/**
+	 * @param deltas where the delta files of the job are added, to be recorded once it is submitted.
+	 */
+	static ETLMetadataDTO produceETLMetadata(
+			ETLClient etlClient, 
+			CommandLine commandLine,
+			List<IntersectionDelta> deltas) throws UnsupportedEncodingException {
 		boolean runningTemplate = prepareETLClient(etlClient, commandLine);
 		ETLMetadataDTO metadata;
 		if(runningTemplate) {
@@ -759,11 +1347,45 @@ public class Main {
 			metadata = fillTemplateMetadata(commandLine, template);
 			etlClient.modelId = metadata.getModelId();
 		} else {
-			metadata = buildETLMetadata(commandLine, etlClient);
+			metadata = buildETLMetadata(commandLine, etlClient, deltas);
+		}
+		if (commandLine.hasOption("skipUnchanged") && !etlClient.validationRequested) {
+			skipUnchangedFiles(metadata, etlClient);
 		}
 		return metadata;
 	}
 
+	/**
+	 * Leaves out the steps that load a file straight into the model or a Vena table, if the same file
+	 * was already loaded the same way. Files loaded to staging are always sent, since later steps use them.
+	 */
+	private static void skipUnchangedFiles(ETLMetadataDTO metadata, ETLClient etlClient) {
+		try {
+			UploadCache cache = UploadCache.open();
+			Iterator<ETLStepDTO> steps = metadata.getSteps().iterator();
+			while (steps.hasNext()) {
+				ETLStepDTO step = steps.next();
+				if (!(step instanceof ETLFileToCubeStepDTO || step instanceof ETLFileToVenaTableStepDTO)) {
+					continue;
+				}
+				ETLFileImportStepDTO fileStep = (ETLFileImportStepDTO) step;
+				if (new File(fileStep.getFileName()).isFile() && cache.isUnchanged(metadata.getModelId(), fileStep, etlClient)) {
+					System.out.println("Skipping " + fileStep.getFileName() + ", which hasn't changed since it was last loaded.");
+					steps.remove();
+				}
+			}
+			cache.save();
+		} catch (IOException e) {
+			System.err.println("Could not check for unchanged files in " + UploadCache.directory() + ": " + e.getMessage());
+		}
+		metadata.resequenceSteps();
+
+		if (metadata.getSteps().isEmpty()) {
+			System.out.println(NOTHING_CHANGED);
+			System.exit(0);
+		}
+	}
+
 	public static ETLMetadataDTO buildETLMetadata(String[] args, ETLClient etlClient) throws UnsupportedEncodingException {
 		CommandLine commandLine = parseCommandLineArgs(args);
 		prepareETLClient(etlClient, commandLine);
@@ -771,6 +1393,13 @@ public class Main {
 	}
 	
 	public static ETLMetadataDTO buildETLMetadata(CommandLine commandLine, ETLClient etlClient) throws UnsupportedEncodingException {
+		return buildETLMetadata(commandLine, etlClient, new ArrayList<IntersectionDelta>());
+	}
+
+	/**
+	 * @param deltas where the delta files of the job are added, to be recorded once it is submitted.
+	 */
+	static ETLMetadataDTO buildETLMetadata(CommandLine commandLine, ETLClient etlClient, List<IntersectionDelta> deltas) throws UnsupportedEncodingException {
 
 		String modelIdStr = commandLine.getOptionValue("modelId");
 		String modelNameStr = commandLine.getOptionValue("modelName");
@@ -790,7 +1419,7 @@ public class Main {
 
 			//Lookup model by name.
 			if( modelNameStr != null ) {
-				System.out.print("Looking up model... ");
+				progress(commandLine).print("Looking up model... ");
 				ModelResponseDTO searchResults = etlClient.lookupModel(modelNameStr);
 
 				if( searchResults == null) {
@@ -799,7 +1428,7 @@ public class Main {
 					System.exit(1);
 				}
 
-				System.out.println("OK");
+				progress(commandLine).println("OK");
 				etlClient.modelId = searchResults.getId();
 			}
 			else {
@@ -807,10 +1436,14 @@ public class Main {
 			}
 		}
 		else if(commandLine.getOptionValue("createModel") !=null) {
-			System.out.print("Creating new model... ");
+			progress(commandLine).print("Creating new model... ");
 			etlClient.createModel(commandLine.getOptionValue("createModel"));
 
-			System.out.println("OK");
+			progress(commandLine).println("OK");
+		}
+
+		if (commandLine.hasOption("batch")) {
+			System.exit(runBatch(etlClient, commandLine));
 		}
 
 		// Options that work on a single job ID, model ID optional
@@ -831,6 +1464,21 @@ public class Main {
 			System.exit(0);
 		}
 
+		if (commandLine.hasOption("watchJobs") || commandLine.hasOption("jobIdsFile")) {
+
+			List<String> jobIds = parseJobIds(commandLine.getOptionValue("watchJobs"), commandLine.getOptionValue("jobIdsFile"));
+
+			if (jobIds.isEmpty()) {
+				System.err.println( "Error: No job IDs were given to watch.");
+				System.exit(1);
+			}
+
+			System.out.println("Waiting for " + jobIds.size() + " job(s) to finish... ");
+			int exitCode = new MultiJobWatcher(etlClient, jobIds, !commandLine.hasOption("wait")).run();
+
+			System.exit(exitCode);
+		}
+
 		if (commandLine.hasOption("transformComplete")) {
 
 			if (jobId == null) {
@@ -974,9 +1622,58 @@ public class Main {
 				}
 			}
 
+			String[] partitions = commandLine.getOptionValues("exportPartition");
+
+			if (partitions != null && exportToFile == null) {
+				System.err.println( "Error: --exportPartition can only be used with --exportToFile.");
+				System.exit(1);
+			}
+
+			if (partitions != null && queryExpr != null) {
+				System.err.println( "Error: --exportPartition and --exportQuery options cannot be combined. Give each partition as a complete query expression.");
+				System.exit(1);
+			}
+
+			if (partitions != null && PartitionedExport.usesSliceQueries(type) && whereClause != null) {
+				System.err.println( "Error: Type \"" + type + "\" doesn't support where clause. Use query expressions as partitions instead.");
+				System.exit(1);
+			}
+
+			if (partitions != null) {
+				int exportThreads = PartitionedExport.DEFAULT_THREADS;
+				String exportThreadsStr = commandLine.getOptionValue("exportThreads");
+				if (exportThreadsStr != null) {
+					try {
+						exportThreads = Integer.parseInt(exportThreadsStr);
+					} catch (NumberFormatException e) {
+						exportThreads = 0;
+					}
+					if (exportThreads < 1) {
+						System.err.println( "Error: --exportThreads must be a positive number.");
+						System.exit(1);
+					}
+				}
+
+				System.out.print("Running export in " + partitions.length + " partitions (this might take a while)... ");
+				try {
+					new PartitionedExport(etlClient, type, exportFromTable, whereClause, Arrays.asList(partitions), !excludeHeaders, fileFormat, exportThreads)
+						.writeTo(new File(exportToFile));
+				} catch (IOException e) {
+					e.printStackTrace();
+					System.exit(1);
+				}
+				System.out.print("OK.");
+				System.exit(0);
+			}
+
 			if (exportToFile != null) {
 				System.out.print("Running export (this might take a while)... ");
-				InputStream in = etlClient.sendExport(type, exportFromTable, exportToTable, whereClause, queryExpr, !excludeHeaders, fileFormat);
+				InputStream in;
+				if (isGzipFileName(exportToFile)) {
+					in = etlClient.sendExport(type, exportFromTable, exportToTable, whereClause, queryExpr, !excludeHeaders, fileFormat, true);
+				} else {
+					in = etlClient.sendExport(type, exportFromTable, exportToTable, whereClause, queryExpr, !excludeHeaders, fileFormat);
+				}
 				try {
 					Files.copy(in, new File(exportToFile).toPath(), StandardCopyOption.REPLACE_EXISTING);
 				} catch (IOException e) {
@@ -1116,7 +1813,418 @@ public class Main {
 		}
 
 		// Do an Import
-		return produceImportMetadata(commandLine, etlClient.modelId);
+		ETLMetadataDTO metadata = produceImportMetadata(commandLine, etlClient, deltas);
+		if (commandLine.hasOption("resumeJob")) {
+			resumeJob(metadata, etlClient, commandLine.getOptionValue("resumeJob"));
+		}
+		if (commandLine.hasOption("preflight")) {
+			preflight(metadata, commandLine, etlClient);
+		} else {
+			for (String option : new String[] {"maxPreflightErrors", "checkMembers"}) {
+				if (commandLine.hasOption(option)) {
+					System.err.println( "Error: --" + option + " can only be used with --preflight.");
+					System.exit(1);
+				}
+			}
+		}
+		if (commandLine.hasOption("memberCacheTTL") && !commandLine.hasOption("checkMembers")) {
+			System.err.println( "Error: --memberCacheTTL can only be used with --checkMembers.");
+			System.exit(1);
+		}
+		return metadata;
+	}
+
+	private static void resumeJob(ETLMetadataDTO metadata, ETLClient etlClient, String jobId) {
+		System.out.print("Fetching job status... ");
+		ETLJobDTO failedJob = etlClient.requestJobStatus(jobId);
+		System.out.println("OK");
+
+		if (failedJob.getMetadata().getModelId() != null && !failedJob.getMetadata().getModelId().equals(etlClient.modelId)) {
+			System.err.println( "Error: Job " + jobId + " loaded model " + failedJob.getMetadata().getModelId() + ", not model " + etlClient.modelId + ".");
+			System.exit(1);
+		}
+
+		List<JobResumer.Result> results = null;
+		try {
+			results = new JobResumer().resume(metadata, failedJob);
+		} catch (IllegalArgumentException e) {
+			System.err.println( "Error: " + e.getMessage());
+			System.exit(1);
+		} catch (IOException e) {
+			System.err.println( "Error: Could not read the files to resume: " + e.getMessage());
+			System.exit(1);
+		}
+
+		for (int i = 0; i < results.size(); i++) {
+			JobResumer.Result result = results.get(i);
+			String description = "   - " + i + ". " + result.step.getFileName() + ": ";
+			if (result.status == ETLStepDTO.Status.COMPLETED) {
+				System.out.println(description + "already loaded.");
+			} else if (result.resumeOffset >= 0) {
+				System.out.println(description + "resuming at line " + result.resumeLine + ".");
+			} else if (result.resumeLine > 1) {
+				System.out.println(description + "no lines left to load.");
+			} else {
+				System.out.println(description + "loading all of it.");
+			}
+		}
+
+		if (metadata.getSteps().isEmpty()) {
+			System.err.println( "Error: Job " + jobId + " has no lines left to load.");
+			System.exit(1);
+		}
+	}
+
+	private static void preflight(ETLMetadataDTO metadata, CommandLine commandLine, ETLClient etlClient) {
+		int maxErrors = FilePreflight.DEFAULT_MAX_ERRORS;
+		String maxErrorsStr = commandLine.getOptionValue("maxPreflightErrors");
+		if (maxErrorsStr != null) {
+			try {
+				maxErrors = Integer.parseInt(maxErrorsStr);
+			} catch (NumberFormatException e) {
+				maxErrors = 0;
+			}
+			if (maxErrors < 1) {
+				System.err.println( "Error: --maxPreflightErrors must be a positive number.");
+				System.exit(1);
+			}
+		}
+
+		FilePreflight preflight = new FilePreflight(maxErrors, Runtime.getRuntime().availableProcessors());
+		if (commandLine.hasOption("checkMembers")) {
+			preflight.members = loadMembers(metadata, commandLine, etlClient);
+		}
+		boolean failed = false;
+		for (ETLFileImportStepDTO step : metadata.getAllFileSteps()) {
+			if (step.getPartOffset() > 0) {
+				// Checked with the first part of the file.
+				continue;
+			}
+			String fileName = step.getFileName();
+			System.out.print("Checking " + fileName + "... ");
+			FilePreflight.Report report = null;
+			try {
+				String encoding = step.getSourceEncoding() != null ? step.getSourceEncoding() : step.getFileEncoding();
+				report = preflight.check(new File(fileName), step.getDataType(), step.getFileFormat(), encoding);
+			} catch (IOException e) {
+				System.out.println();
+				System.err.println( "Error: Could not read " + fileName + ": " + e.getMessage());
+				System.exit(1);
+			}
+
+			if (report.errors.isEmpty()) {
+				System.out.println("OK (" + report.rows + " rows).");
+				continue;
+			}
+			failed = true;
+			if (report.complete) {
+				System.out.println(report.errorCount + " error(s).");
+			} else {
+				System.out.println("stopped after " + report.errors.size() + " errors.");
+			}
+			for (String error : report.errors) {
+				System.err.println( fileName + ", " + error);
+			}
+		}
+
+		if (failed) {
+			System.err.println( "Error: The files have errors, so the job was not submitted.");
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Gets the model's members from the cache, or from its hierarchy if they aren't there or are too old,
+	 * along with the members of the hierarchy files the job loads.
+	 */
+	private static MemberDictionary loadMembers(ETLMetadataDTO metadata, CommandLine commandLine, ETLClient etlClient) {
+		long ttl = MemberDictionary.DEFAULT_TTL_MINUTES;
+		String ttlStr = commandLine.getOptionValue("memberCacheTTL");
+		if (ttlStr != null) {
+			try {
+				ttl = Long.parseLong(ttlStr);
+			} catch (NumberFormatException e) {
+				ttl = -1;
+			}
+			if (ttl < 0) {
+				System.err.println( "Error: --memberCacheTTL must be a number of minutes.");
+				System.exit(1);
+			}
+		}
+
+		File file = MemberDictionary.file(MemberDictionary.directory(), etlClient.modelId);
+		MemberDictionary members = null;
+		try {
+			members = MemberDictionary.open(file, ttl * 60 * 1000);
+			if (members != null) {
+				long age = (System.currentTimeMillis() - members.fetched) / (60 * 1000);
+				System.out.println("Using the members of the model fetched " + age + " minute(s) ago.");
+			} else {
+				System.out.print("Fetching the members of the model... ");
+				try (InputStream export = etlClient.sendExport(DataType.hierarchy, null, null, null, null, true, FileFormat.CSV)) {
+					members = MemberDictionary.fetch(export, file);
+				}
+				System.out.println(members.size() + " members in " + members.dimensions() + " dimensions.");
+			}
+		} catch (IOException e) {
+			System.out.println();
+			System.err.println( "Error: Could not get the members of the model: " + e.getMessage());
+			System.exit(1);
+		}
+
+		for (ETLFileImportStepDTO step : metadata.getAllFileSteps()) {
+			if (step.getDataType() == DataType.hierarchy && step.getPartOffset() == 0) {
+				try {
+					String encoding = step.getSourceEncoding() != null ? step.getSourceEncoding() : step.getFileEncoding();
+					members.addHierarchy(new File(step.getFileName()), step.getFileFormat(), encoding);
+				} catch (IOException e) {
+					System.err.println( "Error: Could not read the members of " + step.getFileName() + ": " + e.getMessage());
+					System.exit(1);
+				}
+			}
+		}
+		return members;
+	}
+
+	/**
+	 * @return where to report progress: standard error for a batch, whose results are written to standard output.
+	 */
+	private static PrintStream progress(CommandLine commandLine) {
+		return commandLine.hasOption("batch") ? System.err : System.out;
+	}
+
+	private static int runBatch(ETLClient etlClient, CommandLine commandLine) throws UnsupportedEncodingException {
+		// Standard output is left to the results, so they can be read as JSON lines, and everything else goes to standard error.
+		PrintStream stdout = System.out;
+		System.setOut(System.err);
+		try {
+			return runBatch(etlClient, commandLine, stdout);
+		} finally {
+			System.setOut(stdout);
+		}
+	}
+
+	/**
+	 * @param stdout where the results are written unless --batchResults names a file.
+	 */
+	private static int runBatch(ETLClient etlClient, CommandLine commandLine, PrintStream stdout) throws UnsupportedEncodingException {
+
+		// What a job loaded is only recorded by a single job run, so a batch would never skip anything.
+		if (commandLine.hasOption("skipUnchanged")) {
+			System.err.println( "Error: --skipUnchanged cannot be used with --batch.");
+			System.exit(1);
+		}
+
+		int maxInFlight = BatchRunner.DEFAULT_MAX_IN_FLIGHT;
+		String maxInFlightStr = commandLine.getOptionValue("maxInFlight");
+		if (maxInFlightStr != null) {
+			try {
+				maxInFlight = Integer.parseInt(maxInFlightStr);
+			} catch (NumberFormatException e) {
+				maxInFlight = 0;
+			}
+			if (maxInFlight < 1) {
+				System.err.println( "Error: --maxInFlight must be a positive number.");
+				System.exit(1);
+			}
+		}
+
+		if (commandLine.hasOption("queue") && commandLine.hasOption("noqueue")) {
+			System.err.println( "Error: --queue and --noqueue options cannot be combined.");
+			System.exit(1);
+		}
+
+		Boolean queuingEnabled = null;
+		if (commandLine.hasOption("queue")) {
+			queuingEnabled = true;
+		}
+		if (commandLine.hasOption("noqueue")) {
+			queuingEnabled = false;
+		}
+
+		Id modelId = etlClient.modelId;
+		boolean validate = etlClient.validationRequested;
+		String templateId = etlClient.templateId;
+
+		// Every line is turned into a job before anything is submitted, so a mistake in the manifest costs nothing.
+		List<BatchRunner.BatchJob> jobs = new ArrayList<>();
+		String manifest = commandLine.getOptionValue("batch");
+		for (Map.Entry<Integer, String[]> line : readBatchManifest(manifest).entrySet()) {
+			CommandLine lineCommandLine = parseCommandLineArgs(line.getValue());
+
+			for (String option : BATCH_LINE_INCOMPATIBLE_OPTIONS) {
+				if (lineCommandLine.hasOption(option)) {
+					System.err.println( "Error: Line " + line.getKey() + " of " + manifest + ": --" + option + " cannot be used in a batch manifest.");
+					System.exit(1);
+				}
+			}
+			// A delta's snapshot is only kept by a single job run, so every run of the batch would send the same delta.
+			String[] fileOptions = lineCommandLine.getOptionValues("file");
+			for (String fileOption : fileOptions == null ? new String[0] : fileOptions) {
+				boolean delta;
+				try {
+					delta = parseETLFileArgs(fileOption).isDelta();
+				} catch (IllegalArgumentException e) {
+					// Reported when the line is turned into a job.
+					continue;
+				}
+				if (delta) {
+					System.err.println( "Error: Line " + line.getKey() + " of " + manifest + ": the --file option delta cannot be used in a batch manifest.");
+					System.exit(1);
+				}
+			}
+
+			etlClient.modelId = modelId;
+			etlClient.validationRequested = validate || lineCommandLine.hasOption("validate");
+
+			ETLMetadataDTO metadata = buildETLMetadata(lineCommandLine, etlClient);
+			if (metadata.getQueuingEnabled() == null) {
+				metadata.setQueuingEnabled(queuingEnabled);
+			}
+
+			String lineTemplateId = lineCommandLine.getOptionValue("templateId");
+			jobs.add(new BatchRunner.BatchJob(line.getKey(), metadata, etlClient.modelId, etlClient.validationRequested,
+					lineTemplateId != null ? lineTemplateId : templateId));
+		}
+
+		if (jobs.isEmpty()) {
+			System.err.println( "Error: No jobs were found in " + manifest + ".");
+			System.exit(1);
+		}
+
+		PrintStream results = stdout;
+		String resultsFile = commandLine.getOptionValue("batchResults");
+		if (resultsFile != null) {
+			try {
+				results = new PrintStream(new FileOutputStream(resultsFile), true, "UTF-8");
+			} catch (FileNotFoundException e) {
+				System.err.println( "Error: Could not write batch results to \"" + resultsFile + "\": " + e.getMessage());
+				System.exit(1);
+			}
+		}
+
+		System.err.println("Submitting " + jobs.size() + " job(s), at most " + maxInFlight + " at a time... ");
+		try {
+			return new BatchRunner(etlClient, jobs, maxInFlight, etlClient.waitFully, results).run();
+		} finally {
+			if (results != stdout) {
+				results.close();
+			}
+		}
+	}
+
+	static boolean isGzipFileName(String fileName) {
+		return fileName.toLowerCase().endsWith(".gz");
+	}
+
+	/**
+	 * Reads the manifest of a batch, returning the arguments on each line keyed by line number.
+	 * Blank lines and lines starting with # are skipped.
+	 */
+	static SortedMap<Integer, String[]> readBatchManifest(String manifest) {
+		SortedMap<Integer, String[]> lines = new TreeMap<>();
+		try (BufferedReader br = new BufferedReader(new FileReader(manifest))) {
+			String line;
+			int lineNumber = 0;
+			while ((line = br.readLine()) != null) {
+				lineNumber++;
+				String trimmed = line.trim();
+				if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+					continue;
+				}
+				List<String> args = splitArguments(trimmed);
+				if (args == null) {
+					System.err.println( "Error: Line " + lineNumber + " of " + manifest + " has an unterminated quote.");
+					System.exit(1);
+				}
+				lines.put(lineNumber, args.toArray(new String[args.size()]));
+			}
+		} catch (IOException e) {
+			System.err.println( "Error: Could not read batch manifest \"" + manifest + "\": " + e.getMessage());
+			System.exit(1);
+		}
+		return lines;
+	}
+
+	/**
+	 * Splits a line into arguments the way a shell would: on whitespace, except inside single or double quotes.
+	 * @return the arguments, or null if a quote isn't closed.
+	 */
+	static List<String> splitArguments(String line) {
+		List<String> args = new ArrayList<>();
+		StringBuilder arg = new StringBuilder();
+		boolean inArg = false;
+		char quote = 0;
+
+		for (int i = 0; i < line.length(); i++) {
+			char c = line.charAt(i);
+			if (quote != 0) {
+				if (c == quote) {
+					quote = 0;
+				} else {
+					arg.append(c);
+				}
+			} else if (c == '"' || c == '\'') {
+				quote = c;
+				inArg = true;
+			} else if (Character.isWhitespace(c)) {
+				if (inArg) {
+					args.add(arg.toString());
+					arg.setLength(0);
+					inArg = false;
+				}
+			} else {
+				arg.append(c);
+				inArg = true;
+			}
+		}
+
+		if (quote != 0) {
+			return null;
+		}
+		if (inArg) {
+			args.add(arg.toString());
+		}
+		return args;
+	}
+
+	private static List<String> parseJobIds(String jobIdList, String jobIdsFile) {
+		List<String> jobIds = new ArrayList<>();
+		List<String> lines = new ArrayList<>();
+
+		if (jobIdList != null) {
+			lines.add(jobIdList);
+		}
+
+		if (jobIdsFile != null) {
+			try (BufferedReader br = new BufferedReader(new FileReader(jobIdsFile))) {
+				String line;
+				while ((line = br.readLine()) != null) {
+					if (!line.trim().startsWith("#")) {
+						lines.add(line);
+					}
+				}
+			} catch (IOException e) {
+				System.err.println( "Error: Could not read job IDs from \"" + jobIdsFile + "\": " + e.getMessage());
+				System.exit(1);
+			}
+		}
+
+		for (String line : lines) {
+			for (String jobId : line.split("[,\\s]+")) {
+				if (jobId.isEmpty()) {
+					continue;
+				}
+				try {
+					Id.valueOf(jobId);
+				} catch (NumberFormatException e) {
+					System.err.println( "Error: \"" + jobId + "\" is not a valid job ID.");
+					System.exit(1);
+				}
+				jobIds.add(jobId);
+			}
+		}
+		return jobIds;
 	}
 
 	private static ETLMetadataDTO produceStepsMetadata(ETLClient etlClient, CommandLine commandLine) {
@@ -1356,7 +2464,8 @@ public class Main {
 		return etlFile;
 	}
 
-	private static ETLMetadataDTO produceImportMetadata(CommandLine commandLine, Id modelId) {
+	private static ETLMetadataDTO produceImportMetadata(CommandLine commandLine, ETLClient etlClient, List<IntersectionDelta> deltas) {
+		Id modelId = etlClient.modelId;
 
 		ETLLoadType loadType = ETLLoadType.FILE_TO_CUBE;
 
@@ -1408,6 +2517,11 @@ public class Main {
 			}
 		}
 
+		if (commandLine.hasOption("resumeJob") && commandLine.hasOption("resumableUpload")) {
+			System.err.println("Error: --resumeJob and --resumableUpload options cannot be combined.");
+			System.exit(1);
+		}
+
 		if (commandLine.hasOption("clearSlicesByColumns")) {
 			System.err.println("Error: clearSlicesByColumns can only be used as a suboption to the --file option for ETL File to Vena Table imports.");
 			System.exit(1);
@@ -1428,6 +2542,53 @@ public class Main {
 							+"\n For Stage operations, use the stand alone --clearSlices and --clearSlicesByDimNums options instead.");
 				}
 			}
+			if (etlFile.isDelta()) {
+				if (loadType != ETLLoadType.FILE_TO_CUBE || etlFile.getFileType() != DataType.intersections) {
+					System.err.println("Error: the --file option delta is only available for intersections files in ETL File to Cube imports.");
+					System.exit(1);
+				}
+				if (etlFile.getClearSlicesExpressions() != null || etlFile.getClearSlicesDimensions() != null) {
+					System.err.println("Error: the --file option delta cannot be combined with clearSlices or clearSlicesByDimNums, since only the changed rows are loaded.");
+					System.exit(1);
+				}
+				if (commandLine.hasOption("resumeJob")) {
+					System.err.println("Error: the --file option delta cannot be combined with --resumeJob.");
+					System.exit(1);
+				}
+			}
+			if (etlFile.isSplit()) {
+				if (loadType != ETLLoadType.FILE_TO_CUBE && loadType != ETLLoadType.FILE_TO_VENA_TABLE) {
+					System.err.println("Error: the --file option split is only available for ETL File to Cube and File to Vena Table imports.");
+					System.exit(1);
+				}
+				if (commandLine.hasOption("resumableUpload")) {
+					System.err.println("Error: the --file option split cannot be combined with --resumableUpload.");
+					System.exit(1);
+				}
+			}
+			boolean streamed = StreamSource.isStream(etlFile.getFilename(), etlFile.getCommand(), etlFile.getQuery());
+			if (streamed) {
+				validateStreamedFile(etlFile, etlFiles, commandLine);
+			}
+			if (etlFile.getQuery() != null) {
+				checkQuery(etlFile, etlClient);
+			}
+			if (etlFile.isTranscode()) {
+				if (commandLine.hasOption("resumableUpload")) {
+					System.err.println("Error: the --file option transcode cannot be combined with --resumableUpload.");
+					System.exit(1);
+				}
+				if (!streamed) {
+					detectEncoding(etlFile);
+				}
+			}
+			if (etlFile.isAggregate() || etlFile.isDropZeros()) {
+				if (loadType != ETLLoadType.FILE_TO_CUBE || etlFile.getFileType() != DataType.intersections) {
+					System.err.println("Error: the --file options aggregate and dropZeros are only available for intersections files in ETL File to Cube imports.");
+					System.exit(1);
+				}
+				reduceFile(etlFile, etlClient);
+			}
 			
 		}
 		
@@ -1459,7 +2620,14 @@ public class Main {
 		switch(loadType) {
 		case FILE_TO_CUBE:
 			for(ETLFileOldDTO file : etlFiles) {
-				metadata.addStep(new ETLFileToCubeStepDTO(file));
+				if (file.isDelta() && !computeDelta(file, etlClient, deltas)) {
+					continue;
+				}
+				if (file.isSplit()) {
+					addSplitFileSteps(metadata, file, loadType);
+				} else {
+					metadata.addStep(new ETLFileToCubeStepDTO(file));
+				}
 			}
 			break;
 		case FILE_TO_STAGE:
@@ -1470,7 +2638,11 @@ public class Main {
 		case FILE_TO_VENA_TABLE:
 				for (ETLFileOldDTO file : etlFiles) {
 					validateFileToVenaStep(file);
-					metadata.addStep(new ETLFileToVenaTableStepDTO(file));
+					if (file.isSplit()) {
+						addSplitFileSteps(metadata, file, loadType);
+					} else {
+						metadata.addStep(new ETLFileToVenaTableStepDTO(file));
+					}
 				}
 			break;
 		case FILE_TO_STAGE_TO_CUBE:
@@ -1487,6 +2659,11 @@ public class Main {
 			break;
 		}
 		
+		if (metadata.getSteps().isEmpty()) {
+			System.out.println(NOTHING_CHANGED);
+			System.exit(0);
+		}
+
 		metadata.setSchemaVersion(2);
 		metadata.setModelId(modelId);
 
@@ -1497,6 +2674,243 @@ public class Main {
 		
 	}
 
+	/**
+	 * Checks that data that can only be read once isn't used in a way that reads it before it is uploaded.
+	 */
+	private static void validateStreamedFile(ETLFileOldDTO file, List<ETLFileOldDTO> files, CommandLine commandLine) {
+		if (file.getCommand() == null && file.getQuery() == null && StreamSource.STANDARD_INPUT.equals(file.getFilename())) {
+			for (ETLFileOldDTO other : files) {
+				if (other != file && other.getCommand() == null && other.getQuery() == null && StreamSource.STANDARD_INPUT.equals(other.getFilename())) {
+					System.err.println("Error: Only one --file can be read from standard input.");
+					System.exit(1);
+				}
+			}
+		}
+
+		String source = StreamSource.describe(file.getFilename(), file.getCommand(), file.getQuery());
+		if (file.isTranscode() && file.getFileEncoding() == null) {
+			System.err.println("Error: the --file option transcode needs encoding to be given for " + source + ", since it can only be read once.");
+			System.exit(1);
+		}
+		if (file.isAggregate() || file.isDropZeros()) {
+			// It is read once, into the reduced file, which is then used like any other file.
+			return;
+		}
+		if (file.isSplit() || file.isDelta()) {
+			System.err.println("Error: the --file options split and delta cannot be used with " + source + ", since it can only be read once.");
+			System.exit(1);
+		}
+		for (String option : new String[] {"resumableUpload", "preflight", "resumeJob"}) {
+			if (commandLine.hasOption(option)) {
+				System.err.println("Error: --" + option + " cannot be used with " + source + ", since it can only be read once.");
+				System.exit(1);
+			}
+		}
+	}
+
+	/**
+	 * Checks that the query can be run and that its columns suit the file type, without running it.
+	 */
+	private static void checkQuery(ETLFileOldDTO file, ETLClient etlClient) {
+		if (etlClient.jdbcUrl == null) {
+			System.err.println("Error: the --file option query needs --fromJdbc to say which database to run it on.");
+			System.exit(1);
+		}
+		List<String> columns = null;
+		try {
+			columns = JdbcSource.columns(etlClient.jdbcUrl, etlClient.jdbcUser, etlClient.jdbcPassword, file.getQuery());
+		} catch (SQLException e) {
+			System.err.println("Error: Could not prepare the query for " + etlClient.jdbcUrl + ": " + e.getMessage());
+			System.exit(1);
+		}
+		if (columns == null) {
+			// The driver can't describe the results before running the query, so they are only checked by the server.
+			return;
+		}
+		List<String> errors = FilePreflight.headerErrors(columns, file.getFileType());
+		if (!errors.isEmpty()) {
+			System.err.println("Error: The results of the query can't be loaded as " + file.getFileType() + ": " + errors.get(0));
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Works out the encoding of a file that is converted to UTF-8 as it is uploaded, from the start of the file.
+	 */
+	private static void detectEncoding(ETLFileOldDTO file) {
+		byte[] start = new byte[64 * 1024];
+		int length = 0;
+		try (InputStream in = new FileInputStream(file.getFilename())) {
+			int n;
+			while (length < start.length && (n = in.read(start, length, start.length - length)) != -1) {
+				length += n;
+			}
+		} catch (IOException e) {
+			System.err.println("Error: Could not read " + file.getFilename() + ": " + e.getMessage());
+			System.exit(1);
+		}
+
+		Charset charset = null;
+		try {
+			charset = TranscodingInputStream.detect(start, length, file.getFileEncoding());
+		} catch (IllegalArgumentException e) {
+			System.err.println("Error: The encoding \"" + file.getFileEncoding() + "\" of " + file.getFilename() + " is not supported.");
+			System.exit(1);
+		}
+		if (!charset.equals(StandardCharsets.UTF_8)) {
+			System.out.println("Converting " + file.getFilename() + " from " + charset.name() + " to UTF-8 as it is uploaded.");
+		}
+		file.setFileEncoding(charset.name());
+	}
+
+	/**
+	 * Replaces an intersections file with its rows added up by their members, or without its zero rows, or both.
+	 */
+	private static void reduceFile(ETLFileOldDTO file, ETLClient etlClient) {
+		String source = StreamSource.describe(file.getFilename(), file.getCommand(), file.getQuery());
+		System.out.print((file.isAggregate() ? "Aggregating " : "Dropping the zero rows of ") + source + "... ");
+		IntersectionAggregator.Result result = null;
+		File reduced = null;
+		try {
+			InputStream in;
+			String encoding = file.getFileEncoding();
+			if (file.getQuery() != null) {
+				in = new JdbcSource(etlClient.jdbcUrl, etlClient.jdbcUser, etlClient.jdbcPassword, file.getQuery(), etlClient.jdbcFetchSize, file.getFileFormat());
+				encoding = null;
+			} else {
+				in = StreamSource.open(file.getFilename(), file.getCommand());
+			}
+			boolean streamed = StreamSource.isStream(file.getFilename(), file.getCommand(), file.getQuery());
+			// Delta and --skipUnchanged go by what the reduced file was made from, since it is a new file each time.
+			file.setSourceFilename(streamed ? source : new File(file.getFilename()).getCanonicalPath());
+			reduced = IntersectionAggregator.createOutputFile(file.getFileFormat());
+			reduced.deleteOnExit();
+			result = new IntersectionAggregator(in, source, file.getFileFormat(), encoding, file.isAggregate(), file.isDropZeros()).reduce(reduced);
+		} catch (IllegalArgumentException e) {
+			System.out.println();
+			System.err.println("Error: " + e.getMessage());
+			System.exit(1);
+		} catch (IOException e) {
+			System.out.println();
+			System.err.println("Error: Could not reduce " + source + ": " + e.getMessage());
+			System.exit(1);
+		}
+
+		StringBuilder details = new StringBuilder();
+		if (file.isAggregate()) {
+			details.append(result.combined).append(" added to rows with the same members");
+		}
+		if (file.isDropZeros()) {
+			details.append(details.length() > 0 ? ", " : "").append(result.zeros).append(" zeros left out");
+		}
+		System.out.println(result.rowsIn + " rows in, " + result.rowsOut + " rows out (" + details + ").");
+		file.setFilename(reduced.getPath());
+		if (file.getQuery() != null) {
+			file.setFileEncoding("UTF-8");
+		}
+		file.setCommand(null);
+		file.setQuery(null);
+	}
+
+	/**
+	 * Replaces the file with the rows that changed since it was last loaded.
+	 * @param deltas where the delta is added, so its snapshot is kept once the job is known to have loaded it.
+	 * @return false if nothing changed, so the file doesn't need to be loaded.
+	 */
+	private static boolean computeDelta(ETLFileOldDTO file, ETLClient etlClient, List<IntersectionDelta> deltas) {
+		System.out.print("Comparing " + file.getFilename() + " with its last load... ");
+		IntersectionDelta.Result result = null;
+		try {
+			IntersectionDelta delta = new IntersectionDelta(IntersectionDelta.directory(), etlClient.modelId, new File(file.getFilename()), file.getSourceFilename(), file.getFileFormat(), file.getFileEncoding());
+			result = delta.compute(etlClient);
+			deltas.add(delta);
+		} catch (IllegalArgumentException e) {
+			System.out.println();
+			System.err.println("Error: " + e.getMessage());
+			System.exit(1);
+		} catch (IOException e) {
+			System.out.println();
+			System.err.println("Error: Could not compare " + file.getFilename() + " with its last load: " + e.getMessage());
+			System.exit(1);
+		}
+
+		if (result.deltaFile == null) {
+			System.out.println("not loaded before, so all " + result.rows + " rows are sent.");
+			return true;
+		}
+		System.out.println(result.changed + " of " + result.rows + " rows changed, " + result.deleted + " removed.");
+		if (result.changed == 0 && result.deleted == 0) {
+			return false;
+		}
+		file.setFilename(result.deltaFile.getPath());
+		return true;
+	}
+
+	/**
+	 * Records that a job was submitted to load the delta files, or that it completed.
+	 */
+	private static void recordDeltas(List<IntersectionDelta> deltas, Id jobId, boolean completed) {
+		for (IntersectionDelta delta : deltas) {
+			try {
+				if (completed) {
+					delta.completed();
+				} else {
+					delta.submitted(jobId);
+				}
+			} catch (IOException e) {
+				System.err.println("Could not keep the snapshot of the loaded rows in " + IntersectionDelta.directory() + ": " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Adds a step for each part of a file that is too big to load in one piece. Each part has its own
+	 * mime part. Only the first part clears slices, since later parts load into what it cleared.
+	 */
+	private static void addSplitFileSteps(ETLMetadataDTO metadata, ETLFileOldDTO file, ETLLoadType loadType) {
+		if (file.getFileEncoding() != null) {
+			if (!FilePreflight.splitsOnBytes(file.getFileEncoding())) {
+				System.err.println("Error: " + file.getFilename() + " can't be split, because its encoding is " + file.getFileEncoding() + ".");
+				System.exit(1);
+			}
+		}
+
+		System.out.print("Splitting " + file.getFilename() + "... ");
+		FileSplitter.Plan plan = null;
+		try {
+			plan = new FileSplitter(file.getSplitBytes(), file.getSplitRows()).plan(new File(file.getFilename()));
+		} catch (IOException e) {
+			System.out.println();
+			System.err.println("Error: Could not read " + file.getFilename() + ": " + e.getMessage());
+			System.exit(1);
+		}
+		System.out.println(plan.parts.size() + " part(s).");
+
+		for (int i = 0; i < plan.parts.size(); i++) {
+			long[] part = plan.parts.get(i);
+			ETLFileImportStepDTO step;
+			if (loadType == ETLLoadType.FILE_TO_VENA_TABLE) {
+				ETLFileToVenaTableStepDTO venaTableStep = new ETLFileToVenaTableStepDTO(file);
+				if (i > 0) {
+					venaTableStep.setClearSlicesColumns(new ArrayList<String>());
+				}
+				step = venaTableStep;
+			} else {
+				ETLFileToCubeStepDTO cubeStep = new ETLFileToCubeStepDTO(file);
+				if (i > 0) {
+					cubeStep.setClearSlicesExpressions(null);
+					cubeStep.setClearSlicesDimensions(null);
+				}
+				step = cubeStep;
+			}
+			if (i > 0) {
+				step.setMimePart("file" + (FIRST_FILE_INDEX++));
+			}
+			step.setFilePart(part[0], part[1], i == 0 ? 0 : plan.headerLength);
+			metadata.addStep(step);
+		}
+	}
+
 	private static List<ETLFileOldDTO> handleFileOptions(String[] etlFileOptionValues) {
 		List<ETLFileOldDTO> etlFiles = new ArrayList<>();
 
@@ -1523,6 +2937,66 @@ public class Main {
 		return etlFiles;
 	}
 
+	/**
+	 * Parses query=<sql>, or query=@<file> for a query kept in a file.
+	 */
+	static String parseQueryArg(String value) {
+		String query = value;
+		if (value.startsWith("@")) {
+			try {
+				query = new String(Files.readAllBytes(new File(value.substring(1)).toPath()), StandardCharsets.UTF_8);
+			} catch (IOException e) {
+				throw new IllegalArgumentException("Could not read the query from " + value.substring(1) + ": " + e.getMessage());
+			}
+		}
+		query = query.trim();
+		// A query file often ends its statement with a semicolon, which JDBC drivers don't accept.
+		if (query.endsWith(";")) {
+			query = query.substring(0, query.length() - 1).trim();
+		}
+		if (query.isEmpty()) {
+			throw new IllegalArgumentException("The query is empty.");
+		}
+		return query;
+	}
+
+	private static final Pattern SPLIT_PATTERN = Pattern.compile("(\\d+)\\s*(rows|[KMG]B?|B)", Pattern.CASE_INSENSITIVE);
+
+	/**
+	 * Parses split=<size>, such as 512MB, or split=<rows>, such as 1000000rows.
+	 */
+	static void parseSplitArg(ETLFileOldDTO etlFile, String value) {
+		Matcher matcher = SPLIT_PATTERN.matcher(value);
+		long amount = 0;
+		if (matcher.matches()) {
+			try {
+				amount = Long.parseLong(matcher.group(1));
+			} catch (NumberFormatException e) {
+				amount = 0;
+			}
+		}
+		if (amount <= 0) {
+			throw new IllegalArgumentException("split must be a size such as 512MB or a number of rows such as 1000000rows.");
+		}
+
+		switch (Character.toUpperCase(matcher.group(2).charAt(0))) {
+		case 'R':
+			etlFile.setSplitRows(amount);
+			break;
+		case 'K':
+			etlFile.setSplitBytes(amount * 1024);
+			break;
+		case 'M':
+			etlFile.setSplitBytes(amount * 1024 * 1024);
+			break;
+		case 'G':
+			etlFile.setSplitBytes(amount * 1024 * 1024 * 1024);
+			break;
+		default:
+			etlFile.setSplitBytes(amount);
+		}
+	}
+
 	private static ETLFileOldDTO parseETLFileArgs(String etlFileOption) {
 		ETLFileOldDTO etlFile = new ETLFileOldDTO();
 
@@ -1598,6 +3072,27 @@ public class Main {
 						etlFile.setFileEncoding(value);
 					}
 					break;
+				case "split":
+					parseSplitArg(etlFile, value);
+					break;
+				case "delta":
+					etlFile.setDelta(Boolean.valueOf(value));
+					break;
+				case "transcode":
+					etlFile.setTranscode(Boolean.valueOf(value));
+					break;
+				case "cmd":
+					etlFile.setCommand(value);
+					break;
+				case "query":
+					etlFile.setQuery(parseQueryArg(value));
+					break;
+				case "aggregate":
+					etlFile.setAggregate(Boolean.valueOf(value));
+					break;
+				case "dropZeros":
+					etlFile.setDropZeros(Boolean.valueOf(value));
+					break;
 				default:
 					throw new IllegalArgumentException("Unsupported key " + key);
 				}
@@ -1635,6 +3130,16 @@ public class Main {
 			etlFile.setTableName(value);
 		}
 
+		if (etlFile.getCommand() != null && etlFile.getQuery() != null) {
+			throw new IllegalArgumentException("cmd and query cannot be combined.");
+		}
+		if (etlFile.getCommand() != null || etlFile.getQuery() != null) {
+			if (etlFile.getFilename() != null) {
+				throw new IllegalArgumentException("A file name cannot be given with " + (etlFile.getCommand() != null ? "cmd" : "query") + ", since the data doesn't come from a file.");
+			}
+			etlFile.setFilename(StreamSource.STANDARD_INPUT);
+		}
+
 		if (etlFile.getFilename() == null) {
 			throw new IllegalArgumentException("File name is required.");
 		}
@@ -1686,7 +3191,17 @@ public class Main {
 				System.exit(1);
 			}
 			step.setCompressed(true); // ETL Tool compresses all file uploads.
-			step.setFileEncoding(file.getFileEncoding());
+			step.setSourceCommand(file.getCommand());
+			step.setSourceQuery(file.getQuery());
+			if (file.isTranscode()) {
+				if (!StreamSource.isStream(file.getFilename(), file.getCommand(), file.getQuery())) {
+					detectEncoding(file);
+				}
+				step.setSourceEncoding(file.getFileEncoding());
+				step.setFileEncoding("UTF-8");
+			} else {
+				step.setFileEncoding(file.getFileEncoding());
+			}
 			step.setFileFormat(file.getFileFormat());
 			step.setFileName(file.getFilename());
 			step.setMimePart(file.getMimePart());
@@ -0,0 +1,323 @@
+package org.vena.etltool;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+import org.vena.etltool.entities.ETLFileImportStepDTO.FileFormat;
+import org.vena.etltool.entities.Id;
+
+/**
+ * The members of each dimension of a model, from its hierarchy export, so files can be checked for
+ * members the model doesn't have before they are uploaded. Dimensions are numbered in the order the
+ * export lists them, as in the _dimN_member columns.
+ *
+ * The members are kept on disk for each model as a sorted array of 64-bit hashes of their names for
+ * each dimension, which is memory-mapped and binary searched, so checking a member takes no more than
+ * a few dozen reads and the dictionary doesn't have to be loaded. Names are compared without regard to
+ * case or surrounding spaces, so only members that aren't in the model in any spelling are reported.
+ */
+class MemberDictionary {
+
+	static final long DEFAULT_TTL_MINUTES = 60;
+
+	private static final long MAGIC = 0x56454e414d454d42L;
+	private static final int VERSION = 1;
+	private static final String DIMENSION_COLUMN = "_Dimension Name";
+	private static final String MEMBER_COLUMN = "_Child Name";
+
+	/** When the members were exported. */
+	final long fetched;
+
+	private final List<String> dimensions = new ArrayList<>();
+	private final List<LongBuffer> hashes = new ArrayList<>();
+	/** Members of hierarchy files loaded along with the files that are checked. */
+	private final List<Set<Long>> added = new ArrayList<>();
+
+	private MemberDictionary(long fetched) {
+		this.fetched = fetched;
+	}
+
+	static File directory() {
+		return new File(UploadCache.directory(), "members");
+	}
+
+	static File file(File directory, Id modelId) {
+		return new File(directory, modelId + ".members");
+	}
+
+	/**
+	 * Forgets the members of a model whose hierarchy is changing, so they are fetched again the next time.
+	 */
+	static void invalidate(Id modelId) {
+		file(directory(), modelId).delete();
+	}
+
+	/**
+	 * @param maxAge how long ago, in milliseconds, the members can have been fetched.
+	 * @return the members kept in the file, or null if there are none or they are older than maxAge.
+	 */
+	static MemberDictionary open(File file, long maxAge) throws IOException {
+		if (!file.isFile()) {
+			return null;
+		}
+		long fetched;
+		MappedByteBuffer buffer;
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			ByteBuffer start = ByteBuffer.allocate(20);
+			while (start.hasRemaining() && channel.read(start) != -1) {
+				// Keep reading.
+			}
+			start.flip();
+			if (start.remaining() < 20 || start.getLong() != MAGIC || start.getInt() != VERSION) {
+				return null;
+			}
+			fetched = start.getLong();
+			if (System.currentTimeMillis() - fetched > maxAge) {
+				return null;
+			}
+			// Only mapped once it is known to be used, since a mapped file can't be replaced on some systems.
+			// The mapping stays valid once the channel is closed.
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		buffer.position(20);
+
+		MemberDictionary dictionary = new MemberDictionary(fetched);
+		int[] counts = new int[buffer.getInt()];
+		for (int i = 0; i < counts.length; i++) {
+			byte[] name = new byte[buffer.getInt()];
+			buffer.get(name);
+			counts[i] = buffer.getInt();
+			dictionary.dimensions.add(new String(name, StandardCharsets.UTF_8));
+			dictionary.added.add(new HashSet<Long>());
+		}
+		int position = (buffer.position() + 7) & ~7;
+		for (int count : counts) {
+			buffer.position(position);
+			ByteBuffer slice = buffer.slice();
+			slice.limit(count * 8);
+			dictionary.hashes.add(slice.asLongBuffer());
+			position += count * 8;
+		}
+		return dictionary;
+	}
+
+	/**
+	 * Reads a hierarchy export, with its header, into the file, replacing what was there.
+	 * @return the members in the file.
+	 */
+	static MemberDictionary fetch(InputStream export, File file) throws IOException {
+		long fetched = System.currentTimeMillis();
+		List<String> dimensions = new ArrayList<>();
+		List<Hashes> members = new ArrayList<>();
+		readHierarchy(export, null, FileFormat.CSV, dimensions, members);
+
+		File directory = file.getParentFile();
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Could not create " + directory);
+		}
+		File temporary = new File(directory, file.getName() + ".new");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary), 1 << 16))) {
+			out.writeLong(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(fetched);
+			out.writeInt(dimensions.size());
+			for (int i = 0; i < dimensions.size(); i++) {
+				byte[] name = dimensions.get(i).getBytes(StandardCharsets.UTF_8);
+				out.writeInt(name.length);
+				out.write(name);
+				out.writeInt(members.get(i).sort());
+			}
+			// The hashes start on a multiple of 8 bytes.
+			while (out.size() % 8 != 0) {
+				out.writeByte(0);
+			}
+			for (Hashes hashes : members) {
+				for (int i = 0; i < hashes.size; i++) {
+					out.writeLong(hashes.values[i]);
+				}
+			}
+		}
+		Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+		MemberDictionary dictionary = open(file, Long.MAX_VALUE);
+		if (dictionary == null) {
+			throw new IOException("Could not read " + file + " back.");
+		}
+		return dictionary;
+	}
+
+	/**
+	 * Adds the members of a hierarchy file that is loaded along with the files that are checked.
+	 */
+	void addHierarchy(File file, FileFormat format, String encoding) throws IOException {
+		List<String> dimensions = new ArrayList<>();
+		List<Hashes> members = new ArrayList<>();
+		try (InputStream in = new FileInputStream(file)) {
+			readHierarchy(in, encoding, format, dimensions, members);
+		}
+		for (int i = 0; i < dimensions.size(); i++) {
+			int dimension = this.dimensions.indexOf(dimensions.get(i));
+			if (dimension < 0) {
+				// A new dimension, which comes after the model's.
+				dimension = this.dimensions.size();
+				this.dimensions.add(dimensions.get(i));
+				this.hashes.add(LongBuffer.allocate(0));
+				this.added.add(new HashSet<Long>());
+			}
+			Hashes hashes = members.get(i);
+			for (int j = 0; j < hashes.size; j++) {
+				added.get(dimension).add(hashes.values[j]);
+			}
+		}
+	}
+
+	int dimensions() {
+		return dimensions.size();
+	}
+
+	/**
+	 * @param dimension from 1.
+	 */
+	String dimensionName(int dimension) {
+		return dimensions.get(dimension - 1);
+	}
+
+	int size() {
+		int size = 0;
+		for (LongBuffer dimension : hashes) {
+			size += dimension.limit();
+		}
+		return size;
+	}
+
+	/**
+	 * @param dimension from 1.
+	 */
+	boolean contains(int dimension, String member) {
+		long hash = hash(member);
+		LongBuffer sorted = hashes.get(dimension - 1);
+		int low = 0;
+		int high = sorted.limit() - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			long value = sorted.get(middle);
+			if (value < hash) {
+				low = middle + 1;
+			} else if (value > hash) {
+				high = middle - 1;
+			} else {
+				return true;
+			}
+		}
+		return added.get(dimension - 1).contains(hash);
+	}
+
+	/**
+	 * A 64-bit FNV-1a hash of the name in lower case, without surrounding spaces.
+	 */
+	static long hash(String member) {
+		String name = member.trim().toLowerCase(Locale.ROOT);
+		long hash = 0xcbf29ce484222325L;
+		for (int i = 0; i < name.length(); i++) {
+			hash = (hash ^ name.charAt(i)) * 0x100000001b3L;
+		}
+		return hash;
+	}
+
+	private static void readHierarchy(InputStream in, String encoding, FileFormat format, List<String> dimensions, List<Hashes> members) throws IOException {
+		Charset charset = encoding == null ? StandardCharsets.UTF_8 : Charset.forName(encoding);
+		try (Reader reader = new InputStreamReader(new BufferedInputStream(in, 1 << 16), charset);
+				CSVParser parser = new CSVParser(reader, FilePreflight.csvFormat(format))) {
+			Iterator<CSVRecord> records = parser.iterator();
+			if (!records.hasNext()) {
+				throw new IOException("The hierarchy is empty.");
+			}
+			List<String> header = new ArrayList<>();
+			for (String name : records.next()) {
+				header.add(header.isEmpty() && name.startsWith("\uFEFF") ? name.substring(1) : name);
+			}
+			int dimensionColumn = header.indexOf(DIMENSION_COLUMN);
+			int memberColumn = header.indexOf(MEMBER_COLUMN);
+			if (dimensionColumn < 0 || memberColumn < 0) {
+				throw new IOException("The hierarchy has no " + DIMENSION_COLUMN + " and " + MEMBER_COLUMN + " columns.");
+			}
+
+			String dimension = null;
+			Hashes hashes = null;
+			while (records.hasNext()) {
+				CSVRecord record = records.next();
+				if (record.size() <= Math.max(dimensionColumn, memberColumn)) {
+					continue;
+				}
+				if (!record.get(dimensionColumn).equals(dimension)) {
+					dimension = record.get(dimensionColumn);
+					int index = dimensions.indexOf(dimension);
+					if (index < 0) {
+						dimensions.add(dimension);
+						members.add(new Hashes());
+						index = dimensions.size() - 1;
+					}
+					hashes = members.get(index);
+				}
+				hashes.add(hash(record.get(memberColumn)));
+			}
+		} catch (IllegalStateException e) {
+			// The parser reports malformed rows this way.
+			throw new IOException("The hierarchy could not be read: " + e.getMessage(), e);
+		}
+	}
+
+	private static class Hashes {
+		long[] values = new long[1024];
+		int size;
+
+		void add(long hash) {
+			if (size == values.length) {
+				values = Arrays.copyOf(values, size * 2);
+			}
+			values[size++] = hash;
+		}
+
+		/**
+		 * Sorts the hashes and leaves out repeats, since a member can have more than one parent.
+		 * @return how many there are.
+		 */
+		int sort() {
+			Arrays.sort(values, 0, size);
+			int distinct = 0;
+			for (int i = 0; i < size; i++) {
+				if (distinct == 0 || values[i] != values[distinct - 1]) {
+					values[distinct++] = values[i];
+				}
+			}
+			size = distinct;
+			return size;
+		}
+	}
+}
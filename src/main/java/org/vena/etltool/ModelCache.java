@@ -0,0 +1,139 @@
+package org.vena.etltool;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.vena.etltool.entities.Id;
+import org.vena.etltool.entities.ModelResponseDTO;
+
+/**
+ * Remembers the ids of a user's models by name, so --modelName doesn't have to fetch the list of models
+ * for every job. The list is used for a while after it was fetched, and after that it is asked for
+ * again with the ETag it came with, so the server only sends it if it changed.
+ */
+class ModelCache {
+
+	static final long DEFAULT_TTL_MINUTES = 15;
+
+	static final String FILE_NAME = "models.properties";
+
+	private static final String MODEL = "|model|";
+
+	private final File cacheFile;
+	private final String user;
+	private final Properties entries = new Properties();
+
+	/**
+	 * @param user who the models are listed for, and on which server.
+	 */
+	ModelCache(File cacheFile, String user) throws IOException {
+		this.cacheFile = cacheFile;
+		this.user = user;
+		if (cacheFile.isFile()) {
+			try (InputStream in = new FileInputStream(cacheFile)) {
+				entries.load(in);
+			}
+		}
+	}
+
+	static ModelCache open(String user) throws IOException {
+		return new ModelCache(new File(UploadCache.directory(), FILE_NAME), user);
+	}
+
+	/**
+	 * @param maxAge how long ago, in milliseconds, the list can have been fetched.
+	 */
+	boolean isFresh(long maxAge) {
+		String fetched = entries.getProperty(user + "|fetched");
+		return fetched != null && System.currentTimeMillis() - Long.parseLong(fetched) <= maxAge;
+	}
+
+	/**
+	 * @return the id of the model, or null if there is no model with that name in the list.
+	 */
+	Id get(String name) {
+		String id = entries.getProperty(user + MODEL + name);
+		return id == null ? null : Id.valueOf(id);
+	}
+
+	/**
+	 * @return the ETag of the list, or null if it had none or there is no list.
+	 */
+	String etag() {
+		return entries.getProperty(user + "|etag");
+	}
+
+	/**
+	 * @return the models in the list, by name.
+	 */
+	Map<String, ModelResponseDTO> models() {
+		Map<String, ModelResponseDTO> models = new HashMap<>();
+		String prefix = user + MODEL;
+		for (String key : entries.stringPropertyNames()) {
+			if (key.startsWith(prefix)) {
+				ModelResponseDTO model = new ModelResponseDTO();
+				model.setName(key.substring(prefix.length()));
+				model.setId(Id.valueOf(entries.getProperty(key)));
+				models.put(model.getName(), model);
+			}
+		}
+		return models;
+	}
+
+	/**
+	 * Records that the server said the list hadn't changed.
+	 */
+	void revalidated() {
+		entries.setProperty(user + "|fetched", Long.toString(System.currentTimeMillis()));
+	}
+
+	/**
+	 * Replaces the list with one just fetched. If more than one model has a name, the first one counts.
+	 */
+	void replace(List<ModelResponseDTO> models, String etag) {
+		invalidate();
+		for (ModelResponseDTO model : models) {
+			String key = user + MODEL + model.getName();
+			if (model.getName() != null && model.getId() != null && !entries.containsKey(key)) {
+				entries.setProperty(key, model.getId().toString());
+			}
+		}
+		if (etag != null) {
+			entries.setProperty(user + "|etag", etag);
+		}
+		revalidated();
+	}
+
+	/**
+	 * Forgets the list, e.g. because a model was just created.
+	 */
+	void invalidate() {
+		for (String key : entries.stringPropertyNames()) {
+			if (key.startsWith(user + "|")) {
+				entries.remove(key);
+			}
+		}
+	}
+
+	void save() throws IOException {
+		File directory = cacheFile.getAbsoluteFile().getParentFile();
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Could not create " + directory);
+		}
+		File temp = File.createTempFile(cacheFile.getName(), ".tmp", directory);
+		try (OutputStream out = new FileOutputStream(temp)) {
+			entries.store(out, "Models looked up by the Vena ETL tool");
+		}
+		Files.move(temp.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+}
@@ -0,0 +1,196 @@
+package org.vena.etltool;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.vena.etltool.entities.ETLJobDTO;
+import org.vena.etltool.entities.ETLJobDTO.Phase;
+import org.vena.etltool.entities.ETLStepDTO;
+import org.vena.etltool.entities.ETLStepDTO.Status;
+
+/**
+ * Waits for many jobs at once using a small scheduler. Each job has at most one status
+ * request in flight and is polled on its own adaptive schedule (see {@link JobWatcher}).
+ * A progress table is printed whenever any job changes.
+ */
+class MultiJobWatcher {
+
+	static final int DEFAULT_THREADS = 4;
+	static final int MAX_FAILED_REQUESTS = 5;
+	static final long REPORT_INTERVAL_MILLIS = 10000;
+
+	private final ETLClient client;
+	private final List<WatchedJob> jobs = new ArrayList<>();
+	private final boolean waitFully;
+	private final int threads;
+	private final PrintStream out;
+
+	private final AtomicBoolean changed = new AtomicBoolean(true);
+	private CountDownLatch remaining;
+	private ScheduledExecutorService scheduler;
+
+	MultiJobWatcher(ETLClient client, Collection<String> jobIds, boolean waitFully) {
+		this(client, jobIds, waitFully, DEFAULT_THREADS, System.out);
+	}
+
+	MultiJobWatcher(ETLClient client, Collection<String> jobIds, boolean waitFully, int threads, PrintStream out) {
+		this.client = client;
+		this.waitFully = waitFully;
+		this.threads = threads;
+		this.out = out;
+		// The same job listed twice is only watched once.
+		for (String jobId : new LinkedHashSet<>(jobIds)) {
+			jobs.add(new WatchedJob(jobId));
+		}
+	}
+
+	/**
+	 * Blocks until every job has finished.
+	 * @return the process exit code: 0 if all jobs succeeded, 1 otherwise.
+	 */
+	int run() {
+		remaining = new CountDownLatch(jobs.size());
+		scheduler = Executors.newScheduledThreadPool(threads, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "etl-watch");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+
+		try {
+			for (WatchedJob job : jobs) {
+				scheduler.execute(job);
+			}
+
+			while (!remaining.await(REPORT_INTERVAL_MILLIS, TimeUnit.MILLISECONDS)) {
+				if (changed.getAndSet(false)) {
+					printTable();
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			scheduler.shutdownNow();
+		}
+
+		printTable();
+
+		int failed = 0;
+		for (WatchedJob job : jobs) {
+			if (job.failed) {
+				failed++;
+			}
+		}
+		out.println(jobs.size() + " job(s) finished, " + failed + " failed.");
+		return failed == 0 ? 0 : 1;
+	}
+
+	synchronized void printTable() {
+		out.println();
+		out.println(String.format("  %-20s %-16s %-12s %5s  %s", "Job Id", "Phase", "Status", "Done", "Current step"));
+		for (WatchedJob job : jobs) {
+			out.println("  " + job.describe());
+		}
+		out.println();
+	}
+
+	private class WatchedJob implements Runnable {
+
+		final String jobId;
+		final JobWatcher watcher = new JobWatcher();
+		volatile ETLJobDTO lastStatus;
+		volatile boolean done = false;
+		volatile boolean failed = false;
+		int failedRequests = 0;
+		String problem;
+
+		WatchedJob(String jobId) {
+			this.jobId = jobId;
+		}
+
+		@Override
+		public void run() {
+			ETLJobDTO etlJob = client.tryRequestJobStatus(jobId);
+			long now = System.currentTimeMillis();
+
+			if (etlJob == null) {
+				if (++failedRequests >= MAX_FAILED_REQUESTS) {
+					problem = "status unavailable";
+					complete(true);
+				} else {
+					reschedule(JobWatcher.MAX_INTERVAL_MILLIS / 10);
+				}
+				return;
+			}
+			failedRequests = 0;
+
+			ETLJobDTO previous = lastStatus;
+			lastStatus = etlJob;
+			if (previous == null || previous.getPhase() != etlJob.getPhase()
+					|| JobWatcher.percentDone(previous) != JobWatcher.percentDone(etlJob)) {
+				changed.set(true);
+			}
+
+			long delay = watcher.observe(etlJob, now);
+
+			if (etlJob.isError() || etlJob.isCancelRequested()) {
+				problem = etlJob.getErrorMessage();
+				complete(true);
+			} else if (etlJob.getPhase() == Phase.COMPLETE || (!waitFully && etlJob.getPhase() == Phase.IN_STAGING)) {
+				complete(false);
+			} else {
+				reschedule(delay);
+			}
+		}
+
+		private void reschedule(long delay) {
+			if (!scheduler.isShutdown()) {
+				scheduler.schedule(this, delay, TimeUnit.MILLISECONDS);
+			}
+		}
+
+		private void complete(boolean failed) {
+			this.failed = failed;
+			this.done = true;
+			watcher.finish(System.currentTimeMillis());
+			changed.set(true);
+			remaining.countDown();
+		}
+
+		String describe() {
+			ETLJobDTO etlJob = lastStatus;
+			if (etlJob == null) {
+				return String.format("%-20s %-16s %-12s %5s  %s", jobId, "-", failed ? "FAILED" : "-", "-", problem == null ? "" : problem);
+			}
+
+			String status = failed ? (etlJob.isCancelRequested() ? "CANCELLED" : "ERROR")
+					: (etlJob.getStatus() == null ? "-" : etlJob.getStatus().toString());
+
+			String current = "";
+			if (problem != null) {
+				current = problem;
+			} else if (etlJob.getMetadata() != null && etlJob.getMetadata().getSteps() != null) {
+				List<ETLStepDTO> steps = etlJob.getMetadata().getSteps();
+				for (ETLStepDTO step : steps) {
+					if (step.getStatus() != Status.COMPLETED) {
+						current = (step.getStepNumber() + 1) + "/" + steps.size() + " " + step.getName();
+						break;
+					}
+				}
+			}
+
+			return String.format("%-20s %-16s %-12s %4d%%  %s", jobId, etlJob.getPhase(), status, (int) JobWatcher.percentDone(etlJob), current);
+		}
+	}
+}
@@ -0,0 +1,172 @@
+package org.vena.etltool;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+import org.vena.etltool.entities.ETLFileImportStepDTO.FileFormat;
+import org.vena.etltool.entities.ETLStepDTO.DataType;
+
+/**
+ * Runs one export as several disjoint queries at once and joins the results, in order, into
+ * a single file. Only the first partition is asked for a header row.
+ *
+ * For intersections and lids each partition is a complete model slice expression. For the
+ * other types each partition is an HQL condition, and-ed with the export's where clause if
+ * there is one.
+ *
+ * The parts are downloaded uncompressed, and a target ending in .gz is compressed as they are joined.
+ */
+class PartitionedExport {
+
+	static final int DEFAULT_THREADS = 4;
+
+	private final ETLClient client;
+	private final DataType type;
+	private final String tableFromName;
+	private final String whereClause;
+	private final List<String> partitions;
+	private final boolean showHeaders;
+	private final FileFormat format;
+	private final int threads;
+
+	PartitionedExport(ETLClient client, DataType type, String tableFromName, String whereClause, List<String> partitions,
+			boolean showHeaders, FileFormat format, int threads) {
+		this.client = client;
+		this.type = type;
+		this.tableFromName = tableFromName;
+		this.whereClause = whereClause;
+		this.partitions = partitions;
+		this.showHeaders = showHeaders;
+		this.format = format;
+		this.threads = threads;
+	}
+
+	static boolean usesSliceQueries(DataType type) {
+		return type == DataType.intersections || type == DataType.lids;
+	}
+
+	void writeTo(File target) throws IOException {
+		File dir = target.getAbsoluteFile().getParentFile();
+		final AtomicInteger threadCount = new AtomicInteger();
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, partitions.size()), new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "etl-export-" + threadCount.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+
+		List<File> parts = new ArrayList<>();
+		List<Future<File>> downloads = new ArrayList<>();
+		boolean written = false;
+		try {
+			for (int i = 0; i < partitions.size(); i++) {
+				final File part = File.createTempFile(target.getName() + ".part" + i + "-", ".tmp", dir);
+				parts.add(part);
+				final String partition = partitions.get(i);
+				final boolean headers = showHeaders && i == 0;
+				downloads.add(executor.submit(new Callable<File>() {
+					@Override
+					public File call() throws IOException {
+						download(partition, headers, part);
+						return part;
+					}
+				}));
+			}
+
+			// Append each partition as soon as it and everything before it has arrived.
+			try (OutputStream out = Main.isGzipFileName(target.getName())
+					? new GZIPOutputStream(new FileOutputStream(target), 64 * 1024)
+					: new FileOutputStream(target)) {
+				for (Future<File> download : downloads) {
+					File part = await(download);
+					Files.copy(part.toPath(), out);
+					if (!endsWithNewline(part)) {
+						out.write('\n');
+					}
+					part.delete();
+				}
+			}
+			written = true;
+		} finally {
+			executor.shutdownNow();
+			try {
+				// Give downloads that were cut short a moment to close their parts, which can't be deleted while open on some systems.
+				executor.awaitTermination(1, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			for (File part : parts) {
+				part.delete();
+			}
+			if (!written) {
+				// Rather than leave half an export behind.
+				target.delete();
+			}
+		}
+	}
+
+	private void download(String partition, boolean headers, File part) throws IOException {
+		String where = null;
+		String query = null;
+		if (usesSliceQueries(type)) {
+			query = partition;
+		} else if (whereClause != null) {
+			where = "(" + whereClause + ") and (" + partition + ")";
+		} else {
+			where = partition;
+		}
+
+		// The part isn't created again if it was already cleaned up because another part failed.
+		try (InputStream in = client.requestExport(type, tableFromName, null, where, query, headers, format, false);
+				OutputStream out = Files.newOutputStream(part.toPath(), StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			byte[] buffer = new byte[64 * 1024];
+			int n;
+			while ((n = in.read(buffer)) != -1) {
+				out.write(buffer, 0, n);
+			}
+		}
+	}
+
+	private static File await(Future<File> download) throws IOException {
+		try {
+			return download.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for export.", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		}
+	}
+
+	private static boolean endsWithNewline(File part) throws IOException {
+		try (RandomAccessFile in = new RandomAccessFile(part, "r")) {
+			if (in.length() == 0) {
+				return true;
+			}
+			in.seek(in.length() - 1);
+			return in.read() == '\n';
+		}
+	}
+}
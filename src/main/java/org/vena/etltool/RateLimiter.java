@@ -0,0 +1,181 @@
+package org.vena.etltool;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A token bucket that limits how many bytes per second are uploaded, shared by everything the client
+ * sends. Callers that have to wait are served in the order they asked, so parts sent at the same
+ * time get the same share of the rate.
+ *
+ * The rate can be changed while uploading by writing a new rate, in MB/s, to a control file.
+ */
+class RateLimiter {
+
+	static final long BYTES_PER_MB = 1024 * 1024;
+
+	/** How long a burst the bucket holds, so an idle moment doesn't allow a spike afterwards. */
+	private static final long BURST_NANOS = TimeUnit.MILLISECONDS.toNanos(250);
+
+	private static final long CONTROL_FILE_CHECK_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+	/**
+	 * Where the limiter gets the time from, and how it waits.
+	 */
+	interface Ticker {
+		long nanoTime();
+
+		void sleep(long nanos) throws InterruptedException;
+	}
+
+	static final Ticker SYSTEM_TICKER = new Ticker() {
+		@Override
+		public long nanoTime() {
+			return System.nanoTime();
+		}
+
+		@Override
+		public void sleep(long nanos) throws InterruptedException {
+			TimeUnit.NANOSECONDS.sleep(nanos);
+		}
+	};
+
+	private final ReentrantLock lock = new ReentrantLock(true);
+	private final Ticker ticker;
+
+	private volatile long bytesPerSecond;
+	private double tokens;
+	private long refilledAt;
+
+	private File controlFile;
+	private long controlFileModified;
+	private long controlFileCheckedAt;
+
+	/**
+	 * @param bytesPerSecond the rate, or 0 for no limit.
+	 */
+	RateLimiter(long bytesPerSecond) {
+		this(bytesPerSecond, SYSTEM_TICKER);
+	}
+
+	RateLimiter(long bytesPerSecond, Ticker ticker) {
+		this.bytesPerSecond = bytesPerSecond;
+		this.ticker = ticker;
+		this.refilledAt = ticker.nanoTime();
+	}
+
+	long getBytesPerSecond() {
+		return bytesPerSecond;
+	}
+
+	void setBytesPerSecond(long bytesPerSecond) {
+		lock.lock();
+		try {
+			this.bytesPerSecond = bytesPerSecond;
+			tokens = Math.min(tokens, burst());
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Reads the rate from the file now, and again whenever it changes.
+	 */
+	void watch(File controlFile) {
+		lock.lock();
+		try {
+			this.controlFile = controlFile;
+			checkControlFile(ticker.nanoTime());
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Waits until the given number of bytes may be sent. Sending more than the bucket holds is allowed,
+	 * and later callers wait for it to be paid back.
+	 */
+	void acquire(int bytes) throws InterruptedIOException {
+		lock.lock();
+		try {
+			long now = ticker.nanoTime();
+			if (controlFile != null && now - controlFileCheckedAt >= CONTROL_FILE_CHECK_NANOS) {
+				checkControlFile(now);
+			}
+			long rate = bytesPerSecond;
+			if (rate <= 0) {
+				return;
+			}
+			tokens = Math.min(burst(), tokens + (now - refilledAt) * rate / 1e9);
+			refilledAt = now;
+			tokens -= bytes;
+			if (tokens < 0) {
+				// Sleep holding the lock, so the others queue up behind this caller in order.
+				ticker.sleep((long) (-tokens * 1e9 / rate));
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting to upload.");
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return whether a caller is waiting for another to finish waiting.
+	 */
+	boolean hasQueuedCallers() {
+		return lock.hasQueuedThreads();
+	}
+
+	private double burst() {
+		return bytesPerSecond * (double) BURST_NANOS / 1e9;
+	}
+
+	private void checkControlFile(long now) {
+		controlFileCheckedAt = now;
+		long modified = controlFile.lastModified();
+		if (modified == 0 || modified == controlFileModified) {
+			// Keep the current rate while the file is missing or unchanged.
+			return;
+		}
+		controlFileModified = modified;
+		String text;
+		try {
+			text = new String(Files.readAllBytes(controlFile.toPath()), StandardCharsets.UTF_8).trim();
+		} catch (IOException e) {
+			System.err.println("Could not read the upload rate from " + controlFile + ": " + e.getMessage());
+			return;
+		}
+		long rate = parseRate(text);
+		if (rate < 0) {
+			System.err.println("Could not read the upload rate from " + controlFile + ": \"" + text + "\" is not a number of MB/s.");
+			return;
+		}
+		if (rate != bytesPerSecond) {
+			setBytesPerSecond(rate);
+			System.err.println(rate == 0 ? "Upload rate is no longer limited." : "Upload rate limited to " + text + " MB/s.");
+		}
+	}
+
+	/**
+	 * @return the rate in bytes per second for a number of MB/s, 0 for no limit, or -1 if it isn't a valid rate.
+	 */
+	static long parseRate(String megabytesPerSecond) {
+		double rate;
+		try {
+			rate = Double.parseDouble(megabytesPerSecond);
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+		if (rate < 0 || Double.isNaN(rate) || Double.isInfinite(rate)) {
+			return -1;
+		}
+		return (long) (rate * BYTES_PER_MB);
+	}
+}
@@ -0,0 +1,156 @@
+package org.vena.etltool;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import org.vena.etltool.entities.ETLFileImportStepDTO;
+import org.vena.etltool.entities.ETLUploadSessionDTO;
+
+/**
+ * Uploads file steps ahead of the job submission as a series of fixed-size, checksummed
+ * chunks. The upload session is recorded in an {@link UploadJournal}, and chunks the server
+ * has already received are skipped when an interrupted upload is run again.
+ */
+class ResumableUploader {
+
+	static final int MAX_CHUNK_ATTEMPTS = 4;
+	static final long RETRY_DELAY_MILLIS = 500;
+
+	private final ETLClient client;
+	private final int chunkSize;
+	private final List<UploadJournal> journals = new ArrayList<>();
+
+	ResumableUploader(ETLClient client, int chunkSize) {
+		this.client = client;
+		this.chunkSize = chunkSize;
+	}
+
+	void upload(ETLFileImportStepDTO step) throws IOException {
+		File file = new File(step.getFileName());
+		if (!file.isFile()) {
+			throw new IOException(step.getFileName() + " (No such file)");
+		}
+
+		long fileSize = file.length();
+		boolean compressed = step.isCompressed();
+
+		UploadJournal journal = UploadJournal.load(file, chunkSize, compressed);
+		ETLUploadSessionDTO session = null;
+		if (journal != null) {
+			session = client.requestUploadSession(journal.uploadId);
+		}
+		if (session == null) {
+			session = client.createUploadSession(new ETLUploadSessionDTO(file.getName(), fileSize, chunkSize, compressed));
+			journal = new UploadJournal(file);
+			journal.uploadId = session.getId();
+			journal.fileSize = fileSize;
+			journal.lastModified = file.lastModified();
+			journal.chunkSize = chunkSize;
+			journal.compressed = compressed;
+			journal.save();
+		}
+		journals.add(journal);
+
+		Set<Integer> received = new HashSet<>();
+		if (session.getChunksReceived() != null) {
+			received.addAll(session.getChunksReceived());
+		}
+
+		int chunkCount = (int) ((fileSize + chunkSize - 1) / chunkSize);
+		int skipped = 0;
+		byte[] chunk = new byte[chunkSize];
+
+		try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+			for (int index = 0; index < chunkCount; index++) {
+				if (received.contains(index)) {
+					skipped++;
+					continue;
+				}
+
+				long offset = (long) index * chunkSize;
+				int length = (int) Math.min(chunkSize, fileSize - offset);
+				in.seek(offset);
+				in.readFully(chunk, 0, length);
+
+				CRC32 crc = new CRC32();
+				crc.update(chunk, 0, length);
+				String checksum = Long.toHexString(crc.getValue());
+				byte[] body = compressed ? deflate(chunk, length) : trim(chunk, length);
+
+				sendChunk(session.getId(), index, offset, length, checksum, body, compressed);
+			}
+		}
+
+		client.completeUploadSession(session.getId());
+
+		if (client.verbose && skipped > 0) {
+			System.err.println("Resumed upload of " + step.getFileName() + ": " + skipped + " of " + chunkCount + " chunks were already on the server.");
+		}
+
+		step.setServerFileName(session.getId());
+		step.setBytesTotal(fileSize);
+		step.setFileUploadSuccessful(true);
+	}
+
+	/**
+	 * Forgets the journals once the job referencing the uploads has been accepted.
+	 */
+	void finish() {
+		for (UploadJournal journal : journals) {
+			journal.delete();
+		}
+		journals.clear();
+	}
+
+	private void sendChunk(String uploadId, int index, long offset, int length, String checksum, byte[] body, boolean compressed) throws IOException {
+		long delay = RETRY_DELAY_MILLIS;
+		for (int attempt = 1; attempt <= MAX_CHUNK_ATTEMPTS; attempt++) {
+			if (client.sendUploadChunk(uploadId, index, offset, length, checksum, body, compressed)) {
+				return;
+			}
+			if (attempt < MAX_CHUNK_ATTEMPTS) {
+				try {
+					Thread.sleep(delay);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("Interrupted while retrying upload.");
+				}
+				delay *= 2;
+			}
+		}
+		throw new IOException("Upload of chunk " + index + " failed after " + MAX_CHUNK_ATTEMPTS + " attempts. "
+				+ "Run the same command again to resume the upload.");
+	}
+
+	private static byte[] trim(byte[] chunk, int length) {
+		byte[] body = new byte[length];
+		System.arraycopy(chunk, 0, body, 0, length);
+		return body;
+	}
+
+	private static byte[] deflate(byte[] chunk, int length) {
+		Deflater deflater = new Deflater();
+		try {
+			deflater.setInput(chunk, 0, length);
+			deflater.finish();
+			ByteArrayOutputStream out = new ByteArrayOutputStream(length / 4 + 64);
+			byte[] buf = new byte[64 * 1024];
+			while (!deflater.finished()) {
+				int n = deflater.deflate(buf);
+				out.write(buf, 0, n);
+			}
+			return out.toByteArray();
+		} finally {
+			deflater.end();
+		}
+	}
+}
@@ -0,0 +1,196 @@
+package org.vena.etltool;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.AclEntry;
+import java.nio.file.attribute.AclEntryPermission;
+import java.nio.file.attribute.AclEntryType;
+import java.nio.file.attribute.AclFileAttributeView;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.security.spec.InvalidKeySpecException;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Properties;
+import java.util.Set;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+import org.vena.etltool.entities.LoginResultDTO;
+
+/**
+ * Keeps the API user and key a --username/--password login was given, so later runs can use them
+ * instead of logging in again. A session is kept until the server no longer accepts it.
+ *
+ * Sessions are kept under a SHA-256 hash of the host and username. A session is only given to the
+ * password it was kept for, which is checked against a salted PBKDF2 hash of it, so neither the username
+ * nor the password is written down. The file can only be read by the user who wrote it, since the keys
+ * in it can be used to access their models.
+ */
+class SessionCache {
+
+	static final String FILE_NAME = "sessions.properties";
+
+	private static final int PASSWORD_ITERATIONS = 100000;
+
+	private final File cacheFile;
+	private final String key;
+	private final String password;
+	private final Properties entries = new Properties();
+
+	SessionCache(File cacheFile, String host, String username, String password) throws IOException {
+		this.cacheFile = cacheFile;
+		this.key = hash(host + "\n" + username);
+		this.password = password;
+		if (cacheFile.isFile()) {
+			try (InputStream in = new FileInputStream(cacheFile)) {
+				entries.load(in);
+			}
+		}
+	}
+
+	static SessionCache open(String host, String username, String password) throws IOException {
+		return new SessionCache(new File(UploadCache.directory(), FILE_NAME), host, username, password);
+	}
+
+	/**
+	 * @return the kept session, or null if there is none.
+	 */
+	LoginResultDTO get() {
+		String apiUser = entries.getProperty(key + "|apiUser");
+		String apiKey = entries.getProperty(key + "|apiKey");
+		if (apiUser == null || apiKey == null || !passwordMatches()) {
+			return null;
+		}
+		LoginResultDTO session = new LoginResultDTO();
+		session.setApiUser(apiUser);
+		session.setApiKey(apiKey);
+		session.setLocation(entries.getProperty(key + "|location"));
+		return session;
+	}
+
+	void put(LoginResultDTO session) {
+		remove();
+		byte[] salt = new byte[16];
+		new SecureRandom().nextBytes(salt);
+		entries.setProperty(key + "|salt", hex(salt));
+		entries.setProperty(key + "|password", hex(hashPassword(salt)));
+		entries.setProperty(key + "|apiUser", session.getApiUser());
+		entries.setProperty(key + "|apiKey", session.getApiKey());
+		if (session.getLocation() != null) {
+			entries.setProperty(key + "|location", session.getLocation());
+		}
+	}
+
+	void remove() {
+		entries.remove(key + "|apiUser");
+		entries.remove(key + "|apiKey");
+		entries.remove(key + "|location");
+		entries.remove(key + "|salt");
+		entries.remove(key + "|password");
+	}
+
+	private boolean passwordMatches() {
+		String salt = entries.getProperty(key + "|salt");
+		String kept = entries.getProperty(key + "|password");
+		if (salt == null || kept == null) {
+			return false;
+		}
+		return MessageDigest.isEqual(unhex(kept), hashPassword(unhex(salt)));
+	}
+
+	private byte[] hashPassword(byte[] salt) {
+		PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, PASSWORD_ITERATIONS, 256);
+		try {
+			return SecretKeyFactory.getInstance("PBKDF2WithHmacSHA1").generateSecret(spec).getEncoded();
+		} catch (NoSuchAlgorithmException | InvalidKeySpecException e) {
+			throw new IllegalStateException(e);
+		} finally {
+			spec.clearPassword();
+		}
+	}
+
+	void save() throws IOException {
+		File directory = cacheFile.getAbsoluteFile().getParentFile();
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Could not create " + directory);
+		}
+		File temp = createPrivateFile(directory.toPath(), cacheFile.getName());
+		try (OutputStream out = new FileOutputStream(temp)) {
+			entries.store(out, "Sessions of the Vena ETL tool");
+		}
+		Files.move(temp.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * Creates an empty file only the owner can read, before anything is written to it. Moving it over the
+	 * cache keeps that.
+	 */
+	private static File createPrivateFile(Path directory, String prefix) throws IOException {
+		Set<String> views = directory.getFileSystem().supportedFileAttributeViews();
+		if (views.contains("posix")) {
+			return Files.createTempFile(directory, prefix, ".tmp",
+					PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------"))).toFile();
+		}
+		Path temp = Files.createTempFile(directory, prefix, ".tmp");
+		try {
+			if (views.contains("acl")) {
+				// Windows, where the file would otherwise get the permissions of the directory.
+				AclFileAttributeView acl = Files.getFileAttributeView(temp, AclFileAttributeView.class);
+				acl.setAcl(Collections.singletonList(AclEntry.newBuilder()
+						.setType(AclEntryType.ALLOW)
+						.setPrincipal(acl.getOwner())
+						.setPermissions(EnumSet.allOf(AclEntryPermission.class))
+						.build()));
+			} else {
+				// A file system without permissions can't do better, so this isn't checked.
+				File file = temp.toFile();
+				file.setReadable(false, false);
+				file.setReadable(true, true);
+				file.setWritable(false, false);
+				file.setWritable(true, true);
+			}
+		} catch (IOException e) {
+			Files.delete(temp);
+			throw e;
+		}
+		return temp.toFile();
+	}
+
+	private static String hash(String text) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		return hex(digest.digest(text.getBytes(StandardCharsets.UTF_8)));
+	}
+
+	private static String hex(byte[] bytes) {
+		StringBuilder hex = new StringBuilder();
+		for (byte b : bytes) {
+			hex.append(String.format("%02x", b));
+		}
+		return hex.toString();
+	}
+
+	private static byte[] unhex(String hex) {
+		byte[] bytes = new byte[hex.length() / 2];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+		}
+		return bytes;
+	}
+}
@@ -0,0 +1,137 @@
+package org.vena.etltool;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Data that is uploaded as it is read instead of from a file on disk: standard input, a named pipe, the
+ * output of a command, or the results of a query (see {@link JdbcSource}). It can only be read once,
+ * so it can't be split, compared with an earlier load, checked before it is uploaded, or uploaded in
+ * resumable chunks. Reading it no faster than the upload goes holds back whatever is writing it.
+ */
+class StreamSource {
+
+	/** The file name that stands for standard input. */
+	static final String STANDARD_INPUT = "-";
+
+	/**
+	 * Thrown at the end of a command's output if the command failed, so what it wrote isn't loaded as if it were complete.
+	 */
+	static class CommandFailedException extends IOException {
+
+		private static final long serialVersionUID = 1L;
+
+		CommandFailedException(String message) {
+			super(message);
+		}
+	}
+
+	/**
+	 * @param command the command whose output is the data, or null.
+	 * @param query the query whose results are the data, or null.
+	 * @return true if the data can only be read once.
+	 */
+	static boolean isStream(String fileName, String command, String query) {
+		if (command != null || query != null || STANDARD_INPUT.equals(fileName)) {
+			return true;
+		}
+		if (fileName == null) {
+			return false;
+		}
+		File file = new File(fileName);
+		return file.exists() && !file.isFile() && !file.isDirectory();
+	}
+
+	static String describe(String fileName, String command, String query) {
+		if (query != null) {
+			return "the results of the query";
+		}
+		if (command != null) {
+			return "the output of \"" + command + "\"";
+		}
+		return STANDARD_INPUT.equals(fileName) ? "standard input" : fileName;
+	}
+
+	static InputStream open(String fileName, String command) throws IOException {
+		if (command != null) {
+			return start(command);
+		}
+		if (STANDARD_INPUT.equals(fileName)) {
+			return System.in;
+		}
+		return new FileInputStream(fileName);
+	}
+
+	private static InputStream start(String command) throws IOException {
+		List<String> shell = System.getProperty("os.name").startsWith("Windows")
+				? Arrays.asList("cmd", "/c", command)
+				: Arrays.asList("/bin/sh", "-c", command);
+		Process process = new ProcessBuilder(shell).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+		// The command gets no input, rather than competing with the tool for standard input.
+		process.getOutputStream().close();
+		return new CommandInputStream(process, command);
+	}
+
+	private static class CommandInputStream extends FilterInputStream {
+
+		private final Process process;
+		private final String command;
+		private boolean ended = false;
+
+		CommandInputStream(Process process, String command) {
+			super(process.getInputStream());
+			this.process = process;
+			this.command = command;
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = in.read();
+			if (b == -1) {
+				end();
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int n = in.read(b, off, len);
+			if (n == -1) {
+				end();
+			}
+			return n;
+		}
+
+		private void end() throws IOException {
+			if (ended) {
+				return;
+			}
+			ended = true;
+			int status;
+			try {
+				status = process.waitFor();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting for \"" + command + "\" to finish.");
+			}
+			if (status != 0) {
+				throw new CommandFailedException("The command \"" + command + "\" failed with exit status " + status + ".");
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			super.close();
+			if (!ended) {
+				// The upload stopped before the command finished writing.
+				process.destroy();
+			}
+		}
+	}
+}
@@ -0,0 +1,39 @@
+package org.vena.etltool;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads no faster than a {@link RateLimiter} allows. Reads are kept small, so streams that share the
+ * limiter take turns often.
+ */
+class ThrottledInputStream extends FilterInputStream {
+
+	private static final int MAX_READ = 16 * 1024;
+
+	private final RateLimiter limiter;
+
+	ThrottledInputStream(InputStream in, RateLimiter limiter) {
+		super(in);
+		this.limiter = limiter;
+	}
+
+	@Override
+	public int read() throws IOException {
+		int b = in.read();
+		if (b != -1) {
+			limiter.acquire(1);
+		}
+		return b;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		int n = in.read(b, off, Math.min(len, MAX_READ));
+		if (n > 0) {
+			limiter.acquire(n);
+		}
+		return n;
+	}
+}
@@ -0,0 +1,161 @@
+package org.vena.etltool;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Properties;
+
+import org.vena.etltool.entities.ETLFileImportStepDTO;
+import org.vena.etltool.entities.ETLFileToVenaTableStepDTO;
+import org.vena.etltool.entities.ETLJobDTO;
+import org.vena.etltool.entities.ETLStepDTO.Status;
+import org.vena.etltool.entities.Id;
+
+/**
+ * Remembers the content of the files that were loaded, so a file that hasn't changed since it was last
+ * loaded into the same model the same way can be left out of a job.
+ *
+ * Files are identified by a SHA-256 hash of their content. The hash is kept with the file's size and
+ * modification time, and only worked out again when they change. A load counts once the job that
+ * did it is known to have completed, which is checked with the server the next time it matters if
+ * the tool didn't wait for the job.
+ */
+class UploadCache {
+
+	/** A system property naming the directory the tool keeps its caches in, instead of ~/.vena-etl. */
+	static final String DIRECTORY_PROPERTY = "vena.etl.cacheDir";
+
+	static final String FILE_NAME = "uploads.properties";
+
+	private static final int BUFFER_SIZE = 1024 * 1024;
+
+	private final File cacheFile;
+	private final Properties entries = new Properties();
+
+	UploadCache(File cacheFile) throws IOException {
+		this.cacheFile = cacheFile;
+		if (cacheFile.isFile()) {
+			try (InputStream in = new FileInputStream(cacheFile)) {
+				entries.load(in);
+			}
+		}
+	}
+
+	static File directory() {
+		String directory = System.getProperty(DIRECTORY_PROPERTY);
+		if (directory != null) {
+			return new File(directory);
+		}
+		return new File(System.getProperty("user.home"), ".vena-etl");
+	}
+
+	static UploadCache open() throws IOException {
+		return new UploadCache(new File(directory(), FILE_NAME));
+	}
+
+	/**
+	 * @return true if the step's file is the same as when it was last loaded into the model by a step like this one.
+	 * @param etlClient used to find out how a job that was submitted without waiting for it turned out.
+	 */
+	boolean isUnchanged(Id modelId, ETLFileImportStepDTO step, ETLClient etlClient) throws IOException {
+		String[] load = split(entries.getProperty(loadKey(modelId, step)));
+		if (load == null || !load[0].equals(hash(new File(step.getFileName())))) {
+			return false;
+		}
+		if (Boolean.parseBoolean(load[2])) {
+			return true;
+		}
+		ETLJobDTO job = etlClient.tryRequestJobStatus(load[1]);
+		if (job == null || job.isError() || job.isCancelRequested() || job.getStatus() != Status.COMPLETED) {
+			return false;
+		}
+		confirm(load[1]);
+		return true;
+	}
+
+	/**
+	 * Records that a job was submitted to load the step's file. It only counts once the job is known to have completed.
+	 */
+	void submitted(Id modelId, ETLFileImportStepDTO step, Id jobId) throws IOException {
+		entries.setProperty(loadKey(modelId, step), hash(new File(step.getFileName())) + "," + jobId + ",false");
+	}
+
+	/**
+	 * Records that a job completed, so the files it loaded count as loaded.
+	 */
+	void confirm(String jobId) {
+		for (String key : entries.stringPropertyNames()) {
+			String[] load = split(entries.getProperty(key));
+			if (key.startsWith("load|") && load != null && load[1].equals(jobId)) {
+				entries.setProperty(key, load[0] + "," + load[1] + ",true");
+			}
+		}
+	}
+
+	/**
+	 * @return the SHA-256 hash of the file, in hex.
+	 */
+	String hash(File file) throws IOException {
+		String path = file.getCanonicalPath();
+		String stat = file.length() + "," + file.lastModified();
+		String[] known = split(entries.getProperty("hash|" + path));
+		if (known != null && stat.equals(known[0] + "," + known[1])) {
+			return known[2];
+		}
+
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		byte[] buffer = new byte[BUFFER_SIZE];
+		try (InputStream in = new FileInputStream(file)) {
+			int n;
+			while ((n = in.read(buffer)) != -1) {
+				digest.update(buffer, 0, n);
+			}
+		}
+		StringBuilder hex = new StringBuilder();
+		for (byte b : digest.digest()) {
+			hex.append(String.format("%02x", b));
+		}
+		entries.setProperty("hash|" + path, stat + "," + hex);
+		return hex.toString();
+	}
+
+	void save() throws IOException {
+		File directory = cacheFile.getAbsoluteFile().getParentFile();
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Could not create " + directory);
+		}
+		// Written beside the cache and moved over it, so a run that is stopped part way can't leave half a file.
+		File temp = File.createTempFile(cacheFile.getName(), ".tmp", directory);
+		try (OutputStream out = new FileOutputStream(temp)) {
+			entries.store(out, "Files loaded by the Vena ETL tool");
+		}
+		Files.move(temp.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	private static String loadKey(Id modelId, ETLFileImportStepDTO step) throws IOException {
+		String table = step instanceof ETLFileToVenaTableStepDTO ? ((ETLFileToVenaTableStepDTO) step).getTableName() : "";
+		// A reduced copy is a new file each time, so it goes by what it was made from.
+		String source = step.getSourceFileName() != null ? step.getSourceFileName() : new File(step.getFileName()).getCanonicalPath();
+		return "load|" + modelId + "|" + step.getClass().getSimpleName() + "|" + step.getDataType() + "|" + table + "|" + source;
+	}
+
+	private static String[] split(String value) {
+		if (value == null) {
+			return null;
+		}
+		String[] fields = value.split(",");
+		return fields.length == 3 ? fields : null;
+	}
+}
@@ -0,0 +1,124 @@
+package org.vena.etltool;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Properties;
+
+/**
+ * Local record of a resumable upload, so that a later run can continue the same server-side
+ * upload session. Which chunks to send again is up to the server, which knows which it received.
+ * Journals are kept in the tool's cache directory, under a hash of the uploaded file's path, so
+ * files can be uploaded from directories that can't be written to.
+ */
+class UploadJournal {
+
+	static final String SUFFIX = ".etlupload";
+
+	private final File journalFile;
+
+	String uploadId;
+	long fileSize;
+	long lastModified;
+	int chunkSize;
+	boolean compressed;
+
+	UploadJournal(File dataFile) throws IOException {
+		this.journalFile = file(dataFile);
+	}
+
+	static File directory() {
+		return new File(UploadCache.directory(), "uploads");
+	}
+
+	/**
+	 * @return where the journal of an upload of the file is kept.
+	 */
+	static File file(File dataFile) throws IOException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		StringBuilder hex = new StringBuilder();
+		for (byte b : digest.digest(dataFile.getCanonicalPath().getBytes(StandardCharsets.UTF_8))) {
+			hex.append(String.format("%02x", b));
+		}
+		return new File(directory(), hex + SUFFIX);
+	}
+
+	/**
+	 * @return the journal for <code>dataFile</code>, or null if there is none or it was written
+	 * for a different version of the file or different upload settings.
+	 */
+	static UploadJournal load(File dataFile, int chunkSize, boolean compressed) throws IOException {
+		UploadJournal journal = new UploadJournal(dataFile);
+		if (!journal.journalFile.isFile()) {
+			return null;
+		}
+
+		Properties props = new Properties();
+		try (InputStream in = new FileInputStream(journal.journalFile)) {
+			props.load(in);
+		}
+
+		try {
+			journal.uploadId = props.getProperty("uploadId");
+			journal.fileSize = Long.parseLong(props.getProperty("fileSize"));
+			journal.lastModified = Long.parseLong(props.getProperty("lastModified"));
+			journal.chunkSize = Integer.parseInt(props.getProperty("chunkSize"));
+			journal.compressed = Boolean.parseBoolean(props.getProperty("compressed"));
+		} catch (NumberFormatException e) {
+			return null;
+		}
+
+		if (journal.uploadId == null
+				|| journal.fileSize != dataFile.length()
+				|| journal.lastModified != dataFile.lastModified()
+				|| journal.chunkSize != chunkSize
+				|| journal.compressed != compressed) {
+			return null;
+		}
+		return journal;
+	}
+
+	void save() throws IOException {
+		Properties props = new Properties();
+		props.setProperty("uploadId", uploadId);
+		props.setProperty("fileSize", Long.toString(fileSize));
+		props.setProperty("lastModified", Long.toString(lastModified));
+		props.setProperty("chunkSize", Integer.toString(chunkSize));
+		props.setProperty("compressed", Boolean.toString(compressed));
+
+		File directory = journalFile.getParentFile();
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Could not create " + directory);
+		}
+		// Write to a temporary file first so an interrupted save never leaves a corrupt journal behind.
+		File tmp = new File(journalFile.getPath() + ".tmp");
+		try (OutputStream out = new FileOutputStream(tmp)) {
+			props.store(out, "Vena ETL resumable upload journal");
+		}
+		if (!tmp.renameTo(journalFile)) {
+			journalFile.delete();
+			if (!tmp.renameTo(journalFile)) {
+				throw new IOException("Could not write upload journal " + journalFile);
+			}
+		}
+	}
+
+	void delete() {
+		journalFile.delete();
+	}
+
+	File getFile() {
+		return journalFile;
+	}
+}
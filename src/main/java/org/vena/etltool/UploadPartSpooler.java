@@ -0,0 +1,134 @@
+package org.vena.etltool;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Prepares the (compressed) bodies of several file parts concurrently on a bounded
+ * worker pool, spooling each one to a temporary file.
+ *
+ * The streams handed out by {@link #spool(String, Callable)} block on first read until
+ * their part is ready, so the multipart request can start sending the first part while
+ * the remaining ones are still being prepared.
+ */
+class UploadPartSpooler implements Closeable {
+
+	private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+	private final ExecutorService executor;
+	private final List<File> spoolFiles = new ArrayList<>();
+
+	UploadPartSpooler(int threads) {
+		final AtomicInteger threadCount = new AtomicInteger();
+		this.executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "etl-upload-" + threadCount.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Schedules the stream produced by <code>source</code> to be drained into a spool file.
+	 * @param name used in the spool file name, for troubleshooting only.
+	 * @return a stream over the spooled bytes that waits for the part to be ready.
+	 */
+	InputStream spool(String name, final Callable<InputStream> source) throws IOException {
+		final File spoolFile = File.createTempFile("etl-" + name + "-", ".part");
+		spoolFile.deleteOnExit();
+		synchronized (spoolFiles) {
+			spoolFiles.add(spoolFile);
+		}
+
+		Future<File> future = executor.submit(new Callable<File>() {
+			@Override
+			public File call() throws Exception {
+				try (InputStream in = source.call(); OutputStream out = new FileOutputStream(spoolFile)) {
+					byte[] buf = new byte[COPY_BUFFER_SIZE];
+					int n;
+					while ((n = in.read(buf)) != -1) {
+						out.write(buf, 0, n);
+					}
+				}
+				return spoolFile;
+			}
+		});
+
+		return new SpooledInputStream(future);
+	}
+
+	@Override
+	public void close() {
+		executor.shutdownNow();
+		synchronized (spoolFiles) {
+			for (File file : spoolFiles) {
+				file.delete();
+			}
+			spoolFiles.clear();
+		}
+	}
+
+	private static class SpooledInputStream extends InputStream {
+
+		private final Future<File> future;
+		private InputStream in;
+
+		SpooledInputStream(Future<File> future) {
+			this.future = future;
+		}
+
+		private InputStream stream() throws IOException {
+			if (in == null) {
+				try {
+					in = new FileInputStream(future.get());
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("Interrupted while waiting for upload part.");
+				} catch (ExecutionException e) {
+					Throwable cause = e.getCause();
+					if (cause instanceof IOException) {
+						throw (IOException) cause;
+					}
+					throw new IOException("Failed to prepare upload part.", cause);
+				}
+			}
+			return in;
+		}
+
+		@Override
+		public int read() throws IOException {
+			return stream().read();
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			return stream().read(b, off, len);
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (in != null) {
+				in.close();
+			} else {
+				future.cancel(true);
+			}
+		}
+	}
+}
@@ -1,5 +1,7 @@
 package org.vena.etltool.entities;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
 public abstract class ETLFileImportStepDTO extends ETLStepDTO {
 
 	public enum FileFormat {CSV, PSV, TDF}
@@ -34,6 +36,25 @@ public abstract class ETLFileImportStepDTO extends ETLStepDTO {
 
 	private boolean compressed = true;
 
+	// When a file is split, the part of it this step uploads. Only the client needs to know.
+	private long partOffset = 0;
+
+	private long partLength = -1;
+
+	private long partHeaderLength = 0;
+
+	// When the client converts the file to UTF-8 as it uploads it, the encoding the file is in. Only the client needs to know.
+	private String sourceEncoding;
+
+	// When the data is the output of a command rather than a file, the command. Only the client needs to know.
+	private String sourceCommand;
+
+	// When the data is the results of a query rather than a file, the query. Only the client needs to know.
+	private String sourceQuery;
+
+	// When the file is a reduced copy the client made, the path or description of the data it was made from. Only the client needs to know.
+	private String sourceFileName;
+
 	public ETLFileImportStepDTO() {
 	}
 
@@ -46,6 +67,13 @@ public abstract class ETLFileImportStepDTO extends ETLStepDTO {
 		this.linesProcessed = etlFile.getLinesProcessed();
 		this.bytesProcessed = 0;
 		this.fileEncoding = etlFile.getFileEncoding();
+		this.sourceCommand = etlFile.getCommand();
+		this.sourceQuery = etlFile.getQuery();
+		this.sourceFileName = etlFile.getSourceFilename();
+		if (etlFile.isTranscode()) {
+			this.sourceEncoding = etlFile.getFileEncoding();
+			this.fileEncoding = "UTF-8";
+		}
 		if (etlFile.getDone()) {
 			this.status = Status.COMPLETED;
 			this.percentDone = 100;
@@ -160,6 +188,36 @@ public abstract class ETLFileImportStepDTO extends ETLStepDTO {
 
 	public void setCompressed(boolean compressed) { this.compressed = compressed; }
 
+	/**
+	 * Makes this step upload only part of its file.
+	 * @param headerLength the length of the file's header, to send ahead of the part, or 0 if the part already starts with it.
+	 */
+	public void setFilePart(long offset, long length, long headerLength) {
+		this.partOffset = offset;
+		this.partLength = length;
+		this.partHeaderLength = headerLength;
+	}
+
+	@JsonIgnore
+	public boolean isFilePart() {
+		return partLength >= 0;
+	}
+
+	@JsonIgnore
+	public long getPartOffset() {
+		return partOffset;
+	}
+
+	@JsonIgnore
+	public long getPartLength() {
+		return partLength;
+	}
+
+	@JsonIgnore
+	public long getPartHeaderLength() {
+		return partHeaderLength;
+	}
+
 	public String getFileEncoding() {
 		return fileEncoding;
 	}
@@ -167,4 +225,40 @@ public abstract class ETLFileImportStepDTO extends ETLStepDTO {
 	public void setFileEncoding(String fileEncoding) {
 		this.fileEncoding = fileEncoding;
 	}
+
+	@JsonIgnore
+	public String getSourceEncoding() {
+		return sourceEncoding;
+	}
+
+	public void setSourceEncoding(String sourceEncoding) {
+		this.sourceEncoding = sourceEncoding;
+	}
+
+	@JsonIgnore
+	public String getSourceCommand() {
+		return sourceCommand;
+	}
+
+	public void setSourceCommand(String sourceCommand) {
+		this.sourceCommand = sourceCommand;
+	}
+
+	@JsonIgnore
+	public String getSourceQuery() {
+		return sourceQuery;
+	}
+
+	public void setSourceQuery(String sourceQuery) {
+		this.sourceQuery = sourceQuery;
+	}
+
+	@JsonIgnore
+	public String getSourceFileName() {
+		return sourceFileName;
+	}
+
+	public void setSourceFileName(String sourceFileName) {
+		this.sourceFileName = sourceFileName;
+	}
 }
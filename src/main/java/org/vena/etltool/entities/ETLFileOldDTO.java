@@ -51,6 +51,24 @@ public class ETLFileOldDTO {
 	private List<String> clearSlicesColumns = new ArrayList<>();
 	
 	private String fileEncoding;
+
+	private long splitBytes;
+
+	private long splitRows;
+
+	private boolean delta;
+
+	private boolean transcode;
+
+	private String command;
+
+	private String query;
+
+	private boolean aggregate;
+
+	private boolean dropZeros;
+
+	private String sourceFilename;
 	
 	public ETLFileOldDTO() {
 		super();
@@ -173,4 +191,79 @@ public class ETLFileOldDTO {
 		this.fileEncoding = fileEncoding;
 	}
 
+	public long getSplitBytes() {
+		return splitBytes;
+	}
+
+	public void setSplitBytes(long splitBytes) {
+		this.splitBytes = splitBytes;
+	}
+
+	public long getSplitRows() {
+		return splitRows;
+	}
+
+	public void setSplitRows(long splitRows) {
+		this.splitRows = splitRows;
+	}
+
+	public boolean isSplit() {
+		return splitBytes > 0 || splitRows > 0;
+	}
+
+	public boolean isDelta() {
+		return delta;
+	}
+
+	public void setDelta(boolean delta) {
+		this.delta = delta;
+	}
+
+	public boolean isTranscode() {
+		return transcode;
+	}
+
+	public void setTranscode(boolean transcode) {
+		this.transcode = transcode;
+	}
+
+	public String getCommand() {
+		return command;
+	}
+
+	public void setCommand(String command) {
+		this.command = command;
+	}
+
+	public String getQuery() {
+		return query;
+	}
+
+	public void setQuery(String query) {
+		this.query = query;
+	}
+
+	public boolean isAggregate() {
+		return aggregate;
+	}
+
+	public void setAggregate(boolean aggregate) {
+		this.aggregate = aggregate;
+	}
+
+	public boolean isDropZeros() {
+		return dropZeros;
+	}
+
+	public void setDropZeros(boolean dropZeros) {
+		this.dropZeros = dropZeros;
+	}
+
+	public String getSourceFilename() {
+		return sourceFilename;
+	}
+
+	public void setSourceFilename(String sourceFilename) {
+		this.sourceFilename = sourceFilename;
+	}
 }
@@ -0,0 +1,77 @@
+package org.vena.etltool.entities;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class ETLUploadSessionDTO {
+
+	private String id;
+
+	private String fileName;
+
+	private long bytesTotal;
+
+	private int chunkSize;
+
+	private boolean compressed;
+
+	private List<Integer> chunksReceived = new ArrayList<>();
+
+	public ETLUploadSessionDTO() {
+	}
+
+	public ETLUploadSessionDTO(String fileName, long bytesTotal, int chunkSize, boolean compressed) {
+		this.fileName = fileName;
+		this.bytesTotal = bytesTotal;
+		this.chunkSize = chunkSize;
+		this.compressed = compressed;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public void setId(String id) {
+		this.id = id;
+	}
+
+	public String getFileName() {
+		return fileName;
+	}
+
+	public void setFileName(String fileName) {
+		this.fileName = fileName;
+	}
+
+	public long getBytesTotal() {
+		return bytesTotal;
+	}
+
+	public void setBytesTotal(long bytesTotal) {
+		this.bytesTotal = bytesTotal;
+	}
+
+	public int getChunkSize() {
+		return chunkSize;
+	}
+
+	public void setChunkSize(int chunkSize) {
+		this.chunkSize = chunkSize;
+	}
+
+	public boolean isCompressed() {
+		return compressed;
+	}
+
+	public void setCompressed(boolean compressed) {
+		this.compressed = compressed;
+	}
+
+	public List<Integer> getChunksReceived() {
+		return chunksReceived;
+	}
+
+	public void setChunksReceived(List<Integer> chunksReceived) {
+		this.chunksReceived = chunksReceived;
+	}
+}
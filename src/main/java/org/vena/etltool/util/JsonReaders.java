@@ -0,0 +1,45 @@
+package org.vena.etltool.util;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+
+/**
+ * Shared, thread-safe readers for server responses. Building an ObjectMapper and its
+ * deserializers is expensive, so they are built once per type and reused.
+ */
+public final class JsonReaders {
+
+	private static final ObjectMapper MAPPER = new ObjectMapper()
+			.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+	private static final ConcurrentMap<JavaType, ObjectReader> READERS = new ConcurrentHashMap<>();
+
+	private JsonReaders() {
+	}
+
+	public static ObjectReader forType(Class<?> type) {
+		return forType(MAPPER.getTypeFactory().constructType(type));
+	}
+
+	public static ObjectReader forListOf(Class<?> elementType) {
+		return forType(MAPPER.getTypeFactory().constructCollectionType(List.class, elementType));
+	}
+
+	private static ObjectReader forType(JavaType type) {
+		ObjectReader reader = READERS.get(type);
+		if (reader == null) {
+			ObjectReader created = MAPPER.readerFor(type);
+			reader = READERS.putIfAbsent(type, created);
+			if (reader == null) {
+				reader = created;
+			}
+		}
+		return reader;
+	}
+}
@@ -0,0 +1,289 @@
+package org.vena.etltool.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
+import java.util.zip.Deflater;
+
+/**
+ * Reads uncompressed data from a source stream and produces a zlib (RFC 1950) stream,
+ * the same format as {@link java.util.zip.DeflaterInputStream}, or a gzip (RFC 1952) stream,
+ * while deflating several blocks of input at a time on a fork-join pool.
+ *
+ * Each block is deflated independently and ended with a sync flush, using the last 32K of
+ * the preceding input as a preset dictionary, so the concatenated blocks form a single
+ * deflate stream that any standard inflater can read.
+ */
+public class ParallelDeflaterInputStream extends InputStream {
+
+	public static final int DEFAULT_BLOCK_SIZE = 1024 * 1024;
+
+	private static final int DICTIONARY_SIZE = 32 * 1024;
+
+	private static ForkJoinPool sharedPool;
+
+	private final InputStream source;
+	private final int level;
+	private final int blockSize;
+	private final int maxPendingBlocks;
+	private final ForkJoinPool pool;
+	private final boolean gzip;
+
+	private final Deque<Future<byte[]>> pending = new ArrayDeque<>();
+	private final Checksum checksum;
+	private long totalIn = 0;
+	private byte[] dictionary = null;
+
+	private byte[] current;
+	private int position;
+
+	private boolean headerWritten = false;
+	private boolean sourceExhausted = false;
+	private boolean trailerWritten = false;
+
+	public ParallelDeflaterInputStream(InputStream source, int level) {
+		this(source, level, false);
+	}
+
+	public ParallelDeflaterInputStream(InputStream source, int level, boolean gzip) {
+		this(source, level, DEFAULT_BLOCK_SIZE, getSharedPool(), gzip);
+	}
+
+	public ParallelDeflaterInputStream(InputStream source, int level, int blockSize, ForkJoinPool pool) {
+		this(source, level, blockSize, pool, false);
+	}
+
+	public ParallelDeflaterInputStream(InputStream source, int level, int blockSize, ForkJoinPool pool, boolean gzip) {
+		if (level != Deflater.DEFAULT_COMPRESSION && (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION)) {
+			throw new IllegalArgumentException("Invalid compression level " + level);
+		}
+		this.source = source;
+		this.level = level;
+		this.blockSize = blockSize;
+		this.pool = pool;
+		this.maxPendingBlocks = 2 * pool.getParallelism();
+		this.gzip = gzip;
+		this.checksum = gzip ? new CRC32() : new Adler32();
+	}
+
+	static synchronized ForkJoinPool getSharedPool() {
+		if (sharedPool == null) {
+			sharedPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+		}
+		return sharedPool;
+	}
+
+	@Override
+	public int read() throws IOException {
+		byte[] b = new byte[1];
+		int n = read(b, 0, 1);
+		return n == -1 ? -1 : (b[0] & 0xff);
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		while (current == null || position == current.length) {
+			if (!nextChunk()) {
+				return -1;
+			}
+		}
+		int n = Math.min(len, current.length - position);
+		System.arraycopy(current, position, b, off, n);
+		position += n;
+		return n;
+	}
+
+	private boolean nextChunk() throws IOException {
+		position = 0;
+
+		if (!headerWritten) {
+			headerWritten = true;
+			current = gzip ? gzipHeader(level) : header(level);
+			return true;
+		}
+
+		while (!sourceExhausted && pending.size() < maxPendingBlocks) {
+			byte[] block = readBlock();
+			if (block == null) {
+				sourceExhausted = true;
+				break;
+			}
+			checksum.update(block, 0, block.length);
+			totalIn += block.length;
+			pending.add(pool.submit(new DeflateBlockTask(block, dictionary, level)));
+			dictionary = nextDictionary(dictionary, block);
+		}
+
+		if (!pending.isEmpty()) {
+			current = await(pending.poll());
+			return true;
+		}
+
+		if (!trailerWritten) {
+			trailerWritten = true;
+			current = gzip ? gzipTrailer(level, checksum.getValue(), totalIn) : trailer(level, checksum.getValue());
+			return true;
+		}
+
+		current = null;
+		return false;
+	}
+
+	private byte[] readBlock() throws IOException {
+		byte[] block = new byte[blockSize];
+		int filled = 0;
+		while (filled < blockSize) {
+			int n = source.read(block, filled, blockSize - filled);
+			if (n == -1) {
+				break;
+			}
+			filled += n;
+		}
+		if (filled == 0) {
+			return null;
+		}
+		return filled == blockSize ? block : Arrays.copyOf(block, filled);
+	}
+
+	private static byte[] nextDictionary(byte[] previous, byte[] block) {
+		if (block.length >= DICTIONARY_SIZE || previous == null) {
+			return Arrays.copyOfRange(block, Math.max(0, block.length - DICTIONARY_SIZE), block.length);
+		}
+		int keep = Math.min(previous.length, DICTIONARY_SIZE - block.length);
+		byte[] dict = new byte[keep + block.length];
+		System.arraycopy(previous, previous.length - keep, dict, 0, keep);
+		System.arraycopy(block, 0, dict, keep, block.length);
+		return dict;
+	}
+
+	private static byte[] await(Future<byte[]> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while compressing.");
+		} catch (ExecutionException e) {
+			throw new IOException("Compression failed.", e.getCause());
+		}
+	}
+
+	private static byte[] header(int level) {
+		int levelFlags;
+		if (level == Deflater.DEFAULT_COMPRESSION || level == 6) {
+			levelFlags = 2;
+		} else if (level < 2) {
+			levelFlags = 0;
+		} else if (level < 6) {
+			levelFlags = 1;
+		} else {
+			levelFlags = 3;
+		}
+		int cmf = 0x78; // deflate, 32K window
+		int flg = levelFlags << 6;
+		flg += 31 - ((cmf << 8) + flg) % 31;
+		return new byte[] { (byte) cmf, (byte) flg };
+	}
+
+	private static byte[] gzipHeader(int level) {
+		int extraFlags = level == Deflater.BEST_COMPRESSION ? 2 : level == Deflater.BEST_SPEED ? 4 : 0;
+		// Magic, deflate, no flags, no modification time, extra flags, unknown OS.
+		return new byte[] { 0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, (byte) extraFlags, (byte) 0xff };
+	}
+
+	private static byte[] trailer(int level, long adler) {
+		// An empty final block terminates the deflate stream, followed by the Adler-32 of the input.
+		byte[] finalBlock = finalBlock(level);
+		int n = finalBlock.length;
+		byte[] result = Arrays.copyOf(finalBlock, n + 4);
+		result[n] = (byte) (adler >>> 24);
+		result[n + 1] = (byte) (adler >>> 16);
+		result[n + 2] = (byte) (adler >>> 8);
+		result[n + 3] = (byte) adler;
+		return result;
+	}
+
+	private static byte[] gzipTrailer(int level, long crc, long totalIn) {
+		// The CRC-32 and length (mod 2^32) of the input follow the deflate stream, least significant byte first.
+		byte[] finalBlock = finalBlock(level);
+		int n = finalBlock.length;
+		byte[] result = Arrays.copyOf(finalBlock, n + 8);
+		for (int i = 0; i < 4; i++) {
+			result[n + i] = (byte) (crc >>> (8 * i));
+			result[n + 4 + i] = (byte) (totalIn >>> (8 * i));
+		}
+		return result;
+	}
+
+	private static byte[] finalBlock(int level) {
+		Deflater deflater = new Deflater(level, true);
+		try {
+			deflater.finish();
+			byte[] buf = new byte[64];
+			int n = 0;
+			while (!deflater.finished()) {
+				n += deflater.deflate(buf, n, buf.length - n);
+			}
+			return Arrays.copyOf(buf, n);
+		} finally {
+			deflater.end();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		for (Future<byte[]> future : pending) {
+			future.cancel(true);
+		}
+		pending.clear();
+		source.close();
+	}
+
+	private static class DeflateBlockTask implements Callable<byte[]> {
+
+		private final byte[] block;
+		private final byte[] dictionary;
+		private final int level;
+
+		DeflateBlockTask(byte[] block, byte[] dictionary, int level) {
+			this.block = block;
+			this.dictionary = dictionary;
+			this.level = level;
+		}
+
+		@Override
+		public byte[] call() {
+			Deflater deflater = new Deflater(level, true);
+			try {
+				if (dictionary != null) {
+					deflater.setDictionary(dictionary);
+				}
+				deflater.setInput(block);
+				ByteArrayOutputStream out = new ByteArrayOutputStream(block.length / 2 + 64);
+				byte[] buf = new byte[64 * 1024];
+				int n;
+				// Keep flushing until the deflater leaves room in the buffer, i.e. all input is consumed and flushed.
+				do {
+					n = deflater.deflate(buf, 0, buf.length, Deflater.SYNC_FLUSH);
+					out.write(buf, 0, n);
+				} while (n == buf.length || !deflater.needsInput());
+				return out.toByteArray();
+			} finally {
+				deflater.end();
+			}
+		}
+	}
+}
@@ -0,0 +1,370 @@
+package org.vena.etltool.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Reads text in some encoding from a source stream and produces the same text as UTF-8, converting
+ * several blocks of input at a time on a fork-join pool.
+ *
+ * Blocks are cut where no character can be split: anywhere in single-byte encodings, before a lead
+ * byte in UTF-8, and between code units that aren't a surrogate pair in UTF-16 and UTF-32. Text in
+ * other multi-byte encodings is converted in order as it is read. A byte order mark at the start is
+ * dropped. Text that isn't valid in the encoding ends the stream with a {@link MalformedTextException}
+ * giving the line it is on.
+ */
+public class TranscodingInputStream extends InputStream {
+
+	public static final int DEFAULT_BLOCK_SIZE = 1024 * 1024;
+
+	public static final Charset WINDOWS_1252 = Charset.forName("windows-1252");
+
+	private enum Layout {SINGLE_BYTE, UTF_8, UTF_16BE, UTF_16LE, UTF_32, SEQUENTIAL}
+
+	/**
+	 * Thrown when the source has bytes that aren't text in its encoding.
+	 */
+	public static class MalformedTextException extends IOException {
+
+		private static final long serialVersionUID = 1L;
+
+		private final long line;
+
+		public MalformedTextException(String message, long line) {
+			super(message);
+			this.line = line;
+		}
+
+		public long getLine() {
+			return line;
+		}
+	}
+
+	private final InputStream source;
+	private final Charset charset;
+	private final String description;
+	private final int blockSize;
+	private final ForkJoinPool pool;
+	private final int maxPendingBlocks;
+	private final Layout layout;
+
+	private final Deque<Future<Block>> pending = new ArrayDeque<>();
+	// Decodes in order when blocks can't be cut safely, keeping the state of a character cut off at the end of a block.
+	private final CharsetDecoder sequentialDecoder;
+	private byte[] carry = new byte[0];
+	private long line = 1;
+	private boolean first = true;
+	private boolean sourceExhausted = false;
+
+	private byte[] current;
+	private int position;
+
+	/**
+	 * @param description what the source is, e.g. its file name, for error messages.
+	 */
+	public TranscodingInputStream(InputStream source, Charset charset, String description) {
+		this(source, charset, description, DEFAULT_BLOCK_SIZE, ParallelDeflaterInputStream.getSharedPool());
+	}
+
+	public TranscodingInputStream(InputStream source, Charset charset, String description, int blockSize, ForkJoinPool pool) {
+		if (blockSize < 16) {
+			throw new IllegalArgumentException("Invalid block size " + blockSize);
+		}
+		this.source = source;
+		this.charset = charset;
+		this.description = description;
+		this.blockSize = blockSize;
+		this.pool = pool;
+		this.maxPendingBlocks = 2 * pool.getParallelism();
+		this.layout = layout(charset);
+		this.sequentialDecoder = layout == Layout.SEQUENTIAL ? newDecoder(charset) : null;
+	}
+
+	/**
+	 * Works out the encoding of a file from its first bytes. A byte order mark decides between the Unicode
+	 * encodings. Otherwise the declared encoding is used, and without one the text is taken to be UTF-8 if
+	 * it is valid UTF-8 and Windows-1252 if it isn't.
+	 * @param declared the encoding the file is said to be in, or null if it isn't known.
+	 */
+	public static Charset detect(byte[] start, int length, String declared) {
+		Charset declaredCharset = declared == null ? null : Charset.forName(declared);
+		Charset marked = fromByteOrderMark(start, length);
+		if (marked != null && (declaredCharset == null || declaredCharset.name().startsWith("UTF-"))) {
+			return marked;
+		}
+		if (declaredCharset != null) {
+			// Without a byte order mark, Java reads these as big-endian.
+			if (declaredCharset.name().equals("UTF-16")) {
+				return StandardCharsets.UTF_16BE;
+			}
+			if (declaredCharset.name().equals("UTF-32")) {
+				return Charset.forName("UTF-32BE");
+			}
+			return declaredCharset;
+		}
+		CharsetDecoder decoder = newDecoder(StandardCharsets.UTF_8);
+		CharBuffer out = CharBuffer.allocate(length + 1);
+		// The sample may end part way through a character, which is fine.
+		if (decoder.decode(ByteBuffer.wrap(start, 0, length), out, false).isError()) {
+			return WINDOWS_1252;
+		}
+		return StandardCharsets.UTF_8;
+	}
+
+	private static Charset fromByteOrderMark(byte[] b, int n) {
+		if (n >= 4 && (b[0] & 0xff) == 0xFF && (b[1] & 0xff) == 0xFE && b[2] == 0 && b[3] == 0) {
+			return Charset.forName("UTF-32LE");
+		}
+		if (n >= 4 && b[0] == 0 && b[1] == 0 && (b[2] & 0xff) == 0xFE && (b[3] & 0xff) == 0xFF) {
+			return Charset.forName("UTF-32BE");
+		}
+		if (n >= 3 && (b[0] & 0xff) == 0xEF && (b[1] & 0xff) == 0xBB && (b[2] & 0xff) == 0xBF) {
+			return StandardCharsets.UTF_8;
+		}
+		if (n >= 2 && (b[0] & 0xff) == 0xFE && (b[1] & 0xff) == 0xFF) {
+			return StandardCharsets.UTF_16BE;
+		}
+		if (n >= 2 && (b[0] & 0xff) == 0xFF && (b[1] & 0xff) == 0xFE) {
+			return StandardCharsets.UTF_16LE;
+		}
+		return null;
+	}
+
+	private static Layout layout(Charset charset) {
+		switch (charset.name()) {
+		case "UTF-8":
+			return Layout.UTF_8;
+		case "UTF-16BE":
+			return Layout.UTF_16BE;
+		case "UTF-16LE":
+			return Layout.UTF_16LE;
+		case "UTF-32BE":
+		case "UTF-32LE":
+			return Layout.UTF_32;
+		default:
+			return charset.canEncode() && charset.newEncoder().maxBytesPerChar() == 1.0f ? Layout.SINGLE_BYTE : Layout.SEQUENTIAL;
+		}
+	}
+
+	private static CharsetDecoder newDecoder(Charset charset) {
+		return charset.newDecoder()
+				.onMalformedInput(CodingErrorAction.REPORT)
+				.onUnmappableCharacter(CodingErrorAction.REPORT);
+	}
+
+	@Override
+	public int read() throws IOException {
+		byte[] b = new byte[1];
+		int n = read(b, 0, 1);
+		return n == -1 ? -1 : (b[0] & 0xff);
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		while (current == null || position == current.length) {
+			if (!nextChunk()) {
+				return -1;
+			}
+		}
+		int n = Math.min(len, current.length - position);
+		System.arraycopy(current, position, b, off, n);
+		position += n;
+		return n;
+	}
+
+	private boolean nextChunk() throws IOException {
+		position = 0;
+
+		if (layout == Layout.SEQUENTIAL) {
+			if (sourceExhausted) {
+				current = null;
+				return false;
+			}
+			ByteBuffer in = readBlock();
+			current = take(new ConvertBlockTask(in, sequentialDecoder, sourceExhausted, false, first).call());
+			first = false;
+			carry = Arrays.copyOfRange(in.array(), in.position(), in.limit());
+			return true;
+		}
+
+		while (!sourceExhausted && pending.size() < maxPendingBlocks) {
+			ByteBuffer in = readBlock();
+			if (!in.hasRemaining()) {
+				break;
+			}
+			int end = sourceExhausted ? in.limit() : cut(in.array(), in.limit());
+			carry = Arrays.copyOfRange(in.array(), end, in.limit());
+			in.limit(end);
+			pending.add(pool.submit(new ConvertBlockTask(in, newDecoder(charset), true, layout == Layout.UTF_8, first)));
+			first = false;
+		}
+
+		if (!pending.isEmpty()) {
+			current = take(await(pending.poll()));
+			return true;
+		}
+
+		current = null;
+		return false;
+	}
+
+	/**
+	 * @return the bytes left over from the last block followed by up to a block of new ones.
+	 */
+	private ByteBuffer readBlock() throws IOException {
+		byte[] block = Arrays.copyOf(carry, carry.length + blockSize);
+		int filled = carry.length;
+		while (filled < block.length) {
+			int n = source.read(block, filled, block.length - filled);
+			if (n == -1) {
+				sourceExhausted = true;
+				break;
+			}
+			filled += n;
+		}
+		carry = new byte[0];
+		return ByteBuffer.wrap(block, 0, filled);
+	}
+
+	/**
+	 * @return where to end a block of n bytes so that it doesn't end part way through a character.
+	 */
+	private int cut(byte[] b, int n) {
+		switch (layout) {
+		case UTF_8:
+			// Back up to the last byte that starts a character, and leave it for the next block.
+			for (int i = n - 1; i >= Math.max(0, n - 4); i--) {
+				if ((b[i] & 0xC0) != 0x80) {
+					return (b[i] & 0x80) == 0 ? n : i;
+				}
+			}
+			return n;
+		case UTF_16BE:
+		case UTF_16LE:
+			int end = n & ~1;
+			int high = layout == Layout.UTF_16BE ? b[end - 2] : b[end - 1];
+			// A high surrogate needs the low surrogate that follows it.
+			return (high & 0xFC) == 0xD8 ? end - 2 : end;
+		case UTF_32:
+			return n & ~3;
+		default:
+			return n;
+		}
+	}
+
+	private byte[] take(Block block) throws MalformedTextException {
+		if (block.errorLines >= 0) {
+			long errorLine = line + block.errorLines;
+			throw new MalformedTextException(description + " is not valid " + charset.name() + " text at line " + errorLine + ".", errorLine);
+		}
+		line += block.lines;
+		return block.bytes;
+	}
+
+	private static Block await(Future<Block> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while converting to UTF-8.");
+		} catch (ExecutionException e) {
+			throw new IOException("Converting to UTF-8 failed.", e.getCause());
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		for (Future<Block> future : pending) {
+			future.cancel(true);
+		}
+		pending.clear();
+		source.close();
+	}
+
+	private static class Block {
+		byte[] bytes;
+		int lines;
+		/** The number of lines before the first bad character, or -1 if there isn't one. */
+		int errorLines = -1;
+	}
+
+	private static class ConvertBlockTask implements Callable<Block> {
+
+		private final ByteBuffer in;
+		private final CharsetDecoder decoder;
+		private final boolean endOfInput;
+		private final boolean utf8;
+		private final boolean first;
+
+		/**
+		 * @param utf8 if true the block is only checked, and its bytes are used as they are.
+		 * @param first if true the block is the start of the text, so a byte order mark is dropped.
+		 */
+		ConvertBlockTask(ByteBuffer in, CharsetDecoder decoder, boolean endOfInput, boolean utf8, boolean first) {
+			this.in = in;
+			this.decoder = decoder;
+			this.endOfInput = endOfInput;
+			this.utf8 = utf8;
+			this.first = first;
+		}
+
+		@Override
+		public Block call() {
+			int start = in.position();
+			CharBuffer out = CharBuffer.allocate((int) (in.remaining() * (double) decoder.maxCharsPerByte()) + 16);
+			CoderResult result = decoder.decode(in, out, endOfInput);
+			if (!result.isError() && endOfInput) {
+				result = decoder.flush(out);
+			}
+			out.flip();
+
+			Block block = new Block();
+			block.lines = countLines(out);
+			if (result.isError()) {
+				block.errorLines = block.lines;
+				return block;
+			}
+			if (result.isOverflow()) {
+				throw new IllegalStateException("Decoded text did not fit in its buffer.");
+			}
+
+			if (utf8) {
+				int skip = first && out.length() > 0 && out.charAt(0) == '\uFEFF' ? 3 : 0;
+				block.bytes = Arrays.copyOfRange(in.array(), start + skip, in.position());
+			} else {
+				int skip = first && out.length() > 0 && out.charAt(0) == '\uFEFF' ? 1 : 0;
+				block.bytes = new String(out.array(), skip, out.limit() - skip).getBytes(StandardCharsets.UTF_8);
+			}
+			return block;
+		}
+
+		private static int countLines(CharBuffer text) {
+			char[] chars = text.array();
+			int lines = 0;
+			for (int i = 0, end = text.limit(); i < end; i++) {
+				if (chars[i] == '\n') {
+					lines++;
+				}
+			}
+			return lines;
+		}
+	}
+}
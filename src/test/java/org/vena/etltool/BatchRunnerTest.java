@@ -0,0 +1,111 @@
+package org.vena.etltool;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.vena.etltool.entities.ETLJobDTO;
+import org.vena.etltool.entities.ETLJobDTO.Phase;
+import org.vena.etltool.entities.ETLMetadataDTO;
+import org.vena.etltool.entities.Id;
+
+public class BatchRunnerTest {
+
+	private static ETLClient mockClient() {
+		ETLClient etlClient = mock(ETLClient.class);
+		final AtomicLong nextId = new AtomicLong(1000);
+		when(etlClient.trySubmitETL(any(ETLMetadataDTO.class))).thenAnswer(new Answer<ETLJobDTO>() {
+			@Override
+			public ETLJobDTO answer(InvocationOnMock invocation) {
+				ETLJobDTO etlJob = new ETLJobDTO();
+				etlJob.setId(Id.valueOf(Long.toString(nextId.incrementAndGet())));
+				return etlJob;
+			}
+		});
+		when(etlClient.tryRequestJobStatus(anyString())).thenAnswer(new Answer<ETLJobDTO>() {
+			@Override
+			public ETLJobDTO answer(InvocationOnMock invocation) {
+				ETLJobDTO etlJob = new ETLJobDTO();
+				etlJob.setId(Id.valueOf((String) invocation.getArguments()[0]));
+				etlJob.setPhase(Phase.COMPLETE);
+				etlJob.setMetadata(new ETLMetadataDTO());
+				return etlJob;
+			}
+		});
+		return etlClient;
+	}
+
+	private static List<BatchRunner.BatchJob> jobs(int count, Boolean queuingEnabled) {
+		List<BatchRunner.BatchJob> jobs = new ArrayList<>();
+		for (int i = 1; i <= count; i++) {
+			ETLMetadataDTO metadata = new ETLMetadataDTO();
+			metadata.setName("Job " + i);
+			metadata.setQueuingEnabled(queuingEnabled);
+			jobs.add(new BatchRunner.BatchJob(i, metadata, Id.valueOf("42"), false, null));
+		}
+		return jobs;
+	}
+
+	@Test
+	public void testWindowLimitsJobsInFlight() {
+		ETLClient etlClient = mockClient();
+		ByteArrayOutputStream results = new ByteArrayOutputStream();
+
+		BatchRunner runner = new BatchRunner(etlClient, jobs(5, true), 3, false, new PrintStream(results, true));
+
+		assertEquals(0, runner.run());
+		assertEquals(3, runner.getMaxInFlightSeen());
+		verify(etlClient, times(5)).trySubmitETL(any(ETLMetadataDTO.class));
+
+		String[] lines = results.toString().trim().split("\n");
+		assertEquals(5, lines.length);
+		for (String line : lines) {
+			assertTrue(line, line.contains("\"result\":\"COMPLETE\""));
+			assertTrue(line, line.contains("\"success\":true"));
+		}
+	}
+
+	@Test
+	public void testJobsWithoutQueuingRunOneAtATimePerModel() {
+		ETLClient etlClient = mockClient();
+
+		BatchRunner runner = new BatchRunner(etlClient, jobs(3, false), 3, false, new PrintStream(new ByteArrayOutputStream()));
+
+		assertEquals(0, runner.run());
+		assertEquals(1, runner.getMaxInFlightSeen());
+	}
+
+	@Test
+	public void testFailedSubmissionIsReported() {
+		ETLClient etlClient = mockClient();
+		ETLMetadataDTO rejected = new ETLMetadataDTO();
+		rejected.setName("Rejected");
+		when(etlClient.trySubmitETL(rejected)).thenReturn(null);
+
+		List<BatchRunner.BatchJob> jobs = jobs(1, true);
+		jobs.add(new BatchRunner.BatchJob(7, rejected, Id.valueOf("42"), false, null));
+		ByteArrayOutputStream results = new ByteArrayOutputStream();
+
+		assertEquals(1, new BatchRunner(etlClient, jobs, 2, false, new PrintStream(results, true)).run());
+		assertTrue(results.toString().contains("{\"line\":7,\"jobName\":\"Rejected\",\"modelId\":\"42\",\"jobId\":null,\"result\":\"NOT_SUBMITTED\",\"success\":false"));
+	}
+
+	@Test
+	public void testSplitArguments() {
+		assertEquals(Arrays.asList("--file", "my data.csv;intersections", "--jobName", "It's done"),
+				Main.splitArguments("--file \"my data.csv;intersections\"  --jobName \"It's done\""));
+		assertEquals(Arrays.asList("--jobName=Load 2", ""), Main.splitArguments("--jobName='Load 2' ''"));
+		assertNull(Main.splitArguments("--jobName \"Load"));
+	}
+}
@@ -4,22 +4,48 @@ import static org.mockito.Matchers.*;
 import static org.mockito.Mockito.*;
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
 
 import org.junit.AfterClass;
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.vena.etltool.ETLClient;
 import org.vena.etltool.JerseyClientFactory;
+import org.vena.etltool.entities.ETLFileToCubeStepDTO;
+import org.vena.etltool.entities.ETLMetadataDTO;
+import org.vena.etltool.entities.ETLStepDTO.DataType;
+import org.vena.etltool.entities.Id;
+import org.vena.etltool.entities.LoginResultDTO;
 import org.vena.etltool.tests.ETLToolTest.ExitException;
 import org.vena.etltool.tests.ETLToolTest.NoExitSecurityManager;
 
 import com.sun.jersey.api.client.Client;
+import com.sun.jersey.api.client.ClientHandler;
+import com.sun.jersey.api.client.ClientRequest;
 import com.sun.jersey.api.client.ClientResponse;
 import com.sun.jersey.api.client.WebResource;
 import com.sun.jersey.api.client.WebResource.Builder;
+import com.sun.jersey.api.client.filter.ClientFilter;
+import com.sun.jersey.core.header.InBoundHeaders;
+import com.sun.jersey.core.util.Base64;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
 
 public class ETLClientTest {
 
@@ -71,8 +97,8 @@ public class ETLClientTest {
 	@Test
 	public void testLoginSuccess() {
 		when(mockResponse.getStatus()).thenReturn(200);
-		when(mockResponse.getEntity(String.class)).thenReturn(
-				"{\"apiUser\": \"123.456\", \"apiKey\": \"mockkey\", \"location\": \"mock.location\"}");
+		when(mockResponse.getEntityInputStream()).thenReturn(new ByteArrayInputStream(
+				"{\"apiUser\": \"123.456\", \"apiKey\": \"mockkey\", \"location\": \"mock.location\"}".getBytes(StandardCharsets.UTF_8)));
 
 		try {
 			etlClient.login();
@@ -90,8 +116,8 @@ public class ETLClientTest {
 	@Test
 	public void testLoginProtocolHost() {
 		when(mockResponse.getStatus()).thenReturn(200);
-		when(mockResponse.getEntity(String.class)).thenReturn(
-				"{\"apiUser\": \"123.456\", \"apiKey\": \"mockkey\", \"location\": \"mock.location\"}");
+		when(mockResponse.getEntityInputStream()).thenReturn(new ByteArrayInputStream(
+				"{\"apiUser\": \"123.456\", \"apiKey\": \"mockkey\", \"location\": \"mock.location\"}".getBytes(StandardCharsets.UTF_8)));
 
 		try {
 			etlClient.protocol = "ftp";
@@ -177,4 +203,263 @@ public class ETLClientTest {
 		}
 		fail();
 	}
+
+	private void respondWithLogin(String apiKey) {
+		when(mockResponse.getStatus()).thenReturn(200);
+		when(mockResponse.getEntityInputStream()).thenReturn(new ByteArrayInputStream(
+				("{\"apiUser\": \"123.456\", \"apiKey\": \"" + apiKey + "\", \"location\": \"mock.location\"}").getBytes(StandardCharsets.UTF_8)));
+	}
+
+	private ETLClient sessionClient() {
+		ETLClient client = new ETLClient(clientFactory);
+		client.username = "user@unit.test";
+		client.password = "mockpassword";
+		client.sessionCache = true;
+		return client;
+	}
+
+	@Test
+	public void testLoginSessionCache() throws IOException {
+		File cacheDir = Files.createTempDirectory("vena-etl").toFile();
+		System.setProperty("vena.etl.cacheDir", cacheDir.getPath());
+		try {
+			respondWithLogin("mockkey");
+			sessionClient().login();
+			verify(mockBuilder, times(1)).post(ClientResponse.class);
+
+			// A later run uses the kept session without logging in.
+			ETLClient later = sessionClient();
+			later.login();
+			verify(mockBuilder, times(1)).post(ClientResponse.class);
+			assertEquals("123.456", later.apiUser);
+			assertEquals("mockkey", later.apiKey);
+			assertEquals("mock.location", later.location);
+
+			// Once the server turns the session down, it logs in again and sends the request again.
+			respondWithModels(200, null, "[]");
+			later.lookupModel("Budget");
+			ArgumentCaptor<ClientFilter> filters = ArgumentCaptor.forClass(ClientFilter.class);
+			verify(mockClient, atLeastOnce()).addFilter(filters.capture());
+			final List<String> authorizations = new ArrayList<>();
+			final ClientResponse rejected = mock(ClientResponse.class);
+			when(rejected.getStatus()).thenReturn(401);
+			final ClientResponse accepted = mock(ClientResponse.class);
+			when(accepted.getStatus()).thenReturn(200);
+			Client client = new Client(new ClientHandler() {
+				@Override
+				public ClientResponse handle(ClientRequest request) {
+					authorizations.add((String) request.getHeaders().getFirst(HttpHeaders.AUTHORIZATION));
+					return authorizations.size() == 1 ? rejected : accepted;
+				}
+			});
+			List<ClientFilter> added = filters.getAllValues();
+			client.addFilter(added.get(added.size() - 1));
+			respondWithLogin("newkey");
+			assertEquals(200, client.resource("https://vena.io/api/models").get(ClientResponse.class).getStatus());
+			assertEquals(2, authorizations.size());
+			assertEquals("Basic MTIzLjQ1Njptb2Nra2V5", authorizations.get(0));
+			assertEquals("Basic MTIzLjQ1NjpuZXdrZXk=", authorizations.get(1));
+			verify(mockBuilder, times(2)).post(ClientResponse.class);
+
+			// The new session is kept in place of the old one.
+			ETLClient next = sessionClient();
+			next.login();
+			assertEquals("newkey", next.apiKey);
+			verify(mockBuilder, times(2)).post(ClientResponse.class);
+		} finally {
+			System.clearProperty("vena.etl.cacheDir");
+			for (File file : cacheDir.listFiles()) {
+				file.delete();
+			}
+			cacheDir.delete();
+		}
+	}
+
+	@Test
+	public void testHedgeLogin() throws IOException {
+		File cacheDir = Files.createTempDirectory("vena-etl").toFile();
+		System.setProperty("vena.etl.cacheDir", cacheDir.getPath());
+		try {
+			LoginHosts hosts = LoginHosts.open();
+			hosts.succeeded("us2.vena.io", 10);
+			hosts.succeeded("eu1.vena.io", 20);
+			hosts.failed("ca3.vena.io");
+			hosts.save();
+
+			// The fastest datacenter before doesn't answer this time.
+			WebResource slowResource = mock(WebResource.class);
+			Builder slowBuilder = mock(Builder.class);
+			when(mockClient.resource("https://us2.vena.io/login")).thenReturn(slowResource);
+			when(slowResource.accept(anyString())).thenReturn(slowBuilder);
+			when(slowBuilder.header(anyString(), any())).thenReturn(slowBuilder);
+			when(slowBuilder.post(ClientResponse.class)).thenAnswer(new Answer<ClientResponse>() {
+				@Override
+				public ClientResponse answer(InvocationOnMock invocation) throws InterruptedException {
+					Thread.sleep(5000);
+					return mock(ClientResponse.class);
+				}
+			});
+			respondWithLogin("mockkey");
+
+			long start = System.currentTimeMillis();
+			etlClient.hedgeLogin = true;
+			etlClient.login();
+			assertTrue(System.currentTimeMillis() - start < 4000);
+			assertEquals("mockkey", etlClient.apiKey);
+			verify(mockClient, never()).resource("https://vena.io/login");
+			verify(mockClient).resource("https://us2.vena.io/login");
+			verify(mockClient).resource("https://eu1.vena.io/login");
+			verify(mockClient, never()).resource("https://ca3.vena.io/login");
+
+			hosts = LoginHosts.open();
+			assertTrue(hosts.roundTrip("eu1.vena.io") >= 0);
+			assertEquals(10, hosts.roundTrip("us2.vena.io"));
+			assertFalse(hosts.isHealthy("ca3.vena.io"));
+		} finally {
+			System.clearProperty("vena.etl.cacheDir");
+			for (File file : cacheDir.listFiles()) {
+				file.delete();
+			}
+			cacheDir.delete();
+		}
+	}
+
+	@Test
+	public void testHedgeLoginAllFail() throws IOException {
+		File cacheDir = Files.createTempDirectory("vena-etl").toFile();
+		System.setProperty("vena.etl.cacheDir", cacheDir.getPath());
+		when(mockResponse.getStatus()).thenReturn(500);
+		try {
+			etlClient.hedgeLogin = true;
+			etlClient.login();
+			fail();
+		} catch (ExitException ee) {
+			assertEquals(1, ee.status);
+			// Each datacenter is tried once, without waiting for the ones that failed.
+			verify(mockBuilder, times(ETLClient.LOGIN_HOSTS.size())).post(ClientResponse.class);
+			LoginHosts hosts = LoginHosts.open();
+			for (String host : ETLClient.LOGIN_HOSTS) {
+				assertFalse(hosts.isHealthy(host));
+			}
+		} finally {
+			System.clearProperty("vena.etl.cacheDir");
+			for (File file : cacheDir.listFiles()) {
+				file.delete();
+			}
+			cacheDir.delete();
+		}
+	}
+
+	private void respondWithModels(int status, String etag, String json) {
+		InBoundHeaders headers = new InBoundHeaders();
+		if (etag != null) {
+			headers.putSingle(HttpHeaders.ETAG, etag);
+		}
+		when(mockBuilder.type(any(MediaType.class))).thenReturn(mockBuilder);
+		when(mockBuilder.get(ClientResponse.class)).thenReturn(mockResponse);
+		when(mockResponse.getStatus()).thenReturn(status);
+		when(mockResponse.getHeaders()).thenReturn(headers);
+		when(mockResponse.getEntityInputStream()).thenReturn(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+	}
+
+	@Test
+	public void testLookupModelIsKept() throws IOException {
+		File cacheDir = Files.createTempDirectory("vena-etl").toFile();
+		System.setProperty("vena.etl.cacheDir", cacheDir.getPath());
+		try {
+			etlClient.apiUser = "123.456";
+			etlClient.apiKey = "secret";
+			respondWithModels(200, "\"v1\"", "[{\"id\": \"10\", \"name\": \"Budget\"}, {\"id\": \"11\", \"name\": \"Forecast\"}]");
+			assertEquals(new Id(10), etlClient.lookupModel("Budget").getId());
+			assertEquals(new Id(11), etlClient.lookupModel("Forecast").getId());
+			assertNull(etlClient.lookupModel("Actuals"));
+			verify(mockBuilder, times(1)).get(ClientResponse.class);
+
+			// A later run uses the kept list while it is fresh.
+			ETLClient later = new ETLClient(clientFactory);
+			later.apiUser = "123.456";
+			later.apiKey = "secret";
+			assertEquals(new Id(11), later.lookupModel("Forecast").getId());
+			verify(mockBuilder, times(1)).get(ClientResponse.class);
+
+			// Once it isn't, the server is asked whether the list changed.
+			later = new ETLClient(clientFactory);
+			later.apiUser = "123.456";
+			later.apiKey = "secret";
+			later.modelCacheTTL = 0;
+			respondWithModels(304, null, "");
+			Thread.sleep(2);
+			assertEquals(new Id(10), later.lookupModel("Budget").getId());
+			verify(mockBuilder).header(HttpHeaders.IF_NONE_MATCH, "\"v1\"");
+			verify(mockBuilder, times(2)).get(ClientResponse.class);
+		} catch (InterruptedException e) {
+			fail();
+		} finally {
+			System.clearProperty("vena.etl.cacheDir");
+			new File(cacheDir, ModelCache.FILE_NAME).delete();
+			cacheDir.delete();
+		}
+	}
+
+	@Test
+	public void testExpiredSessionBeforeUpload() throws IOException {
+		File cacheDir = Files.createTempDirectory("vena-etl").toFile();
+		System.setProperty("vena.etl.cacheDir", cacheDir.getPath());
+		File dataFile = File.createTempFile("intersections", ".csv");
+		final List<String> requests = Collections.synchronizedList(new ArrayList<String>());
+		final String renewed = "Basic " + new String(Base64.encode("1.1:renewed"), StandardCharsets.US_ASCII);
+		try (StandInServer server = new StandInServer()) {
+			Files.write(dataFile.toPath(), "_dim1_member,_value\nA,1\n".getBytes(StandardCharsets.UTF_8));
+			SessionCache cache = SessionCache.open("localhost", "user@unit.test", "mockpassword");
+			LoginResultDTO expired = new LoginResultDTO();
+			expired.setApiUser("1.1");
+			expired.setApiKey("expired");
+			cache.put(expired);
+			cache.save();
+
+			server.handle("/", new HttpHandler() {
+				@Override
+				public void handle(HttpExchange exchange) throws IOException {
+					String request = exchange.getRequestMethod() + " " + exchange.getRequestURI().getPath();
+					requests.add(request);
+					StandInServer.readBody(exchange);
+					if (request.equals("POST /login")) {
+						StandInServer.respondJson(exchange, 200, "{\"apiUser\": \"1.1\", \"apiKey\": \"renewed\"}");
+					} else if (!renewed.equals(exchange.getRequestHeaders().getFirst(HttpHeaders.AUTHORIZATION))) {
+						StandInServer.respondJson(exchange, 401, "{}");
+					} else if (request.equals("GET /api/models")) {
+						StandInServer.respondJson(exchange, 200, "[]");
+					} else {
+						StandInServer.respondJson(exchange, 200, "{\"id\":\"42\"}");
+					}
+				}
+			});
+
+			ETLClient etlClient = server.createClient();
+			etlClient.username = "user@unit.test";
+			etlClient.password = "mockpassword";
+			etlClient.sessionCache = true;
+			etlClient.modelId = new Id(1);
+			etlClient.login();
+
+			ETLFileToCubeStepDTO step = new ETLFileToCubeStepDTO();
+			step.setDataType(DataType.intersections);
+			step.setFileName(dataFile.getPath());
+			step.setMimePart("file1");
+			ETLMetadataDTO metadata = new ETLMetadataDTO();
+			metadata.setModelId(new Id(1));
+			metadata.addStep(step);
+
+			// The upload can't be sent twice, so the kept session is checked first, which logs in again.
+			assertEquals(new Id(42), etlClient.uploadETL(metadata).getId());
+			assertEquals(Arrays.asList("GET /api/models", "POST /login", "GET /api/models", "POST /api/models/1/etl/upload"), requests);
+		} finally {
+			System.clearProperty("vena.etl.cacheDir");
+			dataFile.delete();
+			for (File file : cacheDir.listFiles()) {
+				file.delete();
+			}
+			cacheDir.delete();
+		}
+	}
 }
@@ -0,0 +1,129 @@
+package org.vena.etltool;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.vena.etltool.entities.ETLFileImportStepDTO.FileFormat;
+import org.vena.etltool.entities.ETLStepDTO.DataType;
+import org.vena.etltool.entities.Id;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+public class ExportCompressionTest {
+
+	static final String CSV = "Account,Value\n1000,1.5\n2000,2.5\n";
+
+	StandInServer server;
+	ETLClient etlClient;
+	volatile String contentEncoding;
+	volatile String acceptEncoding;
+
+	@Before
+	public void setUp() throws IOException {
+		server = new StandInServer();
+		server.handle("/api/models/42/etl/query/", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				StandInServer.readBody(exchange);
+				acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+				byte[] body = encode(CSV.getBytes(StandardCharsets.UTF_8), contentEncoding);
+				if (contentEncoding != null) {
+					// Some servers send raw deflate data under the "deflate" name.
+					exchange.getResponseHeaders().set("Content-Encoding", contentEncoding.startsWith("deflate") ? "deflate" : contentEncoding);
+				}
+				StandInServer.respond(exchange, 200, "text/csv", body);
+			}
+		});
+		etlClient = server.createClient();
+		etlClient.modelId = Id.valueOf("42");
+	}
+
+	@After
+	public void tearDown() {
+		server.close();
+	}
+
+	private static byte[] encode(byte[] data, String encoding) throws IOException {
+		if (encoding == null) {
+			return data;
+		}
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		OutputStream out;
+		if (encoding.equals("gzip")) {
+			out = new GZIPOutputStream(bytes);
+		} else if (encoding.equals("deflate-raw")) {
+			out = new DeflaterOutputStream(bytes, new Deflater(Deflater.DEFAULT_COMPRESSION, true));
+		} else {
+			out = new DeflaterOutputStream(bytes);
+		}
+		out.write(data);
+		out.close();
+		return bytes.toByteArray();
+	}
+
+	private static byte[] readAll(InputStream in) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		int n;
+		while ((n = in.read(buffer)) != -1) {
+			bytes.write(buffer, 0, n);
+		}
+		in.close();
+		return bytes.toByteArray();
+	}
+
+	private String export(boolean gzipped) throws IOException {
+		byte[] bytes = readAll(etlClient.sendExport(DataType.intersections, null, null, null, null, true, FileFormat.CSV, gzipped));
+		if (gzipped) {
+			bytes = readAll(new GZIPInputStream(new ByteArrayInputStream(bytes)));
+		}
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	@Test
+	public void testGzipTransferIsDecompressed() throws IOException {
+		contentEncoding = "gzip";
+		assertEquals(CSV, export(false));
+		assertEquals("gzip, deflate", acceptEncoding);
+	}
+
+	@Test
+	public void testGzipTransferIsKeptForGzipTarget() throws IOException {
+		contentEncoding = "gzip";
+		byte[] raw = readAll(etlClient.sendExport(DataType.intersections, null, null, null, null, true, FileFormat.CSV, true));
+		assertArrayEquals(encode(CSV.getBytes(StandardCharsets.UTF_8), "gzip"), raw);
+	}
+
+	@Test
+	public void testUncompressedTransferIsCompressedForGzipTarget() throws IOException {
+		contentEncoding = null;
+		assertEquals(CSV, export(true));
+	}
+
+	@Test
+	public void testDeflateTransfer() throws IOException {
+		contentEncoding = "deflate";
+		assertEquals(CSV, export(false));
+		assertEquals(CSV, export(true));
+	}
+
+	@Test
+	public void testRawDeflateTransfer() throws IOException {
+		contentEncoding = "deflate-raw";
+		assertEquals(CSV, export(false));
+	}
+}
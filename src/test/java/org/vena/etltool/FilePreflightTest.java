@@ -0,0 +1,182 @@
+package org.vena.etltool;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.vena.etltool.entities.ETLFileImportStepDTO.FileFormat;
+import org.vena.etltool.entities.ETLStepDTO.DataType;
+
+public class FilePreflightTest {
+
+	File file;
+
+	@Before
+	public void setUp() throws IOException {
+		file = File.createTempFile("preflight", ".csv");
+	}
+
+	@After
+	public void tearDown() {
+		file.delete();
+	}
+
+	private void write(String text) throws IOException {
+		Files.write(file.toPath(), text.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static String intersections(int rows) {
+		StringBuilder text = new StringBuilder("_dim1_member,_dim2_member,_value,_etl_id\n");
+		for (int i = 1; i <= rows; i++) {
+			text.append("Sale,\"City\n").append(i).append("\",").append(i).append(".5,\n");
+		}
+		return text.toString();
+	}
+
+	private FilePreflight.Report check(FilePreflight preflight) throws IOException {
+		return preflight.check(file, DataType.intersections, FileFormat.CSV, null);
+	}
+
+	@Test
+	public void testValidFileInManyBlocks() throws IOException {
+		write(intersections(1000));
+		FilePreflight preflight = new FilePreflight(20, 4);
+		preflight.blockSize = 64;
+
+		FilePreflight.Report report = check(preflight);
+		assertEquals(Arrays.asList(), report.errors);
+		assertEquals(1000, report.rows);
+		assertTrue(report.complete);
+	}
+
+	@Test
+	public void testErrorsAreReportedInLineOrder() throws IOException {
+		// Every data row spans two lines, so row i starts on line 2i.
+		String text = intersections(1000)
+				.replace("Sale,\"City\n100\",100.5,\n", "Sale,\"City\n100\"\n")
+				.replace("Sale,\"City\n400\",400.5,", "Sale,\"City\n400\",abc,")
+				.replace("Sale,\"City\n700\",700.5,", ",\"City\n700\",700.5,");
+		write(text);
+		FilePreflight preflight = new FilePreflight(20, 4);
+		preflight.blockSize = 100;
+
+		FilePreflight.Report report = check(preflight);
+		assertEquals(Arrays.asList(
+				"line 200: expected at least 3 columns but found 2.",
+				"line 800: _value \"abc\" is not a number.",
+				"line 1400: there is no member in _dim1_member."), report.errors);
+		assertEquals(3, report.errorCount);
+		assertTrue(report.complete);
+	}
+
+	@Test
+	public void testStopsAfterMaxErrors() throws IOException {
+		write(intersections(1000).replace(".5,", ".5.5,"));
+		FilePreflight preflight = new FilePreflight(5, 2);
+		preflight.blockSize = 100;
+
+		FilePreflight.Report report = check(preflight);
+		assertEquals(5, report.errors.size());
+		assertEquals("line 2: _value \"1.5.5\" is not a number.", report.errors.get(0));
+		assertEquals("line 10: _value \"5.5.5\" is not a number.", report.errors.get(4));
+		assertFalse(report.complete);
+		assertTrue(report.rows < 1000);
+	}
+
+	@Test
+	public void testMissingColumns() throws IOException {
+		write("_dim1_member,_etl_id\nSale,\n");
+		FilePreflight.Report report = check(new FilePreflight(20, 1));
+		assertEquals(Arrays.asList(
+				"line 1: there is no _value column."), report.errors);
+
+		write("Account,Amount\nSale,1\n");
+		report = check(new FilePreflight(20, 1));
+		assertEquals(Arrays.asList(
+				"line 1: there are no _dimN_member columns.",
+				"line 1: there is no _value column."), report.errors);
+	}
+
+	@Test
+	public void testOptionalColumnsCanBeLeftOff() throws IOException {
+		// Most rows of this example leave off _etl_id.
+		Files.copy(new File("Examples/values/intersections-missing-members.csv").toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		FilePreflight.Report report = check(new FilePreflight(20, 1));
+		assertEquals(Arrays.asList(), report.errors);
+
+		write("_dim1_member,_dim2_member,_value,_etl_id\nSale,Toronto,1\nSale,Toronto\nSale,Toronto,1,2,3\n");
+		report = check(new FilePreflight(20, 1));
+		assertEquals(Arrays.asList(
+				"line 3: expected at least 3 columns but found 2.",
+				"line 4: expected 4 columns but found 5."), report.errors);
+	}
+
+	@Test
+	public void testOtherTypesOnlyCheckColumnCounts() throws IOException {
+		write("_dim,_member_name\r\nColor,Red\r\nColor\r\n");
+		FilePreflight.Report report = new FilePreflight(20, 1).check(file, DataType.hierarchy, FileFormat.CSV, null);
+		assertEquals(Arrays.asList("line 3: expected 2 columns but found 1."), report.errors);
+	}
+
+	@Test
+	public void testCarriageReturnLineEndings() throws IOException {
+		write("_dim1_member\t_value\rSale\t1\rSale\tx\rSale\t3");
+		FilePreflight preflight = new FilePreflight(20, 2);
+		preflight.blockSize = 8;
+
+		FilePreflight.Report report = preflight.check(file, DataType.intersections, FileFormat.TDF, null);
+		assertEquals(Arrays.asList("line 3: _value \"x\" is not a number."), report.errors);
+		assertEquals(3, report.rows);
+	}
+
+	@Test
+	public void testInvalidEncoding() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		bytes.write("_dim1_member|_value\nCaf".getBytes(StandardCharsets.UTF_8));
+		bytes.write(0xe9);
+		bytes.write("|1\nCaf\u00e9|2\n".getBytes(StandardCharsets.UTF_8));
+		Files.write(file.toPath(), bytes.toByteArray());
+
+		FilePreflight.Report report = new FilePreflight(20, 1).check(file, DataType.intersections, FileFormat.PSV, null);
+		assertEquals(Arrays.asList("line 2: it is not valid UTF-8 text."), report.errors);
+
+		report = new FilePreflight(20, 1).check(file, DataType.intersections, FileFormat.PSV, "ISO-8859-1");
+		assertEquals(Arrays.asList(), report.errors);
+	}
+
+	@Test
+	public void testUtf16() throws IOException {
+		Files.write(file.toPath(), "_dim1_member,_value\nSale,1\n\"Sa\nle\",x\nSale\n".getBytes(StandardCharsets.UTF_16));
+		FilePreflight.Report report = new FilePreflight(20, 2).check(file, DataType.intersections, FileFormat.CSV, "UTF-16");
+		assertEquals(Arrays.asList(
+				"line 3: _value \"x\" is not a number.",
+				"line 5: expected 2 columns but found 1."), report.errors);
+	}
+
+	@Test
+	public void testUnclosedQuote() throws IOException {
+		write("_dim1_member,_value\nSale,1\n\"Sale\"x,2\nSale,3\n");
+		FilePreflight.Report report = check(new FilePreflight(20, 1));
+		assertEquals(1, report.errors.size());
+		assertTrue(report.errors.get(0), report.errors.get(0).startsWith("line 3: the row could not be read. "));
+	}
+
+	@Test
+	public void testIsNumber() {
+		for (String number : new String[] {"1", "-1", "+1.5", ".5", "5.", "1e10", "1.5E-3"}) {
+			assertTrue(number, FilePreflight.isNumber(number));
+		}
+		for (String notNumber : new String[] {"", "-", ".", "1e", "1.2.3", "NaN", "1,000", "0x10"}) {
+			assertFalse(notNumber, FilePreflight.isNumber(notNumber));
+		}
+	}
+}
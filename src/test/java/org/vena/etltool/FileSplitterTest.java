@@ -0,0 +1,77 @@
+package org.vena.etltool;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FileSplitterTest {
+
+	File file;
+
+	@Before
+	public void setUp() throws IOException {
+		file = File.createTempFile("split", ".csv");
+	}
+
+	@After
+	public void tearDown() {
+		file.delete();
+	}
+
+	private void write(String text) throws IOException {
+		Files.write(file.toPath(), text.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private String read(FileSplitter.Plan plan, int part) throws IOException {
+		long[] range = plan.parts.get(part);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (InputStream in = FileSplitter.open(file, part == 0 ? 0 : plan.headerLength, range[0], range[1])) {
+			byte[] buffer = new byte[3];
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				bytes.write(buffer, 0, read);
+			}
+		}
+		return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	@Test
+	public void testSplitByRows() throws IOException {
+		write("a,b\n1,\"x\ny\"\n2,z\r\n3,z\n4,z");
+		FileSplitter.Plan plan = new FileSplitter(0, 2).plan(file);
+
+		assertEquals(4, plan.headerLength);
+		assertEquals(2, plan.parts.size());
+		assertEquals("a,b\n1,\"x\ny\"\n2,z\r\n", read(plan, 0));
+		assertEquals("a,b\n3,z\n4,z", read(plan, 1));
+	}
+
+	@Test
+	public void testSplitBySize() throws IOException {
+		write("a,b\r1,1\r2,2\r3,3\r");
+		FileSplitter.Plan plan = new FileSplitter(8, 0).plan(file);
+
+		assertEquals(4, plan.headerLength);
+		assertEquals(2, plan.parts.size());
+		assertEquals("a,b\r1,1\r", read(plan, 0));
+		assertEquals("a,b\r2,2\r3,3\r", read(plan, 1));
+	}
+
+	@Test
+	public void testSmallFileIsOnePart() throws IOException {
+		write("a,b\n1,1\n");
+		FileSplitter.Plan plan = new FileSplitter(1024, 0).plan(file);
+
+		assertEquals(1, plan.parts.size());
+		assertEquals("a,b\n1,1\n", read(plan, 0));
+	}
+}
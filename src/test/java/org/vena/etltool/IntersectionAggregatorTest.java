@@ -0,0 +1,149 @@
+package org.vena.etltool;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.vena.etltool.entities.ETLFileImportStepDTO.FileFormat;
+
+public class IntersectionAggregatorTest {
+
+	File output;
+	String outputText;
+
+	@Before
+	public void setUp() throws IOException {
+		output = File.createTempFile("reduced", ".csv");
+	}
+
+	@After
+	public void tearDown() {
+		output.delete();
+	}
+
+	private IntersectionAggregator.Result reduce(String text, boolean aggregate, boolean dropZeros, long memoryBytes) throws IOException {
+		IntersectionAggregator aggregator = new IntersectionAggregator(new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8)),
+				"test.csv", FileFormat.CSV, null, aggregate, dropZeros);
+		aggregator.memoryBytes = memoryBytes;
+		IntersectionAggregator.Result result = aggregator.reduce(output);
+		outputText = new String(Files.readAllBytes(output.toPath()), StandardCharsets.UTF_8);
+		return result;
+	}
+
+	@Test
+	public void testAggregate() throws IOException {
+		String text = "_dim1_member,_value,_dim2_member\n"
+				+ "Sales,0.1,\"Dept, 1\"\n"
+				+ "Cost,5,\"Dept, 1\"\n"
+				+ "Sales,0.2,\"Dept, 1\"\n"
+				+ "Sales,7,Dept 2\n"
+				+ "Cost,-5,\"Dept, 1\"\n"
+				+ "Tax,,Dept 2\n";
+		IntersectionAggregator.Result result = reduce(text, true, true, Long.MAX_VALUE);
+		assertEquals("_dim1_member,_value,_dim2_member\r\n"
+				+ "Sales,0.3,\"Dept, 1\"\r\n"
+				+ "Sales,7,Dept 2\r\n"
+				+ "Tax,,Dept 2\r\n", outputText);
+		assertEquals(6, result.rowsIn);
+		assertEquals(3, result.rowsOut);
+		assertEquals(2, result.combined);
+		assertEquals(1, result.zeros);
+	}
+
+	@Test
+	public void testAggregateWithRuns() throws IOException {
+		Random random = new Random(42);
+		StringBuilder text = new StringBuilder("_dim1_member,_dim2_member,_value\n");
+		Map<String, Long> sums = new HashMap<>();
+		for (int i = 0; i < 20000; i++) {
+			String key = "Account" + random.nextInt(300) + ",Dept" + random.nextInt(30);
+			long value = random.nextInt(3) == 0 ? 0 : random.nextInt(1000) - 500;
+			text.append(key).append(",").append(value).append("\n");
+			Long sum = sums.get(key);
+			sums.put(key, sum == null ? value : sum + value);
+		}
+		long zeros = 0;
+		for (long sum : sums.values()) {
+			zeros += sum == 0 ? 1 : 0;
+		}
+
+		IntersectionAggregator.Result result = reduce(text.toString(), true, true, 100 * 1024);
+		String[] lines = outputText.split("\r\n");
+		assertEquals(sums.size() - zeros + 1, lines.length);
+		assertEquals(sums.size() - zeros, result.rowsOut);
+		assertEquals(zeros, result.zeros);
+		for (String line : Arrays.asList(lines).subList(1, lines.length)) {
+			int comma = line.lastIndexOf(',');
+			assertEquals(line, sums.remove(line.substring(0, comma)), Long.valueOf(line.substring(comma + 1)));
+		}
+
+		// Without a limit on memory, the same rows come out, in the order they first appeared.
+		String merged = outputText;
+		reduce(text.toString(), true, true, Long.MAX_VALUE);
+		String[] inMemory = outputText.split("\r\n");
+		Arrays.sort(lines);
+		Arrays.sort(inMemory);
+		assertArrayEquals(lines, inMemory);
+		assertFalse(merged.equals(outputText));
+	}
+
+	@Test
+	public void testDropZeros() throws IOException {
+		String text = "_dim1_member,_value,Notes\nA,0,x\nB,0.000,y\nA,1.50,z\nC,,w\nA,-0,v\n";
+		IntersectionAggregator.Result result = reduce(text, false, true, Long.MAX_VALUE);
+		assertEquals("_dim1_member,_value,Notes\r\nA,1.50,z\r\nC,,w\r\n", outputText);
+		assertEquals(5, result.rowsIn);
+		assertEquals(2, result.rowsOut);
+		assertEquals(3, result.zeros);
+	}
+
+	@Test
+	public void testOptionalColumnsCanBeLeftOff() throws IOException {
+		String text = new String(Files.readAllBytes(new File("Examples/values/intersections-missing-members.csv").toPath()), StandardCharsets.UTF_8);
+		IntersectionAggregator.Result result = reduce(text, false, true, Long.MAX_VALUE);
+		assertEquals(10, result.rowsIn);
+		assertEquals(10, result.rowsOut);
+		assertTrue(outputText.contains("\r\nOttawa,Squirrel,78\r\n"));
+	}
+
+	@Test
+	public void testErrors() throws IOException {
+		try {
+			reduce("_dim1_member,_value,Notes\nA,1,x\n", true, false, Long.MAX_VALUE);
+			fail("A column that isn't a member was aggregated.");
+		} catch (IllegalArgumentException e) {
+			assertEquals("test.csv has a Notes column, so its rows can't be aggregated. Only _dimN_member and _value columns can be.", e.getMessage());
+		}
+		try {
+			reduce("_dim1_member,_value\nA,1\nB,one\n", true, false, Long.MAX_VALUE);
+			fail("A value that isn't a number was aggregated.");
+		} catch (IllegalArgumentException e) {
+			assertEquals("test.csv line 3: _value \"one\" is not a number.", e.getMessage());
+		}
+		try {
+			reduce("_dim1_member,_dim2_member,_value,Notes\nA,B,1\nA,1\n", false, true, Long.MAX_VALUE);
+			fail("A row without its value was read.");
+		} catch (IllegalArgumentException e) {
+			assertEquals("test.csv line 3: expected at least 3 columns but found 2.", e.getMessage());
+		}
+	}
+
+	@Test
+	public void testDecimals() {
+		assertEquals(0, IntersectionAggregator.decimals("12"));
+		assertEquals(3, IntersectionAggregator.decimals("-1.250"));
+		assertEquals(4, IntersectionAggregator.decimals("1.5E-3"));
+		assertEquals(0, IntersectionAggregator.decimals("1.5e+3"));
+	}
+}
@@ -0,0 +1,149 @@
+package org.vena.etltool;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.vena.etltool.entities.ETLFileImportStepDTO.FileFormat;
+import org.vena.etltool.entities.ETLJobDTO;
+import org.vena.etltool.entities.ETLStepDTO.Status;
+import org.vena.etltool.entities.Id;
+
+public class IntersectionDeltaTest {
+
+	File directory;
+	File file;
+	ETLClient etlClient;
+	String deltaText;
+
+	@Before
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("snapshots").toFile();
+		file = File.createTempFile("intersections", ".csv");
+		etlClient = mock(ETLClient.class);
+	}
+
+	@After
+	public void tearDown() {
+		for (File snapshot : directory.listFiles()) {
+			snapshot.delete();
+		}
+		directory.delete();
+		file.delete();
+	}
+
+	private IntersectionDelta.Result load(String text, long jobId) throws IOException {
+		Files.write(file.toPath(), text.getBytes(StandardCharsets.UTF_8));
+		IntersectionDelta delta = new IntersectionDelta(directory, new Id(1), file, FileFormat.CSV, null);
+		// Small runs, so the rows are sorted in several pieces.
+		delta.runBytes = 500;
+		IntersectionDelta.Result result = delta.compute(etlClient);
+		deltaText = result.deltaFile == null ? null : new String(Files.readAllBytes(result.deltaFile.toPath()), StandardCharsets.UTF_8);
+		delta.submitted(new Id(jobId));
+		delta.completed();
+		return result;
+	}
+
+	private static String rows(int from, int to, String value) {
+		StringBuilder text = new StringBuilder("_dim1_member,_dim2_member,_value\n");
+		for (int i = from; i < to; i++) {
+			text.append("Account").append(i).append(",\"Dept, ").append(i % 3).append("\",").append(value).append("\n");
+		}
+		return text.toString();
+	}
+
+	@Test
+	public void testChangedAddedAndRemovedRows() throws IOException {
+		IntersectionDelta.Result first = load(rows(10, 60, "1"), 1);
+		assertNull(first.deltaFile);
+		assertEquals(50, first.rows);
+
+		String text = rows(11, 61, "1")
+				.replace("Account20,\"Dept, 2\",1", "Account20,\"Dept, 2\",2")
+				.replace("Account30,\"Dept, 0\",1", "Account30,\"Dept, 0\",1.0");
+		IntersectionDelta.Result second = load(text, 2);
+		assertEquals(50, second.rows);
+		assertEquals(3, second.changed);
+		assertEquals(1, second.deleted);
+		assertEquals("_dim1_member,_dim2_member,_value\r\n"
+				+ "Account10,\"Dept, 1\",0\r\n"
+				+ "Account20,\"Dept, 2\",2\r\n"
+				+ "Account30,\"Dept, 0\",1.0\r\n"
+				+ "Account60,\"Dept, 0\",1\r\n", deltaText);
+
+		IntersectionDelta.Result third = load(text, 3);
+		assertEquals(0, third.changed);
+		assertEquals(0, third.deleted);
+		verifyZeroInteractions(etlClient);
+	}
+
+	@Test
+	public void testRepeatedMembersAreAllSent() throws IOException {
+		load(rows(0, 5, "1"), 1);
+
+		IntersectionDelta.Result result = load(rows(0, 5, "1") + "Account2,\"Dept, 2\",7\n", 2);
+		assertEquals("_dim1_member,_dim2_member,_value\r\n"
+				+ "Account2,\"Dept, 2\",1\r\n"
+				+ "Account2,\"Dept, 2\",7\r\n", deltaText);
+
+		// The last of the repeated rows is the one that was loaded.
+		result = load(rows(0, 5, "1").replace("Account2,\"Dept, 2\",1", "Account2,\"Dept, 2\",7"), 3);
+		assertEquals(0, result.changed);
+	}
+
+	@Test
+	public void testLoadThatWasNotWaitedFor() throws IOException {
+		Files.write(file.toPath(), rows(0, 5, "1").getBytes(StandardCharsets.UTF_8));
+		IntersectionDelta delta = new IntersectionDelta(directory, new Id(1), file, FileFormat.CSV, null);
+		delta.compute(etlClient);
+		delta.submitted(new Id(42));
+
+		ETLJobDTO job = new ETLJobDTO();
+		job.setStatus(Status.COMPLETED);
+		when(etlClient.tryRequestJobStatus("42")).thenReturn(job);
+		Files.write(file.toPath(), rows(0, 5, "2").getBytes(StandardCharsets.UTF_8));
+		IntersectionDelta.Result result = new IntersectionDelta(directory, new Id(1), file, FileFormat.CSV, null).compute(etlClient);
+		assertEquals(5, result.changed);
+	}
+
+	@Test
+	public void testLoadThatFailed() throws IOException {
+		Files.write(file.toPath(), rows(0, 5, "1").getBytes(StandardCharsets.UTF_8));
+		IntersectionDelta delta = new IntersectionDelta(directory, new Id(1), file, FileFormat.CSV, null);
+		delta.compute(etlClient);
+		delta.submitted(new Id(42));
+
+		ETLJobDTO job = new ETLJobDTO();
+		job.setStatus(Status.ERROR);
+		when(etlClient.tryRequestJobStatus("42")).thenReturn(job);
+		IntersectionDelta.Result result = new IntersectionDelta(directory, new Id(1), file, FileFormat.CSV, null).compute(etlClient);
+		assertNull(result.deltaFile);
+	}
+
+	@Test
+	public void testOtherColumnsAreLoadedInFull() throws IOException {
+		load(rows(0, 5, "1"), 1);
+		IntersectionDelta.Result result = load(rows(0, 5, "1").replace("_dim2_member", "_dim3_member"), 2);
+		assertNull(result.deltaFile);
+	}
+
+	@Test
+	public void testOnlyMembersIdentifyARow() throws IOException {
+		load("_dim1_member,_dim2_member,_value,_etl_id\nOttawa,Squirrel,78,ios\nOttawa,Coyote,66,ioc\n", 1);
+
+		// A new _etl_id for the same members sends the row again, rather than a new row and a 0 for the old one.
+		IntersectionDelta.Result result = load("_dim1_member,_dim2_member,_value,_etl_id\nOttawa,Squirrel,78,aaa\n", 2);
+		assertEquals(1, result.changed);
+		assertEquals(1, result.deleted);
+		assertEquals("_dim1_member,_dim2_member,_value,_etl_id\r\n"
+				+ "Ottawa,Coyote,0,\r\n"
+				+ "Ottawa,Squirrel,78,aaa\r\n", deltaText);
+	}
+}
@@ -0,0 +1,81 @@
+package org.vena.etltool;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.vena.etltool.entities.ETLFileImportStepDTO.FileFormat;
+
+public class JdbcSourceTest {
+
+	static final String URL = "jdbc:h2:mem:jdbcsourcetest;DB_CLOSE_DELAY=-1";
+
+	@Before
+	public void createTable() throws SQLException {
+		try (Connection connection = JdbcSource.connect(URL, null, null); Statement statement = connection.createStatement()) {
+			statement.execute("CREATE TABLE facts (account VARCHAR(20), amount DOUBLE, price DECIMAL(20, 4))");
+			statement.execute("INSERT INTO facts VALUES ('Sales', 10000000.0, 1.5000), ('Cost, \"net\"', NULL, NULL), ('Tax', 0.25, 100)");
+		}
+	}
+
+	@After
+	public void dropTable() throws SQLException {
+		try (Connection connection = JdbcSource.connect(URL, null, null); Statement statement = connection.createStatement()) {
+			statement.execute("DROP TABLE facts");
+		}
+	}
+
+	private static String readFully(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buf = new byte[7];
+		int n;
+		while ((n = in.read(buf)) != -1) {
+			out.write(buf, 0, n);
+		}
+		in.close();
+		return new String(out.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	@Test
+	public void testResultsAsCsv() throws IOException {
+		String query = "SELECT account AS \"_dim1_member\", amount AS \"_value\", price FROM facts ORDER BY account DESC";
+		String csv = readFully(new JdbcSource(URL, null, null, query, 2, FileFormat.CSV));
+		assertEquals("_dim1_member,_value,PRICE\r\n"
+				+ "Tax,0.25,100.0000\r\n"
+				+ "Sales,10000000,1.5000\r\n"
+				+ "\"Cost, \"\"net\"\"\",,\r\n", csv);
+	}
+
+	@Test
+	public void testResultsAsTdf() throws IOException {
+		String query = "SELECT account, amount FROM facts WHERE account = 'Tax'";
+		assertEquals("ACCOUNT\tAMOUNT\r\nTax\t0.25\r\n", readFully(new JdbcSource(URL, null, null, query, 100, FileFormat.TDF)));
+	}
+
+	@Test
+	public void testColumns() throws SQLException {
+		assertEquals(Arrays.asList("_dim1_member", "_value"),
+				JdbcSource.columns(URL, null, null, "SELECT account AS \"_dim1_member\", amount AS \"_value\" FROM facts"));
+	}
+
+	@Test
+	public void testFailedQuery() throws IOException {
+		try {
+			readFully(new JdbcSource(URL, null, null, "SELECT missing FROM facts", 100, FileFormat.CSV));
+		} catch (JdbcSource.QueryFailedException e) {
+			assertTrue(e.getMessage(), e.getMessage().startsWith("Reading the results of the query failed: Column \"MISSING\" not found"));
+			return;
+		}
+		fail("The failed query was not reported.");
+	}
+}
@@ -0,0 +1,103 @@
+package org.vena.etltool;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.junit.Test;
+import org.vena.etltool.entities.ETLJobDTO;
+
+import com.sun.jersey.api.client.Client;
+import com.sun.jersey.api.client.ClientHandlerException;
+import com.sun.jersey.api.client.ClientResponse;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+public class JerseyClientFactoryTest {
+
+	StandInServer server;
+	volatile long responseDelayMillis = 0;
+
+	@Before
+	public void setUp() throws IOException {
+		server = new StandInServer();
+		server.handle("/api/etl/jobs/", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				if (responseDelayMillis > 0) {
+					try {
+						Thread.sleep(responseDelayMillis);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+				StandInServer.respondJson(exchange, 200, "{\"id\":\"101\",\"phase\":\"COMPLETE\"}");
+			}
+		});
+	}
+
+	@After
+	public void tearDown() {
+		server.close();
+	}
+
+	@Test
+	public void testConnectionsAreReused() {
+		JerseyClientFactory clientFactory = new JerseyClientFactory();
+		ETLClient etlClient = server.createClient(clientFactory);
+
+		for (int i = 0; i < 5; i++) {
+			ETLJobDTO etlJob = etlClient.tryRequestJobStatus("101");
+			assertEquals("101", etlJob.getId().toString());
+		}
+
+		assertEquals(5, clientFactory.getConnectionsLeased());
+		assertEquals(4, clientFactory.getConnectionsReused());
+		assertEquals("5 request(s) over 1 connection(s), 80% reused.", clientFactory.describeConnectionReuse());
+	}
+
+	@Test
+	public void testWithoutPooling() {
+		JerseyClientFactory clientFactory = new JerseyClientFactory();
+		ETLClient etlClient = server.createClient(clientFactory);
+		etlClient.pooledConnections = false;
+
+		assertNotNull(etlClient.tryRequestJobStatus("101"));
+		assertEquals(0, clientFactory.getConnectionsLeased());
+		assertEquals("No pooled connections were used.", clientFactory.describeConnectionReuse());
+	}
+
+	@Test
+	public void testReadTimeout() {
+		ETLClient etlClient = server.createClient();
+		etlClient.readTimeoutSeconds = 1;
+		responseDelayMillis = 3000;
+
+		long start = System.currentTimeMillis();
+		assertNull(etlClient.tryRequestJobStatus("101"));
+		assertTrue(System.currentTimeMillis() - start < 2500);
+	}
+
+	@Test
+	public void testPoolUsedUp() {
+		JerseyClientFactory clientFactory = new JerseyClientFactory();
+		clientFactory.setMaxConnectionsPerRoute(1);
+		clientFactory.setConnectTimeoutMillis(500);
+		Client client = clientFactory.create();
+		String uri = "http://localhost:" + server.getPort() + "/api/etl/jobs/101";
+
+		// Never closed, so it keeps the only connection.
+		client.resource(uri).get(ClientResponse.class);
+		long start = System.currentTimeMillis();
+		try {
+			client.resource(uri).get(ClientResponse.class);
+			fail("The request should have timed out waiting for a connection.");
+		} catch (ClientHandlerException e) {
+			assertTrue(e.getCause() instanceof ConnectionPoolTimeoutException);
+		}
+		assertTrue(System.currentTimeMillis() - start < 2500);
+	}
+}
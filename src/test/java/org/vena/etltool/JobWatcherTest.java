@@ -0,0 +1,94 @@
+package org.vena.etltool;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+import org.vena.etltool.entities.ETLFileToCubeStepDTO;
+import org.vena.etltool.entities.ETLJobDTO;
+import org.vena.etltool.entities.ETLJobDTO.Phase;
+import org.vena.etltool.entities.ETLMetadataDTO;
+
+public class JobWatcherTest {
+
+	private static ETLJobDTO job(Phase phase, int percentDone) {
+		ETLFileToCubeStepDTO step = new ETLFileToCubeStepDTO();
+		step.setPercentDone(percentDone);
+		ETLMetadataDTO metadata = new ETLMetadataDTO();
+		metadata.addStep(step);
+		ETLJobDTO etlJob = new ETLJobDTO();
+		etlJob.setPhase(phase);
+		etlJob.setMetadata(metadata);
+		return etlJob;
+	}
+
+	private static void assertWithinJitter(long expected, long actual) {
+		assertTrue("expected ~" + expected + " but was " + actual,
+				actual >= expected * (1 - JobWatcher.JITTER) - 1 && actual <= expected * (1 + JobWatcher.JITTER) + 1);
+	}
+
+	@Test
+	public void testBackoffGrowsToMaximum() {
+		JobWatcher watcher = new JobWatcher(new Random(1));
+		long now = 0;
+
+		long delay = watcher.observe(job(Phase.LOAD_TO_STAGING, 0), now);
+		assertWithinJitter(JobWatcher.MIN_INTERVAL_MILLIS, delay);
+
+		long expected = JobWatcher.MIN_INTERVAL_MILLIS;
+		for (int i = 0; i < 30; i++) {
+			now += delay;
+			delay = watcher.observe(job(Phase.LOAD_TO_STAGING, 0), now);
+			expected = Math.min(JobWatcher.MAX_INTERVAL_MILLIS, (long) (expected * JobWatcher.GROWTH_FACTOR));
+			assertWithinJitter(expected, delay);
+		}
+		assertWithinJitter(JobWatcher.MAX_INTERVAL_MILLIS, delay);
+	}
+
+	@Test
+	public void testNewPhaseResetsInterval() {
+		JobWatcher watcher = new JobWatcher(new Random(1));
+		long now = 0;
+		for (int i = 0; i < 10; i++) {
+			now += watcher.observe(job(Phase.NOT_STARTED, 0), now);
+		}
+
+		long delay = watcher.observe(job(Phase.LOAD_TO_CUBE, 0), now);
+
+		assertWithinJitter(JobWatcher.MIN_INTERVAL_MILLIS, delay);
+	}
+
+	@Test
+	public void testProgressCapsInterval() {
+		JobWatcher watcher = new JobWatcher(new Random(1));
+
+		// 10% per second means the job should finish within a few seconds of the last observation.
+		watcher.observe(job(Phase.LOAD_TO_CUBE, 0), 0);
+		for (int i = 1; i <= 8; i++) {
+			watcher.observe(job(Phase.LOAD_TO_CUBE, i * 10), i * 1000);
+		}
+		long delay = watcher.observe(job(Phase.LOAD_TO_CUBE, 90), 9000);
+
+		assertTrue(delay <= 500 * (1 + JobWatcher.JITTER) + 1);
+	}
+
+	@Test
+	public void testPhaseTimings() {
+		JobWatcher watcher = new JobWatcher(new Random(1));
+
+		watcher.observe(job(Phase.NOT_STARTED, 0), 0);
+		watcher.observe(job(Phase.LOAD_TO_STAGING, 0), 2000);
+		watcher.observe(job(Phase.LOAD_TO_STAGING, 50), 5000);
+		watcher.observe(job(Phase.LOAD_TO_CUBE, 0), 7000);
+		watcher.observe(job(Phase.COMPLETE, 100), 7500);
+		watcher.finish(7500);
+
+		assertEquals(Long.valueOf(2000), watcher.getPhaseMillis().get(Phase.NOT_STARTED));
+		assertEquals(Long.valueOf(5000), watcher.getPhaseMillis().get(Phase.LOAD_TO_STAGING));
+		assertEquals(Long.valueOf(500), watcher.getPhaseMillis().get(Phase.LOAD_TO_CUBE));
+		assertEquals(5, watcher.getPolls());
+		assertEquals(String.format("NOT_STARTED %.1fs, LOAD_TO_STAGING %.1fs, LOAD_TO_CUBE %.1fs, COMPLETE %.1fs", 2.0, 5.0, 0.5, 0.0),
+				watcher.describePhaseTimings());
+	}
+}
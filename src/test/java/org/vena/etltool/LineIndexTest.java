@@ -0,0 +1,98 @@
+package org.vena.etltool;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LineIndexTest {
+
+	File file;
+
+	@Before
+	public void setUp() throws IOException {
+		file = File.createTempFile("lines", ".csv");
+	}
+
+	@After
+	public void tearDown() {
+		file.delete();
+		LineIndex.cacheFile(file).delete();
+	}
+
+	/**
+	 * Writes lines of varying length, some with quoted line breaks, and returns where each starts.
+	 */
+	private List<Long> writeLines(int count) throws IOException {
+		List<Long> starts = new ArrayList<>();
+		StringBuilder text = new StringBuilder("_dim1_member,_value\n");
+		String[] endings = {"\n", "\r\n", "\r"};
+		for (int i = 2; i <= count; i++) {
+			starts.add((long) text.length());
+			text.append("\"Member ").append(i);
+			if (i % 7 == 0) {
+				text.append("\r\nwith \"\"quoted\"\"\nbreaks");
+			}
+			text.append("\",").append(i).append(endings[i % 3]);
+		}
+		Files.write(file.toPath(), text.toString().getBytes(StandardCharsets.UTF_8));
+		starts.add(0, 0L);
+		return starts;
+	}
+
+	@Test
+	public void testOffsetOfLine() throws IOException {
+		List<Long> starts = writeLines(5000);
+		LineIndex index = LineIndex.build(file, 16, 4, 7);
+
+		assertEquals(5000, index.getLineCount());
+		for (int line = 1; line <= 5000; line++) {
+			assertEquals("line " + line, (long) starts.get(line - 1), index.offsetOfLine(line));
+		}
+		assertEquals(-1, index.offsetOfLine(5001));
+	}
+
+	@Test
+	public void testFirstLineAtOrAfter() throws IOException {
+		List<Long> starts = writeLines(500);
+		LineIndex index = LineIndex.build(file, 16, 3, 1000);
+
+		assertArrayEquals(new long[] {1, 0}, index.firstLineAtOrAfter(0));
+		assertArrayEquals(new long[] {2, starts.get(1)}, index.firstLineAtOrAfter(1));
+		assertArrayEquals(new long[] {300, starts.get(299)}, index.firstLineAtOrAfter(starts.get(298) + 1));
+		assertArrayEquals(new long[] {501, file.length()}, index.firstLineAtOrAfter(starts.get(499) + 1));
+	}
+
+	@Test
+	public void testLastLineWithoutLineBreak() throws IOException {
+		Files.write(file.toPath(), "a,b\n1,2\n3,4".getBytes(StandardCharsets.UTF_8));
+		LineIndex index = LineIndex.build(file, 1, 2, 3);
+
+		assertEquals(3, index.getLineCount());
+		assertEquals(8, index.offsetOfLine(3));
+	}
+
+	@Test
+	public void testIndexIsSavedAndReused() throws IOException {
+		writeLines(100);
+
+		LineIndex built = LineIndex.load(file, 0);
+		assertTrue(LineIndex.cacheFile(file).isFile());
+		LineIndex loaded = LineIndex.load(file, 0);
+		assertEquals(built.getLineCount(), loaded.getLineCount());
+		assertEquals(built.offsetOfLine(77), loaded.offsetOfLine(77));
+
+		// A changed file is indexed again.
+		Files.write(file.toPath(), "a\nb\n".getBytes(StandardCharsets.UTF_8));
+		assertTrue(file.setLastModified(file.lastModified() + 2000));
+		assertEquals(2, LineIndex.load(file, 0).getLineCount());
+	}
+}
@@ -0,0 +1,58 @@
+package org.vena.etltool;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LoginHostsTest {
+
+	File cacheFile;
+
+	@Before
+	public void setUp() throws IOException {
+		cacheFile = File.createTempFile("hosts", ".properties");
+		cacheFile.delete();
+	}
+
+	@After
+	public void tearDown() {
+		cacheFile.delete();
+	}
+
+	@Test
+	public void testOrder() throws IOException {
+		LoginHosts hosts = new LoginHosts(cacheFile);
+		assertEquals(Arrays.asList("b", "a", "c"), hosts.order(Arrays.asList("b", "a", "c")));
+
+		hosts.succeeded("c", 100);
+		hosts.succeeded("a", 40);
+		hosts.failed("b");
+		hosts.save();
+
+		hosts = new LoginHosts(cacheFile);
+		assertEquals("Fastest first, then hosts never seen, then failed hosts.",
+				Arrays.asList("a", "c", "d", "b"), hosts.order(Arrays.asList("b", "a", "c", "d")));
+		assertFalse(hosts.isHealthy("b"));
+
+		hosts.succeeded("b", 500);
+		assertTrue(hosts.isHealthy("b"));
+	}
+
+	@Test
+	public void testRoundTripSmoothed() throws IOException {
+		LoginHosts hosts = new LoginHosts(cacheFile);
+		assertEquals(-1, hosts.roundTrip("a"));
+		hosts.succeeded("a", 100);
+		assertEquals(100, hosts.roundTrip("a"));
+		hosts.succeeded("a", 200);
+		assertEquals(130, hosts.roundTrip("a"));
+		hosts.failed("a");
+		assertEquals("A failure doesn't change how fast the host was.", 130, hosts.roundTrip("a"));
+	}
+}
@@ -0,0 +1,81 @@
+package org.vena.etltool;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.vena.etltool.entities.ETLFileImportStepDTO.FileFormat;
+
+public class MemberDictionaryTest {
+
+	static final String HIERARCHY = "_Dimension Name,_Child Name,_Child Alias,_Parent Name,_Operator\n"
+			+ "Location,Cities,Cities,,+\n"
+			+ "Location,Toronto,Toronto,Cities,+\n"
+			+ "Location,Ottawa,Ottawa,Cities,+\n"
+			+ "Animals,Mammals,,,+\n"
+			+ "Animals,Squirrel,Squirrel,Mammals,+\n"
+			+ "Animals,Racoon,Racoon,Mammals,+\n"
+			+ "Location,Toronto,Toronto,Ontario,+\n";
+
+	File directory;
+	File file;
+
+	@Before
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("members").toFile();
+		file = new File(directory, "1.members");
+	}
+
+	@After
+	public void tearDown() {
+		for (File member : directory.listFiles()) {
+			member.delete();
+		}
+		directory.delete();
+	}
+
+	private MemberDictionary fetch() throws IOException {
+		return MemberDictionary.fetch(new ByteArrayInputStream(HIERARCHY.getBytes(StandardCharsets.UTF_8)), file);
+	}
+
+	@Test
+	public void testContains() throws IOException {
+		MemberDictionary members = fetch();
+		assertEquals(2, members.dimensions());
+		assertEquals("Location", members.dimensionName(1));
+		assertEquals(6, members.size());
+		assertTrue(members.contains(1, "Toronto"));
+		assertTrue(members.contains(1, " ottawa "));
+		assertTrue(members.contains(2, "Squirrel"));
+		assertFalse(members.contains(2, "Toronto"));
+		assertFalse(members.contains(2, "Coyote"));
+	}
+
+	@Test
+	public void testMaxAge() throws IOException {
+		fetch();
+		assertNotNull(MemberDictionary.open(file, 60 * 1000));
+		assertTrue(MemberDictionary.open(file, 60 * 1000).contains(2, "Racoon"));
+		assertNull(MemberDictionary.open(file, -1));
+		assertNull(MemberDictionary.open(new File(directory, "2.members"), Long.MAX_VALUE));
+	}
+
+	@Test
+	public void testAddHierarchy() throws IOException {
+		MemberDictionary members = fetch();
+		File hierarchy = new File(directory, "hierarchy.tdf");
+		Files.write(hierarchy.toPath(), "_Dimension Name\t_Child Name\tParent\nAnimals\tCoyote\tMammals\nColour\tRed\t\n".getBytes(StandardCharsets.UTF_8));
+		members.addHierarchy(hierarchy, FileFormat.TDF, null);
+		assertTrue(members.contains(2, "Coyote"));
+		assertEquals(3, members.dimensions());
+		assertEquals("Colour", members.dimensionName(3));
+		assertTrue(members.contains(3, "Red"));
+	}
+}
@@ -0,0 +1,69 @@
+package org.vena.etltool;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.vena.etltool.entities.Id;
+import org.vena.etltool.entities.ModelResponseDTO;
+
+public class ModelCacheTest {
+
+	File cacheFile;
+
+	@Before
+	public void setUp() throws IOException {
+		cacheFile = File.createTempFile("models", ".properties");
+		cacheFile.delete();
+	}
+
+	@After
+	public void tearDown() {
+		cacheFile.delete();
+	}
+
+	private static ModelResponseDTO model(String name, long id) {
+		ModelResponseDTO model = new ModelResponseDTO();
+		model.setName(name);
+		model.setId(new Id(id));
+		return model;
+	}
+
+	@Test
+	public void testKeptBetweenRuns() throws IOException {
+		ModelCache cache = new ModelCache(cacheFile, "1.2@vena.io");
+		assertFalse(cache.isFresh(Long.MAX_VALUE));
+		cache.replace(Arrays.asList(model("Budget", 10), model("Forecast", 11), model("Budget", 12)), "\"v1\"");
+		cache.save();
+
+		cache = new ModelCache(cacheFile, "1.2@vena.io");
+		assertTrue(cache.isFresh(60 * 1000));
+		assertFalse(cache.isFresh(-1));
+		assertEquals("\"v1\"", cache.etag());
+		assertEquals("The first model with a name counts.", new Id(10), cache.get("Budget"));
+		assertEquals(new Id(11), cache.models().get("Forecast").getId());
+		assertNull(cache.get("Actuals"));
+
+		ModelCache otherUser = new ModelCache(cacheFile, "1.3@vena.io");
+		assertFalse(otherUser.isFresh(Long.MAX_VALUE));
+		assertNull(otherUser.get("Budget"));
+	}
+
+	@Test
+	public void testInvalidate() throws IOException {
+		ModelCache cache = new ModelCache(cacheFile, "1.2@vena.io");
+		cache.replace(Arrays.asList(model("Budget", 10)), "\"v1\"");
+		ModelCache otherUser = new ModelCache(cacheFile, "1.3@vena.io");
+		otherUser.replace(Arrays.asList(model("Budget", 20)), null);
+		cache.invalidate();
+		assertFalse(cache.isFresh(Long.MAX_VALUE));
+		assertNull(cache.etag());
+		assertTrue(cache.models().isEmpty());
+		assertEquals(new Id(20), otherUser.get("Budget"));
+	}
+}
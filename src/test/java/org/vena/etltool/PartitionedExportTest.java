@@ -0,0 +1,133 @@
+package org.vena.etltool;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.vena.etltool.entities.ETLFileImportStepDTO.FileFormat;
+import org.vena.etltool.entities.ETLStepDTO.DataType;
+import org.vena.etltool.entities.Id;
+import org.vena.etltool.entities.QueryDTO;
+import org.vena.etltool.util.JsonReaders;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+public class PartitionedExportTest {
+
+	StandInServer server;
+	ETLClient etlClient;
+	File target;
+	final List<QueryDTO> queries = new CopyOnWriteArrayList<>();
+
+	/**
+	 * Answers each query with three rows named after its query string. Earlier partitions answer
+	 * more slowly, so they finish out of order.
+	 */
+	private class ExportHandler implements HttpHandler {
+		@Override
+		public void handle(HttpExchange exchange) throws IOException {
+			QueryDTO query = JsonReaders.forType(QueryDTO.class).readValue(StandInServer.readBody(exchange));
+			queries.add(query);
+			String queryString = query.getQueryString();
+			if (queryString.contains("Missing")) {
+				StandInServer.respondJson(exchange, 404, "{}");
+				return;
+			}
+			try {
+				Thread.sleep(queryString.contains("A") ? 300 : queryString.contains("B") ? 150 : 0);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+
+			StringBuilder body = new StringBuilder();
+			if (query.isShowHeaders()) {
+				body.append("Partition,Value\n");
+			}
+			for (int i = 1; i <= 3; i++) {
+				body.append(queryString).append(',').append(i);
+				if (i < 3 || !queryString.contains("C")) {
+					body.append('\n');
+				}
+			}
+			StandInServer.respond(exchange, 200, "text/csv", body.toString().getBytes(StandardCharsets.UTF_8));
+		}
+	}
+
+	@Before
+	public void setUp() throws IOException {
+		server = new StandInServer();
+		server.handle("/api/models/42/etl/query/", new ExportHandler());
+		etlClient = server.createClient();
+		etlClient.modelId = Id.valueOf("42");
+		target = File.createTempFile("export", ".csv");
+	}
+
+	@After
+	public void tearDown() {
+		server.close();
+		target.delete();
+	}
+
+	@Test
+	public void testPartitionsAreJoinedInOrder() throws IOException {
+		List<String> partitions = Arrays.asList("dimension('Account':'A')", "dimension('Account':'B')", "dimension('Account':'C')");
+
+		new PartitionedExport(etlClient, DataType.intersections, null, null, partitions, true, FileFormat.CSV, 3).writeTo(target);
+
+		List<String> lines = Files.readAllLines(target.toPath(), StandardCharsets.UTF_8);
+		assertEquals(10, lines.size());
+		assertEquals("Partition,Value", lines.get(0));
+		assertEquals("dimension('Account':'A'),1", lines.get(1));
+		assertEquals("dimension('Account':'B'),1", lines.get(4));
+		assertEquals("dimension('Account':'C'),3", lines.get(9));
+
+		assertEquals(3, queries.size());
+		File[] leftovers = target.getAbsoluteFile().getParentFile().listFiles();
+		for (File file : leftovers) {
+			assertFalse(file.getName(), file.getName().startsWith(target.getName() + ".part"));
+		}
+	}
+
+	@Test
+	public void testWhereClauseIsCombinedWithPartitions() throws IOException {
+		List<String> partitions = Arrays.asList("region = 'A'", "region = 'B'");
+
+		new PartitionedExport(etlClient, DataType.user_defined, "sales", "year = 2020", partitions, false, FileFormat.CSV, 2).writeTo(target);
+
+		List<String> lines = Files.readAllLines(target.toPath(), StandardCharsets.UTF_8);
+		assertEquals(6, lines.size());
+		assertEquals("(year = 2020) and (region = 'A'),1", lines.get(0));
+		assertEquals("(year = 2020) and (region = 'B'),3", lines.get(5));
+		for (QueryDTO query : queries) {
+			assertEquals("sales", query.getTableName());
+			assertFalse(query.isShowHeaders());
+		}
+	}
+
+	@Test
+	public void testFailedPartitionLeavesNothingBehind() throws IOException {
+		List<String> partitions = Arrays.asList("dimension('Account':'A')", "dimension('Account':'Missing')", "dimension('Account':'C')");
+
+		try {
+			new PartitionedExport(etlClient, DataType.intersections, null, null, partitions, true, FileFormat.CSV, 3).writeTo(target);
+			fail("The export should have failed.");
+		} catch (IOException e) {
+			assertEquals("Request to export failed.", e.getMessage());
+		}
+
+		assertFalse(target.exists());
+		for (File file : target.getAbsoluteFile().getParentFile().listFiles()) {
+			assertFalse(file.getName(), file.getName().startsWith(target.getName() + ".part"));
+		}
+	}
+}
@@ -0,0 +1,142 @@
+package org.vena.etltool;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+public class RateLimiterTest {
+
+	private static long drain(InputStream in) throws IOException {
+		byte[] buffer = new byte[64 * 1024];
+		long total = 0;
+		int n;
+		while ((n = in.read(buffer)) != -1) {
+			total += n;
+		}
+		return total;
+	}
+
+	/**
+	 * A clock that only moves when the limiter sleeps. With callers set, a sleep first waits for the
+	 * other callers that are still running to queue up behind the sleeping one, as they would while it
+	 * slept in real time.
+	 */
+	private static class FakeTicker implements RateLimiter.Ticker {
+		volatile long now;
+		RateLimiter limiter;
+		AtomicInteger callers;
+
+		@Override
+		public long nanoTime() {
+			return now;
+		}
+
+		@Override
+		public void sleep(long nanos) throws InterruptedException {
+			while (callers != null && callers.get() > 1 && !limiter.hasQueuedCallers()) {
+				Thread.sleep(1);
+			}
+			now += nanos;
+		}
+	}
+
+	@Test
+	public void testLimitsRate() throws IOException {
+		FakeTicker ticker = new FakeTicker();
+		RateLimiter limiter = new RateLimiter(400 * 1024, ticker);
+		assertEquals(200 * 1024, drain(new ThrottledInputStream(new ByteArrayInputStream(new byte[200 * 1024]), limiter)));
+
+		// The bucket starts empty, so this takes half a second at the full rate.
+		assertEquals(TimeUnit.MILLISECONDS.toNanos(500), ticker.now);
+	}
+
+	@Test
+	public void testBurstAfterIdle() throws IOException {
+		FakeTicker ticker = new FakeTicker();
+		RateLimiter limiter = new RateLimiter(400 * 1024, ticker);
+
+		// Idle for a second, which only fills the bucket with a quarter of a second's worth.
+		ticker.now += TimeUnit.SECONDS.toNanos(1);
+		limiter.acquire(100 * 1024);
+		assertEquals(TimeUnit.SECONDS.toNanos(1), ticker.now);
+		limiter.acquire(100 * 1024);
+		assertEquals(TimeUnit.MILLISECONDS.toNanos(1250), ticker.now);
+	}
+
+	@Test
+	public void testSharesRateFairly() throws Exception {
+		final FakeTicker ticker = new FakeTicker();
+		final RateLimiter limiter = new RateLimiter(1024 * 1024, ticker);
+		final AtomicInteger callers = new AtomicInteger(2);
+		ticker.limiter = limiter;
+		ticker.callers = callers;
+		final AtomicLong[] counts = {new AtomicLong(), new AtomicLong()};
+		final long[] otherCountWhenDone = new long[2];
+		Thread[] threads = new Thread[2];
+		for (int i = 0; i < threads.length; i++) {
+			final int self = i;
+			threads[i] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						for (int sent = 0; sent < 32; sent++) {
+							limiter.acquire(16 * 1024);
+							counts[self].addAndGet(16 * 1024);
+						}
+						otherCountWhenDone[self] = counts[1 - self].get();
+					} catch (IOException e) {
+						// Interrupted.
+					} finally {
+						callers.decrementAndGet();
+					}
+				}
+			};
+			threads[i].start();
+		}
+		for (Thread thread : threads) {
+			thread.join(10000);
+			assertFalse(thread.isAlive());
+		}
+
+		// A megabyte at a megabyte a second, however the callers took turns.
+		assertEquals(TimeUnit.SECONDS.toNanos(1), ticker.now);
+		// Each caller waits its turn, so neither gets ahead of the other by more than the part it is sending.
+		for (int i = 0; i < 2; i++) {
+			assertTrue(otherCountWhenDone[i] + " when done", otherCountWhenDone[i] >= 30 * 16 * 1024);
+		}
+	}
+
+	@Test
+	public void testControlFile() throws IOException {
+		File file = File.createTempFile("rate", ".txt");
+		try {
+			Files.write(file.toPath(), "1.5\n".getBytes(StandardCharsets.UTF_8));
+			RateLimiter limiter = new RateLimiter(RateLimiter.BYTES_PER_MB);
+			limiter.watch(file);
+			assertEquals(3 * RateLimiter.BYTES_PER_MB / 2, limiter.getBytesPerSecond());
+
+			Files.write(file.toPath(), "fast".getBytes(StandardCharsets.UTF_8));
+			file.setLastModified(file.lastModified() + 2000);
+			limiter.watch(file);
+			assertEquals(3 * RateLimiter.BYTES_PER_MB / 2, limiter.getBytesPerSecond());
+
+			Files.write(file.toPath(), "0".getBytes(StandardCharsets.UTF_8));
+			file.setLastModified(file.lastModified() + 4000);
+			limiter.watch(file);
+			assertEquals(0, limiter.getBytesPerSecond());
+			limiter.acquire(Integer.MAX_VALUE);
+		} finally {
+			file.delete();
+		}
+	}
+}
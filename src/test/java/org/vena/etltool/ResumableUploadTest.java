@@ -0,0 +1,235 @@
+package org.vena.etltool;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.InflaterInputStream;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.vena.etltool.entities.ETLFileToCubeStepDTO;
+import org.vena.etltool.entities.ETLMetadataDTO;
+import org.vena.etltool.entities.ETLStepDTO.DataType;
+import org.vena.etltool.entities.Id;
+import org.vena.etltool.tests.ETLToolTest.ExitException;
+import org.vena.etltool.tests.ETLToolTest.NoExitSecurityManager;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+public class ResumableUploadTest {
+
+	protected static final SecurityManager originalManager = System.getSecurityManager();
+
+	private static final int CHUNK_SIZE = 1024;
+
+	StandInServer server;
+	File dataFile;
+	File cacheDir;
+	byte[] content;
+
+	final Map<Integer, byte[]> chunks = new ConcurrentHashMap<>();
+	final ConcurrentMap<Integer, AtomicInteger> chunkPuts = new ConcurrentHashMap<>();
+	final Set<Integer> rejectChunks = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+	final Set<Integer> failChunksOnce = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+	volatile String jobRequest;
+	volatile boolean completed;
+
+	@BeforeClass
+	public static void setNoExitSecurityManager() {
+		System.setSecurityManager(new NoExitSecurityManager());
+	}
+
+	@AfterClass
+	public static void tearDown() {
+		System.setSecurityManager(originalManager);
+	}
+
+	@Before
+	public void startServer() throws IOException {
+		cacheDir = Files.createTempDirectory("vena-etl").toFile();
+		System.setProperty(UploadCache.DIRECTORY_PROPERTY, cacheDir.getPath());
+		StringBuilder buf = new StringBuilder("_dim1_member,_dim2_member,_value\n");
+		Random random = new Random(7);
+		while (buf.length() < CHUNK_SIZE * 10 + 100) {
+			buf.append("Member").append(random.nextInt(1000)).append(",Account").append(random.nextInt(100)).append(",").append(random.nextInt()).append("\n");
+		}
+		content = buf.toString().getBytes("UTF-8");
+		dataFile = File.createTempFile("resumable", ".csv");
+		Files.write(dataFile.toPath(), content);
+
+		server = new StandInServer();
+		server.handle("/api/models/1/etl/", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				String path = exchange.getRequestURI().getPath().substring("/api/models/1/etl".length());
+				String method = exchange.getRequestMethod();
+
+				if (method.equals("POST") && path.equals("/uploads")) {
+					StandInServer.readBody(exchange);
+					StandInServer.respondJson(exchange, 200, "{\"id\":\"u1\",\"chunksReceived\":[]}");
+				}
+				else if (method.equals("GET") && path.equals("/uploads/u1")) {
+					StringBuilder received = new StringBuilder();
+					for (Integer index : chunks.keySet()) {
+						received.append(received.length() == 0 ? "" : ",").append(index);
+					}
+					StandInServer.respondJson(exchange, 200, "{\"id\":\"u1\",\"chunksReceived\":[" + received + "]}");
+				}
+				else if (method.equals("PUT") && path.startsWith("/uploads/u1/chunks/")) {
+					int index = Integer.parseInt(path.substring("/uploads/u1/chunks/".length()));
+					chunkPuts.putIfAbsent(index, new AtomicInteger());
+					chunkPuts.get(index).incrementAndGet();
+					byte[] body = StandInServer.readBody(exchange);
+					if ("deflate".equals(exchange.getRequestHeaders().getFirst("Content-Encoding"))) {
+						body = inflate(body);
+					}
+					CRC32 crc = new CRC32();
+					crc.update(body);
+					if (rejectChunks.contains(index) || !Long.toHexString(crc.getValue()).equals(exchange.getRequestHeaders().getFirst("X-Chunk-Checksum"))) {
+						StandInServer.respondJson(exchange, 422, "{\"error\":\"checksum mismatch\"}");
+					} else if (failChunksOnce.remove(index)) {
+						StandInServer.respondJson(exchange, 503, "{}");
+					} else {
+						chunks.put(index, body);
+						StandInServer.respondJson(exchange, 200, "{}");
+					}
+				}
+				else if (method.equals("POST") && path.equals("/uploads/u1/complete")) {
+					completed = true;
+					StandInServer.respondJson(exchange, 200, "{}");
+				}
+				else if (method.equals("POST") && path.equals("/upload")) {
+					jobRequest = new String(StandInServer.readBody(exchange), "UTF-8");
+					StandInServer.respondJson(exchange, 200, "{\"id\":\"42\"}");
+				}
+				else {
+					StandInServer.respondJson(exchange, 404, "{}");
+				}
+			}
+		});
+	}
+
+	@After
+	public void stopServer() throws IOException {
+		server.close();
+		UploadJournal.file(dataFile).delete();
+		UploadJournal.directory().delete();
+		cacheDir.delete();
+		System.clearProperty(UploadCache.DIRECTORY_PROPERTY);
+		dataFile.delete();
+	}
+
+	private static byte[] inflate(byte[] body) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (InflaterInputStream in = new InflaterInputStream(new ByteArrayInputStream(body))) {
+			byte[] buf = new byte[4096];
+			int n;
+			while ((n = in.read(buf)) != -1) {
+				out.write(buf, 0, n);
+			}
+		}
+		return out.toByteArray();
+	}
+
+	private ETLClient createClient() {
+		ETLClient etlClient = server.createClient();
+		etlClient.modelId = new Id(1);
+		etlClient.resumableUploads = true;
+		etlClient.uploadChunkSize = CHUNK_SIZE;
+		return etlClient;
+	}
+
+	private ETLMetadataDTO createMetadata() {
+		ETLFileToCubeStepDTO step = new ETLFileToCubeStepDTO();
+		step.setDataType(DataType.intersections);
+		step.setFileName(dataFile.getPath());
+		step.setMimePart("file1");
+		ETLMetadataDTO metadata = new ETLMetadataDTO();
+		metadata.setModelId(new Id(1));
+		metadata.addStep(step);
+		return metadata;
+	}
+
+	private byte[] assembled() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for (int i = 0; i < chunks.size(); i++) {
+			out.write(chunks.get(i));
+		}
+		return out.toByteArray();
+	}
+
+	@Test
+	public void testUploadInChunks() throws IOException {
+		ETLMetadataDTO metadata = createMetadata();
+		assertEquals(new Id(42), createClient().uploadETL(metadata).getId());
+
+		assertTrue(completed);
+		assertArrayEquals(content, assembled());
+		assertTrue(jobRequest.contains("\"serverFileName\":\"u1\""));
+		assertTrue(jobRequest.contains("\"fileUploadSuccessful\":true"));
+		assertFalse(jobRequest.contains("name=\"file1\""));
+		assertFalse(UploadJournal.file(dataFile).exists());
+	}
+
+	@Test
+	public void testRetryTransientFailure() throws IOException {
+		failChunksOnce.add(1);
+
+		createClient().uploadETL(createMetadata());
+
+		assertEquals(2, chunkPuts.get(1).get());
+		assertArrayEquals(content, assembled());
+	}
+
+	@Test
+	public void testThrottledUpload() throws IOException {
+		ETLClient etlClient = createClient();
+		etlClient.maxUploadBytesPerSecond = RateLimiter.BYTES_PER_MB;
+
+		etlClient.uploadETL(createMetadata());
+
+		assertArrayEquals(content, assembled());
+		assertNotNull(jobRequest);
+	}
+
+	@Test
+	public void testResumeSkipsAcknowledgedChunks() throws IOException {
+		rejectChunks.add(3);
+		try {
+			createClient().uploadETL(createMetadata());
+			fail("Upload should have failed.");
+		} catch (ExitException e) {
+			assertEquals(1, e.status);
+		}
+		assertEquals(3, chunks.size());
+		assertTrue(UploadJournal.file(dataFile).exists());
+		assertFalse("The journal is kept in the cache directory, not beside the file.", new File(dataFile.getPath() + UploadJournal.SUFFIX).exists());
+		assertNull(jobRequest);
+
+		rejectChunks.clear();
+		createClient().uploadETL(createMetadata());
+
+		for (int i = 0; i < 3; i++) {
+			assertEquals("chunk " + i, 1, chunkPuts.get(i).get());
+		}
+		assertEquals(2, chunkPuts.get(3).get());
+		assertArrayEquals(content, assembled());
+		assertNotNull(jobRequest);
+	}
+}
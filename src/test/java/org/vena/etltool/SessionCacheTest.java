@@ -0,0 +1,89 @@
+package org.vena.etltool;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermissions;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.vena.etltool.entities.LoginResultDTO;
+
+public class SessionCacheTest {
+
+	File cacheFile;
+
+	@Before
+	public void setUp() throws IOException {
+		cacheFile = File.createTempFile("sessions", ".properties");
+		cacheFile.delete();
+	}
+
+	@After
+	public void tearDown() {
+		cacheFile.delete();
+	}
+
+	private static LoginResultDTO session(String apiKey) {
+		LoginResultDTO session = new LoginResultDTO();
+		session.setApiUser("1.2");
+		session.setApiKey(apiKey);
+		session.setLocation("ca3");
+		return session;
+	}
+
+	@Test
+	public void testKeptBetweenRuns() throws IOException {
+		SessionCache cache = new SessionCache(cacheFile, "vena.io", "user@unit.test", "secret");
+		assertNull(cache.get());
+		cache.put(session("key1"));
+		cache.save();
+
+		cache = new SessionCache(cacheFile, "vena.io", "user@unit.test", "secret");
+		assertEquals("1.2", cache.get().getApiUser());
+		assertEquals("key1", cache.get().getApiKey());
+		assertEquals("ca3", cache.get().getLocation());
+
+		assertNull(new SessionCache(cacheFile, "vena.io", "user@unit.test", "changed").get());
+		assertNull(new SessionCache(cacheFile, "eu1.vena.io", "user@unit.test", "secret").get());
+
+		String kept = new String(Files.readAllBytes(cacheFile.toPath()), "ISO-8859-1");
+		assertFalse(kept.contains("user@unit.test"));
+		assertFalse(kept.contains("secret"));
+
+		cache.remove();
+		assertNull(cache.get());
+	}
+
+	@Test
+	public void testChangedPasswordReplacesSession() throws IOException {
+		SessionCache cache = new SessionCache(cacheFile, "vena.io", "user@unit.test", "secret");
+		cache.put(session("key1"));
+		cache.save();
+
+		cache = new SessionCache(cacheFile, "vena.io", "user@unit.test", "changed");
+		assertNull(cache.get());
+		cache.put(session("key2"));
+		cache.save();
+		assertEquals("key2", new SessionCache(cacheFile, "vena.io", "user@unit.test", "changed").get().getApiKey());
+		assertNull(new SessionCache(cacheFile, "vena.io", "user@unit.test", "secret").get());
+
+		// One entry per user, whatever their password was.
+		String kept = new String(Files.readAllBytes(cacheFile.toPath()), "ISO-8859-1");
+		assertEquals(1, kept.split("\\|apiKey=", -1).length - 1);
+	}
+
+	@Test
+	public void testOwnerOnly() throws IOException {
+		Assume.assumeTrue(FileSystems.getDefault().supportedFileAttributeViews().contains("posix"));
+		SessionCache cache = new SessionCache(cacheFile, "vena.io", "user@unit.test", "secret");
+		cache.put(session("key1"));
+		cache.save();
+		assertEquals("rw-------", PosixFilePermissions.toString(Files.getPosixFilePermissions(cacheFile.toPath())));
+	}
+}
@@ -0,0 +1,83 @@
+package org.vena.etltool;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A local HTTP server standing in for the Vena API, so that client code can be tested offline.
+ */
+public class StandInServer implements Closeable {
+
+	private final HttpServer server;
+	private final ExecutorService executor = Executors.newCachedThreadPool();
+
+	public StandInServer() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.setExecutor(executor);
+		server.start();
+	}
+
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	public void handle(String path, HttpHandler handler) {
+		server.createContext(path, handler);
+	}
+
+	public ETLClient createClient() {
+		return createClient(new JerseyClientFactory());
+	}
+
+	public ETLClient createClient(JerseyClientFactory clientFactory) {
+		ETLClient etlClient = new ETLClient(clientFactory);
+		etlClient.host = "localhost";
+		etlClient.port = getPort();
+		etlClient.protocol = "http";
+		etlClient.apiUser = "1.1";
+		etlClient.apiKey = "standin";
+		return etlClient;
+	}
+
+	public static byte[] readBody(HttpExchange exchange) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (InputStream in = exchange.getRequestBody()) {
+			byte[] buf = new byte[8192];
+			int n;
+			while ((n = in.read(buf)) != -1) {
+				out.write(buf, 0, n);
+			}
+		}
+		return out.toByteArray();
+	}
+
+	public static void respond(HttpExchange exchange, int status, String contentType, byte[] body) throws IOException {
+		if (contentType != null) {
+			exchange.getResponseHeaders().set("Content-Type", contentType);
+		}
+		exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(body);
+		}
+	}
+
+	public static void respondJson(HttpExchange exchange, int status, String json) throws IOException {
+		respond(exchange, status, "application/json", json.getBytes("UTF-8"));
+	}
+
+	@Override
+	public void close() {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+}
@@ -0,0 +1,63 @@
+package org.vena.etltool;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+public class StreamSourceTest {
+
+	private static String readFully(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buf = new byte[8192];
+		int n;
+		while ((n = in.read(buf)) != -1) {
+			out.write(buf, 0, n);
+		}
+		in.close();
+		return new String(out.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	@Test
+	public void testCommandOutput() throws IOException {
+		assertTrue(StreamSource.isStream(null, "echo A,1", null));
+		assertEquals("A,1", readFully(StreamSource.open(null, "echo A,1")).trim());
+	}
+
+	@Test
+	public void testFailedCommand() throws IOException {
+		try {
+			readFully(StreamSource.open(null, "echo A,1 && exit 3"));
+		} catch (StreamSource.CommandFailedException e) {
+			assertEquals("The command \"echo A,1 && exit 3\" failed with exit status 3.", e.getMessage());
+			return;
+		}
+		fail("The failed command was not reported.");
+	}
+
+	@Test
+	public void testNamedPipe() throws IOException, InterruptedException {
+		File pipe = new File(System.getProperty("java.io.tmpdir"), "etl-pipe-" + System.nanoTime());
+		Process mkfifo;
+		try {
+			mkfifo = new ProcessBuilder("mkfifo", pipe.getPath()).start();
+		} catch (IOException e) {
+			Assume.assumeNoException(e);
+			return;
+		}
+		Assume.assumeTrue(mkfifo.waitFor() == 0);
+		try {
+			assertTrue(StreamSource.isStream(pipe.getPath(), null, null));
+			assertTrue(StreamSource.isStream(StreamSource.STANDARD_INPUT, null, null));
+			assertFalse(StreamSource.isStream(pipe.getParent(), null, null));
+		} finally {
+			pipe.delete();
+		}
+	}
+}
@@ -0,0 +1,128 @@
+package org.vena.etltool;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.vena.etltool.entities.ETLFileToCubeStepDTO;
+import org.vena.etltool.entities.ETLFileToVenaTableStepDTO;
+import org.vena.etltool.entities.ETLJobDTO;
+import org.vena.etltool.entities.ETLStepDTO.DataType;
+import org.vena.etltool.entities.ETLStepDTO.Status;
+import org.vena.etltool.entities.Id;
+
+public class UploadCacheTest {
+
+	File cacheFile;
+	File dataFile;
+	ETLClient etlClient;
+
+	@Before
+	public void setUp() throws IOException {
+		cacheFile = File.createTempFile("uploads", ".properties");
+		cacheFile.delete();
+		dataFile = File.createTempFile("hierarchy", ".csv");
+		Files.write(dataFile.toPath(), "_dim,_member_name\nColor,Red\n".getBytes(StandardCharsets.UTF_8));
+		etlClient = mock(ETLClient.class);
+	}
+
+	@After
+	public void tearDown() {
+		cacheFile.delete();
+		dataFile.delete();
+	}
+
+	private ETLFileToCubeStepDTO step() {
+		ETLFileToCubeStepDTO step = new ETLFileToCubeStepDTO();
+		step.setDataType(DataType.hierarchy);
+		step.setFileName(dataFile.getPath());
+		return step;
+	}
+
+	@Test
+	public void testHash() throws IOException {
+		UploadCache cache = new UploadCache(cacheFile);
+		String hash = cache.hash(dataFile);
+		assertEquals(64, hash.length());
+
+		// The hash is kept while the file's size and modification time stay the same.
+		long modified = dataFile.lastModified();
+		Files.write(dataFile.toPath(), "_dim,_member_name\nColor,Tan\n".getBytes(StandardCharsets.UTF_8));
+		dataFile.setLastModified(modified);
+		assertEquals(hash, cache.hash(dataFile));
+
+		dataFile.setLastModified(modified + 2000);
+		assertNotEquals(hash, cache.hash(dataFile));
+	}
+
+	@Test
+	public void testCompletedLoadIsUnchanged() throws IOException {
+		UploadCache cache = new UploadCache(cacheFile);
+		cache.submitted(new Id(1), step(), new Id(42));
+		cache.confirm("42");
+		cache.save();
+
+		cache = new UploadCache(cacheFile);
+		assertTrue(cache.isUnchanged(new Id(1), step(), etlClient));
+		assertFalse(cache.isUnchanged(new Id(2), step(), etlClient));
+		ETLFileToVenaTableStepDTO tableStep = new ETLFileToVenaTableStepDTO();
+		tableStep.setDataType(DataType.hierarchy);
+		tableStep.setFileName(dataFile.getPath());
+		assertFalse(cache.isUnchanged(new Id(1), tableStep, etlClient));
+
+		// Touching the file without changing it is fine.
+		dataFile.setLastModified(dataFile.lastModified() + 2000);
+		assertTrue(cache.isUnchanged(new Id(1), step(), etlClient));
+
+		Files.write(dataFile.toPath(), "_dim,_member_name\nColor,Blue\n".getBytes(StandardCharsets.UTF_8));
+		assertFalse(cache.isUnchanged(new Id(1), step(), etlClient));
+		verifyZeroInteractions(etlClient);
+	}
+
+	@Test
+	public void testSubmittedLoadIsCheckedWithServer() throws IOException {
+		UploadCache cache = new UploadCache(cacheFile);
+		cache.submitted(new Id(1), step(), new Id(42));
+
+		ETLJobDTO job = new ETLJobDTO();
+		job.setStatus(Status.RUNNING);
+		when(etlClient.tryRequestJobStatus("42")).thenReturn(job);
+		assertFalse(cache.isUnchanged(new Id(1), step(), etlClient));
+
+		job.setStatus(Status.COMPLETED);
+		assertTrue(cache.isUnchanged(new Id(1), step(), etlClient));
+		assertTrue(cache.isUnchanged(new Id(1), step(), etlClient));
+		verify(etlClient, times(2)).tryRequestJobStatus("42");
+	}
+
+	@Test
+	public void testReducedCopyGoesBySource() throws IOException {
+		ETLFileToCubeStepDTO step = step();
+		step.setSourceFileName("/data/hierarchy.csv");
+		UploadCache cache = new UploadCache(cacheFile);
+		cache.submitted(new Id(1), step, new Id(42));
+		cache.confirm("42");
+
+		// The next run's copy is a new file with the same rows.
+		File copy = File.createTempFile("reduced-", ".csv");
+		try {
+			Files.copy(dataFile.toPath(), copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			ETLFileToCubeStepDTO next = step();
+			next.setFileName(copy.getPath());
+			next.setSourceFileName("/data/hierarchy.csv");
+			assertTrue(cache.isUnchanged(new Id(1), next, etlClient));
+			next.setSourceFileName("/data/other.csv");
+			assertFalse(cache.isUnchanged(new Id(1), next, etlClient));
+		} finally {
+			copy.delete();
+		}
+	}
+}
@@ -0,0 +1,67 @@
+package org.vena.etltool;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import org.junit.Test;
+
+public class UploadPartSpoolerTest {
+
+	private static byte[] readFully(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buf = new byte[4096];
+		int n;
+		while ((n = in.read(buf)) != -1) {
+			out.write(buf, 0, n);
+		}
+		in.close();
+		return out.toByteArray();
+	}
+
+	@Test
+	public void testPartsKeepTheirContent() throws IOException {
+		List<InputStream> parts = new ArrayList<>();
+
+		try (UploadPartSpooler spooler = new UploadPartSpooler(3)) {
+			for (int i = 0; i < 8; i++) {
+				final byte[] content = ("part " + i + "\n").getBytes("UTF-8");
+				parts.add(spooler.spool("file" + i, new Callable<InputStream>() {
+					@Override
+					public InputStream call() {
+						return new ByteArrayInputStream(content);
+					}
+				}));
+			}
+
+			for (int i = 0; i < parts.size(); i++) {
+				assertEquals("part " + i + "\n", new String(readFully(parts.get(i)), "UTF-8"));
+			}
+		}
+	}
+
+	@Test
+	public void testFailedPartIsReportedOnRead() throws IOException {
+		try (UploadPartSpooler spooler = new UploadPartSpooler(2)) {
+			InputStream part = spooler.spool("missing", new Callable<InputStream>() {
+				@Override
+				public InputStream call() throws IOException {
+					throw new IOException("missing.csv (No such file or directory)");
+				}
+			});
+
+			try {
+				part.read();
+				fail("Expected the spooling failure to be reported.");
+			} catch (IOException e) {
+				assertEquals("missing.csv (No such file or directory)", e.getMessage());
+			}
+		}
+	}
+}
@@ -0,0 +1,98 @@
+package org.vena.etltool.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.vena.etltool.entities.ETLFileToCubeStepDTO;
+import org.vena.etltool.entities.ETLJobDTO;
+import org.vena.etltool.entities.ETLJobDTO.Phase;
+import org.vena.etltool.entities.ETLMetadataDTO;
+import org.vena.etltool.entities.ETLStepDTO.DataType;
+import org.vena.etltool.entities.Id;
+import org.vena.etltool.util.JsonReaders;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Compares reading a job status response the old way (buffer the body as a String, then
+ * parse it with a new ObjectMapper) against the shared readers in {@link JsonReaders}.
+ *
+ * Run with:
+ * mvn test-compile exec:exec -Dexec.classpathScope=test -Dexec.executable=java "-Dexec.args=-cp %classpath org.vena.etltool.benchmarks.EntityReadBenchmark"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EntityReadBenchmark {
+
+	@Param({ "10", "500" })
+	int steps;
+
+	byte[] body;
+
+	@Setup
+	public void setUp() throws IOException {
+		ETLMetadataDTO metadata = new ETLMetadataDTO();
+		metadata.setName("Nightly load");
+		metadata.setModelId(Id.valueOf("98765432109876543"));
+		for (int i = 0; i < steps; i++) {
+			ETLFileToCubeStepDTO step = new ETLFileToCubeStepDTO();
+			step.setDataType(DataType.intersections);
+			step.setFileName("intersections-" + i + ".csv");
+			step.setMimePart("file" + i);
+			step.setServerFileName("/var/etl/upload/" + i + ".csv");
+			step.setPercentDone(i < steps / 2 ? 100 : 0);
+			step.setLinesProcessed(i * 10000);
+			step.setBytesProcessed(i * 1000000L);
+			step.setBytesTotal(steps * 1000000L);
+			metadata.addStep(step);
+		}
+
+		ETLJobDTO etlJob = new ETLJobDTO();
+		etlJob.setId(Id.valueOf("12345678901234567"));
+		etlJob.setPhase(Phase.LOAD_TO_CUBE);
+		etlJob.setCreatedDate(new Date());
+		etlJob.setUpdatedDate(new Date());
+		etlJob.setMetadata(metadata);
+
+		body = new ObjectMapper().writeValueAsBytes(etlJob);
+	}
+
+	@Benchmark
+	public ETLJobDTO stringWithNewMapper() throws IOException {
+		String rawJSONOutput = new String(body, StandardCharsets.UTF_8);
+		ObjectMapper objectMapper = new ObjectMapper();
+		objectMapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+		return objectMapper.readValue(rawJSONOutput, ETLJobDTO.class);
+	}
+
+	@Benchmark
+	public ETLJobDTO streamWithSharedReader() throws IOException {
+		return JsonReaders.forType(ETLJobDTO.class).readValue(new ByteArrayInputStream(body));
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder().include(EntityReadBenchmark.class.getSimpleName()).build()).run();
+	}
+}
@@ -34,4 +34,30 @@ public class ETLToolAuthenticationTest extends ETLToolTest {
 			assertEquals("Error: You must specify either --username/--password or --apiUser/--apiKey to authenticate with the server, but not both.", err.toString().trim());
 		}
 	}
+
+	@Test
+	public void testSessionCache() throws UnsupportedEncodingException {
+		ETLClient etlClient = mockETLClient();
+		String[] args = buildCommand(new String[] {"--sessionCache"});
+		try {
+			Main.buildETLMetadata(args, etlClient);
+		} catch (ExitException e) {
+			assertEquals(1, e.status);
+			assertEquals("Error: You must specify at least one --file option when submitting a job.", err.toString().trim());
+			assertTrue(etlClient.sessionCache);
+		}
+	}
+
+	@Test
+	public void testHedgeLoginWithApiKeyError() throws UnsupportedEncodingException {
+		ETLClient etlClient = mockETLClient();
+		String[] args = new String[] {"--host", "example.com", "--apiUser", "user", "--apiKey", "key", "--hedgeLogin", "--modelId", "1"};
+		try {
+			Main.buildETLMetadata(args, etlClient);
+			fail();
+		} catch (ExitException e) {
+			assertEquals(1, e.status);
+			assertEquals("Error: --hedgeLogin is only available with --username/--password.", err.toString().trim());
+		}
+	}
 }
@@ -0,0 +1,140 @@
+package org.vena.etltool.tests;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.vena.etltool.ETLClient;
+import org.vena.etltool.Main;
+import org.vena.etltool.entities.ETLJobDTO;
+import org.vena.etltool.entities.ETLJobDTO.Phase;
+import org.vena.etltool.entities.ETLMetadataDTO;
+import org.vena.etltool.entities.Id;
+
+public class ETLToolBatchTest extends ETLToolTest {
+
+	private static String writeManifest(String... lines) throws IOException {
+		File manifest = File.createTempFile("batch", ".txt");
+		manifest.deleteOnExit();
+		Files.write(manifest.toPath(), Arrays.asList(lines), StandardCharsets.UTF_8);
+		return manifest.getPath();
+	}
+
+	private static ETLJobDTO job(String id, Phase phase) {
+		ETLJobDTO etlJob = new ETLJobDTO();
+		etlJob.setId(Id.valueOf(id));
+		etlJob.setPhase(phase);
+		etlJob.setMetadata(new ETLMetadataDTO());
+		return etlJob;
+	}
+
+	@Test
+	public void testBatch() throws IOException {
+		ETLClient etlClient = mockETLClient();
+		when(etlClient.trySubmitETL(any(ETLMetadataDTO.class))).thenReturn(job("101", Phase.NOT_STARTED), job("102", Phase.NOT_STARTED));
+		when(etlClient.tryRequestJobStatus(anyString())).thenReturn(job("101", Phase.COMPLETE));
+
+		String manifest = writeManifest(
+				"# Nightly loads",
+				"--file \"intersections.csv;intersections\" --jobName \"Load 1\"",
+				"",
+				"--file intersections.csv;intersections --jobName 'Load 2' --noqueue");
+		String[] args = buildCommand(new String[] {"--batch", manifest, "--queue"});
+
+		try {
+			Main.buildETLMetadata(args, etlClient);
+		} catch (ExitException e) {
+			assertEquals(0, e.status);
+			ArgumentCaptor<ETLMetadataDTO> submitted = ArgumentCaptor.forClass(ETLMetadataDTO.class);
+			verify(etlClient, times(2)).trySubmitETL(submitted.capture());
+			assertEquals("Load 1", submitted.getAllValues().get(0).getName());
+			assertEquals(Boolean.TRUE, submitted.getAllValues().get(0).getQueuingEnabled());
+			assertEquals("Load 2", submitted.getAllValues().get(1).getName());
+			assertEquals(Boolean.FALSE, submitted.getAllValues().get(1).getQueuingEnabled());
+			// Only the results go to standard output.
+			String[] results = out.toString().trim().split("\r?\n");
+			assertEquals(2, results.length);
+			assertTrue(results[0].startsWith("{\"line\":2,\"jobName\":\"Load 1\""));
+			assertTrue(results[1].startsWith("{\"line\":4,\"jobName\":\"Load 2\""));
+			assertTrue(err.toString().contains("2 job(s) finished, 0 failed."));
+			return;
+		}
+		fail("Did not exit.");
+	}
+
+	@Test
+	public void testBatchLineCannotLogIn() throws IOException {
+		ETLClient etlClient = mockETLClient();
+		String manifest = writeManifest("--file intersections.csv;intersections --apiUser 1.2 --apiKey abc");
+		String[] args = buildCommand(new String[] {"--batch", manifest});
+
+		try {
+			Main.buildETLMetadata(args, etlClient);
+		} catch (ExitException e) {
+			assertEquals(1, e.status);
+			assertTrue(err.toString().contains("Line 1 of " + manifest + ": --apiUser cannot be used in a batch manifest."));
+			verify(etlClient, never()).trySubmitETL(any(ETLMetadataDTO.class));
+			return;
+		}
+		fail("Did not exit.");
+	}
+
+	@Test
+	public void testMaxInFlightMustBePositive() throws IOException {
+		ETLClient etlClient = mockETLClient();
+		String manifest = writeManifest("--file intersections.csv;intersections");
+		String[] args = buildCommand(new String[] {"--batch", manifest, "--maxInFlight", "0"});
+
+		try {
+			Main.buildETLMetadata(args, etlClient);
+		} catch (ExitException e) {
+			assertEquals(1, e.status);
+			assertTrue(err.toString().contains("Error: --maxInFlight must be a positive number."));
+			return;
+		}
+		fail("Did not exit.");
+	}
+
+	@Test
+	public void testBatchCannotSkipUnchanged() throws IOException {
+		ETLClient etlClient = mockETLClient();
+		String manifest = writeManifest("--file intersections.csv;intersections");
+		String[] args = buildCommand(new String[] {"--batch", manifest, "--skipUnchanged"});
+
+		try {
+			Main.buildETLMetadata(args, etlClient);
+		} catch (ExitException e) {
+			assertEquals(1, e.status);
+			assertTrue(err.toString().contains("Error: --skipUnchanged cannot be used with --batch."));
+			verify(etlClient, never()).trySubmitETL(any(ETLMetadataDTO.class));
+			return;
+		}
+		fail("Did not exit.");
+	}
+
+	@Test
+	public void testBatchLineCannotUseDelta() throws IOException {
+		ETLClient etlClient = mockETLClient();
+		String manifest = writeManifest("--file intersections.csv;intersections", "--file intersections.csv;type=intersections;delta=true");
+		String[] args = buildCommand(new String[] {"--batch", manifest});
+
+		try {
+			Main.buildETLMetadata(args, etlClient);
+		} catch (ExitException e) {
+			assertEquals(1, e.status);
+			assertTrue(err.toString().contains("Error: Line 2 of " + manifest + ": the --file option delta cannot be used in a batch manifest."));
+			verify(etlClient, never()).trySubmitETL(any(ETLMetadataDTO.class));
+			return;
+		}
+		fail("Did not exit.");
+	}
+}
@@ -0,0 +1,64 @@
+package org.vena.etltool.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.UnsupportedEncodingException;
+
+import org.junit.Test;
+import org.vena.etltool.ETLClient;
+import org.vena.etltool.Main;
+
+public class ETLToolCompressionTest extends ETLToolTest {
+
+	@Test
+	public void testCompressionLevel() throws UnsupportedEncodingException {
+		ETLClient etlClient = mockETLClient();
+		String[] args = buildCommand(new String[] {"--compressionLevel", "1", "--file", "intersections.csv;intersections"});
+
+		Main.buildETLMetadata(args, etlClient);
+
+		assertEquals(1, etlClient.compressionLevel);
+	}
+
+	@Test
+	public void testNoCompress() throws UnsupportedEncodingException {
+		ETLClient etlClient = mockETLClient();
+		etlClient.compressUploads = true;
+		String[] args = buildCommand(new String[] {"--nocompress", "--file", "intersections.csv;intersections"});
+
+		Main.buildETLMetadata(args, etlClient);
+
+		assertEquals(false, etlClient.compressUploads);
+	}
+
+	@Test
+	public void testInvalidCompressionLevel() throws UnsupportedEncodingException {
+		ETLClient etlClient = mockETLClient();
+		String[] args = buildCommand(new String[] {"--compressionLevel", "11", "--file", "intersections.csv;intersections"});
+
+		try {
+			Main.buildETLMetadata(args, etlClient);
+		} catch (ExitException e) {
+			assertEquals(1, e.status);
+			assertEquals("Error: --compressionLevel must be a number from 0 to 9.", err.toString().trim());
+			return;
+		}
+		fail("Did not exit.");
+	}
+
+	@Test
+	public void testErrBothOptions() throws UnsupportedEncodingException {
+		ETLClient etlClient = mockETLClient();
+		String[] args = buildCommand(new String[] {"--compressionLevel", "1", "--nocompress", "--file", "intersections.csv;intersections"});
+
+		try {
+			Main.buildETLMetadata(args, etlClient);
+		} catch (ExitException e) {
+			assertEquals(1, e.status);
+			assertEquals("Error: --compressionLevel and --nocompress options cannot be combined.", err.toString().trim());
+			return;
+		}
+		fail("Did not exit.");
+	}
+}
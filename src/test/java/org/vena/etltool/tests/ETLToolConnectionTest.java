@@ -0,0 +1,65 @@
+package org.vena.etltool.tests;
+
+import static org.junit.Assert.*;
+
+import java.io.UnsupportedEncodingException;
+
+import org.junit.Test;
+import org.vena.etltool.ETLClient;
+import org.vena.etltool.Main;
+
+public class ETLToolConnectionTest extends ETLToolTest {
+
+	@Test
+	public void testConnectionOptions() throws UnsupportedEncodingException {
+		ETLClient etlClient = mockETLClient();
+		String[] args = buildCommand(new String[] {"--maxConnections", "3", "--connectTimeout", "5", "--readTimeout", "120", "--file", "intersections.csv;intersections"});
+
+		Main.buildETLMetadata(args, etlClient);
+
+		assertEquals(3, etlClient.maxConnectionsPerRoute);
+		assertEquals(5, etlClient.connectTimeoutSeconds);
+		assertEquals(120, etlClient.readTimeoutSeconds);
+	}
+
+	@Test
+	public void testNoPooling() throws UnsupportedEncodingException {
+		ETLClient etlClient = mockETLClient();
+		etlClient.pooledConnections = true;
+		String[] args = buildCommand(new String[] {"--noPooling", "--file", "intersections.csv;intersections"});
+
+		Main.buildETLMetadata(args, etlClient);
+
+		assertFalse(etlClient.pooledConnections);
+	}
+
+	@Test
+	public void testNoPoolingWithMaxConnections() throws UnsupportedEncodingException {
+		ETLClient etlClient = mockETLClient();
+		String[] args = buildCommand(new String[] {"--noPooling", "--maxConnections", "3", "--file", "intersections.csv;intersections"});
+
+		try {
+			Main.buildETLMetadata(args, etlClient);
+		} catch (ExitException e) {
+			assertEquals(1, e.status);
+			assertEquals("Error: --maxConnections and --noPooling options cannot be combined.", err.toString().trim());
+			return;
+		}
+		fail("Did not exit.");
+	}
+
+	@Test
+	public void testInvalidTimeout() throws UnsupportedEncodingException {
+		ETLClient etlClient = mockETLClient();
+		String[] args = buildCommand(new String[] {"--readTimeout", "-1", "--file", "intersections.csv;intersections"});
+
+		try {
+			Main.buildETLMetadata(args, etlClient);
+		} catch (ExitException e) {
+			assertEquals(1, e.status);
+			assertEquals("Error: --readTimeout must be a number of seconds, or 0 for no timeout.", err.toString().trim());
+			return;
+		}
+		fail("Did not exit.");
+	}
+}
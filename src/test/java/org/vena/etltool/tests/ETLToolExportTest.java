@@ -1,13 +1,16 @@
 package org.vena.etltool.tests;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.fail;
 import static org.mockito.Mockito.*;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.Arrays;
@@ -103,6 +106,26 @@ public class ETLToolExportTest extends ETLToolTest {
 		verify(etlClient).sendExport(DataType.user_defined, "out_values", null, null, null, true, FileFormat.CSV);
 	}
 
+	@Test
+	public void testExportToGzipFile() throws IOException {
+		InputStream compressed = new ByteArrayInputStream(new byte[] {0x1f, (byte) 0x8b});
+		when(etlClient.sendExport(DataType.intersections, null, null, null, null, true, FileFormat.CSV, true)).thenReturn(compressed);
+
+		File file = File.createTempFile("exportIntersectionsDestination", ".csv.gz");
+		file.deleteOnExit();
+		String[] args = buildExportToFileCommand(new String[] {"--export","intersections"}, file);
+
+		try {
+			Main.buildETLMetadata(args, etlClient);
+		} catch (ExitException e) {
+			assertEquals(0, e.status);
+			verify(etlClient, never()).sendExport(any(DataType.class), any(String.class), any(String.class), any(String.class), any(String.class), anyBoolean(), any(FileFormat.class));
+			assertArrayEquals(new byte[] {0x1f, (byte) 0x8b}, Files.readAllBytes(file.toPath()));
+			return;
+		}
+		fail("Did not exit.");
+	}
+
 	@Test
 	public void testExportToTable() throws UnsupportedEncodingException {
 		String[] args = buildCommand(new String[] {"--jobName","Stage to cube job","--export","intersections","--exportToTable", "export_table","--exportQuery","dimension('Accounts':'Sale')"});
@@ -230,4 +253,40 @@ public class ETLToolExportTest extends ETLToolTest {
 			assertEquals("Error: --exportToTable and --exportToFile options cannot be combined.", err.toString().trim());
 		}
 	}
+
+	@Test
+	public void testExportPartitionsToFile() throws IOException {
+		when(etlClient.requestExport(DataType.intersections, null, null, null, "dimension('Year':'2019')", true, FileFormat.CSV, false))
+			.thenReturn(new ByteArrayInputStream("Year,Value\n2019,1\n".getBytes(StandardCharsets.UTF_8)));
+		when(etlClient.requestExport(DataType.intersections, null, null, null, "dimension('Year':'2020')", false, FileFormat.CSV, false))
+			.thenReturn(new ByteArrayInputStream("2020,2\n".getBytes(StandardCharsets.UTF_8)));
+
+		File file = File.createTempFile("exportIntersectionsDestination", ".csv");
+		file.deleteOnExit();
+		String[] args = buildExportToFileCommand(new String[] {"--export", "intersections",
+				"--exportPartition", "dimension('Year':'2019')", "--exportPartition", "dimension('Year':'2020')", "--exportThreads", "2"}, file);
+
+		try {
+			Main.buildETLMetadata(args, etlClient);
+		} catch (ExitException e) {
+			assertEquals(0, e.status);
+			assertEquals(Arrays.asList("Year,Value", "2019,1", "2020,2"), Files.readAllLines(file.toPath(), StandardCharsets.UTF_8));
+			return;
+		}
+		fail("Did not exit.");
+	}
+
+	@Test
+	public void testExportPartitionRequiresFile() throws UnsupportedEncodingException {
+		String[] args = buildCommand(new String[] {"--export","intersections","--exportToTable", "values_table", "--exportPartition", "dimension('Year':'2019')"});
+
+		try {
+			Main.buildETLMetadata(args, etlClient);
+		} catch (ExitException e) {
+			assertEquals(1, e.status);
+			assertEquals("Error: --exportPartition can only be used with --exportToFile.", err.toString().trim());
+			return;
+		}
+		fail("Did not exit.");
+	}
 }
@@ -1,13 +1,27 @@
 package org.vena.etltool.tests;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import java.io.File;
+import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.List;
 
 import org.junit.Test;
 import org.vena.etltool.ETLClient;
 import org.vena.etltool.Main;
+import org.vena.etltool.entities.ETLFileImportStepDTO;
 import org.vena.etltool.entities.ETLFileImportStepDTO.FileFormat;
 import org.vena.etltool.entities.ETLFileOldDTO;
 import org.vena.etltool.entities.ETLFileToCubeStepDTO;
@@ -73,4 +87,223 @@ public class ETLToolFileToCubeTest extends ETLToolTest {
 			assertTrue(err.toString().contains(expectedError));
 		}
 	}
-}
\ No newline at end of file
+
+	@Test
+	public void testFileToCubeSplit() throws IOException {
+		ETLClient etlClient = mockETLClient();
+		File file = File.createTempFile("intersections", ".csv");
+		file.deleteOnExit();
+		Files.write(file.toPath(), "_dim1_member,_value\nA,1\nB,2\nC,3\n".getBytes(StandardCharsets.UTF_8));
+		String[] args = buildCommand(new String[] {"--file", file.getPath() + ";type=intersections;split=2rows;clearSlices=dimension('Year':'2019')"});
+
+		ETLMetadataDTO metadata = Main.buildETLMetadata(args, etlClient);
+
+		List<ETLFileImportStepDTO> steps = metadata.getAllFileSteps();
+		assertEquals(2, steps.size());
+		ETLFileToCubeStepDTO first = (ETLFileToCubeStepDTO) steps.get(0);
+		ETLFileToCubeStepDTO second = (ETLFileToCubeStepDTO) steps.get(1);
+		assertEquals(file.getPath(), second.getFileName());
+		assertNotEquals(first.getMimePart(), second.getMimePart());
+		assertEquals(Arrays.asList("dimension('Year':'2019')"), first.getClearSlicesExpressions());
+		assertNull(second.getClearSlicesExpressions());
+		assertEquals(0, first.getPartOffset());
+		assertEquals(0, first.getPartHeaderLength());
+		assertEquals(28, second.getPartOffset());
+		assertEquals(20, second.getPartHeaderLength());
+	}
+
+	@Test
+	public void testFileToCubeInvalidSplit() throws UnsupportedEncodingException {
+		ETLClient etlClient = mockETLClient();
+		String[] args = buildCommand(new String[] {"--file", "intersectionsFile.csv;type=intersections;split=1000"});
+
+		try {
+			Main.buildETLMetadata(args, etlClient);
+		} catch (ExitException e) {
+			assertEquals(1, e.status);
+			assertTrue(err.toString().contains("split must be a size such as 512MB or a number of rows such as 1000000rows."));
+			return;
+		}
+		fail("Did not exit.");
+	}
+
+	@Test
+	public void testSplitWithStage() throws UnsupportedEncodingException {
+		ETLClient etlClient = mockETLClient();
+		String[] args = buildCommand(new String[] {"--file", "intersectionsFile.csv;type=intersections;split=1GB", "--stage"});
+
+		try {
+			Main.buildETLMetadata(args, etlClient);
+		} catch (ExitException e) {
+			assertEquals(1, e.status);
+			assertEquals("Error: the --file option split is only available for ETL File to Cube and File to Vena Table imports.", err.toString().trim());
+			return;
+		}
+		fail("Did not exit.");
+	}
+
+	@Test
+	public void testFileToCubeDelta() throws IOException {
+		File cacheDir = Files.createTempDirectory("vena-etl").toFile();
+		System.setProperty("vena.etl.cacheDir", cacheDir.getPath());
+		File file = File.createTempFile("intersections", ".csv");
+		file.deleteOnExit();
+		try {
+			Files.write(file.toPath(), "_dim1_member,_value\nA,1\nB,2\n".getBytes(StandardCharsets.UTF_8));
+			String[] args = buildCommand(new String[] {"--file", file.getPath() + ";type=intersections;delta=true"});
+			ETLClient etlClient = mockETLClient();
+
+			ETLMetadataDTO metadata = Main.buildETLMetadata(args, etlClient);
+			assertEquals(file.getPath(), metadata.getAllFileSteps().get(0).getFileName());
+			assertTrue(out.toString().contains("not loaded before, so all 2 rows are sent."));
+			// Stands in for the job that loaded the file completing.
+			for (File snapshot : new File(cacheDir, "snapshots").listFiles()) {
+				if (snapshot.getName().endsWith(".snapshot.new")) {
+					Files.move(snapshot.toPath(), new File(snapshot.getParentFile(), snapshot.getName().replace(".snapshot.new", ".snapshot")).toPath());
+				}
+			}
+
+			Files.write(file.toPath(), "_dim1_member,_value\nA,1\nB,3\n".getBytes(StandardCharsets.UTF_8));
+			metadata = Main.buildETLMetadata(args, etlClient);
+			File delta = new File(metadata.getAllFileSteps().get(0).getFileName());
+			assertEquals("_dim1_member,_value\r\nB,3\r\n", new String(Files.readAllBytes(delta.toPath()), StandardCharsets.UTF_8));
+			assertTrue(out.toString().contains("1 of 2 rows changed, 0 removed."));
+		} finally {
+			System.clearProperty("vena.etl.cacheDir");
+			for (File snapshot : new File(cacheDir, "snapshots").listFiles()) {
+				snapshot.delete();
+			}
+			new File(cacheDir, "snapshots").delete();
+			cacheDir.delete();
+		}
+	}
+
+	@Test
+	public void testFileToCubeAggregate() throws IOException {
+		File cacheDir = Files.createTempDirectory("vena-etl").toFile();
+		System.setProperty("vena.etl.cacheDir", cacheDir.getPath());
+		File file = File.createTempFile("intersections", ".csv");
+		file.deleteOnExit();
+		try {
+			Files.write(file.toPath(), "_dim1_member,_value\nA,1\nB,0\nA,2.5\nC,4\n".getBytes(StandardCharsets.UTF_8));
+			String[] args = buildCommand(new String[] {"--file", file.getPath() + ";type=intersections;aggregate=true;dropZeros=true"});
+			ETLClient etlClient = mockETLClient();
+
+			ETLMetadataDTO metadata = Main.buildETLMetadata(args, etlClient);
+			File reduced = new File(metadata.getAllFileSteps().get(0).getFileName());
+			assertEquals("_dim1_member,_value\r\nA,3.5\r\nC,4\r\n", new String(Files.readAllBytes(reduced.toPath()), StandardCharsets.UTF_8));
+			assertTrue(out.toString().contains("Aggregating " + file.getPath() + "... 4 rows in, 2 rows out (1 added to rows with the same members, 1 zeros left out)."));
+
+			// Each run reduces into a file of its own, which goes by the file it was made from.
+			assertEquals(file.getCanonicalPath(), metadata.getAllFileSteps().get(0).getSourceFileName());
+			File again = new File(Main.buildETLMetadata(args, etlClient).getAllFileSteps().get(0).getFileName());
+			assertNotEquals(reduced, again);
+			assertTrue(reduced.isFile());
+		} finally {
+			System.clearProperty("vena.etl.cacheDir");
+			for (File reduced : new File(cacheDir, "reduced").listFiles()) {
+				reduced.delete();
+			}
+			new File(cacheDir, "reduced").delete();
+			cacheDir.delete();
+		}
+	}
+
+	@Test
+	public void testDeltaOfLids() throws UnsupportedEncodingException {
+		ETLClient etlClient = mockETLClient();
+		String[] args = buildCommand(new String[] {"--file", "lidsFile.csv;type=lids;delta=true"});
+
+		try {
+			Main.buildETLMetadata(args, etlClient);
+		} catch (ExitException e) {
+			assertEquals(1, e.status);
+			assertEquals("Error: the --file option delta is only available for intersections files in ETL File to Cube imports.", err.toString().trim());
+			return;
+		}
+		fail("Did not exit.");
+	}
+
+	@Test
+	public void testFileToCubeTranscode() throws IOException {
+		ETLClient etlClient = mockETLClient();
+		File file = File.createTempFile("intersections", ".csv");
+		file.deleteOnExit();
+		Files.write(file.toPath(), "_dim1_member,_value\nCaf\u00e9,1\n".getBytes("windows-1252"));
+		String[] args = buildCommand(new String[] {"--file", file.getPath() + ";type=intersections;transcode=true"});
+
+		ETLMetadataDTO metadata = Main.buildETLMetadata(args, etlClient);
+
+		ETLFileImportStepDTO step = metadata.getAllFileSteps().get(0);
+		assertEquals("UTF-8", step.getFileEncoding());
+		assertEquals("windows-1252", step.getSourceEncoding());
+		assertTrue(out.toString().contains("Converting " + file.getPath() + " from windows-1252 to UTF-8 as it is uploaded."));
+	}
+
+	@Test
+	public void testFileToCubeFromCommand() throws UnsupportedEncodingException {
+		ETLClient etlClient = mockETLClient();
+		String[] args = buildCommand(new String[] {"--file", "cmd=./extract.sh intersections;type=intersections"});
+
+		ETLMetadataDTO metadata = Main.buildETLMetadata(args, etlClient);
+
+		ETLFileImportStepDTO step = metadata.getAllFileSteps().get(0);
+		assertEquals("./extract.sh intersections", step.getSourceCommand());
+		assertEquals("-", step.getFileName());
+	}
+
+	@Test
+	public void testSplitStandardInput() throws UnsupportedEncodingException {
+		ETLClient etlClient = mockETLClient();
+		String[] args = buildCommand(new String[] {"--file", "-;type=intersections;split=1000rows"});
+
+		try {
+			Main.buildETLMetadata(args, etlClient);
+		} catch (ExitException e) {
+			assertEquals(1, e.status);
+			assertEquals("Error: the --file options split and delta cannot be used with standard input, since it can only be read once.", err.toString().trim());
+			return;
+		}
+		fail("Did not exit.");
+	}
+
+	private static final String JDBC_URL = "jdbc:h2:mem:etltooltest;DB_CLOSE_DELAY=-1";
+
+	private static void createFactsTable() throws SQLException {
+		try (Connection connection = DriverManager.getConnection(JDBC_URL); Statement statement = connection.createStatement()) {
+			statement.execute("CREATE TABLE IF NOT EXISTS facts (account VARCHAR(20), amount DOUBLE)");
+		}
+	}
+
+	@Test
+	public void testFileToCubeFromQuery() throws IOException, SQLException {
+		createFactsTable();
+		ETLClient etlClient = mockETLClient();
+		String[] args = buildCommand(new String[] {"--fromJdbc", JDBC_URL, "--fetchSize", "500",
+				"--file", "type=intersections;query=SELECT account AS \"_dim1_member\", amount AS \"_value\" FROM facts"});
+
+		ETLMetadataDTO metadata = Main.buildETLMetadata(args, etlClient);
+
+		ETLFileImportStepDTO step = metadata.getAllFileSteps().get(0);
+		assertEquals("SELECT account AS \"_dim1_member\", amount AS \"_value\" FROM facts", step.getSourceQuery());
+		assertEquals(JDBC_URL, etlClient.jdbcUrl);
+		assertEquals(500, etlClient.jdbcFetchSize);
+	}
+
+	@Test
+	public void testQueryWithoutValueColumn() throws UnsupportedEncodingException, SQLException {
+		createFactsTable();
+		ETLClient etlClient = mockETLClient();
+		String[] args = buildCommand(new String[] {"--fromJdbc", JDBC_URL,
+				"--file", "type=intersections;query=SELECT account AS \"_dim1_member\", amount FROM facts"});
+
+		try {
+			Main.buildETLMetadata(args, etlClient);
+		} catch (ExitException e) {
+			assertEquals(1, e.status);
+			assertEquals("Error: The results of the query can't be loaded as intersections: there is no _value column.", err.toString().trim());
+			return;
+		}
+		fail("Did not exit.");
+	}
+}
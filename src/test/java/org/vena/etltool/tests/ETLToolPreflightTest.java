@@ -0,0 +1,112 @@
+package org.vena.etltool.tests;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.Test;
+import org.vena.etltool.ETLClient;
+import org.vena.etltool.Main;
+import org.vena.etltool.entities.ETLFileImportStepDTO.FileFormat;
+import org.vena.etltool.entities.ETLMetadataDTO;
+import org.vena.etltool.entities.ETLStepDTO.DataType;
+
+public class ETLToolPreflightTest extends ETLToolTest {
+
+	private static String writeFile(String text) throws IOException {
+		File file = File.createTempFile("intersections", ".csv");
+		file.deleteOnExit();
+		Files.write(file.toPath(), text.getBytes(StandardCharsets.UTF_8));
+		return file.getPath();
+	}
+
+	@Test
+	public void testPreflight() throws IOException {
+		ETLClient etlClient = mockETLClient();
+		String fileName = writeFile("_dim1_member,_value\nSale,10\nExpense,20\n");
+		String[] args = buildCommand(new String[] {"--preflight", "--file", fileName + ";intersections"});
+
+		ETLMetadataDTO metadata = Main.buildETLMetadata(args, etlClient);
+
+		assertEquals(1, metadata.getAllFileSteps().size());
+		assertTrue(out.toString().contains("Checking " + fileName + "... OK (2 rows)."));
+	}
+
+	@Test
+	public void testPreflightFails() throws IOException {
+		ETLClient etlClient = mockETLClient();
+		String fileName = writeFile("_dim1_member,_value\nSale,10\nExpense,twenty\nSale\n");
+		String[] args = buildCommand(new String[] {"--preflight", "--maxPreflightErrors", "1", "--file", fileName + ";intersections"});
+
+		try {
+			Main.buildETLMetadata(args, etlClient);
+		} catch (ExitException e) {
+			assertEquals(1, e.status);
+			assertTrue(out.toString().contains("Checking " + fileName + "... stopped after 1 errors."));
+			assertEquals(fileName + ", line 3: _value \"twenty\" is not a number."
+					+ System.lineSeparator() + "Error: The files have errors, so the job was not submitted.", err.toString().trim());
+			return;
+		}
+		fail("Did not exit.");
+	}
+
+	@Test
+	public void testMaxPreflightErrorsRequiresPreflight() throws IOException {
+		ETLClient etlClient = mockETLClient();
+		String[] args = buildCommand(new String[] {"--maxPreflightErrors", "5", "--file", "intersections.csv;intersections"});
+
+		try {
+			Main.buildETLMetadata(args, etlClient);
+		} catch (ExitException e) {
+			assertEquals(1, e.status);
+			assertEquals("Error: --maxPreflightErrors can only be used with --preflight.", err.toString().trim());
+			return;
+		}
+		fail("Did not exit.");
+	}
+
+	@Test
+	public void testCheckMembers() throws IOException {
+		File cacheDir = Files.createTempDirectory("vena-etl").toFile();
+		System.setProperty("vena.etl.cacheDir", cacheDir.getPath());
+		try {
+			ETLClient etlClient = mockETLClient();
+			String hierarchy = "_Dimension Name,_Child Name,_Child Alias,_Parent Name,_Operator\n"
+					+ "Location,Cities,Cities,,+\nLocation,Ottawa,Ottawa,Cities,+\nAnimals,Squirrel,Squirrel,,+\n";
+			when(etlClient.sendExport(DataType.hierarchy, null, null, null, null, true, FileFormat.CSV))
+				.thenReturn(new ByteArrayInputStream(hierarchy.getBytes(StandardCharsets.UTF_8)));
+			String fileName = writeFile("_dim1_member,_dim2_member,_value\nOttawa,Squirrel,78\nToronto,Squirrel,1\nOttawa,Coyote,2\n");
+			String[] args = buildCommand(new String[] {"--preflight", "--checkMembers", "--file", fileName + ";intersections"});
+
+			try {
+				Main.buildETLMetadata(args, etlClient);
+				fail("Did not exit.");
+			} catch (ExitException e) {
+				assertEquals(1, e.status);
+				assertTrue(out.toString().contains("Fetching the members of the model... 3 members in 2 dimensions."));
+				assertEquals(fileName + ", line 3: _dim1_member \"Toronto\" is not a member of Location."
+						+ System.lineSeparator() + fileName + ", line 4: _dim2_member \"Coyote\" is not a member of Animals."
+						+ System.lineSeparator() + "Error: The files have errors, so the job was not submitted.", err.toString().trim());
+			}
+
+			// The members are kept, and a hierarchy file loaded in the same job adds to them.
+			String hierarchyName = writeFile("_Dimension Name,_Child Name,_Parent Name\nLocation,Toronto,Cities\nAnimals,Coyote,\n");
+			args = buildCommand(new String[] {"--preflight", "--checkMembers", "--file", hierarchyName + ";hierarchy", "--file", fileName + ";intersections"});
+			Main.buildETLMetadata(args, etlClient);
+			assertTrue(out.toString().contains("Using the members of the model fetched 0 minute(s) ago."));
+			verify(etlClient, times(1)).sendExport(DataType.hierarchy, null, null, null, null, true, FileFormat.CSV);
+		} finally {
+			System.clearProperty("vena.etl.cacheDir");
+			for (File members : new File(cacheDir, "members").listFiles()) {
+				members.delete();
+			}
+			new File(cacheDir, "members").delete();
+			cacheDir.delete();
+		}
+	}
+}
@@ -0,0 +1,147 @@
+package org.vena.etltool.tests;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.vena.etltool.ETLClient;
+import org.vena.etltool.Main;
+import org.vena.etltool.entities.ETLFileImportStepDTO;
+import org.vena.etltool.entities.ETLFileToCubeStepDTO;
+import org.vena.etltool.entities.ETLJobDTO;
+import org.vena.etltool.entities.ETLMetadataDTO;
+import org.vena.etltool.util.JsonReaders;
+
+public class ETLToolResumeJobTest extends ETLToolTest {
+
+	File first;
+	File second;
+
+	@Before
+	public void createFiles() throws IOException {
+		first = File.createTempFile("intersections", ".csv");
+		second = File.createTempFile("intersections", ".csv");
+		// The header is 20 bytes long, and each row 4.
+		Files.write(first.toPath(), "_dim1_member,_value\nA,1\nB,2\nC,3\nD,4\n".getBytes(StandardCharsets.UTF_8));
+		Files.write(second.toPath(), "_dim1_member,_value\nE,5\n".getBytes(StandardCharsets.UTF_8));
+	}
+
+	@After
+	public void deleteFiles() {
+		first.delete();
+		second.delete();
+	}
+
+	private static String step(File file, String status, int resumeLine) {
+		return "{\"stepType\":\"ETLFileToCubeStep\",\"fileName\":\"" + file.getPath() + "\",\"dataType\":\"intersections\","
+				+ "\"status\":\"" + status + "\",\"resumeLine\":" + resumeLine + "}";
+	}
+
+	private ETLClient mockFailedJob(String jobStatus, String... steps) throws IOException {
+		ETLClient etlClient = mockETLClient();
+		StringBuilder json = new StringBuilder("{\"id\":\"101\",\"status\":\"" + jobStatus + "\",\"metadata\":{\"steps\":[");
+		for (int i = 0; i < steps.length; i++) {
+			json.append(i > 0 ? "," : "").append(steps[i]);
+		}
+		json.append("]}}");
+		ETLJobDTO job = JsonReaders.forType(ETLJobDTO.class).readValue(json.toString());
+		when(etlClient.requestJobStatus("101")).thenReturn(job);
+		return etlClient;
+	}
+
+	@Test
+	public void testResumeFile() throws IOException {
+		ETLClient etlClient = mockFailedJob("ERROR", step(first, "ERROR", 3), step(second, "NOT_STARTED", 0));
+		String[] args = buildCommand(new String[] {"--resumeJob", "101",
+				"--file", first.getPath() + ";type=intersections;clearSlices=dimension('Year':'2019')",
+				"--file", second.getPath() + ";type=intersections;clearSlices=dimension('Year':'2019')"});
+
+		ETLMetadataDTO metadata = Main.buildETLMetadata(args, etlClient);
+
+		List<ETLFileImportStepDTO> steps = metadata.getAllFileSteps();
+		assertEquals(2, steps.size());
+		ETLFileToCubeStepDTO resumed = (ETLFileToCubeStepDTO) steps.get(0);
+		assertEquals(24, resumed.getPartOffset());
+		assertEquals(12, resumed.getPartLength());
+		assertEquals(20, resumed.getPartHeaderLength());
+		assertNull(resumed.getClearSlicesExpressions());
+
+		ETLFileToCubeStepDTO notStarted = (ETLFileToCubeStepDTO) steps.get(1);
+		assertFalse(notStarted.isFilePart());
+		assertEquals(Arrays.asList("dimension('Year':'2019')"), notStarted.getClearSlicesExpressions());
+		assertTrue(out.toString().contains("resuming at line 3."));
+	}
+
+	@Test
+	public void testResumeSplitFile() throws IOException {
+		ETLClient etlClient = mockFailedJob("ERROR", step(first, "COMPLETED", 0), step(first, "ERROR", 3), step(second, "COMPLETED", 0));
+		String[] args = buildCommand(new String[] {"--resumeJob", "101",
+				"--file", first.getPath() + ";type=intersections;split=2rows",
+				"--file", second.getPath() + ";type=intersections"});
+
+		ETLMetadataDTO metadata = Main.buildETLMetadata(args, etlClient);
+
+		// The second part starts with C on line 4 of the file, so line 3 of what it sent is D.
+		List<ETLFileImportStepDTO> steps = metadata.getAllFileSteps();
+		assertEquals(1, steps.size());
+		assertEquals(0, steps.get(0).getStepNumber());
+		assertEquals(32, steps.get(0).getPartOffset());
+		assertEquals(4, steps.get(0).getPartLength());
+		assertEquals(20, steps.get(0).getPartHeaderLength());
+	}
+
+	@Test
+	public void testResumeJobThatDidNotFail() throws IOException {
+		ETLClient etlClient = mockFailedJob("COMPLETED", step(first, "COMPLETED", 0));
+		String[] args = buildCommand(new String[] {"--resumeJob", "101", "--file", first.getPath() + ";type=intersections"});
+
+		try {
+			Main.buildETLMetadata(args, etlClient);
+		} catch (ExitException e) {
+			assertEquals(1, e.status);
+			assertEquals("Error: Job 101 has not failed, so there is nothing to resume.", err.toString().trim());
+			return;
+		}
+		fail("Did not exit.");
+	}
+
+	@Test
+	public void testResumeWithDifferentFiles() throws IOException {
+		ETLClient etlClient = mockFailedJob("ERROR", step(second, "ERROR", 2));
+		String[] args = buildCommand(new String[] {"--resumeJob", "101", "--file", first.getPath() + ";type=intersections"});
+
+		try {
+			Main.buildETLMetadata(args, etlClient);
+		} catch (ExitException e) {
+			assertEquals(1, e.status);
+			assertEquals("Error: Step 1 of job 101 does not load " + first.getPath() + " the same way as this import.", err.toString().trim());
+			return;
+		}
+		fail("Did not exit.");
+	}
+
+	@Test
+	public void testResumeMultiByteEncoding() throws IOException {
+		Files.write(first.toPath(), "_dim1_member,_value\nA,1\nB,2\n".getBytes(StandardCharsets.UTF_16));
+		ETLClient etlClient = mockFailedJob("ERROR", step(first, "ERROR", 2));
+		String[] args = buildCommand(new String[] {"--resumeJob", "101", "--file", first.getPath() + ";type=intersections;encoding=UTF-16"});
+
+		try {
+			Main.buildETLMetadata(args, etlClient);
+		} catch (ExitException e) {
+			assertEquals(1, e.status);
+			assertEquals("Error: " + first.getPath() + " can't be resumed part way through, because its encoding is UTF-16.", err.toString().trim());
+			return;
+		}
+		fail("Did not exit.");
+	}
+}
@@ -0,0 +1,92 @@
+package org.vena.etltool.tests;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.vena.etltool.ETLClient;
+import org.vena.etltool.Main;
+import org.vena.etltool.entities.ETLFileImportStepDTO;
+import org.vena.etltool.entities.ETLJobDTO;
+import org.vena.etltool.entities.ETLMetadataDTO;
+import org.vena.etltool.entities.ETLStepDTO.Status;
+import org.vena.etltool.entities.Id;
+
+public class ETLToolSkipUnchangedTest extends ETLToolTest {
+
+	File cacheDir;
+	File hierarchy;
+	File intersections;
+
+	@Before
+	public void createFiles() throws IOException {
+		cacheDir = Files.createTempDirectory("vena-etl").toFile();
+		System.setProperty("vena.etl.cacheDir", cacheDir.getPath());
+		hierarchy = File.createTempFile("hierarchy", ".csv");
+		intersections = File.createTempFile("intersections", ".csv");
+		Files.write(hierarchy.toPath(), "_dim,_member_name\nColor,Red\n".getBytes(StandardCharsets.UTF_8));
+		Files.write(intersections.toPath(), "_dim1_member,_value\nRed,1\n".getBytes(StandardCharsets.UTF_8));
+	}
+
+	@After
+	public void deleteFiles() {
+		System.clearProperty("vena.etl.cacheDir");
+		for (File file : cacheDir.listFiles()) {
+			file.delete();
+		}
+		cacheDir.delete();
+		hierarchy.delete();
+		intersections.delete();
+	}
+
+	private ETLMetadataDTO produce(ETLClient etlClient) throws IOException {
+		String[] args = buildCommand(new String[] {"--skipUnchanged",
+				"--file", hierarchy.getPath() + ";type=hierarchy",
+				"--file", intersections.getPath() + ";type=intersections"});
+		return Main.produceETLMetadata(etlClient, Main.parseCommandLineArgs(args));
+	}
+
+	@Test
+	public void testSkipUnchanged() throws IOException {
+		ETLClient etlClient = mockETLClient();
+		ETLMetadataDTO metadata = produce(etlClient);
+		assertEquals(2, metadata.getSteps().size());
+		Main.recordUploads(metadata, new Id(42), false);
+
+		ETLJobDTO job = new ETLJobDTO();
+		job.setStatus(Status.COMPLETED);
+		when(etlClient.tryRequestJobStatus("42")).thenReturn(job);
+		Files.write(intersections.toPath(), "_dim1_member,_value\nRed,2\n".getBytes(StandardCharsets.UTF_8));
+
+		metadata = produce(etlClient);
+		assertEquals(1, metadata.getSteps().size());
+		assertEquals(intersections.getPath(), ((ETLFileImportStepDTO) metadata.getSteps().get(0)).getFileName());
+		assertEquals(0, metadata.getSteps().get(0).getStepNumber());
+		assertTrue(out.toString().contains("Skipping " + hierarchy.getPath() + ", which hasn't changed since it was last loaded."));
+	}
+
+	@Test
+	public void testNothingChanged() throws IOException {
+		ETLClient etlClient = mockETLClient();
+		ETLMetadataDTO metadata = produce(etlClient);
+		Main.recordUploads(metadata, new Id(42), false);
+		Main.recordUploads(metadata, new Id(42), true);
+
+		try {
+			produce(etlClient);
+		} catch (ExitException e) {
+			assertEquals(0, e.status);
+			assertTrue(out.toString().contains("None of the files have changed since they were last loaded, so no job was submitted."));
+			verify(etlClient, never()).tryRequestJobStatus(anyString());
+			return;
+		}
+		fail("Did not exit.");
+	}
+}
@@ -1,8 +1,11 @@
 package org.vena.etltool.tests;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.mockito.Mockito.*;
 
+import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 
 import org.junit.Test;
@@ -11,6 +14,7 @@ import org.vena.etltool.Main;
 import org.vena.etltool.entities.ETLJobDTO;
 import org.vena.etltool.entities.ETLMetadataDTO;
 import org.vena.etltool.entities.ETLStepDTO.Status;
+import org.vena.etltool.util.JsonReaders;
 
 public class ETLToolStatusTest extends ETLToolTest {
 
@@ -33,6 +37,32 @@ public class ETLToolStatusTest extends ETLToolTest {
 		}
 	}
 	
+	@Test
+	public void testStatusOfSplitFile() throws IOException {
+		ETLClient etlClient = mockETLClient();
+		String part = "{\"stepType\":\"ETLFileToCubeStep\",\"fileName\":\"big.csv\",\"dataType\":\"intersections\",";
+		ETLJobDTO job = JsonReaders.forType(ETLJobDTO.class).readValue("{\"id\":\"101\",\"status\":\"ERROR\",\"metadata\":{\"steps\":["
+				+ part + "\"stepNumber\":0,\"status\":\"COMPLETED\",\"percentDone\":100,\"linesProcessed\":200},"
+				+ part + "\"stepNumber\":1,\"status\":\"ERROR\",\"percentDone\":50,\"linesProcessed\":100,\"resumeLine\":101},"
+				+ part + "\"stepNumber\":2,\"status\":\"NOT_STARTED\"},"
+				+ "{\"stepType\":\"ETLFileToCubeStep\",\"fileName\":\"small.csv\",\"dataType\":\"intersections\",\"stepNumber\":3}]}}");
+		when(etlClient.requestJobStatus("101")).thenReturn(job);
+
+		String[] args = buildCommand(new String[] {"--status", "--jobId", "101"});
+
+		try {
+			Main.buildETLMetadata(args, etlClient);
+		} catch (ExitException e) {
+			assertEquals(0, e.status);
+			String output = out.toString();
+			assertTrue(output.contains("   - 0-2. Importing File \"big.csv\" (intersections) in 3 parts: ERROR (50% Done) (Processed 300 lines)"));
+			assertTrue(output.contains("       part 2: ERROR (Resume at 101 lines)"));
+			assertTrue(output.contains("   - 3. Importing File \"small.csv\" (intersections): NOT_STARTED"));
+			return;
+		}
+		fail("Did not exit.");
+	}
+
 	@Test
 	public void testStatusMissingJobId() throws UnsupportedEncodingException {
 		ETLClient etlClient = mockETLClient();
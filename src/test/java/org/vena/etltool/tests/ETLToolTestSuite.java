@@ -26,7 +26,15 @@ import org.junit.runners.Suite.SuiteClasses;
 	ETLToolCreateModelTest.class,
 	ETLToolQueuingTest.class,
 	ETLToolRunChannelTest.class,
-	ETLToolClearSlicesTest.class
+	ETLToolClearSlicesTest.class,
+	ETLToolUploadThreadsTest.class,
+	ETLToolCompressionTest.class,
+	ETLToolWatchJobsTest.class,
+	ETLToolBatchTest.class,
+	ETLToolConnectionTest.class,
+	ETLToolPreflightTest.class,
+	ETLToolResumeJobTest.class,
+	ETLToolSkipUnchangedTest.class
 })
 public class ETLToolTestSuite {
 
@@ -0,0 +1,66 @@
+package org.vena.etltool.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.UnsupportedEncodingException;
+
+import org.junit.Test;
+import org.vena.etltool.ETLClient;
+import org.vena.etltool.Main;
+import org.vena.etltool.entities.ETLMetadataDTO;
+
+public class ETLToolUploadThreadsTest extends ETLToolTest {
+
+	@Test
+	public void testUploadThreads() throws UnsupportedEncodingException {
+		ETLClient etlClient = mockETLClient();
+		String[] args = buildCommand(new String[] {"--uploadThreads", "4", "--file", "intersections.csv;intersections", "--file", "lids.csv;lids"});
+
+		ETLMetadataDTO metadata = Main.buildETLMetadata(args, etlClient);
+
+		assertEquals(4, etlClient.uploadThreads);
+		assertEquals(2, metadata.getSteps().size());
+	}
+
+	@Test
+	public void testInvalidUploadThreads() throws UnsupportedEncodingException {
+		ETLClient etlClient = mockETLClient();
+		String[] args = buildCommand(new String[] {"--uploadThreads", "zero", "--file", "intersections.csv;intersections"});
+
+		try {
+			Main.buildETLMetadata(args, etlClient);
+		} catch (ExitException e) {
+			assertEquals(1, e.status);
+			assertEquals("Error: --uploadThreads must be a positive number.", err.toString().trim());
+			return;
+		}
+		fail("Did not exit.");
+	}
+
+	@Test
+	public void testMaxUploadRate() throws UnsupportedEncodingException {
+		ETLClient etlClient = mockETLClient();
+		String[] args = buildCommand(new String[] {"--maxUploadRate", "2.5", "--uploadRateFile", "rate.txt", "--file", "intersections.csv;intersections"});
+
+		Main.buildETLMetadata(args, etlClient);
+
+		assertEquals(5 * 512 * 1024, etlClient.maxUploadBytesPerSecond);
+		assertEquals("rate.txt", etlClient.uploadRateFile.getPath());
+	}
+
+	@Test
+	public void testInvalidMaxUploadRate() throws UnsupportedEncodingException {
+		ETLClient etlClient = mockETLClient();
+		String[] args = buildCommand(new String[] {"--maxUploadRate", "0", "--file", "intersections.csv;intersections"});
+
+		try {
+			Main.buildETLMetadata(args, etlClient);
+		} catch (ExitException e) {
+			assertEquals(1, e.status);
+			assertEquals("Error: --maxUploadRate must be a positive number of MB/s.", err.toString().trim());
+			return;
+		}
+		fail("Did not exit.");
+	}
+}
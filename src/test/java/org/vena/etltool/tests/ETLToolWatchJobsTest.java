@@ -0,0 +1,129 @@
+package org.vena.etltool.tests;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.junit.Test;
+import org.vena.etltool.ETLClient;
+import org.vena.etltool.Main;
+import org.vena.etltool.entities.ETLFileToCubeStepDTO;
+import org.vena.etltool.entities.ETLJobDTO;
+import org.vena.etltool.entities.ETLJobDTO.Phase;
+import org.vena.etltool.entities.ETLMetadataDTO;
+import org.vena.etltool.entities.Id;
+
+public class ETLToolWatchJobsTest extends ETLToolTest {
+
+	private static ETLJobDTO job(String id, Phase phase, boolean error) {
+		ETLFileToCubeStepDTO step = new ETLFileToCubeStepDTO();
+		step.setFileName("intersections.csv");
+		step.setPercentDone(phase == Phase.COMPLETE ? 100 : 50);
+		ETLMetadataDTO metadata = new ETLMetadataDTO();
+		metadata.addStep(step);
+
+		ETLJobDTO etlJob = new ETLJobDTO();
+		etlJob.setId(Id.valueOf(id));
+		etlJob.setPhase(phase);
+		etlJob.setError(error);
+		etlJob.setMetadata(metadata);
+		if (error) {
+			etlJob.setErrorMessage("Unknown member Squirrel");
+		}
+		return etlJob;
+	}
+
+	@Test
+	public void testWatchJobs() throws UnsupportedEncodingException {
+		ETLClient etlClient = mockETLClient();
+		when(etlClient.tryRequestJobStatus("101")).thenReturn(job("101", Phase.COMPLETE, false));
+		when(etlClient.tryRequestJobStatus("102")).thenReturn(job("102", Phase.COMPLETE, false));
+		String[] args = buildCommand(new String[] {"--watchJobs", "101,102,101"});
+
+		try {
+			Main.buildETLMetadata(args, etlClient);
+		} catch (ExitException e) {
+			assertEquals(0, e.status);
+			assertTrue(out.toString().contains("2 job(s) finished, 0 failed."));
+			verify(etlClient, times(1)).tryRequestJobStatus("101");
+			verify(etlClient, times(1)).tryRequestJobStatus("102");
+			return;
+		}
+		fail("Did not exit.");
+	}
+
+	@Test
+	public void testWatchJobsWithFailure() throws UnsupportedEncodingException {
+		ETLClient etlClient = mockETLClient();
+		when(etlClient.tryRequestJobStatus("101")).thenReturn(job("101", Phase.COMPLETE, false));
+		when(etlClient.tryRequestJobStatus("102")).thenReturn(job("102", Phase.LOAD_TO_CUBE, false), job("102", Phase.LOAD_TO_CUBE, true));
+		String[] args = buildCommand(new String[] {"--watchJobs", "101,102"});
+
+		try {
+			Main.buildETLMetadata(args, etlClient);
+		} catch (ExitException e) {
+			assertEquals(1, e.status);
+			assertTrue(out.toString().contains("2 job(s) finished, 1 failed."));
+			assertTrue(out.toString().contains("Unknown member Squirrel"));
+			return;
+		}
+		fail("Did not exit.");
+	}
+
+	@Test
+	public void testWaitStopsAtStaging() throws UnsupportedEncodingException {
+		ETLClient etlClient = mockETLClient();
+		when(etlClient.tryRequestJobStatus("101")).thenReturn(job("101", Phase.IN_STAGING, false));
+		String[] args = buildCommand(new String[] {"--watchJobs", "101", "--wait"});
+
+		try {
+			Main.buildETLMetadata(args, etlClient);
+		} catch (ExitException e) {
+			assertEquals(0, e.status);
+			return;
+		}
+		fail("Did not exit.");
+	}
+
+	@Test
+	public void testJobIdsFile() throws IOException {
+		ETLClient etlClient = mockETLClient();
+		when(etlClient.tryRequestJobStatus(anyString())).thenReturn(job("101", Phase.COMPLETE, false));
+
+		File file = File.createTempFile("jobIds", ".txt");
+		file.deleteOnExit();
+		Files.write(file.toPath(), Arrays.asList("# nightly batch", "101", "102", "", "103"), StandardCharsets.UTF_8);
+
+		String[] args = buildCommand(new String[] {"--jobIdsFile", file.getPath()});
+
+		try {
+			Main.buildETLMetadata(args, etlClient);
+		} catch (ExitException e) {
+			assertEquals(0, e.status);
+			assertTrue(out.toString().contains("3 job(s) finished, 0 failed."));
+			return;
+		}
+		fail("Did not exit.");
+	}
+
+	@Test
+	public void testInvalidJobId() throws UnsupportedEncodingException {
+		ETLClient etlClient = mockETLClient();
+		String[] args = buildCommand(new String[] {"--watchJobs", "101,abc"});
+
+		try {
+			Main.buildETLMetadata(args, etlClient);
+		} catch (ExitException e) {
+			assertEquals(1, e.status);
+			assertEquals("Error: \"abc\" is not a valid job ID.", err.toString().trim());
+			return;
+		}
+		fail("Did not exit.");
+	}
+}
@@ -0,0 +1,47 @@
+package org.vena.etltool.util;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.junit.Test;
+import org.vena.etltool.entities.ETLFileToCubeStepDTO;
+import org.vena.etltool.entities.ETLJobDTO;
+import org.vena.etltool.entities.ModelResponseDTO;
+
+public class JsonReadersTest {
+
+	private static ByteArrayInputStream json(String json) {
+		return new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void testReadersAreShared() {
+		assertSame(JsonReaders.forType(ETLJobDTO.class), JsonReaders.forType(ETLJobDTO.class));
+		assertSame(JsonReaders.forListOf(ModelResponseDTO.class), JsonReaders.forListOf(ModelResponseDTO.class));
+		assertNotSame(JsonReaders.forType(ETLJobDTO.class), JsonReaders.forListOf(ETLJobDTO.class));
+	}
+
+	@Test
+	public void testReadIgnoresUnknownProperties() throws IOException {
+		ETLJobDTO etlJob = JsonReaders.forType(ETLJobDTO.class).readValue(json(
+				"{\"id\":\"101\",\"phase\":\"LOAD_TO_CUBE\",\"somethingNew\":true,"
+				+ "\"metadata\":{\"steps\":[{\"stepType\":\"ETLFileToCubeStep\",\"fileName\":\"a.csv\",\"percentDone\":40}]}}"));
+
+		assertEquals("101", etlJob.getId().toString());
+		assertEquals(ETLJobDTO.Phase.LOAD_TO_CUBE, etlJob.getPhase());
+		assertEquals("a.csv", ((ETLFileToCubeStepDTO) etlJob.getMetadata().getSteps().get(0)).getFileName());
+	}
+
+	@Test
+	public void testReadList() throws IOException {
+		List<ModelResponseDTO> models = JsonReaders.forListOf(ModelResponseDTO.class).readValue(json(
+				"[{\"id\":\"1\",\"name\":\"Budget\"},{\"id\":\"2\",\"name\":\"Forecast\"}]"));
+
+		assertEquals(2, models.size());
+		assertEquals("Forecast", models.get(1).getName());
+	}
+}
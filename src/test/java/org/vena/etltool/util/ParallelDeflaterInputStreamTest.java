@@ -0,0 +1,98 @@
+package org.vena.etltool.util;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterInputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.junit.AfterClass;
+import org.junit.Test;
+
+public class ParallelDeflaterInputStreamTest {
+
+	private static final ForkJoinPool pool = new ForkJoinPool(4);
+
+	@AfterClass
+	public static void shutdownPool() {
+		pool.shutdown();
+	}
+
+	private static byte[] readFully(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buf = new byte[8192];
+		int n;
+		while ((n = in.read(buf)) != -1) {
+			out.write(buf, 0, n);
+		}
+		in.close();
+		return out.toByteArray();
+	}
+
+	private static byte[] csvContent(int lines) throws IOException {
+		Random random = new Random(42);
+		StringBuilder buf = new StringBuilder("_dim1_member,_dim2_member,_value\n");
+		for (int i = 0; i < lines; i++) {
+			buf.append("Member").append(random.nextInt(500)).append(",Account").append(random.nextInt(50))
+				.append(",").append(random.nextInt(100000)).append("\n");
+		}
+		return buf.toString().getBytes("UTF-8");
+	}
+
+	private static byte[] roundTrip(byte[] content, int level, int blockSize) throws IOException {
+		InputStream compressed = new ParallelDeflaterInputStream(new ByteArrayInputStream(content), level, blockSize, pool);
+		return readFully(new InflaterInputStream(new ByteArrayInputStream(readFully(compressed))));
+	}
+
+	@Test
+	public void testRoundTripAcrossManyBlocks() throws IOException {
+		byte[] content = csvContent(20000);
+		assertArrayEquals(content, roundTrip(content, Deflater.DEFAULT_COMPRESSION, 4096));
+	}
+
+	@Test
+	public void testGzipRoundTrip() throws IOException {
+		byte[] content = csvContent(20000);
+		InputStream compressed = new ParallelDeflaterInputStream(new ByteArrayInputStream(content), Deflater.BEST_SPEED, 4096, pool, true);
+		assertArrayEquals(content, readFully(new GZIPInputStream(new ByteArrayInputStream(readFully(compressed)))));
+	}
+
+	@Test
+	public void testRoundTripAllLevels() throws IOException {
+		byte[] content = csvContent(2000);
+		for (int level = Deflater.NO_COMPRESSION; level <= Deflater.BEST_COMPRESSION; level++) {
+			assertArrayEquals("level " + level, content, roundTrip(content, level, 10000));
+		}
+	}
+
+	@Test
+	public void testBlocksSmallerThanDictionary() throws IOException {
+		byte[] content = csvContent(5000);
+		assertArrayEquals(content, roundTrip(content, Deflater.BEST_SPEED, 1000));
+	}
+
+	@Test
+	public void testEmptyInput() throws IOException {
+		assertArrayEquals(new byte[0], roundTrip(new byte[0], Deflater.DEFAULT_COMPRESSION, 4096));
+	}
+
+	@Test
+	public void testCompressionComparableToSingleThreaded() throws IOException {
+		byte[] content = csvContent(50000);
+		byte[] parallel = readFully(new ParallelDeflaterInputStream(new ByteArrayInputStream(content), Deflater.DEFAULT_COMPRESSION, 64 * 1024, pool));
+		byte[] sequential = readFully(new DeflaterInputStream(new ByteArrayInputStream(content)));
+		assertTrue(parallel.length < sequential.length * 1.05);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidLevel() {
+		new ParallelDeflaterInputStream(new ByteArrayInputStream(new byte[0]), 10);
+	}
+}
@@ -0,0 +1,123 @@
+package org.vena.etltool.util;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.AfterClass;
+import org.junit.Test;
+
+public class TranscodingInputStreamTest {
+
+	private static final ForkJoinPool pool = new ForkJoinPool(4);
+
+	@AfterClass
+	public static void shutdownPool() {
+		pool.shutdown();
+	}
+
+	private static byte[] readFully(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buf = new byte[8192];
+		int n;
+		while ((n = in.read(buf)) != -1) {
+			out.write(buf, 0, n);
+		}
+		in.close();
+		return out.toByteArray();
+	}
+
+	private static String csvContent(int lines, String... accents) {
+		Random random = new Random(42);
+		StringBuilder buf = new StringBuilder("_dim1_member,_dim2_member,_value\n");
+		for (int i = 0; i < lines; i++) {
+			buf.append("Member").append(random.nextInt(500)).append(accents[random.nextInt(accents.length)])
+				.append(",Account").append(random.nextInt(50)).append(",").append(random.nextInt(100000)).append("\n");
+		}
+		return buf.toString();
+	}
+
+	private static byte[] transcode(byte[] content, Charset charset, int blockSize) throws IOException {
+		return readFully(new TranscodingInputStream(new ByteArrayInputStream(content), charset, "test.csv", blockSize, pool));
+	}
+
+	private static byte[] concat(byte[] a, byte[] b) {
+		byte[] result = Arrays.copyOf(a, a.length + b.length);
+		System.arraycopy(b, 0, result, a.length, b.length);
+		return result;
+	}
+
+	@Test
+	public void testAcrossManyBlocks() throws IOException {
+		String[] candidates = {"\u00e9", "\u00fc", "\u20ac", "\u65e5", "\uD83D\uDE00", "x"};
+		for (String name : new String[] {"UTF-8", "UTF-16LE", "UTF-16BE", "UTF-32LE", "windows-1252", "Shift_JIS", "GB18030"}) {
+			Charset charset = Charset.forName(name);
+			List<String> accents = new ArrayList<>();
+			for (String candidate : candidates) {
+				if (charset.newEncoder().canEncode(candidate)) {
+					accents.add(candidate);
+				}
+			}
+			String text = csvContent(5000, accents.toArray(new String[0]));
+			// A block size that isn't a multiple of the character size cuts through characters.
+			assertEquals(name, text, new String(transcode(text.getBytes(charset), charset, 1001), StandardCharsets.UTF_8));
+		}
+	}
+
+	@Test
+	public void testByteOrderMarkIsDropped() throws IOException {
+		String text = csvContent(100, "\u00e9", "x");
+		byte[] utf16 = concat(new byte[] {(byte) 0xFF, (byte) 0xFE}, text.getBytes(StandardCharsets.UTF_16LE));
+		assertEquals(StandardCharsets.UTF_16LE, TranscodingInputStream.detect(utf16, utf16.length, null));
+		assertEquals(StandardCharsets.UTF_16LE, TranscodingInputStream.detect(utf16, utf16.length, "UTF-16"));
+		assertArrayEquals(text.getBytes(StandardCharsets.UTF_8), transcode(utf16, StandardCharsets.UTF_16LE, 64));
+
+		byte[] utf8 = concat(new byte[] {(byte) 0xEF, (byte) 0xBB, (byte) 0xBF}, text.getBytes(StandardCharsets.UTF_8));
+		assertEquals(StandardCharsets.UTF_8, TranscodingInputStream.detect(utf8, utf8.length, null));
+		assertArrayEquals(text.getBytes(StandardCharsets.UTF_8), transcode(utf8, StandardCharsets.UTF_8, 64));
+	}
+
+	@Test
+	public void testDetect() {
+		byte[] utf8 = "a,\u00e9,1\n".getBytes(StandardCharsets.UTF_8);
+		assertEquals(StandardCharsets.UTF_8, TranscodingInputStream.detect(utf8, utf8.length, null));
+		// A sample that ends part way through a character is still UTF-8.
+		assertEquals(StandardCharsets.UTF_8, TranscodingInputStream.detect(utf8, 3, null));
+
+		byte[] windows1252 = "a,\u00e9,1\n".getBytes(TranscodingInputStream.WINDOWS_1252);
+		assertEquals(TranscodingInputStream.WINDOWS_1252, TranscodingInputStream.detect(windows1252, windows1252.length, null));
+		assertEquals(StandardCharsets.ISO_8859_1, TranscodingInputStream.detect(windows1252, windows1252.length, "ISO-8859-1"));
+		assertEquals(StandardCharsets.UTF_16BE, TranscodingInputStream.detect(windows1252, windows1252.length, "UTF-16"));
+	}
+
+	@Test
+	public void testMalformedTextLine() throws IOException {
+		StringBuilder text = new StringBuilder("_dim1_member,_value\n");
+		for (int i = 2; i < 1000; i++) {
+			text.append("M").append(i).append(",1\n");
+		}
+		byte[] bytes = text.toString().getBytes(StandardCharsets.UTF_8);
+		// A lone continuation byte on line 700, in a later block than the first.
+		int offset = text.indexOf("M700,");
+		bytes[offset + 1] = (byte) 0x80;
+
+		try {
+			transcode(bytes, StandardCharsets.UTF_8, 256);
+		} catch (TranscodingInputStream.MalformedTextException e) {
+			assertEquals(700, e.getLine());
+			assertEquals("test.csv is not valid UTF-8 text at line 700.", e.getMessage());
+			return;
+		}
+		fail("Malformed text was not reported.");
+	}
+}